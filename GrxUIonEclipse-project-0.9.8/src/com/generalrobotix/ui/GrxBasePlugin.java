@@ -31,6 +31,7 @@ import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.resource.ImageRegistry;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -330,10 +331,15 @@ public class GrxBasePlugin extends GrxConfigBundle {
 
     /**
      * @brief Transfer SWT UI thread
+     * Without a running workbench (headless) there is no UI thread, so r is run in the calling thread.
      * @param r Runnable instance
      * @return boolean Syncable current display
      */
     protected boolean syncExec(Runnable r) {
+        if (!PlatformUI.isWorkbenchRunning()) {
+            r.run();
+            return true;
+        }
         Display display = Display.getDefault();
         if (display != null && !display.isDisposed()) {
             display.syncExec(r);
@@ -200,6 +200,8 @@ public class GrxPluginManager implements IPropertyChangeListener {
      * @return true if visible, false otherwise
      */
     private boolean isPerspectiveVisible() {
+        if (!PlatformUI.isWorkbenchRunning())
+            return false;
         IWorkbench workbench = PlatformUI.getWorkbench();
         IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
         if (window == null)
@@ -219,6 +221,9 @@ public class GrxPluginManager implements IPropertyChangeListener {
      */
     private void updateActiveViewList() {
         activeViewList_.clear();
+        // ワークベンチ無しで実行している場合はビューが無い
+        if (!PlatformUI.isWorkbenchRunning())
+            return;
         
         Display display = Display.getDefault();
         display.syncExec(new Runnable(){
@@ -253,6 +258,8 @@ public class GrxPluginManager implements IPropertyChangeListener {
 
     private void updateViewList() {
         viewList_.clear();
+        if (!PlatformUI.isWorkbenchRunning())
+            return;
         
         Display display = Display.getDefault();
         display.syncExec(new Runnable(){
@@ -17,24 +17,31 @@
  */
 package com.generalrobotix.ui;
 
-import java.util.ArrayList;
-import java.util.ListIterator;
-
 
 /**
  * series of timed objects
  */
 public abstract class GrxTimeSeriesItem extends GrxBaseItem {
-	private ArrayList<TValue> log_ = new ArrayList<TValue>();
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int INTERPOLATION_PROBES = 4;
+
+	// ring buffer of timed objects. Position 0 is the oldest object and is stored at head_.
+	// The buffer grows until maxLogSize_, and then the oldest object is overwritten.
+	// time NaN means the time is not known yet (see getTime(int)).
+	private double[] times_ = new double[0];
+	private Object[] values_ = new Object[0];
+	private int head_ = 0;
+	private int size_ = 0;
+	private long evicted_ = 0; // number of objects removed from the top
+	private boolean sorted_ = true; // times are added in non-decreasing order
+	private double lastTime_ = Double.NEGATIVE_INFINITY;
 	private int maxLogSize_ = 1000000;
 	private int currentPos_ = -1;
 	private boolean bRemoved = false;
-    protected int overPos_ = 0;
-    protected int changePos_ = -1;
     
 	public class TValue {
-		private Double time;
-        private Object value;
+		private final Double time;
+        private final Object value;
 		TValue(Double t, Object v) {
 			time = t;
 			value = v;
@@ -65,36 +72,79 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	}
 	
 	protected boolean setPosition(int pos){
-		if (0 <= pos && pos < log_.size()){
+		if (0 <= pos && pos < getLogSize()){
 			currentPos_ = pos;
 			return true;
 		}else
 			return false;
 	}
 	
-    /**
-     * get position of pointer switched the method of momory to the method of disk 
-     * @return 
-     */
-    public int getChangePosition() {
-        return changePos_;
-    }
 	/**
 	 * get position of timed object which is nearest to the specified time.
 	 * If there is no object in this series -1 is returned. 
 	 */
 	public int getPositionAt(Double t){
-		if (getLogSize() == 0) return -1;
-		int pos = 0;
-		Double dt = Math.abs(t - getTime(pos));
-		for (int i=1; i<getLogSize(); i++){
-			Double new_dt = Math.abs(t - getTime(i));
-			if (new_dt < dt){
-				dt = new_dt;
-				pos = i;
-			}
-		}
-		return pos;
+		return getNearestPosition(t);
+	}
+
+	/**
+	 * get position of the last object whose time is less than or equal to the specified time.
+	 * @param t time
+	 * @return position, or -1 if there is no such object
+	 */
+	public int getFloorPosition(double t) {
+		if (!sorted_)
+			return _scan(t, -1);
+		return _floor(t);
+	}
+
+	/**
+	 * get position of the first object whose time is greater than or equal to the specified time.
+	 * @param t time
+	 * @return position, or -1 if there is no such object
+	 */
+	public int getCeilPosition(double t) {
+		if (!sorted_)
+			return _scan(t, 1);
+		// next to the last object whose time is less than t
+		int pos = _floor(Math.nextAfter(t, Double.NEGATIVE_INFINITY)) + 1;
+		return pos < getLogSize() ? pos : -1;
+	}
+
+	/**
+	 * get position of the object whose time is nearest to the specified time.
+	 * If two objects are equally near, the earlier one is returned.
+	 * @param t time
+	 * @return position, or -1 if this series is empty
+	 */
+	public int getNearestPosition(double t) {
+		if (getLogSize() == 0)
+			return -1;
+		if (!sorted_)
+			return _scan(t, 0);
+		int floor = _floor(t);
+		if (floor < 0)
+			return 0;
+		if (floor + 1 < getLogSize() && t - _timeAt(floor) > _timeAt(floor + 1) - t)
+			return floor + 1;
+		// the first one of the objects which have the same time
+		return getCeilPosition(_timeAt(floor));
+	}
+
+	/**
+	 * get range of positions whose time is in [t0, t1].
+	 * @param t0 start time
+	 * @param t1 end time
+	 * @return {first position, last position}, or null if no object is in the range
+	 */
+	public int[] getPositionRange(double t0, double t1) {
+		if (t0 > t1)
+			return null;
+		int first = getCeilPosition(t0);
+		int last = getFloorPosition(t1);
+		if (first < 0 || last < 0 || first > last)
+			return null;
+		return new int[]{ first, last };
 	}
 	
 	/**
@@ -103,8 +153,12 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	 * @param t time
 	 */
 	public void setTimeAt(int pos, Double t) {
-		if (0 <= pos && pos < log_.size())
-			log_.get(pos).time = t;
+		if (0 <= pos && pos < getLogSize()) {
+			double time = t == null ? Double.NaN : t.doubleValue();
+			_setTime(pos, time);
+			if (!Double.isNaN(time))
+				_checkOrder(pos, time);
+		}
 	}
 
 	/**
@@ -121,8 +175,10 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	 * @return time
 	 */
 	public Double getTime(int pos) {
-		if (0 <= pos && pos < log_.size())
-			return log_.get(pos).time;
+		if (0 <= pos && pos < getLogSize()){
+			double t = _getTime(pos);
+			return Double.isNaN(t) ? null : t;
+		}
 		return null;
 	}
 	
@@ -132,12 +188,30 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	 * @param val object
 	 */
 	public void addValue(Double t, Object val) {
-		TValue tv = new TValue(t,val);
-		log_.add(tv);
-		if (maxLogSize_ > 0 && log_.size() > maxLogSize_){
-            log_.remove(0);
-            bRemoved = true;
-        }
+		addTimedValue(t == null ? Double.NaN : t.doubleValue(), val);
+	}
+
+	/**
+	 * add timed object to this series without boxing the time
+	 * @param time time (NaN if not known yet)
+	 * @param val object
+	 */
+	protected final void addTimedValue(double time, Object val) {
+		if (maxLogSize_ > 0 && size_ >= maxLogSize_){
+			// overwrite the oldest object
+			_evict(size_ - maxLogSize_ + 1);
+		}
+		if (size_ == times_.length)
+			_grow(Math.max(INITIAL_CAPACITY, times_.length * 2));
+		int index = _index(size_);
+		times_[index] = time;
+		values_[index] = val;
+		size_++;
+		if (!Double.isNaN(time)) {
+			if (time < lastTime_)
+				sorted_ = false;
+			lastTime_ = time;
+		}
 	}
 	
 	/**
@@ -155,11 +229,22 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	 * @return object
 	 */
 	public Object getValue(int pos) {
-		if (0 <= pos && pos < log_.size())
-			return log_.get(pos).value;
+		if (0 <= pos && pos < size_)
+			return values_[_index(pos)];
 		return null;
 	}
 
+	/**
+	 * reserve space so that adding objects up to the specified length does not reallocate
+	 * @param capacity expected length (limited to the maximum length)
+	 */
+	public final void ensureCapacity(int capacity) {
+		if (maxLogSize_ > 0)
+			capacity = Math.min(capacity, maxLogSize_);
+		if (capacity > times_.length)
+			_grow(capacity);
+	}
+
 	/**
 	 * set maximum length of this series
 	 * @param maxLogSize maximum length
@@ -167,6 +252,8 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	public final void setMaximumLogSize(int maxLogSize) {
 		if (maxLogSize > 0) {
 			maxLogSize_ = maxLogSize;
+			if (size_ > maxLogSize_)
+				_evict(size_ - maxLogSize_);
 		}
 	}
 
@@ -175,7 +262,16 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	 * @return length
 	 */
 	public final int getLogSize() {
-		return log_.size();
+		return size_;
+	}
+
+	/**
+	 * get number of objects removed from the top of this series because it was full.
+	 * (getEvictedCount() + position) identifies an object regardless of later removals.
+	 * @return number of removed objects
+	 */
+	public final long getEvictedCount() {
+		return evicted_;
 	}
 
 	/**
@@ -183,15 +279,19 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
 	 */
 	public void clearLog() {
 		currentPos_ = -1;
-        overPos_ = 0;
-        changePos_ = -1;
         bRemoved = false;
-		log_.clear();
+		times_ = new double[0];
+		values_ = new Object[0];
+		head_ = 0;
+		size_ = 0;
+		evicted_ = 0;
+		sorted_ = true;
+		lastTime_ = Double.NEGATIVE_INFINITY;
 		System.gc();
 	}
 
     /**
-     * get remoded top value in log_ or not
+     * get remoded top value in this series or not
      */
     protected boolean isRemoved() {
         return  bRemoved;
@@ -201,6 +301,134 @@ public abstract class GrxTimeSeriesItem extends GrxBaseItem {
      * get TValue
      */
     protected TValue getObject(int index) {
-        return  log_.get(index);
+        if (index < 0 || index >= size_)
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size_); //$NON-NLS-1$ //$NON-NLS-2$
+        return  new TValue(getTime(index), values_[_index(index)]);
+    }
+
+    private int _index(int pos) {
+        int index = head_ + pos;
+        return index < times_.length ? index : index - times_.length;
+    }
+
+    private double _getTime(int pos) {
+        return times_[_index(pos)];
+    }
+
+    private void _setTime(int pos, double t) {
+        times_[_index(pos)] = t;
+    }
+
+    /**
+     * update sorted_ and lastTime_ after the time at pos was set to t.
+     * Only the adjacent objects are compared, so that resolving unknown times
+     * one by one (e.g. during a search) does not scan the series.
+     */
+    private void _checkOrder(int pos, double t) {
+        if (pos > 0 && t < _getTime(pos - 1))
+            sorted_ = false;
+        if (pos + 1 < size_ && _getTime(pos + 1) < t)
+            sorted_ = false;
+        if (pos == size_ - 1 || t > lastTime_)
+            lastTime_ = t;
+    }
+
+    /**
+     * enlarge the capacity (up to maxLogSize_) and unwrap the ring
+     */
+    private void _grow(int capacity) {
+        if (maxLogSize_ > 0 && capacity > maxLogSize_)
+            capacity = Math.max(maxLogSize_, size_ + 1);
+        double[] times = new double[capacity];
+        Object[] values = new Object[capacity];
+        int n = Math.min(size_, times_.length - head_);
+        System.arraycopy(times_, head_, times, 0, n);
+        System.arraycopy(times_, 0, times, n, size_ - n);
+        System.arraycopy(values_, head_, values, 0, n);
+        System.arraycopy(values_, 0, values, n, size_ - n);
+        times_ = times;
+        values_ = values;
+        head_ = 0;
+    }
+
+    /**
+     * remove n objects from the top
+     */
+    private void _evict(int n) {
+        for (int i=0; i<n; i++) {
+            values_[head_] = null;
+            if (++head_ == times_.length)
+                head_ = 0;
+        }
+        size_ -= n;
+        evicted_ += n;
+        bRemoved = true;
+    }
+
+    /**
+     * time at pos. Unknown times are resolved by getTime(int) of the subclass.
+     */
+    private double _timeAt(int pos) {
+        double t = _getTime(pos);
+        if (Double.isNaN(t)) {
+            Double d = getTime(pos);
+            if (d != null)
+                t = d.doubleValue();
+        }
+        return t;
+    }
+
+    /**
+     * position of the last object whose time is <= t, assuming times are non-decreasing.
+     * The first probes interpolate between the bounds, which finds the position
+     * in a few steps when the time step is constant. Then binary search is used.
+     */
+    private int _floor(double t) {
+        int lo = 0, hi = getLogSize() - 1;
+        if (hi < 0 || !(_timeAt(0) <= t))
+            return -1;
+        double tlo = _timeAt(lo), thi = _timeAt(hi);
+        if (thi <= t)
+            return hi;
+        // invariant: time(lo) <= t < time(hi)
+        for (int probe = 0; hi - lo > 1; probe++) {
+            int mid;
+            if (probe < INTERPOLATION_PROBES && thi > tlo) {
+                mid = lo + (int)((t - tlo) / (thi - tlo) * (hi - lo));
+                if (mid <= lo) mid = lo + 1;
+                if (mid >= hi) mid = hi - 1;
+            } else {
+                mid = (lo + hi) >>> 1;
+            }
+            double tm = _timeAt(mid);
+            if (tm <= t) {
+                lo = mid;
+                tlo = tm;
+            } else {
+                hi = mid;
+                thi = tm;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * linear search used when times are not sorted.
+     * @param dir -1: floor, 1: ceil, 0: nearest
+     */
+    private int _scan(double t, int dir) {
+        int pos = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i=0; i<getLogSize(); i++){
+            double d = _timeAt(i) - t;
+            if (dir < 0 && d > 0 || dir > 0 && d < 0 || Double.isNaN(d))
+                continue;
+            d = Math.abs(d);
+            if (d < best){
+                best = d;
+                pos = i;
+            }
+        }
+        return pos;
     }
 }
@@ -32,7 +32,9 @@ public class GrxUIPerspectiveFactory implements IPerspectiveFactory {
             "com.generalrobotix.ui.view.GrxOpenHRPViewPart",
             "com.generalrobotix.ui.view.GrxCollisionPairViewPart",
             "com.generalrobotix.ui.view.GrxControllerViewPart",
-            "com.generalrobotix.ui.view.GrxTextEditorViewPart"};
+            "com.generalrobotix.ui.view.GrxTextEditorViewPart",
+            "com.generalrobotix.ui.view.GrxLogCompareViewPart",
+            "com.generalrobotix.ui.view.GrxStepProfileViewPart"};
 
     
     public static Shell getCurrentShell(){
@@ -96,6 +98,8 @@ public class GrxUIPerspectiveFactory implements IPerspectiveFactory {
         right_middle.addView("com.generalrobotix.ui.view.GrxGraphViewPart");
         right_middle.addView("com.generalrobotix.ui.view.GrxPropertyViewPart");
         right_middle.addView("com.generalrobotix.ui.view.GrxRobotStatViewPart");
+        right_middle.addView("com.generalrobotix.ui.view.GrxLogCompareViewPart");
+        right_middle.addView("com.generalrobotix.ui.view.GrxStepProfileViewPart");
 
         middle.addView("com.generalrobotix.ui.view.Grx3DViewPart");
         middle.addView("com.generalrobotix.ui.view.GrxOpenHRPViewPart");
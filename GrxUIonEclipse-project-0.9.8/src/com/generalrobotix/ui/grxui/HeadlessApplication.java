@@ -0,0 +1,138 @@
+package com.generalrobotix.ui.grxui;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.IPlatformRunnable;
+
+import com.generalrobotix.ui.GrxPluginManager;
+import com.generalrobotix.ui.item.GrxSimulationItem;
+import com.generalrobotix.ui.item.GrxWorldStateItem;
+import com.generalrobotix.ui.item.HeadlessSimulationUI;
+import com.generalrobotix.ui.util.GrxStepProfiler;
+import com.generalrobotix.ui.util.GrxXmlUtil;
+
+/**
+ * ワークベンチを起動せずにシミュレーションを実行するアプリケーション。
+ * プロジェクトを読み込み、totalTimeまでシミュレーションしてログを保存し、処理速度を表示する。
+ * <pre>
+ * -application com.generalrobotix.ui.grxui.headless -project &lt;project.xml&gt;
+ *     [-log &lt;container dir&gt;] [-totalTime &lt;time[s]&gt;] [-timeStep &lt;time[s]&gt;] [-report &lt;file.csv|file.json&gt;]
+ *     [-maxLogAllocation &lt;bytes&gt;]
+ * </pre>
+ * 失敗した場合は0以外の終了コードを返す。
+ * -maxLogAllocationを指定すると、ログ記録(obtainWorldState()からaddValue()まで)で1レコードあたりに
+ * 確保したヒープの量を測り、指定値を超えた場合や測れなかった場合も失敗とする。
+ * 記録中にオブジェクトを生成しないことを確かめるには -maxLogAllocation 0 とする。
+ */
+public class HeadlessApplication implements IPlatformRunnable {
+	private static final Integer EXIT_FAILURE = Integer.valueOf(1);
+
+	private String project_ = null;
+	private String log_ = null;
+	private String totalTime_ = null;
+	private String timeStep_ = null;
+	private String report_ = null;
+	private double maxLogAllocation_ = Double.NaN;
+
+	public Object run(Object args) throws Exception {
+		if (!_parseArgs(args instanceof String[] ? (String[])args : new String[0])) {
+			System.err.println("usage: -project <project.xml> [-log <container dir>] [-totalTime <time>] [-timeStep <time>] [-report <file.csv|file.json>] [-maxLogAllocation <bytes>]"); //$NON-NLS-1$
+			return EXIT_FAILURE;
+		}
+
+		Activator activator = Activator.getDefault();
+		activator.startGrxUI();
+		try {
+			return _run(activator.manager_) ? IPlatformRunnable.EXIT_OK : EXIT_FAILURE;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return EXIT_FAILURE;
+		} finally {
+			activator.stopGrxUI();
+		}
+	}
+
+	private boolean _parseArgs(String[] args) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals("-project")) //$NON-NLS-1$
+				project_ = args[++i];
+			else if (args[i].equals("-log")) //$NON-NLS-1$
+				log_ = args[++i];
+			else if (args[i].equals("-totalTime")) //$NON-NLS-1$
+				totalTime_ = args[++i];
+			else if (args[i].equals("-timeStep")) //$NON-NLS-1$
+				timeStep_ = args[++i];
+			else if (args[i].equals("-report")) //$NON-NLS-1$
+				report_ = args[++i];
+			else if (args[i].equals("-maxLogAllocation")) { //$NON-NLS-1$
+				try {
+					maxLogAllocation_ = Double.parseDouble(args[++i]);
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+		}
+		return project_ != null;
+	}
+
+	private boolean _run(GrxPluginManager manager) throws Exception {
+		File f = new File(GrxXmlUtil.expandEnvVal(project_));
+		if (!manager.getProject().load(f)) {
+			System.err.println("[HEADLESS] failed to load project " + f); //$NON-NLS-1$
+			return false;
+		}
+
+		GrxSimulationItem simItem = manager.<GrxSimulationItem>getSelectedItem(GrxSimulationItem.class, null);
+		GrxWorldStateItem world = manager.<GrxWorldStateItem>getSelectedItem(GrxWorldStateItem.class, null);
+		if (simItem == null || world == null) {
+			System.err.println("[HEADLESS] project has no simulation or world state item"); //$NON-NLS-1$
+			return false;
+		}
+		simItem.setUI(new HeadlessSimulationUI());
+		simItem.setProperty("viewsimulate", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (totalTime_ != null)
+			simItem.setProperty("totalTime", totalTime_); //$NON-NLS-1$
+		if (timeStep_ != null)
+			simItem.setProperty("timeStep", timeStep_); //$NON-NLS-1$
+		if (report_ != null)
+			simItem.setProperty("stepProfile", report_); //$NON-NLS-1$
+		simItem.setMeasureLogAllocation(!Double.isNaN(maxLogAllocation_));
+
+		long startT = System.currentTimeMillis();
+		if (!simItem.runSimulation()) {
+			System.err.println("[HEADLESS] simulation failed"); //$NON-NLS-1$
+			return false;
+		}
+		double wallTime = (System.currentTimeMillis() - startT) / 1000.0;
+
+		if (log_ != null) {
+			long s = System.currentTimeMillis();
+			world.saveLog(new File(log_).getAbsolutePath());
+			System.out.println("[HEADLESS] log saved to " + log_ + " in " + (System.currentTimeMillis() - s) / 1000.0 + "[s]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		GrxStepProfiler profiler = simItem.getStepProfiler();
+		long steps = 0;
+		for (int i = 0; i < profiler.getPhaseCount(); i++) {
+			if (profiler.getPhaseName(i).equals("step")) //$NON-NLS-1$
+				steps = profiler.getHistogram(i).getCount();
+		}
+		System.out.println(String.format("[HEADLESS] simulation time %.3f[s], wall time %.3f[s] (simulation loop %.3f[s])", //$NON-NLS-1$
+			profiler.getSimulationTime(), wallTime, profiler.getWallTime()));
+		System.out.println(String.format("[HEADLESS] real-time factor %.3f, %d steps (%.1f steps/s), %d log records", //$NON-NLS-1$
+			profiler.getRealTimeFactor(), steps, profiler.getWallTime() > 0 ? steps / profiler.getWallTime() : 0.0, world.getLogSize()));
+		System.out.println(profiler);
+
+		if (!Double.isNaN(maxLogAllocation_)) {
+			double alloc = simItem.getLogAllocationPerRecord();
+			if (Double.isNaN(alloc)) {
+				System.err.println("[HEADLESS] log allocation was not measured"); //$NON-NLS-1$
+				return false;
+			}
+			System.out.println(String.format("[HEADLESS] log allocation %.1f[byte/record] (limit %.1f)", alloc, maxLogAllocation_)); //$NON-NLS-1$
+			if (alloc > maxLogAllocation_)
+				return false;
+		}
+		return true;
+	}
+}
@@ -35,6 +35,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -134,7 +135,7 @@ public class GrxProjectItem extends GrxBaseItem {
 		doc_.appendChild(element_);
 		_updateModeInfo();
 		IWorkbenchPage page=null;
- 		IWorkbench workbench = PlatformUI.getWorkbench();
+ 		IWorkbench workbench = PlatformUI.isWorkbenchRunning() ? PlatformUI.getWorkbench() : null;
         if( workbench != null){
         	IWorkbenchWindow[] windows = workbench.getWorkbenchWindows();
         	for(IWorkbenchWindow window : windows){
@@ -575,6 +576,11 @@ public class GrxProjectItem extends GrxBaseItem {
 				monitor.done();
 			}
 		};
+		// ワークベンチ無しで実行している場合はダイアログを出さずにそのまま復元する
+		if (!PlatformUI.isWorkbenchRunning()) {
+			restoreProject_work(mode, new NullProgressMonitor());
+			return;
+		}
 		ProgressMonitorDialog progressMonitorDlg = new ProgressMonitorDialog(GrxUIPerspectiveFactory.getCurrentShell());
 		try {
 			progressMonitorDlg.run(false,false, runnableProgress);
@@ -664,7 +670,9 @@ public class GrxProjectItem extends GrxBaseItem {
 
 		monitor.worked(1);
 		
-		if (minfo.windowConfig != null) {
+		if (!PlatformUI.isWorkbenchRunning()) {
+			// ワークベンチが無い場合は画面配置を復元しない
+		} else if (minfo.windowConfig != null) {
 			Document doc = builder_.newDocument();
 			Node nodeCopy = doc.importNode(minfo.windowConfig, true);
 			doc.appendChild(nodeCopy);
@@ -20,9 +20,16 @@ package com.generalrobotix.ui.item;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import jp.go.aist.hrp.simulator.BodyInfo;
 import jp.go.aist.hrp.simulator.ClockGenerator;
@@ -32,9 +39,11 @@ import jp.go.aist.hrp.simulator.DynamicsSimulator;
 import jp.go.aist.hrp.simulator.DynamicsSimulatorFactory;
 import jp.go.aist.hrp.simulator.DynamicsSimulatorFactoryHelper;
 import jp.go.aist.hrp.simulator.ExtraJointType;
+import jp.go.aist.hrp.simulator.SensorState;
 import jp.go.aist.hrp.simulator.SensorStateHolder;
 import jp.go.aist.hrp.simulator.ViewSimulator;
 import jp.go.aist.hrp.simulator.ViewSimulatorHelper;
+import jp.go.aist.hrp.simulator.WorldState;
 import jp.go.aist.hrp.simulator.WorldStateHolder;
 import jp.go.aist.hrp.simulator.ControllerPackage.ControllerException;
 import jp.go.aist.hrp.simulator.DynamicsSimulatorPackage.IntegrateMethod;
@@ -42,31 +51,21 @@ import jp.go.aist.hrp.simulator.DynamicsSimulatorPackage.JointDriveMode;
 import jp.go.aist.hrp.simulator.DynamicsSimulatorPackage.LinkDataType;
 import jp.go.aist.hrp.simulator.DynamicsSimulatorPackage.SensorOption;
 
-import org.eclipse.jface.dialogs.InputDialog;
-import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.swt.widgets.Display;
-import org.eclipse.ui.IWorkbench;
-import org.eclipse.ui.IWorkbenchPage;
-import org.eclipse.ui.IWorkbenchWindow;
-import org.eclipse.ui.PartInitException;
-import org.eclipse.ui.PlatformUI;
 import org.omg.CosNaming.NameComponent;
 import org.omg.CosNaming.NamingContext;
 
 import com.generalrobotix.ui.GrxBaseItem;
 import com.generalrobotix.ui.GrxPluginManager;
 import com.generalrobotix.ui.depends.rtm.SwitchDependVerClockGenerator;
-import com.generalrobotix.ui.grxui.GrxUIPerspectiveFactory;
 import com.generalrobotix.ui.item.GrxWorldStateItem.WorldStateEx;
 import com.generalrobotix.ui.util.GrxCorbaUtil;
 import com.generalrobotix.ui.util.GrxDebugUtil;
 import com.generalrobotix.ui.util.GrxProcessManager;
+import com.generalrobotix.ui.util.GrxStepProfiler;
 import com.generalrobotix.ui.util.MessageBundle;
 import com.generalrobotix.ui.util.GrxProcessManager.AProcess;
 import com.generalrobotix.ui.util.GrxProcessManager.ProcessInfo;
 import com.generalrobotix.ui.view.Grx3DView;
-import com.generalrobotix.ui.view.GrxLoggerView;
-import com.generalrobotix.ui.view.GrxOpenHRPView;
 import com.generalrobotix.ui.view.simulation.SimulationParameterPanel;
 import com.generalrobotix.ui.view.vsensor.Camera_impl;
 
@@ -89,6 +88,7 @@ public class GrxSimulationItem extends GrxBaseItem {
 	private double simulateTime_ = 0;
 	private boolean isIntegrate_ = true;
 	private boolean isRealTime_ = false;
+	private boolean isParallelControllers_ = false;
 	private double stepTime_ = 0.001;
 	private double totalTime_ = 20;
 	private double logStepTime_ = 0.05;
@@ -97,14 +97,42 @@ public class GrxSimulationItem extends GrxBaseItem {
 	//private StartSimulate simulateAction_  = null;
 	
 	private Thread simThread_;
+	private LogStage logStage_;
+	private boolean measureLogAllocation_ = false;
+	private double logAllocationPerRecord_ = Double.NaN;
 	private static final int interval_ = 10; //[ms]
+	private static final int LOG_QUEUE_CAPACITY = 256; // ログ記録スレッドに渡せる状態の数
+	private static final int MAX_CONTROLLER_THREADS = 16;
+	private static final int INPUT = 0;
+	private static final int CONTROL = 1;
+	private static final int OUTPUT = 2;
+	private ExecutorService controllerPool_ = null;
+	private List<List<Callable<Object>>> phaseTasks_ = null;
+	private double inputTime_;
+
+	// 1ステップ内の計測区間
+	private static final int PHASE_INPUT = 0;
+	private static final int PHASE_CONTROL = 1;
+	private static final int PHASE_CLOCK = 2;
+	private static final int PHASE_STEP = 3;
+	private static final int PHASE_FETCH = 4;
+	private static final int PHASE_LOG_QUEUE = 5;
+	private static final int PHASE_LOG_ENCODE = 6;  // ログ記録スレッドで計測
+	private static final int PHASE_VIEW = 7;
+	private static final int PHASE_OUTPUT = 8;
+	private static final String[] PHASE_NAMES = {
+		"input", "control", "clock", "step", "fetch", "logQueue", "logEncode", "view", "output" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+	};
+	private final GrxStepProfiler profiler_ = new GrxStepProfiler(PHASE_NAMES);
 	private Grx3DView view3D;
 	    
 	//private static final String FORMAT1 = "%8.3f"; //$NON-NLS-1$
 	private Object lock2_ = new Object();
+	private SimulationUI ui_;
 	    
 	public  GrxSimulationItem(String name, GrxPluginManager manager) {
 		super(name, manager);
+		ui_ = new WorkbenchSimulationUI(manager);
 		setExclusive(true);
 		setIcon("grxrobot.png");
 		registerCORBA();
@@ -118,6 +146,8 @@ public class GrxSimulationItem extends GrxBaseItem {
 		setBool("integrate", true);
 		setBool("viewsimulate", false);
 		setBool("realTime", false);
+		setBool("parallelControllers", false);
+		setProperty("stepProfile", ""); //$NON-NLS-1$ //$NON-NLS-2$
 		return true;
 	}
 	
@@ -133,14 +163,99 @@ public class GrxSimulationItem extends GrxBaseItem {
 		private static final int TIMEOVER = 0;
 		private static final int STOP = 1;
 		private static final int INTERRUPT = 2;
-		private int simThreadState_ =  EXEC;
+		private static final int STOPPING = 3;  // 画面側から終了を指示した。記録を終えたらシミュレーションスレッドがSTOPにする
+		private volatile int simThreadState_ =  EXEC;
 		private Object lock_ = new Object();
 		private Object lock3_ = new Object();
-		private boolean viewSimulationUpdate_ = false;
-		private WorldStateEx wsx_=null;
+		private volatile boolean viewSimulationUpdate_ = false;
+		private WorldStateEx wsx_=null;  // ビューシミュレーション用。画面側はviewSimulationUpdate_がtrueの間だけ読む
+		private LogFrame viewFrame_=null;  // ログを記録しないステップでビューシミュレーション用に状態を取得する
 		
+		/**
+		 * @brief set user interface used by simulation
+		 * @param ui HeadlessSimulationUI to run without workbench
+		 */
+		public void setUI(SimulationUI ui) {
+			ui_ = ui;
+		}
+
+		public SimulationUI getUI() {
+			return ui_;
+		}
+
 		public boolean startSimulation(boolean isInteractive) {
-			
+			if (!_initSimulation(isInteractive))
+				return false;
+			simThread_ = _createSimulationThread();
+			simThread_.start();
+	            
+			Runnable run = new Runnable(){
+				public void run() {
+					switch(simThreadState_){
+					case TIMEOVER:
+						// 終了する場合もここではSTOPにせず、記録待ちの状態を書き終えたシミュレーションスレッドにSTOPにさせる
+						boolean extended = extendTime();
+						synchronized(lock_){ 
+							simThreadState_ = extended ? EXEC : STOPPING;
+							lock_.notifyAll();
+						}
+					case EXEC:
+					case STOPPING:
+						if(isSimulatingView_){
+							if(viewSimulationUpdate_){
+								view3D._showCollision(wsx_.collisions);
+								view3D.updateModels(wsx_);
+								view3D.updateViewSimulator(wsx_.time);
+								currentWorld_.setPosition(currentWorld_.getLogSize()-1,view3D);
+								synchronized(lock3_){
+									viewSimulationUpdate_=false;
+									lock3_.notify();
+								}
+							}
+						}
+						ui_.timerExec(interval_, this);
+						break;
+					case STOP:
+						endOfSimulation();
+						synchronized(lock2_){ 
+							lock2_.notifyAll();
+						}
+						break;
+					case INTERRUPT:
+						ui_.openError(MessageBundle.get("GrxOpenHRPView.dialog.title.Interrupt"), MessageBundle.get("GrxOpenHRPView.dialog.message.Interrupt")); //$NON-NLS-1$ //$NON-NLS-2$
+						endOfSimulation();
+						break;
+					default :
+						break;
+					}   
+				}
+			};
+			ui_.timerExec(interval_, run);
+	            
+			GrxDebugUtil.println("[OpenHRP]@startSimulation Start Thread and end this function."); //$NON-NLS-1$
+			return true;
+		}
+
+		/**
+		 * @brief run simulation until totalTime in the calling thread
+		 * 問い合わせを行わず、totalTimeに達したら終了する。画面を使わずに実行する場合に使う。
+		 * @return true if simulation reached totalTime or was stopped, false otherwise
+		 */
+		public boolean runSimulation() {
+			if (!_initSimulation(false))
+				return false;
+			simThread_ = Thread.currentThread();
+			_simulationLoop();
+			if (simThreadState_ == INTERRUPT)
+				ui_.openError(MessageBundle.get("GrxOpenHRPView.dialog.title.Interrupt"), MessageBundle.get("GrxOpenHRPView.dialog.message.Interrupt")); //$NON-NLS-1$ //$NON-NLS-2$
+			endOfSimulation();
+			synchronized(lock2_){ 
+				lock2_.notifyAll();
+			}
+			return simThreadState_ == STOP;
+		}
+
+		private boolean _initSimulation(boolean isInteractive) {
 			if (isExecuting_){
 				GrxDebugUtil.println("[HRP]@startSimulation now executing."); //$NON-NLS-1$
 				return false;
@@ -148,7 +263,7 @@ public class GrxSimulationItem extends GrxBaseItem {
 
 			currentWorld_ = manager_.<GrxWorldStateItem>getSelectedItem(GrxWorldStateItem.class, null);
 			if (currentWorld_ == null) {
-				MessageDialog.openError(null, MessageBundle.get("GrxOpenHRPView.dialog.title.Fail"), MessageBundle.get("GrxOpenHRPView.dialog.message.noWorldState")); //$NON-NLS-1$ //$NON-NLS-2$
+				ui_.openError(MessageBundle.get("GrxOpenHRPView.dialog.title.Fail"), MessageBundle.get("GrxOpenHRPView.dialog.message.noWorldState")); //$NON-NLS-1$ //$NON-NLS-2$
 				GrxDebugUtil.println("[HRP]@startSimulation there is no world."); //$NON-NLS-1$
 				return false;
 			}
@@ -156,31 +271,30 @@ public class GrxSimulationItem extends GrxBaseItem {
 			isInteractive_ = isInteractive;
 
 			if (isInteractive_ && currentWorld_.getLogSize() > 0) {
-				boolean ans = MessageDialog.openConfirm(GrxUIPerspectiveFactory.getCurrentShell(), MessageBundle.get("GrxOpenHRPView.dialog.title.start"), MessageBundle.get("GrxOpenHRPView.dialog.message.start0") + MessageBundle.get("GrxOpenHRPView.dialog.message.start1")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				boolean ans = ui_.openConfirm(MessageBundle.get("GrxOpenHRPView.dialog.title.start"), MessageBundle.get("GrxOpenHRPView.dialog.message.start0") + MessageBundle.get("GrxOpenHRPView.dialog.message.start1")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				if (ans != true) {
 					return false;
 				}
 			}
 			currentWorld_.clearLog();
 			
-			GrxOpenHRPView openHRPView = (GrxOpenHRPView)manager_.getView( GrxOpenHRPView.class, true );
-			if(openHRPView != null)
-				openHRPView.fixParam();
+			ui_.fixParam();
 
 			isIntegrate_ = isTrue("integrate", true);
 			isRealTime_ = isTrue("realTime", false);
+			isParallelControllers_ = isTrue("parallelControllers", false);
 			totalTime_   = getDbl("totalTime", 20.0);
 			stepTime_    = getDbl("timeStep", 0.001);
 			logStepTime_ = currentWorld_.getDbl("logTimeStep", 0.001);
 			isSimulatingView_ = isTrue("viewsimulate", false);
 			if(stepTime_ > logStepTime_ ){
-				MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), MessageBundle.get("GrxOpenHRPView.dialog.title.start"), MessageBundle.get("GrxOpenHRPView.dialog.message.errorLogStepTime")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				ui_.openInformation(MessageBundle.get("GrxOpenHRPView.dialog.title.start"), MessageBundle.get("GrxOpenHRPView.dialog.message.errorLogStepTime")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 					return false;			
 			}
 
 			try {
 				if (!initDynamicsSimulator()) {
-					MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(),"", MessageBundle.get("GrxOpenHRPView.dialog.message.failedInit")); //$NON-NLS-1$ //$NON-NLS-2$
+					ui_.openInformation("", MessageBundle.get("GrxOpenHRPView.dialog.message.failedInit")); //$NON-NLS-1$ //$NON-NLS-2$
 					return false;
 				}
 				if (!initController()) {
@@ -191,33 +305,10 @@ public class GrxSimulationItem extends GrxBaseItem {
 				return false;
 			}
 
-			if(isSimulatingView_){
-				view3D =  (Grx3DView)manager_.getView( Grx3DView.class, false );
-				if(view3D==null){
-					IWorkbench workbench = PlatformUI.getWorkbench();
-					IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
-					IWorkbenchPage page = window.getActivePage();
-					try {
-						page.showView("com.generalrobotix.ui.view.Grx3DViewPart", null, IWorkbenchPage.VIEW_CREATE);   //$NON-NLS-1$
-					} catch (PartInitException e1) {
-						e1.printStackTrace();
-					}
-					view3D =  (Grx3DView)manager_.getView( Grx3DView.class, true );
-				}
-			}
-	            
-			if(!isSimulatingView_){
-				GrxLoggerView view =  (GrxLoggerView)manager_.getView( GrxLoggerView.class, false );
-				if( view == null){
-		        	IWorkbench workbench = PlatformUI.getWorkbench();
-		    		IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
-		    		IWorkbenchPage page = window.getActivePage();
-		    		try {
-		    			page.showView("com.generalrobotix.ui.view.GrxLoggerViewPart", null, IWorkbenchPage.VIEW_CREATE);   //$NON-NLS-1$
-		    		} catch (PartInitException e1) {
-		    			e1.printStackTrace();
-		    		}
-		        }
+			view3D = ui_.prepareViews(isSimulatingView_);
+			if (isSimulatingView_) {
+				wsx_ = new WorldStateEx();
+				viewFrame_ = new LogFrame(robotEntry_.size());
 			}
 			notifyObservers("StartSimulation", isSimulatingView_);
 
@@ -225,63 +316,10 @@ public class GrxSimulationItem extends GrxBaseItem {
 
 			simTime_ = 0.0;
 			simulateTime_ = 0;
+			profiler_.reset();
 			currentWorld_.init();
 			simThreadState_ =  EXEC;
 			viewSimulationUpdate_ = false;
-			simThread_ = _createSimulationThread();
-			simThread_.start();
-	            
-			Runnable run = new Runnable(){
-				public void run() {
-					switch(simThreadState_){
-					case TIMEOVER:
-						if(extendTime())
-							simThreadState_=EXEC;
-						else
-							simThreadState_=STOP;
-						synchronized(lock_){ 
-							lock_.notifyAll();
-						}
-					case EXEC:
-						if(isSimulatingView_){
-							if(viewSimulationUpdate_){
-								view3D._showCollision(wsx_.collisions);
-								view3D.updateModels(wsx_);
-								view3D.updateViewSimulator(wsx_.time);
-								currentWorld_.setPosition(currentWorld_.getLogSize()-1,view3D);
-								synchronized(lock3_){
-									viewSimulationUpdate_=false;
-									lock3_.notify();
-								}
-							}
-						}
-						Display display = Display.getCurrent();
-						if ( display!=null && !display.isDisposed()){
-							display.timerExec(interval_, this);
-						}
-						break;
-					case STOP:
-						endOfSimulation();
-						synchronized(lock2_){ 
-							lock2_.notifyAll();
-						}
-						break;
-					case INTERRUPT:
-						MessageDialog.openError( GrxUIPerspectiveFactory.getCurrentShell(),
-								MessageBundle.get("GrxOpenHRPView.dialog.title.Interrupt"), MessageBundle.get("GrxOpenHRPView.dialog.message.Interrupt")); //$NON-NLS-1$ //$NON-NLS-2$
-						endOfSimulation();
-						break;
-					default :
-						break;
-					}   
-				}
-			};
-			Display display = Display.getCurrent();
-			if ( display!=null && !display.isDisposed()){
-				display.timerExec(interval_, run);
-			}
-	            
-			GrxDebugUtil.println("[OpenHRP]@startSimulation Start Thread and end this function."); //$NON-NLS-1$
 			return true;
 		}
 
@@ -297,52 +335,68 @@ public class GrxSimulationItem extends GrxBaseItem {
 		private Thread _createSimulationThread(){
 			Thread thread = new Thread(){
 				public void run() {
-					isExecuting_ = true;
-					long suspendT = 0;
-					long startT = System.currentTimeMillis();
-					try {
-						while (isExecuting_) {
-							if (isSuspending_) {
+					_simulationLoop();
+				}
+			};
+			thread.setPriority(Thread.currentThread().getPriority() - 1);
+			return thread;
+		}
+
+		private void _simulationLoop(){
+			isExecuting_ = true;
+			logStage_ = new LogStage();
+			_startControllerPool();
+			long suspendT = 0;
+			long startT = System.currentTimeMillis();
+			try {
+				while (isExecuting_) {
+					if (isSuspending_) {
+						long s = System.currentTimeMillis();
+						Thread.sleep(200);
+						suspendT += System.currentTimeMillis() - s;
+					} else {
+						if (!simulateOneStep()){
+							// 対話的でない場合は延長しない
+							if (!isInteractive_)
+								break;
+							long s = System.currentTimeMillis();
+							synchronized(lock_){
+								simThreadState_ = TIMEOVER;
+								while (simThreadState_ == TIMEOVER)
+									lock_.wait();
+							}
+							suspendT += System.currentTimeMillis() - s;
+							if(simThreadState_==STOPPING)
+								break;
+						}else{
+							profiler_.setProgress(simTime_, simulateTime_ + (System.currentTimeMillis() - startT - suspendT)/1000.0);
+							if(isRealTime_){
 								long s = System.currentTimeMillis();
-								Thread.sleep(200);
-								suspendT += System.currentTimeMillis() - s;
-							} else {
-								if (!simulateOneStep()){
-									long s = System.currentTimeMillis();
-									synchronized(lock_){
-										simThreadState_ = TIMEOVER;
-										lock_.wait();
-									}
-									suspendT += System.currentTimeMillis() - s;
-									if(simThreadState_==STOP)
-										break;
-								}else{
-									if(isRealTime_){
-										long s = System.currentTimeMillis();
-										long sleep = (long)(simTime_*1000.0) - (s - startT);
-										if(sleep > 0)
-											Thread.sleep(sleep);
-									}
-								}
+								long sleep = (long)(simTime_*1000.0) - (s - startT);
+								if(sleep > 0)
+									Thread.sleep(sleep);
 							}
-							Thread.yield();
 						}
-						isExecuting_ = false;
-						simulateTime_ += (System.currentTimeMillis() - startT - suspendT)/1000.0;
-	                        
-						//for (ControllerAttribute i: controllers_) {
-						//	i.deactive();
-						//}
-						simThreadState_ = STOP;
-					} catch (Exception e) {
-						GrxDebugUtil.printErr("Simulation Interrupted by Exception:",e); //$NON-NLS-1$
-						isExecuting_ = false;
-						simThreadState_ = INTERRUPT;
 					}
+					Thread.yield();
 				}
-			};
-			thread.setPriority(Thread.currentThread().getPriority() - 1);
-			return thread;
+				isExecuting_ = false;
+				simulateTime_ += (System.currentTimeMillis() - startT - suspendT)/1000.0;
+				// 記録待ちの状態を全てログに書いてからSTOPにする(endOfSimulationでログを閉じるため)
+				logStage_.finish();
+				_stopControllerPool();
+
+				//for (ControllerAttribute i: controllers_) {
+				//	i.deactive();
+				//}
+				simThreadState_ = STOP;
+			} catch (Exception e) {
+				GrxDebugUtil.printErr("Simulation Interrupted by Exception:",e); //$NON-NLS-1$
+				isExecuting_ = false;
+				logStage_.finish();
+				_stopControllerPool();
+				simThreadState_ = INTERRUPT;
+			}
 		}
 
 		public void continueSimulation(){
@@ -361,18 +415,27 @@ public class GrxSimulationItem extends GrxBaseItem {
 			}
 			updateTimeMsg();
 			System.out.println(new java.util.Date()+timeMsg_.replace(" ", "").replace("\n", " : ")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			profiler_.setProgress(simTime_, simulateTime_);
+			GrxDebugUtil.println(profiler_.toString());
+			String report = getProperty("stepProfile", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			if (report.length() > 0) {
+				try {
+					profiler_.write(new File(report));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 			if (isInteractive_) {
 				isInteractive_ = false;
 				execSWT( new Runnable(){
 					public void run(){
-						MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(),
-								MessageBundle.get("GrxOpenHRPView.dialog.title.finish"), timeMsg_); //$NON-NLS-1$
+						ui_.openInformation(MessageBundle.get("GrxOpenHRPView.dialog.title.finish"), timeMsg_); //$NON-NLS-1$
 					}
 				} ,
 				Thread.currentThread() != simThread_
 				);
 			}
-			syncExec(new Runnable(){
+			ui_.syncExec(new Runnable(){
 				public void run() {
 					currentWorld_.stopSimulation(); 
 					notifyObservers("StopSimulation");
@@ -385,26 +448,24 @@ public class GrxSimulationItem extends GrxBaseItem {
 		 * @brief simulate one step
 		 * @return true if simulation should be continued, false otherwise
 		 */
-		private boolean simulateOneStep() {
+		private boolean simulateOneStep() throws InterruptedException {
 			if (simTime_ > totalTime_ ) {
 				return false;
 			}
 			
 			// input
-			for (int i = 0; i<controllers_.size(); i++) {
-				ControllerAttribute attr = 
-					(ControllerAttribute)controllers_.get(i);
-				attr.input(simTime_);
-			}
+			long t = System.nanoTime();
+			inputTime_ = simTime_;
+			_dispatchPhase(INPUT);
+			t = _lap(PHASE_INPUT, t);
 			
 			simTime_ += stepTime_;
 			
 			// control
-			for (int i = 0; i < controllers_.size(); i++) {
-				ControllerAttribute attr = controllers_.get(i);
-				attr.control();
-			}
+			_dispatchPhase(CONTROL);
+			t = _lap(PHASE_CONTROL, t);
 			clockGenerator_.updateExecutionContext(simTime_);           
+			t = _lap(PHASE_CLOCK, t);
 	            
 			// simulate
 			if (isIntegrate_) {
@@ -412,55 +473,151 @@ public class GrxSimulationItem extends GrxBaseItem {
 			} else {
 				currentDynamics_.calcWorldForwardKinematics();
 			}
+			t = _lap(PHASE_STEP, t);
 	    
 			// log
-			wsx_=null;
+			// 状態の取得だけ行い、変換とログへの記録はログ記録スレッドで行う
+			LogFrame frame = null;
 			if ((simTime_ % logStepTime_) < stepTime_) {
-				currentDynamics_.getWorldState(stateH_);
-				wsx_ = new WorldStateEx(stateH_.value);
-				for (int i=0; i<robotEntry_.size(); i++) {
-					String name = robotEntry_.get(i);
-					currentDynamics_.getCharacterSensorState(name, cStateH_);
-					wsx_.setSensorState(name, cStateH_.value);
-				}
-				if (!isIntegrate_)
-					wsx_.time = simTime_;
-				currentWorld_.addValue(simTime_, wsx_);
+				frame = logStage_.obtainFrame();
+				_getState(frame);
+				t = _lap(PHASE_FETCH, t);
+				logStage_.put(frame);
+				t = _lap(PHASE_LOG_QUEUE, t);
 			}
 	            
 			// viewSimlulation update
 			if(isSimulatingView_){
 				if ((simTime_ % viewSimulationStep_) < stepTime_) {
-					if(wsx_==null){
-						currentDynamics_.getWorldState(stateH_);
-						wsx_ = new WorldStateEx(stateH_.value);
-						for (int i=0; i<robotEntry_.size(); i++) {
-							String name = robotEntry_.get(i);
-							currentDynamics_.getCharacterSensorState(name, cStateH_);
-							wsx_.setSensorState(name, cStateH_.value);
-						}
-						if (!isIntegrate_)
-							wsx_.time = simTime_;	
+					if(frame==null){
+						frame = viewFrame_;
+						_getState(frame);
+						t = _lap(PHASE_FETCH, t);
 					}
+					// wsx_はログ記録スレッドが使い回すWorldStateExとは別のもの。
+					// 画面側が読み終えるまで待つので、次のステップで上書きしてよい
 					synchronized(lock3_){
+						frame.setTo(wsx_);
 						try {
 							viewSimulationUpdate_ = true;
-							lock3_.wait();
+							while (viewSimulationUpdate_)
+								lock3_.wait();
 						} catch (InterruptedException e) {
 							e.printStackTrace();
 						}
 					}
+					t = _lap(PHASE_VIEW, t);
 				}
 			}
 	            
 			// output
+			_dispatchPhase(OUTPUT);
+			_lap(PHASE_OUTPUT, t);
+			return true;
+		}
+
+		/**
+		 * @brief record time elapsed since start to the phase
+		 * @return current time[ns]
+		 */
+		private long _lap(int phase, long start) {
+			long now = System.nanoTime();
+			profiler_.record(phase, now - start);
+			return now;
+		}
+
+		/**
+		 * @brief call input(), control() or output() of all controllers
+		 * 並列実行時は全コントローラの呼び出しをスレッドプールで同時に行い、
+		 * 全て終わるまで待ってから次のフェーズに進む。
+		 */
+		private void _dispatchPhase(int phase) throws InterruptedException {
+			if (controllerPool_ != null) {
+				controllerPool_.invokeAll(phaseTasks_.get(phase));
+				return;
+			}
 			for (int i = 0; i < controllers_.size(); i++) {
-				ControllerAttribute attr = controllers_.get(i);
-				attr.output();
+				controllers_.get(i).call(phase);
+			}
+		}
+
+		private void _startControllerPool() {
+			if (!isParallelControllers_ || controllers_.size() < 2)
+				return;
+			phaseTasks_ = new ArrayList<List<Callable<Object>>>();
+			for (int phase = INPUT; phase <= OUTPUT; phase++) {
+				List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+				for (int i = 0; i < controllers_.size(); i++) {
+					final ControllerAttribute attr = controllers_.get(i);
+					final int p = phase;
+					tasks.add(new Callable<Object>() {
+						public Object call() {
+							attr.call(p);
+							return null;
+						}
+					});
+				}
+				phaseTasks_.add(tasks);
+			}
+			int n = Math.min(controllers_.size(), MAX_CONTROLLER_THREADS);
+			controllerPool_ = Executors.newFixedThreadPool(n, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ControllerPhase"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		private void _stopControllerPool() {
+			if (controllerPool_ != null) {
+				controllerPool_.shutdown();
+				controllerPool_ = null;
+				phaseTasks_ = null;
 			}
-			return true;
 		}
 	        
+		/**
+		 * @brief get world state and sensor states of all robots
+		 * @param frame frame to store the states
+		 */
+		private void _getState(LogFrame frame) {
+			currentDynamics_.getWorldState(stateH_);
+			frame.time = simTime_;
+			frame.state = stateH_.value;
+			for (int i=0; i<robotEntry_.size(); i++) {
+				String name = robotEntry_.get(i);
+				currentDynamics_.getCharacterSensorState(name, cStateH_);
+				frame.names[i] = name;
+				frame.sensors[i] = cStateH_.value;
+			}
+		}
+
+	/**
+	 * @brief get per-phase step timings of the current or last simulation
+	 */
+	public GrxStepProfiler getStepProfiler() {
+		return profiler_;
+	}
+
+	/**
+	 * @brief measure heap allocated by the logging stage
+	 * ログ記録スレッドでobtainWorldState()からaddValue()までに確保したヒープの量を数える。
+	 * 最初のレコード(ログの初期化を含む)は数えない。
+	 * @param measure true to measure from the next simulation
+	 */
+	public void setMeasureLogAllocation(boolean measure) {
+		measureLogAllocation_ = measure;
+	}
+
+	/**
+	 * @brief get heap allocated per log record in the last simulation
+	 * @return bytes per record, or NaN if not measured
+	 */
+	public double getLogAllocationPerRecord() {
+		return logAllocationPerRecord_;
+	}
+
 	public void waitStopSimulation() throws InterruptedException {
 		try {
 			synchronized(lock2_){ 
@@ -472,6 +629,124 @@ public class GrxSimulationItem extends GrxBaseItem {
 		}
 	}
 	    
+	/**
+	 * @brief state of one log step obtained from DynamicsSimulator
+	 * CORBAの呼び出し毎に新しいオブジェクトが返るので、参照を保持するだけでよい。
+	 * LogFrame自体はLogStageが使い回す。
+	 */
+	private class LogFrame {
+		double time;
+		WorldState state;
+		final String[] names;
+		final SensorState[] sensors;
+		LogFrame(int n) {
+			names = new String[n];
+			sensors = new SensorState[n];
+		}
+
+		void setTo(WorldStateEx wsx) {
+			wsx.setWorldState(state);
+			for (int i=0; i<names.length; i++)
+				wsx.setSensorState(names[i], sensors[i]);
+			if (!isIntegrate_)
+				wsx.time = time;
+		}
+	}
+
+	/**
+	 * @brief logging stage
+	 * シミュレーションスレッドから受け取った状態をWorldStateExに変換してログに記録する。
+	 * 記録が追いつかない場合はキューが空くまでput()で待つ。
+	 * LogFrameは開始時に用意したものを使い回し、記録中はオブジェクトを生成しない。
+	 */
+	private class LogStage implements Runnable {
+		// キューにある分、記録中の1つ、シミュレーションスレッドが取得中の1つ
+		private static final int POOL_SIZE = LOG_QUEUE_CAPACITY + 2;
+		private final LogFrame STOP = new LogFrame(0);
+		private final ArrayBlockingQueue<LogFrame> queue_ = new ArrayBlockingQueue<LogFrame>(LOG_QUEUE_CAPACITY);
+		private final ArrayBlockingQueue<LogFrame> free_ = new ArrayBlockingQueue<LogFrame>(POOL_SIZE);
+		private final GrxWorldStateItem world_ = currentWorld_;
+		private final Thread thread_;
+		private final boolean measureAllocation_ = measureLogAllocation_;
+		private int maxQueueDepth_ = 0;
+		private int count_ = 0;
+		private long allocated_ = 0;
+		private int allocRecords_ = 0;
+
+		LogStage() {
+			for (int i=0; i<POOL_SIZE; i++)
+				free_.add(new LogFrame(robotEntry_.size()));
+			thread_ = new Thread(this, "SimulationLogStage"); //$NON-NLS-1$
+			thread_.setDaemon(true);
+			thread_.start();
+		}
+
+		/**
+		 * @brief get an unused frame
+		 * 全て使用中の場合は記録が済んで戻るまで待つ。
+		 */
+		LogFrame obtainFrame() throws InterruptedException {
+			return free_.take();
+		}
+
+		void put(LogFrame frame) throws InterruptedException {
+			queue_.put(frame);
+			int depth = queue_.size();
+			if (depth > maxQueueDepth_)
+				maxQueueDepth_ = depth;
+		}
+
+		/**
+		 * @brief wait until all queued states are logged
+		 */
+		void finish() {
+			try {
+				queue_.put(STOP);
+				thread_.join();
+			} catch (InterruptedException e) {
+				thread_.interrupt();
+				Thread.currentThread().interrupt();
+			}
+			logAllocationPerRecord_ = allocRecords_ > 0 ? (double)allocated_ / allocRecords_ : Double.NaN;
+			GrxDebugUtil.println("[HRP]@LogStage records=" + count_ + " maxQueueDepth=" + maxQueueDepth_ //$NON-NLS-1$ //$NON-NLS-2$
+				+ (allocRecords_ > 0 ? " allocated=" + logAllocationPerRecord_ + "[byte/record]" : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		public void run() {
+			GrxStepProfiler.AllocationCounter alloc = measureAllocation_ ? new GrxStepProfiler.AllocationCounter() : null;
+			if (alloc != null && !alloc.isSupported()) {
+				GrxDebugUtil.println("[HRP]@LogStage allocation measurement is not supported by this VM"); //$NON-NLS-1$
+				alloc = null;
+			}
+			while (true) {
+				LogFrame frame;
+				try {
+					frame = queue_.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (frame == STOP)
+					break;
+				try {
+					long a = alloc != null ? alloc.get() : 0;
+					long t = System.nanoTime();
+					WorldStateEx wsx = world_.obtainWorldState(frame.state);
+					frame.setTo(wsx);
+					world_.addValue(wsx);
+					profiler_.record(PHASE_LOG_ENCODE, System.nanoTime() - t);
+					if (alloc != null && count_ > 0) {
+						allocated_ += alloc.since(a);
+						allocRecords_++;
+					}
+					count_++;
+				} catch (Exception e) {
+					GrxDebugUtil.printErr("Exception in LogStage", e); //$NON-NLS-1$
+				}
+				free_.offer(frame);
+			}
+		}
+	}
+
 	private class ControllerAttribute {
 		String modelName_;
 		String controllerName_;
@@ -493,6 +768,27 @@ public class GrxSimulationItem extends GrxBaseItem {
 			doFlag_ = false;
 		}
 	        
+		/**
+		 * @brief call one phase of this controller
+		 * doFlag_はこのコントローラのinput()でのみ更新されるので、フェーズの間で
+		 * 待ち合わせれば並列に呼び出しても周期の扱いは変わらない。
+		 */
+		private void call(int phase) {
+			switch (phase) {
+			case INPUT:
+				input(inputTime_);
+				break;
+			case CONTROL:
+				control();
+				break;
+			case OUTPUT:
+				output();
+				break;
+			default:
+				break;
+			}
+		}
+
 		private void input(double time){
 			try {
 				doFlag_ = false;
@@ -534,7 +830,7 @@ public class GrxSimulationItem extends GrxBaseItem {
 				controller_.initialize();
 			} catch(ControllerException e){
 				System.out.println("setupController:"+e.description);
-    			MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), "", MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
+    			ui_.openInformation("", MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
 			}catch (Exception e) {
 				GrxDebugUtil.printErr("Exception in active", e);  //$NON-NLS-1$
 			}
@@ -546,9 +842,7 @@ public class GrxSimulationItem extends GrxBaseItem {
 		if( execInCurrentThread ) {
 			r.run();
 		}else{
-			Display display = Display.getDefault();
-			if ( display!=null && !display.isDisposed())
-				display.asyncExec(r);
+			ui_.asyncExec(r);
 		}
 	}
 
@@ -822,7 +1116,7 @@ public class GrxSimulationItem extends GrxBaseItem {
     	
     	double step = model.getDbl("controlTime", 0.005); //$NON-NLS-1$
     	if(stepTime_ > step){
-    		MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), "", MessageBundle.get("GrxOpenHRPView.dialog.message.errorControlTime")); //$NON-NLS-1$ //$NON-NLS-2$
+    		ui_.openInformation("", MessageBundle.get("GrxOpenHRPView.dialog.message.errorControlTime")); //$NON-NLS-1$ //$NON-NLS-2$
     		return false;
     	}
 	    	
@@ -843,9 +1137,9 @@ public class GrxSimulationItem extends GrxBaseItem {
     		try {
     			cobj._non_existent();
     			if (isInteractive_ && (!com.equals("") || proc != null)) { // ask only in case being abled to restart process //$NON-NLS-1$
-    				MessageDialog dialog =new MessageDialog(GrxUIPerspectiveFactory.getCurrentShell(),MessageBundle.get("GrxOpenHRPView.dialog.title.restartController"),null, //$NON-NLS-1$
-    						MessageBundle.get("GrxOpenHRPView.dialog.message.restartController0")+controllerName+MessageBundle.get("GrxOpenHRPView.dialog.message.restartController1") + MessageBundle.get("GrxOpenHRPView.dialog.message.restartController2") ,MessageDialog.QUESTION, new String[]{MessageBundle.get("GrxOpenHRPView.dialog.button.yes"),MessageBundle.get("GrxOpenHRPView.dialog.button.no"),MessageBundle.get("GrxOpenHRPView.dialog.button.cancel")}, 2); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
-    				switch( dialog.open() ){
+    				int ans = ui_.openQuestion(MessageBundle.get("GrxOpenHRPView.dialog.title.restartController"), //$NON-NLS-1$
+    						MessageBundle.get("GrxOpenHRPView.dialog.message.restartController0")+controllerName+MessageBundle.get("GrxOpenHRPView.dialog.message.restartController1") + MessageBundle.get("GrxOpenHRPView.dialog.message.restartController2") , new String[]{MessageBundle.get("GrxOpenHRPView.dialog.button.yes"),MessageBundle.get("GrxOpenHRPView.dialog.button.no"),MessageBundle.get("GrxOpenHRPView.dialog.button.cancel")}, 2); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    				switch( ans ){
     					case 0: // 0 == "YES"
     						doRestart = true;
     						break;
@@ -926,7 +1220,7 @@ public class GrxSimulationItem extends GrxBaseItem {
     				break;
     			}catch (ControllerException e) {
         			System.out.println("setupController:"+e.description);
-        			MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), e.description, MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
+        			ui_.openInformation(e.description, MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
         			if (proc != null)
             			proc.stop();
         			return false;
@@ -938,16 +1232,15 @@ public class GrxSimulationItem extends GrxBaseItem {
     		if (j > WAIT_COUNT_ || (new Date().getTime() - before.getTime() > WAIT_COUNT_*1000)) {
     			GrxDebugUtil.println(" failed to setup controller:"+controllerName); //$NON-NLS-1$
     			//タイトル画像をなしにするにはどぁE��れ�EぁE��のか？とりあえずnullにしてみ�
-    			MessageDialog dialog = new MessageDialog(GrxUIPerspectiveFactory.getCurrentShell(),MessageBundle.get("GrxOpenHRPView.dialog.title.setupController"),null,MessageBundle.get("GrxOpenHRPView.dialog.message.setupController0")+controllerName+").\n" +MessageBundle.get("GrxOpenHRPView.dialog.message.setupController1"),MessageDialog.QUESTION,new String[]{MessageBundle.get("GrxOpenHRPView.dialog.button.yes"),MessageBundle.get("GrxOpenHRPView.dialog.button.no"),MessageBundle.get("GrxOpenHRPView.dialog.button.cancel")}, 2); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
-    			int ans = dialog.open();
+    			int ans = ui_.openQuestion(MessageBundle.get("GrxOpenHRPView.dialog.title.setupController"),MessageBundle.get("GrxOpenHRPView.dialog.message.setupController0")+controllerName+").\n" +MessageBundle.get("GrxOpenHRPView.dialog.message.setupController1"),new String[]{MessageBundle.get("GrxOpenHRPView.dialog.button.yes"),MessageBundle.get("GrxOpenHRPView.dialog.button.no"),MessageBundle.get("GrxOpenHRPView.dialog.button.cancel")}, 2); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
     			if (ans == 0) {
     				before = new Date();
     				j=0;
     			} else if (ans == 1) {
-    				MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), "", MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
+    				ui_.openInformation("", MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
     				return false;
     			} else {
-    				MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), "", MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
+    				ui_.openInformation("", MessageBundle.get("GrxOpenHRPView.dialog.message.failedController"));
     				return false;
     			}
     		} else {
@@ -961,28 +1254,13 @@ public class GrxSimulationItem extends GrxBaseItem {
     private boolean extendTime() {
     	if(!isInteractive_)
     		return false;
-    	boolean state = MessageDialog.openQuestion(GrxUIPerspectiveFactory.getCurrentShell(), MessageBundle.get("GrxOpenHRPView.dialog.title.timeUp"), MessageBundle.get("GrxOpenHRPView.dialog.message.TimeUp")); //$NON-NLS-1$ //$NON-NLS-2$
-    	if (state == true)
+    	double d = ui_.askExtendTime();
+    	if (d <= 0)
     		return false;
-	        
-    	String str = null;
-    	while (true) {
-    		InputDialog dialog = new InputDialog(GrxUIPerspectiveFactory.getCurrentShell(),MessageBundle.get("GrxOpenHRPView.dialog.title.ExtendTime"),MessageBundle.get("GrxOpenHRPView.dialog.message.extendTime"),"5.0",null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-    		int result = dialog.open();
-    		str = dialog.getValue();
-    		if (result == InputDialog.CANCEL)
-    			return false;
-    		try {
-    			double d = Double.parseDouble(str);
-    			if (d > 0) {
-    				//simParamPane_.setTotalTime(simParamPane_.getTotalTime() + d);
-    				totalTime_ = totalTime_ + d;
-    				setDbl("totalTime", totalTime_);
-    				currentWorld_.extendTime(totalTime_);
-    				break;
-    			}
-    		} catch (NumberFormatException e) {}
-    	}
+    	//simParamPane_.setTotalTime(simParamPane_.getTotalTime() + d);
+    	totalTime_ = totalTime_ + d;
+    	setDbl("totalTime", totalTime_);
+    	currentWorld_.extendTime(totalTime_);
     	return true;
     }   
 	    
@@ -1013,12 +1291,19 @@ public class GrxSimulationItem extends GrxBaseItem {
 		str = getProperty("viewsimulate");
 		if(str==null)
 			setBool("viewsimulate", false);
+		str = getProperty("parallelControllers");
+		if(str==null)
+			setBool("parallelControllers", false);
+		str = getProperty("stepProfile");
+		if(str==null)
+			setProperty("stepProfile", ""); //$NON-NLS-1$ //$NON-NLS-2$
     }
     
     public ValueEditType GetValueEditType(String key) {
         if(key.equals("method")){
             return new ValueEditCombo(methodComboItem_);
-        }else if(key.equals("integrate") || key.equals("viewsimulate") || key.equals("realTime")){
+        }else if(key.equals("integrate") || key.equals("viewsimulate") || key.equals("realTime")
+                || key.equals("parallelControllers")){
             return new ValueEditCombo(booleanComboItem_);
         }
         return super.GetValueEditType(key);
@@ -20,10 +20,7 @@ package com.generalrobotix.ui.item;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.Runtime;
-import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import javax.vecmath.Matrix3d;
 
@@ -58,20 +55,33 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 	public static final double DEFAULT_TOTAL_TIME = 20.0;
     private static final int MAX_RAM_BUFFER_SIZE = -1; // 無制限
     private static final int LOAD_LOG_MODITOR_DIM = 32; // プログレスモニター用定数
-    private static final long HEAP_MEMORY_TOLERANCE = 4*1024*1024; //残りヒープメモリサイズの許容量
-    private static final String OVER_HEAP_LOG_DIR_NAME = "over"; //ヒープメモリを超えたときにログを退避させるディレクトリ //$NON-NLS-1$
+    private static final int DEFAULT_MEMORY_BUDGET = 256; // useDiskがfalseの時にメモリ上に保持するログの容量[MB]
+    private static final double DEFAULT_COMPARE_TOLERANCE = 1.0e-6; // ログの比較で乖離とみなす偏差
+    private static final String COMPARE_DIR_POSTFIX = "-compare"; // 比較するログを展開するディレクトリ //$NON-NLS-1$
+    private static final int DEFAULT_FRAME_CACHE_SIZE = 64; // ログから読み出したフレームのキャッシュ容量[MB]
+    private static final long FRAME_OVERHEAD_SIZE = 64; // フレームのサイズ見積もりに使うオブジェクト1個当りの大きさ[byte]
 	private static String LOG_DIR;
 	
 	private WorldStateEx newStat_ = null;
 	private WorldStateEx preStat_ = null;
-	private int prePos_ = -1;
+	private WorldStateEx recycledStat_ = null; // ファイルに記録している間、毎ステップ使い回す状態
+	private long preRecord_ = -1; // preStat_のログ上のレコード番号
+	private final FrameCache frameCache_ = new FrameCache(); // ログから読み出したフレーム(読み出し後は変更しない)
+	private WorldStateEx frameTemplate_ = null; // ログから読み出すフレームの雛形
+	private float[][] readBuf_ = null;
+	private final FramePrefetcher prefetcher_ = new FramePrefetcher();
+	private boolean prefetch_ = true;
+	private boolean useDisk_ = true;
     
     public  final LogManager logger_ = new LogManager();
 	private float   recDat_[][];
     private String  lastCharName_ = null;
 	private boolean initLogFlag_ = false;
-	private boolean useDisk_ = true;
 	private boolean storeAllPos_ = true;
+	private String containerPath_ = null; // 最後に保存・読み込みしたコンテナ(上書き保存は増分だけを書き込む)
+	private List<LogComparator.Result> compareResults_ = new ArrayList<LogComparator.Result>();
+	private List<String> compareMismatches_ = new ArrayList<String>();
+	private String compareFile_ = null;
 	
 	private Action save_ = new Action(){
         public String getText(){ return MessageBundle.get("GrxWorldStateItem.menu.saveLog"); } //$NON-NLS-1$
@@ -83,7 +93,36 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
                         MessageBundle.get("GrxWorldStateItem.dialog.message.saveLog")); //$NON-NLS-1$
                 return;
             }
-			_saveLog();
+			if (containerPath_ != null)
+				_saveContainer(containerPath_);
+			else
+				_saveLogAs();
+		}
+	};
+	private Action saveAs_ = new Action(){
+        public String getText(){ return MessageBundle.get("GrxWorldStateItem.menu.saveLogAs"); } //$NON-NLS-1$
+		public void run(){
+            if(isRemoved()){
+                MessageDialog.openWarning(
+                        GrxUIPerspectiveFactory.getCurrentShell(),
+                        MessageBundle.get("GrxWorldStateItem.dialog.title.saveLog"), //$NON-NLS-1$
+                        MessageBundle.get("GrxWorldStateItem.dialog.message.saveLog")); //$NON-NLS-1$
+                return;
+            }
+			_saveLogAs();
+		}
+	};
+	private Action export_ = new Action(){
+        public String getText(){ return MessageBundle.get("GrxWorldStateItem.menu.exportLog"); } //$NON-NLS-1$
+		public void run(){
+            if(isRemoved()){
+                MessageDialog.openWarning(
+                        GrxUIPerspectiveFactory.getCurrentShell(),
+                        MessageBundle.get("GrxWorldStateItem.dialog.title.saveLog"), //$NON-NLS-1$
+                        MessageBundle.get("GrxWorldStateItem.dialog.message.saveLog")); //$NON-NLS-1$
+                return;
+            }
+			_exportLog();
 		}
 	};
 	private Action saveCSV_ = new Action(){
@@ -99,6 +138,21 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
             _saveCSV();
 		}
 	};
+	private Action compare_ = new Action(){
+        public String getText(){ return MessageBundle.get("GrxWorldStateItem.menu.compareLog"); } //$NON-NLS-1$
+		public void run(){
+	        FileDialog fdlg = new FileDialog(GrxUIPerspectiveFactory.getCurrentShell(), SWT.OPEN);
+	        fdlg.setFilterExtensions(new String[]{"*.log;"+LogManager.CONTAINER_MANIFEST}); //$NON-NLS-1$
+	        fdlg.setFilterPath(getDefaultDir().getAbsolutePath());
+	        final String fPath = fdlg.open();
+	        if (fPath == null)
+	        	return;
+	        File f = new File(fPath);
+	        if (f.getName().equals(LogManager.CONTAINER_MANIFEST))
+	        	f = f.getParentFile();
+			_compareLog(f);
+		}
+	};
 	private Action clear_ = new Action(){
         public String getText(){ return MessageBundle.get("GrxWorldStateItem.menu.clearLog"); } //$NON-NLS-1$
 		public void run(){
@@ -109,6 +163,8 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 	
 	private AxisAngle4d a4d = new AxisAngle4d();
 	private Matrix3d m3d = new Matrix3d();
+	private Time logTime_ = new Time();
+	private CollisionPoint[] collisionBuf_ = new CollisionPoint[0];
 	private AxisAngle4d a4dg = new AxisAngle4d();
 	private Matrix3d m3dg = new Matrix3d();
 
@@ -125,16 +181,25 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
             public String getText(){ return MessageBundle.get("GrxWorldStateItem.menu.loadLog"); } //$NON-NLS-1$
     		public void run(){
     	        FileDialog fdlg = new FileDialog(GrxUIPerspectiveFactory.getCurrentShell(), SWT.OPEN);
-    	        fdlg.setFilterExtensions(new String[]{"*.log"}); //$NON-NLS-1$
+    	        fdlg.setFilterExtensions(new String[]{"*.log;"+LogManager.CONTAINER_MANIFEST}); //$NON-NLS-1$
     	        fdlg.setFilterPath(getDefaultDir().getAbsolutePath());
-    	        final String fPath = fdlg.open();                
-    			_loadLog(new File(fPath));
-    			setDefaultDirectory(new File(fPath).getParent());
+    	        final String fPath = fdlg.open();
+    	        if (fPath == null)
+    	        	return;
+    	        // コンテナはディレクトリ内のmanifestを選択して開く
+    	        File f = new File(fPath);
+    	        if (f.getName().equals(LogManager.CONTAINER_MANIFEST))
+    	        	f = f.getParentFile();
+    			_loadLog(f);
+    			setDefaultDirectory(f.getParent());
     		}
     	};
 		setMenuItem(save_);
+		setMenuItem(saveAs_);
+		setMenuItem(export_);
 		setMenuItem(load);
 		setMenuItem(saveCSV_);
+		setMenuItem(compare_);
 		setMenuItem(clear_);
 
 		setExclusive(true);
@@ -160,21 +225,31 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
     
 	public void setLogMenus(boolean bAble){
         save_.setEnabled(bAble);
+        saveAs_.setEnabled(bAble);
+        export_.setEnabled(bAble);
         saveCSV_.setEnabled(bAble);
+        compare_.setEnabled(bAble);
         clear_.setEnabled(bAble);
     }
     
 	public void restoreProperties() {
 		super.restoreProperties();
-		useDisk_ = isTrue("useDisk", true); //$NON-NLS-1$
 		storeAllPos_ = isTrue("storeAllPosition", storeAllPos_); //$NON-NLS-1$
-        int size = getInt("bufferSize", MAX_RAM_BUFFER_SIZE); //$NON-NLS-1$
+		logger_.setColumnLog(isTrue("columnLog", false)); //$NON-NLS-1$
+		logger_.setSummaryLog(isTrue("summaryLog", true)); //$NON-NLS-1$
+		logger_.setLogEncoding(getStr("logEncoding", "RAW")); //$NON-NLS-1$ //$NON-NLS-2$
+		logger_.setArchiveMethod(getStr("logArchiveMethod", "DEFLATED")); //$NON-NLS-1$ //$NON-NLS-2$
+		frameCache_.setCapacity(getInt("frameCacheSize", DEFAULT_FRAME_CACHE_SIZE) * 1024L * 1024L); //$NON-NLS-1$
+		prefetch_ = isTrue("prefetch", true); //$NON-NLS-1$
+		// useDiskがfalseの時は、memoryBudgetの容量までログをヒープ外のメモリ上に保持してからファイルへ書き出す
+		useDisk_ = isTrue("useDisk", true); //$NON-NLS-1$
 		if ( useDisk_ ) {
-			super.setMaximumLogSize(MAX_RAM_BUFFER_SIZE);
+			logger_.setMemoryBudget(0);
 		} else {
 			GrxDebugUtil.println("GrxWorldStateItem: useDisk = false"); //$NON-NLS-1$
-			super.setMaximumLogSize(size);
+			logger_.setMemoryBudget(getInt("memoryBudget", DEFAULT_MEMORY_BUDGET) * 1024L * 1024L); //$NON-NLS-1$
 		}
+		super.setMaximumLogSize(MAX_RAM_BUFFER_SIZE);
 	}
 	
 	public void rename(String newName) {
@@ -195,15 +270,19 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 	public void clearLog() {
 		super.clearLog();
         initLogFlag_ = false;
+        containerPath_ = null;
+        compareResults_ = new ArrayList<LogComparator.Result>();
+        compareMismatches_ = new ArrayList<String>();
+        compareFile_ = null;
 		logger_.init();
 		newStat_ = null;
+		recycledStat_ = null;
 		preStat_ = null;
-		prePos_ = -1;
+		_resetFrameCache(null);
 		lastCharName_ = null;
         setLogMenus(false);
         remove("url");
-        if(useDisk_)
-        	logger_.closeReads();
+        logger_.closeReads();
 		syncExec(new Runnable(){
         	public void run(){
         		notifyObservers("ClearLog"); //$NON-NLS-1$
@@ -298,74 +377,83 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 		logList.add("powerState");
 		logList.add("float[2]");
 		try {
-			logger_.addLogObject(cname, logList.toArray(new String[0]));
+			// プロパティlogChannelsでチャンネル毎の間引き率を指定する(LogChannelProfile)
+			int[] decimation = null;
+			LogChannelProfile profile = new LogChannelProfile(getStr("logChannels", "")); //$NON-NLS-1$ //$NON-NLS-2$
+			if (!profile.isEmpty()) {
+				double timeStep = getDbl("logTimeStep", 0.001); //$NON-NLS-1$
+				decimation = new int[logList.size() / 2];
+				decimation[0] = 1;
+				for (int i = 1; i < decimation.length; i++)
+					decimation[i] = profile.getDecimation(cname, logList.get(i * 2), timeStep);
+			}
+			logger_.addLogObject(cname, logList.toArray(new String[0]), decimation);
+		} catch (IllegalArgumentException e) {
+			GrxDebugUtil.printErr("logChannels: " + e.getMessage()); //$NON-NLS-1$
+			try {
+				logger_.addLogObject(cname, logList.toArray(new String[0]));
+			} catch (LogFileFormatException ex) {
+				ex.printStackTrace();
+			}
 		} catch (LogFileFormatException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * addValue()に渡す状態を返す。
+	 * addValue()後に状態を保持しないので、同じオブジェクトを使い回す。
+	 */
+	public WorldStateEx obtainWorldState(WorldState wstate) {
+		if (recycledStat_ == null)
+			recycledStat_ = new WorldStateEx();
+		recycledStat_.setWorldState(wstate);
+		return recycledStat_;
+	}
+
 	public void addValue(Double t, Object obj) {
-		if ( useDisk_ ) {
-            _addValueToLog(t, obj);
-        }else {
-            if(overPos_ > 0){
-                // メモリ＋ファイル記録のログのファイル記録
-                _addValueToLog(t, obj);
-                ++overPos_;
-            } else {
-                if( Runtime.getRuntime().freeMemory() < HEAP_MEMORY_TOLERANCE){
-                    //メモリからファイルへのログ保存に切替
-                    File f = new File(tempDir_);
-                    File pf = f.getParentFile();
-                    if (!pf.isDirectory()){
-                        pf.mkdir();
-                    }
-                    tempDir_ = tempDirBase_ + getName() + File.separator + OVER_HEAP_LOG_DIR_NAME;
-                    changePos_ = super.getLogSize();
-                    _addValueToLog(t, obj);
-                    ++overPos_;
-                } else {
-                    super.addValue(t, obj);
-                }
-            }
-        }
+        if (obj instanceof WorldStateEx)
+            addValue((WorldStateEx) obj);
     }
 
-    private void _addValueToLog(Double t, Object obj){
-        if (obj instanceof WorldStateEx) {
-            newStat_ = (WorldStateEx) obj;
+	/**
+	 * 状態をログに追加する。時刻はstate.timeを使う。
+	 * 時刻をDoubleにしないので、記録中はオブジェクトを生成しない。
+	 */
+	public void addValue(WorldStateEx state) {
+        newStat_ = state;
+        // 記録中の保存(saveContainer)がフレームの途中までを保存しないようにする
+        synchronized (logger_.getWriteLock()) {
             _initLog();
             _toLogFile(logger_);
-            super.addValue(newStat_.time, null);
-        }
-    }
-
-    private void _addValueToLogFromSuperLog(Double t, Object obj, LogManager temp){
-        if (obj instanceof WorldStateEx) {
-            newStat_ = (WorldStateEx) obj;
-            if(temp == logger_){
-                _initLog();
-            }
-            _toLogFile(temp);
         }
+        addTimedValue(newStat_.time, null);
     }
 
     private void _toLogFile(LogManager temp){
-        temp.setTime(new Time((float)newStat_.time));
+        logTime_.set((float)newStat_.time);
+        temp.setTime(logTime_);
         
         try {
             Collision[] cols = newStat_.collisions;
             if (cols != null && cols.length > 0) {
-                List<CollisionPoint> cdList = new ArrayList<CollisionPoint>();
+                int n = 0;
+                for (int i=0; i < cols.length; i++) {
+                    if( cols[i].points != null)
+                        n += cols[i].points.length;
+                }
+                if (collisionBuf_.length < n)
+                    collisionBuf_ = new CollisionPoint[Math.max(n, collisionBuf_.length * 2)];
+                n = 0;
                 for (int i=0; i < cols.length; i++) {
                     if( cols[i].points == null){
                         continue;
                     }
                     for (int j=0; j<cols[i].points.length; j++) 
-                        cdList.add(cols[i].points[j]);
+                        collisionBuf_[n++] = cols[i].points[j];
                 }
-                CollisionPoint[] cd = cdList.toArray(new CollisionPoint[0]);
-                temp.putCollisionPointData(cd);
+                temp.putCollisionPointData(collisionBuf_, n);
+                Arrays.fill(collisionBuf_, 0, n, null);
             }
         } catch (Exception e) {
             GrxDebugUtil.printErr("",e); //$NON-NLS-1$
@@ -421,10 +509,8 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
             }
             if (cpos.servoState != null){
             	for (int j=0; j<cpos.servoState.length; j++){
-            		ByteBuffer buffer = ByteBuffer.allocate(10);
-            		buffer.putInt(cpos.servoState[j]);
-            		float f = buffer.getFloat(0);
-            		recDat_[i][k++] = f;
+            		// ビット列をそのままfloatとして記録する
+            		recDat_[i][k++] = Float.intBitsToFloat(cpos.servoState[j]);
             		//recDat_[i][k++] = (float)cpos.servoState[j];
             	}
             }
@@ -467,6 +553,8 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 		}else
 			val = DEFAULT_TOTAL_TIME;
 		stime.setTotalTime(val);
+		// 記録中に時刻の索引を拡張しないように、総時間分を確保しておく
+		ensureCapacity((int)Math.min(Integer.MAX_VALUE, Math.ceil(val / stime.getTimeStep()) + 2));
 		
 		logger_.setTempDir(tempDir_);
 		
@@ -484,63 +572,140 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 		recDat_ = new float[logger_.getLogObjectNum()][];
 		for (int i=0; i<recDat_.length; i++)
 			recDat_[i] = new float[logger_.getDataLength(newStat_.charList.get(i).characterName)];
-		preStat_ = newStat_;
+		// newStat_は使い回されるので、ログの読み出し先は別に持つ
+		try {
+			preStat_ = (WorldStateEx) newStat_.clone();
+		} catch (CloneNotSupportedException e) {
+			e.printStackTrace();
+		}
+		_resetFrameCache(preStat_);
 	}
 
 	public WorldStateEx getValue() {
         WorldStateEx ret = null;
         
         int pos = getPosition();
-        if(useDisk_){
-            if (pos >= 0){
-                if (pos == getLogSize()-1 && newStat_ != null){
-                    ret = newStat_;
-                }
-                if (pos != prePos_ && preStat_ != null)
-                    ret = getValue(pos);
-            }
-        } else {
-            if( pos > changePos_ && changePos_ >= 0){
-                ret = _getValueFromLog( pos - changePos_ );
-            } else {
-                ret = (WorldStateEx)super.getValue(pos);
+        if (pos >= 0){
+            if (pos == getLogSize()-1 && newStat_ != null){
+                ret = newStat_;
             }
+            if (ret == recycledStat_ && ret != null)
+                ret = _getValueFromLog(pos);    // newStat_は次のステップで書き換わる
+            else if (_record(pos) != preRecord_ && preStat_ != null)
+                ret = getValue(pos);
         }
 		return ret;
 	}
 
+	/**
+	 * getColumns()で読み出すチャンネル名の一覧。配列のチャンネルは全要素に展開する
+	 *
+	 * @param charName キャラクタ名
+	 * @param channels チャンネル名("time", "ノード.属性", 配列の要素は"ノード.属性.添字")
+	 * @return 見つからないチャンネルがある場合はnull
+	 */
+	public String[] getColumnNames(String charName, String[] channels) {
+		return logger_.getColumnNames(charName, channels);
+	}
+
+	/**
+	 * キャラクタのログから指定したチャンネルを、時刻の範囲[startTime, endTime]について列毎にまとめて読み出す。
+	 * スクリプトからgetValue()で1フレームずつ読み出すよりも速い。
+	 *
+	 * @return [列][フレーム]。列の並びはgetColumnNames()の順
+	 */
+	public double[][] getColumns(String charName, String[] channels, double startTime, double endTime) throws IOException {
+		return logger_.getColumns(charName, channels, startTime, endTime);
+	}
+
+	/**
+	 * キャラクタのログから指定したチャンネルを、位置の範囲[startPos, endPos]について列毎にまとめて読み出す
+	 *
+	 * @see #getColumns(String, String[], double, double)
+	 */
+	public double[][] getColumnsByPosition(String charName, String[] channels, int startPos, int endPos) throws IOException {
+		return logger_.getColumns(charName, channels, _record(startPos), Math.max(0, endPos - startPos + 1));
+	}
+
+	/**
+	 * 時刻の範囲[startTime, endTime]をchunkSizeフレーム毎に区切って列毎に読み出す。範囲全体がメモリに入らない場合に使う
+	 *
+	 * @see #getColumns(String, String[], double, double)
+	 */
+	public LogColumnIterator iterateColumns(String charName, String[] channels, double startTime, double endTime, int chunkSize) throws IOException {
+		return logger_.iterateColumns(charName, channels, startTime, endTime, chunkSize);
+	}
+
 	public WorldStateEx getValue(int pos) {
         WorldStateEx ret = null;
 		if (pos >= 0){
-    		if ( useDisk_ ){
-                ret = _getValueFromLog( pos );
-            } else {
-                if( pos > changePos_ && changePos_ >= 0 ){
-                    ret = _getValueFromLog(pos - changePos_);
-                } else {
-                    ret = (WorldStateEx)super.getValue(pos);
-                }
-            }
+            ret = _getValueFromLog( pos );
         }
 		return ret;
 	}
 	
     private WorldStateEx _getValueFromLog(int pos){
-        if(pos == prePos_)
-            return preStat_;
+        long record = _record(pos);
+        synchronized (frameCache_) {
+            if(record == preRecord_)
+                return preStat_;
+
+            WorldStateEx frame = frameCache_.get(record);
+            if (frame == null) {
+                frame = _readFrame(record);
+                if (frame == null)
+                    return null;
+                frameCache_.put(record, frame, _getFrameSize(frame));
+            }
+            preStat_ = frame;
+            preRecord_ = record;
+            return frame;
+        }
+    }
+
+    /**
+     * 位置posのフレームのログ上のレコード番号。
+     * 系列の先頭から削除したフレームもログには残っているので、削除した数だけずれる
+     */
+    private long _record(int pos) {
+        return getEvictedCount() + pos;
+    }
 
+    /**
+     * ログのrecord番目のフレームを新しいWorldStateExへ読み出す
+     */
+    private WorldStateEx _readFrame(long record){
+        if (frameTemplate_ == null)
+            return null;
+        WorldStateEx frame = null;
         try {        
-            preStat_.collisions = new Collision[]{new Collision()};
-            preStat_.collisions[0].points = logger_.getCollisionPointData(pos);
+            frame = (WorldStateEx) frameTemplate_.clone();
+            frame.collisionPoints = new CollisionPointBuffer();
+            logger_.getCollisionPointData((int)record, frame.collisionPoints);
+            frame.collisions = null;
             
-            for (int i=0; i<preStat_.charList.size(); i++) {
+            if (readBuf_ == null || readBuf_.length != frame.charList.size())
+                readBuf_ = new float[frame.charList.size()][];
+            for (int i=0; i<frame.charList.size(); i++) {
                 int k=0;
-                CharacterStateEx cpos = preStat_.charList.get(i);
-                float[] f = logger_.get(cpos.characterName, (long)pos);
-                preStat_.time = (double)f[k++];
+                CharacterStateEx cpos = frame.charList.get(i);
+                int len = logger_.getDataLength(cpos.characterName);
+                if (readBuf_[i] == null || readBuf_[i].length != len)
+                    readBuf_[i] = new float[len];
+                float[] f = logger_.get(cpos.characterName, record, readBuf_[i]);
+                frame.time = (double)f[k++];
                 for (int j=0; j<cpos.position.length; j++) {
                     LinkPosition lpos = cpos.position[j];
-                    if (storeAllPos_ || j == 0) { 
+                    if ((storeAllPos_ || j == 0) && Float.isNaN(f[k])) {
+                        // 記録しないチャンネル
+                        k += 7;
+                        lpos.p = null;  // to calculate kinema in model
+                        lpos.R = null;  // to calculate kinema in model
+                    } else if (storeAllPos_ || j == 0) { 
+                        if (lpos.p == null)
+                            lpos.p = new double[3];
+                        if (lpos.R == null)
+                            lpos.R = new double[9];
                         for (int m=0; m<3; m++)
                             lpos.p[m] = (double)f[k++];
                         a4dg.set((double)f[k++], (double)f[k++], (double)f[k++], (double)f[k++]);
@@ -592,10 +757,7 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
                 }
                 if (cpos.servoState != null){
                 	for (int j=0; j<cpos.servoState.length; j++){
-                		ByteBuffer buffer = ByteBuffer.allocate(10);
-                		buffer.putFloat(f[k++]);
-                		int ss = buffer.getInt(0);
-                		cpos.servoState[j] = ss;
+                		cpos.servoState[j] = Float.floatToRawIntBits(f[k++]);
                 		//cpos.servoState[j] = (int)f[k++];
                 	}
                 }
@@ -607,20 +769,71 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+        return frame;
+    }
+
+    /**
+     * キャッシュ容量の計算に使うフレームのおおよそのサイズ[byte]
+     */
+    private long _getFrameSize(WorldStateEx frame) {
+        long size = FRAME_OVERHEAD_SIZE;
+        if (frame == null)
+            return size;
+        for (int i=0; i<frame.charList.size(); i++) {
+            CharacterStateEx cpos = frame.charList.get(i);
+            size += 8L * logger_.getDataLength(cpos.characterName) + FRAME_OVERHEAD_SIZE;
+            if (cpos.position != null)
+                size += 2L * FRAME_OVERHEAD_SIZE * cpos.position.length;
+        }
+        if (frame.collisionPoints != null)
+            size += 56L * frame.collisionPoints.capacity();
+        return size;
+    }
+
+    /**
+     * ログから読み出したフレームのキャッシュのヒット数
+     */
+    public long getFrameCacheHits() {
+        return frameCache_.getHits();
+    }
+
+    /**
+     * ログから読み出したフレームのキャッシュのミス数
+     */
+    public long getFrameCacheMisses() {
+        return frameCache_.getMisses();
+    }
+
+    /**
+     * キャッシュしているフレームを破棄する。
+     * templateは以後のフレームの読み出しに使う雛形(null可)
+     */
+    private void _resetFrameCache(WorldStateEx template) {
+        synchronized (frameCache_) {
+            frameCache_.clear();
+            frameTemplate_ = template;
+            readBuf_ = null;
+            preRecord_ = -1;
         }
-        prePos_ = pos;
-        return preStat_;
     }
     
+    
 	private void _loadLog(final File logFile) {
         try {
 	        IRunnableWithProgress op = new IRunnableWithProgress() {
 				public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
                     int size = 0;
                     try{
-                        ZipFile local = new ZipFile(logFile);
-                        size = local.size();
-                        local.close();
+                        if (LogManager.isContainer(logFile)) {
+                            size = 0;
+                        } else {
+                            ZipFile local = new ZipFile(logFile);
+                            size = local.size();
+                            local.close();
+                        }
                     } catch ( IOException ex ){
                         ex.printStackTrace();
                         return;
@@ -650,13 +863,16 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 			if (logFile == null) 
 				logFile = new File("log"+File.separator+getName()+".log"); //$NON-NLS-1$ //$NON-NLS-2$
 
-			if (!logFile.isFile())
+			boolean isContainer = LogManager.isContainer(logFile);
+			if (!logFile.isFile() && !isContainer)
 				return;
 
             clearLog();
             tempDir_ = tempDirBase_ + getName();
 			logger_.setTempDir(tempDir_);
 			logger_.load(fname, ""); //$NON-NLS-1$
+			if (isContainer)
+				containerPath_ = fname;
             
 			monitor.worked(1);
 			final SimulationTime sTime = new SimulationTime();
@@ -674,18 +890,15 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 			logger_.openCollisionLogAsRead();
 			
             preStat_ = new WorldStateEx();
-            Enumeration<? extends ZipEntry> e = new ZipFile(fname).entries();
-            while (e.hasMoreElements()) {
+            String[] objectNames = logger_.getLogObjectNames();
+            for (int n = 0; n < objectNames.length; n++) {
                 monitor.worked(1);
                 if (monitor.isCanceled())
                     throw new InterruptedException();
-            	String entry = ((ZipEntry)e.nextElement()).getName();
-            	if (entry.indexOf(LogManager.COLLISION_LOG_NAME) >= 0 ||
-            	    entry.indexOf(LogManager.COLLISION_LOG_DAT_NAME) >= 0) {
-            	    continue;
-                }
-                
-            	lastCharName_ = new File(entry).getName().split(".tmp")[0]; //$NON-NLS-1$
+            	String charName = objectNames[n];
+            	if (logger_.isRateGroup(charName))
+            	    continue;   // 間引いて記録したチャンネルは所有者のオブジェクトから読み出す
+            	lastCharName_ = charName;
             	String[] format = logger_.getDataFormat(lastCharName_);
             	List<LinkPosition> lposList = new ArrayList<LinkPosition>();
             	int jointCount = 0;
@@ -734,6 +947,7 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
             	preStat_.charList.add(cpos);
             	preStat_.charMap.put(lastCharName_, cpos);
             }
+            _resetFrameCache(preStat_);
             
             int datLen = logger_.getRecordNum(lastCharName_);
             
@@ -748,38 +962,12 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
             
             monitor.worked(1);
 
-            if( !useDisk_ ){
-                recDat_ = new float[logger_.getLogObjectNum()][];
-                for (int i=0; i<recDat_.length; i++)
-                    recDat_[i] = new float[logger_.getDataLength(preStat_.charList.get(i).characterName)];
-            }
-            
             for (int i=0; i < datLen; i++){
-                if ( useDisk_ ) {
-                    try{
-                        super.addValue( null , null);
-                    } catch (Exception ex){
-                        ex.printStackTrace();
-                        break;
-                    }
-                } else {
-                    //メモリーに展開する場合
-                    WorldStateEx worldState = _getValueFromLog(i);
-                    
-                    if( Runtime.getRuntime().freeMemory() < HEAP_MEMORY_TOLERANCE){
-                        //ヒープメモリが足りない場合の処理
-                        _createOverLog( worldState.time,
-                                        i  == 0 ? worldState.time : getTime(0),
-                                        i, datLen - i);
-                        break;
-                    }
-                    
-                    try{
-                        super.addValue( worldState.time , worldState.clone());
-                    } catch (Exception ex){
-                        ex.printStackTrace();
-                        break;
-                    }
+                try{
+                    super.addValue( null , null);
+                } catch (Exception ex){
+                    ex.printStackTrace();
+                    break;
                 }
                 
                 //プログレスチェックと処理
@@ -819,31 +1007,80 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
         }
 	}
 
-	private void _saveLog() {
+	private void _saveLogAs() {
+        FileDialog fdlg = new FileDialog(GrxUIPerspectiveFactory.getCurrentShell(), SWT.SAVE);
+        fdlg.setFileName(GrxWorldStateItem.this.getName()+"."+LogManager.CONTAINER_EXTENSION); //$NON-NLS-1$
+        fdlg.setFilterExtensions(new String[]{"*."+LogManager.CONTAINER_EXTENSION}); //$NON-NLS-1$
+        fdlg.setFilterPath(getDefaultDir().getAbsolutePath());
+        final String fPath = fdlg.open();
+        if (fPath != null)
+        	_saveContainer(fPath);
+	}
+
+	/**
+	 * コンテナへ保存する。記録中でも記録を止めずに、ここまでのログを保存する
+	 */
+	private void _saveContainer(final String fPath) {
+        IRunnableWithProgress op = new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
+				try {
+                    logger_.saveContainer(fPath, getName()+".prj", monitor); //$NON-NLS-1$
+				} catch (InterruptedIOException ex){
+                    throw new InterruptedException();
+				} catch (IOException ex){
+                    throw new InvocationTargetException(ex);
+				}
+			}
+		};
+        try {
+            new ProgressMonitorDialog(GrxUIPerspectiveFactory.getCurrentShell()).run(true, true, op);
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            // 保存先がコンテナではない空でないディレクトリの場合なども含む
+            MessageDialog.openError(
+                    GrxUIPerspectiveFactory.getCurrentShell(),
+                    MessageBundle.get("GrxWorldStateItem.dialog.title.saveLog"), //$NON-NLS-1$
+                    e.getCause().getMessage());
+            return;
+        } catch (InterruptedException e) {
+            // 中断された場合、コンテナは前回保存した状態のまま
+            return;
+        }
+        _setContainerPath(fPath);
+	}
+
+	/**
+	 * @brief save log to container directory without progress dialog
+	 * 画面を使わずに実行する場合に使う。
+	 * @param fPath container directory
+	 * @throws IOException
+	 */
+	public void saveLog(String fPath) throws IOException {
+		logger_.saveContainer(fPath, getName()+".prj", null); //$NON-NLS-1$
+		_setContainerPath(fPath);
+	}
+
+	private void _setContainerPath(String fPath) {
+        containerPath_ = fPath;
+		setDefaultDirectory(new File(fPath).getParent());
+		setURL(fPath);
+	}
+
+	private void _exportLog() {
         FileDialog fdlg = new FileDialog(GrxUIPerspectiveFactory.getCurrentShell(), SWT.SAVE);
         fdlg.setFileName(GrxWorldStateItem.this.getName()+".log"); //$NON-NLS-1$
         fdlg.setFilterExtensions(new String[]{"*.log"}); //$NON-NLS-1$
         fdlg.setFilterPath(getDefaultDir().getAbsolutePath());
         final String fPath = fdlg.open();
         if (fPath != null) {
-	 		Thread t = new Thread() {
-				public void run() {
+	        IRunnableWithProgress op = new IRunnableWithProgress() {
+				public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
 					try {
-                        if( useDisk_ ){
-                            // 従来の処理
-                            logger_.closeAsWrite();
-                            logger_.closeCollisionLogAsWrite();
-                            logger_.save(fPath, getName()+".prj"); //$NON-NLS-1$
-                        } else {
-                            // オンメモリデータをファイルへ
-                            LogManager temp = _restoreLogFileFromSuperLog();
-                            if(temp != null){
-                                temp.save(fPath, getName()+".prj"); //$NON-NLS-1$
-                                if(temp != logger_){
-                                    temp.closeReads();
-                                }
-                            }
-                        }
+                        logger_.closeAsWrite();
+                        logger_.closeCollisionLogAsWrite();
+                        logger_.save(fPath, getName()+".prj", monitor); //$NON-NLS-1$
+					} catch (InterruptedIOException ex){
+                        throw new InterruptedException();
 					} catch (IOException ex){
                         ex.printStackTrace();
                     } catch (Exception ex) {
@@ -851,149 +1088,19 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 					}
 				}
 			};
-			t.start();
+	        try {
+	            new ProgressMonitorDialog(GrxUIPerspectiveFactory.getCurrentShell()).run(true, true, op);
+	        } catch (InvocationTargetException e) {
+	            e.printStackTrace();
+	        } catch (InterruptedException e) {
+	            // 中断された場合、作成途中のファイルは削除済み
+	            return;
+	        }
 			setDefaultDirectory(new File(fPath).getParent());
 			setURL(fPath);
         }
 	}
     
-    private void _createOverLog(double currentTime, double startTime, int changePos, int overPos ){
-        changePos_ = changePos;
-        overPos_ = overPos;
-
-        // サブディレクトリOVER_HEAP_LOG_DIR_NAMEにuseDiskがfalseの時と同様のログを生成
-        LogManager temp = new LogManager(logger_);
-        if( temp == null){
-            return;
-        }
-        String overDir = tempDirBase_ + getName() + File.separator + OVER_HEAP_LOG_DIR_NAME;
-        temp.setTempDir( overDir );
-        SimulationTime stime = new SimulationTime();
-        logger_.getSimulationTime(stime);
-        stime.setStartTime(currentTime);
-        temp.initCollisionLog(stime);
-        try {
-            temp.openAsWrite(stime, logger_.getIntegrationMethodStr());
-            temp.openCollisionLogAsWrite();
-            temp.separateLogs(changePos);
-            temp.closeAsWrite();
-            temp.closeCollisionLogAsWrite();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        
-        // loggerをOVER_HEAP_LOG_DIR_NAMEディレクトリ以下のファイルを参照するように変更
-        logger_.closeReads();
-        logger_.setTempDir(overDir);
-        try {
-            logger_.openAsRead();
-            logger_.openCollisionLogAsRead();
-        } catch (FileOpenFailException e) {
-            e.printStackTrace();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        
-        //overPos部分の時間を登録
-        for(int i = 0; i < overPos; ++i){
-            try{
-                super.addValue( (double)logger_.get(lastCharName_, i)[0], null);
-            } catch (Exception ex){
-                ex.printStackTrace();
-                break;
-            }
-        }
-    }
-    
-    private LogManager _restoreLogFileFromSuperLog() {
-        LogManager ret = null;
-        if( changePos_ < 0 ){
-            // 全てのログがメモリにある場合
-            for(int index = 0; index < getLogSize(); ++index){
-                TValue localTValue = getObject(index);
-                _addValueToLogFromSuperLog(localTValue.getTime(), localTValue.getValue(), logger_);
-            }
-            try{
-                logger_.closeAsWrite();
-                logger_.closeCollisionLogAsWrite();
-                ret = logger_;
-            } catch (IOException ex){
-                ex.printStackTrace();
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        } else {
-            //全てのログがメモリにない場合
-            // 書き込みファイルストリームを全て閉じる
-            try{
-                logger_.closeAsWrite();
-                logger_.closeCollisionLogAsWrite();
-            } catch (IOException ex){
-                ex.printStackTrace();
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-            
-            // サブディレクトリOVER_HEAP_LOG_DIR_NAMEの親ディレクトリにuseDiskがtrueの時と同様のログを生成
-            LogManager temp = new LogManager(logger_);
-            if( temp == null){
-                return ret;
-            }
-            temp.setTempDir( tempDirBase_ + getName() );
-            SimulationTime stime = new SimulationTime();
-            stime.setCurrentTime(preStat_.time);
-            stime.setStartTime( super.getTime(0) );
-            
-            double localTime = getDbl("logTimeStep",0.001); //$NON-NLS-1$
-            stime.setTimeStep(localTime);
-                
-            GrxSimulationItem simItem = manager_.<GrxSimulationItem>getSelectedItem(GrxSimulationItem.class, null);
-            String method = "";
-    		if(simItem!=null){
-    			localTime = simItem.getDbl("totalTime", DEFAULT_TOTAL_TIME); //$NON-NLS-1$
-    			method = simItem.getStr("method");
-    		}else
-    			localTime = DEFAULT_TOTAL_TIME;
-            stime.setTotalTime(localTime);
-            temp.initCollisionLog(stime);
-            try {
-                temp.openAsWrite(stime, method);
-                temp.openAsRead();
-                temp.openCollisionLogAsWrite();
-                temp.openCollisionLogAsRead();
-            } catch (FileOpenFailException e) {
-                e.printStackTrace();
-            } catch (IOException e1) {
-                e1.printStackTrace();
-            }
-
-            //メモリ上のログをファイルへ展開
-            for(int index = 0; index < getLogSize(); ++index){
-                TValue localTValue = getObject(index);
-                Object val = localTValue.getValue();
-                if( val != null){
-                    _addValueToLogFromSuperLog(localTValue.getTime(), val, temp);
-                    continue;
-                }
-                break;
-            }
-            
-            try{
-                // 残りのサブディレクトリOVER_HEAP_LOG_DIR_NAMEのログを結合
-                temp.jointLogs();
-                temp.setTime( new Time( stime.getCurrentTime() ) );
-                temp.closeAsWrite();
-                temp.closeCollisionLogAsWrite();
-                ret = temp;
-            } catch (IOException ex){
-                ex.printStackTrace();
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        }
-        return ret;
-    }
-	
 	private void _saveCSV() {
         DirectoryDialog ddlg = new DirectoryDialog(GrxUIPerspectiveFactory.getCurrentShell());
         try {
@@ -1006,29 +1113,22 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
         if (dir != null){
             Thread t = new Thread() {
     			public void run() {
-                    LogManager temp = null;
-                    if( !useDisk_ ){                            
-                        // オンメモリデータをファイルへ
-                        temp = _restoreLogFileFromSuperLog();
+                    String[] names = new String[preStat_.charList.size()];
+    				for (int i=0; i<names.length; i++)
+    					names[i] = preStat_.charList.get(i).characterName;
+                    // 出力する列と時刻の範囲(指定が無い場合は全て)
+                    String cols = getStr("csvColumns", "").trim(); //$NON-NLS-1$ //$NON-NLS-2$
+                    String[] columns = cols.length() > 0 ? cols.split(" +") : null; //$NON-NLS-1$
+                    double[] range = getDblAry("csvTimeRange", null); //$NON-NLS-1$
+                    double startTime = Double.NEGATIVE_INFINITY, endTime = Double.POSITIVE_INFINITY;
+                    if (range != null && range.length == 2) {
+                        startTime = range[0];
+                        endTime = range[1];
                     }
-    				for (int i=0; i<preStat_.charList.size(); i++) {
-    					String name = preStat_.charList.get(i).characterName;
-                        String fname = dir+File.separator+name+".csv"; //$NON-NLS-1$
-    					try {
-                            if( useDisk_ ){                            
-                                logger_.saveCSV(fname, name);
-                            }else{
-                                // オンメモリデータをファイルへ
-                                if(temp != null){
-                                    temp.saveCSV(fname, name);
-                                }
-                            }
-    					} catch (FileOpenFailException e) {
-    						e.printStackTrace();
-    					}
-    				}
-                    if(temp != null && temp != logger_){
-                        temp.closeReads();
+                    try {
+                        logger_.saveCSV(dir, names, columns, startTime, endTime);
+                    } catch (FileOpenFailException e) {
+                        e.printStackTrace();
                     }
     			}
     		};
@@ -1037,13 +1137,102 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
         }
 	}
 	
+	private void _compareLog(final File logFile) {
+        IRunnableWithProgress op = new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
+				monitor.beginTask("Comparing log with:" + logFile.getName(), IProgressMonitor.UNKNOWN); //$NON-NLS-1$
+				try {
+					compareLog(logFile.getAbsolutePath(), getDbl("compareTolerance", DEFAULT_COMPARE_TOLERANCE)); //$NON-NLS-1$
+				} catch (InterruptedIOException ex){
+					throw new InterruptedException();
+				} catch (IOException ex){
+					throw new InvocationTargetException(ex);
+				}
+				monitor.done();
+			}
+		};
+        try {
+            new ProgressMonitorDialog(GrxUIPerspectiveFactory.getCurrentShell()).run(true, true, op);
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            MessageDialog.openError(GrxUIPerspectiveFactory.getCurrentShell(),
+                    MessageBundle.get("GrxWorldStateItem.dialog.title.errorLoadLogMessageDlg"), //$NON-NLS-1$
+                    MessageBundle.get("GrxWorldStateItem.dialog.message.errorIOException")); //$NON-NLS-1$
+        } catch (InterruptedException e) {
+        }
+		setDefaultDirectory(logFile.getParent());
+	}
+
+	/**
+	 * 現在のログとfileNameのログを比較し、結果をログ比較ビューに表示する。
+	 * 同じキャラクタの同じ名前のチャンネル同士を時刻で対応付けて比較する。
+	 *
+	 * @param fileName  比較するログ(zipまたはコンテナのディレクトリ)
+	 * @param tolerance 乖離とみなす偏差
+	 * @return チャンネル毎の比較結果
+	 */
+	public List<LogComparator.Result> compareLog(String fileName, double tolerance) throws IOException {
+		File dir = new File(tempDirBase_ + getName() + COMPARE_DIR_POSTFIX);
+		LogManager other = new LogManager();
+		other.init();
+		other.setTempDir(dir.getPath());
+		try {
+			other.load(fileName, ""); //$NON-NLS-1$
+			LogComparator comparator = new LogComparator(logger_, other);
+			comparator.setTolerance(tolerance);
+			compareResults_ = comparator.compare();
+			compareMismatches_ = comparator.getMismatches();
+			compareFile_ = fileName;
+		} catch (FileOpenFailException ex) {
+			throw new IOException("failed to open " + fileName); //$NON-NLS-1$
+		} catch (LogFileFormatException ex) {
+			throw new IOException("unknown log format: " + fileName); //$NON-NLS-1$
+		} finally {
+			other.init();
+			File[] files = dir.listFiles();
+			for (int i = 0; files != null && i < files.length; i++)
+				files[i].delete();
+		}
+		syncExec(new Runnable(){
+			public void run(){
+				notifyObservers("CompareLog"); //$NON-NLS-1$
+			}
+		});
+		return compareResults_;
+	}
+
+	public List<LogComparator.Result> compareLog(String fileName) throws IOException {
+		return compareLog(fileName, getDbl("compareTolerance", DEFAULT_COMPARE_TOLERANCE)); //$NON-NLS-1$
+	}
+
+	/**
+	 * 最後にcompareLog()した結果
+	 */
+	public List<LogComparator.Result> getCompareResults() {
+		return compareResults_;
+	}
+
+	/**
+	 * 最後にcompareLog()した時に片方のログにしか無かったオブジェクト・チャンネル
+	 */
+	public List<String> getCompareMismatches() {
+		return compareMismatches_;
+	}
+
+	/**
+	 * 最後にcompareLog()したログのファイル名(比較していない場合はnull)
+	 */
+	public String getCompareFile() {
+		return compareFile_;
+	}
+
 	public Double getTime(int pos) {
 		if (pos < 0)
 			return null;
 		Double t = super.getTime(pos);
 		if (t == null && lastCharName_ != null) {
             try {
-                float[] f = logger_.get(lastCharName_, pos);
+                float[] f = logger_.get(lastCharName_, _record(pos));
                 t = (double)f[0];
                 setTimeAt(pos, t);
             } catch (IOException e) {
@@ -1069,24 +1258,29 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 	}
 		
 	public void stopSimulation(){
-		if (useDisk_)
-			logger_.closeWrites();
+		logger_.closeWrites();
+		GrxDebugUtil.println("[" + getName() + "] log writer: records=" + logger_.getWrittenRecordNum() //$NON-NLS-1$ //$NON-NLS-2$
+				+ " batches=" + logger_.getWriteBatchNum() //$NON-NLS-1$
+				+ " maxQueueDepth=" + logger_.getWriteQueueMaxDepth() //$NON-NLS-1$
+				+ " backpressure=" + logger_.getWriteBackpressureCount() //$NON-NLS-1$
+				+ " (" + logger_.getWriteBackpressureTime() + "[s])"); //$NON-NLS-1$ //$NON-NLS-2$
 	}
     
-    public boolean isUseDsik(){ return useDisk_; }
-
     /**
 	 * set position of pointer
 	 * @param pos position
 	 */
     public void setPosition(Integer pos) {
-        if (super.setPosition(pos))
+        if (super.setPosition(pos)) {
+            _prefetch(pos);
             notifyPosition(pos);
+        }
     }
 
     // viewで指定された以外に通知  //
     public void setPosition(Integer pos, GrxBaseView view) {
         if (super.setPosition(pos)){
+            _prefetch(pos);
             ListIterator<GrxPositionObserver> it = pos_obs_.listIterator();
             while (it.hasNext()) {
                 GrxPositionObserver pos_ob = it.next();
@@ -1114,9 +1308,77 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
         }
     }
 
+	/**
+	 * ログから読み出したフレームの容量制限付きLRUキャッシュ。キーはログ上のレコード番号
+	 */
+	private static class FrameCache {
+		private final LinkedHashMap<Long, WorldStateEx> frames_ = new LinkedHashMap<Long, WorldStateEx>(16, 0.75f, true);
+		private final Map<Long, Long> sizes_ = new HashMap<Long, Long>();
+		private long capacity_ = DEFAULT_FRAME_CACHE_SIZE * 1024L * 1024L;
+		private long size_ = 0;
+		private long hits_ = 0;
+		private long misses_ = 0;
+
+		public synchronized void setCapacity(long capacity) {
+			capacity_ = capacity;
+			_evict();
+		}
+
+		public synchronized WorldStateEx get(long record) {
+			WorldStateEx frame = frames_.get(record);
+			if (frame != null)
+				hits_++;
+			else
+				misses_++;
+			return frame;
+		}
+
+		public synchronized void put(long record, WorldStateEx frame, long size) {
+			if (frame == null || size > capacity_)
+				return;
+			Long old = sizes_.put(record, size);
+			if (old != null)
+				size_ -= old.longValue();
+			frames_.put(record, frame);
+			size_ += size;
+			_evict();
+		}
+
+		public synchronized boolean contains(long record) {
+			return frames_.containsKey(record);
+		}
+
+		public synchronized long getCapacity() {
+			return capacity_;
+		}
+
+		public synchronized void clear() {
+			frames_.clear();
+			sizes_.clear();
+			size_ = 0;
+		}
+
+		public synchronized long getHits() {
+			return hits_;
+		}
+
+		public synchronized long getMisses() {
+			return misses_;
+		}
+
+		private void _evict() {
+			Iterator<Long> it = frames_.keySet().iterator();
+			while (size_ > capacity_ && it.hasNext()) {
+				size_ -= sizes_.remove(it.next()).longValue();
+				it.remove();
+			}
+		}
+	}
+
 	public static class WorldStateEx {
 		public double time;
 		public Collision[] collisions;
+		public CollisionPointBuffer collisionPoints;  // ログから読み出した干渉点(collisionsの代わりに使う)
 		private List<CharacterStateEx> charList = new ArrayList<CharacterStateEx>();
 		private Map<String, CharacterStateEx> charMap = new HashMap<String, CharacterStateEx>();
 		
@@ -1159,6 +1421,7 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 		public void setWorldState(WorldState wstate) {
 			time = wstate.time;
 			collisions = wstate.collisions;
+			collisionPoints = null;
 			for (int i=0; i<wstate.characterPositions.length; i++) {
 				_get(wstate.characterPositions[i].characterName).position = 
 					wstate.characterPositions[i].linkPositions;
@@ -1184,15 +1447,17 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
         protected Object clone() throws CloneNotSupportedException{
             WorldStateEx ret = new WorldStateEx();
             ret.time = time;
-            if(collisions != null){
+            if(collisions != null && collisions.length > 0){
                 ret.collisions = new Collision[]{new Collision()};
                 ret.collisions[0].points = collisions[0].points;
             }
+            if(collisionPoints != null)
+                ret.collisionPoints = collisionPoints.copy();
+            // charListとcharMapは同じCharacterStateExを参照する
             for(CharacterStateEx    i:charList){
-                ret.charList.add((CharacterStateEx)i.clone()); 
-            }
-            for (String i:charMap.keySet()){
-                ret.charMap.put(new String(i), (CharacterStateEx)charMap.get(i).clone());
+                CharacterStateEx c = (CharacterStateEx)i.clone();
+                ret.charList.add(c); 
+                ret.charMap.put(c.characterName, c);
             }
             return ret;
         }
@@ -1330,9 +1595,141 @@ public class GrxWorldStateItem extends GrxTimeSeriesItem {
 
 	}
 
+	/**
+	 * ファイルに記録したログを再生している間、位置の変化から次に表示する位置を予測して先読みする。
+	 * useDiskがfalseの場合はログをメモリ上に保持しているので先読みしない
+	 */
+	private void _prefetch(int pos) {
+		if (prefetch_ && useDisk_ && frameTemplate_ != null)
+			prefetcher_.update(pos);
+	}
+
+	/**
+	 * 再生方向と速度に合わせて、次に表示するフレームを
+	 * バックグラウンドでフレームのキャッシュへ読み出すスレッド。
+	 * 
+	 * 位置の変化量と間隔の移動平均から次の位置を予測し、
+	 * その範囲のログ(グラフの読み出しにも使う)を先に読み込んでから、予測した位置のフレームを読み出す。
+	 * 先読みするフレーム数は、フレームの読み出しに時間がかかるほど多くする。
+	 */
+	private class FramePrefetcher implements Runnable {
+		private static final double SMOOTHING = 0.25;           // 移動平均の重み
+		private static final long   IDLE_TIME = 500000000L;     // これより間隔が空いたら再生を止めたとみなす[ns]
+		private static final long   LEAD_TIME = 250000000L;     // 先読みする時間の最小値[ns]
+		private static final int    LEAD_FRAMES = 8;            // 先読みする時間に対応する読み出し回数
+		private static final int    MIN_DEPTH = 2;
+		private static final int    MAX_DEPTH = 64;
+
+		private Thread thread_ = null;
+		private boolean stopped_ = false;
+		private boolean requested_ = false;
+		private int cursor_ = -1;           // 最後に指定された位置
+		private long cursorTime_ = 0;       // 最後に位置が指定された時刻[ns]
+		private double step_ = 0;           // 1回の位置変化量の移動平均(負は逆再生)
+		private double interval_ = 0;       // 位置変化の間隔の移動平均[ns]
+		private volatile double decodeTime_ = 0; // 1フレームの読み出し時間の移動平均[ns]
+		private volatile long frameSize_ = 0; // 読み出したフレームのサイズ[byte]
+
+		public synchronized void update(int pos) {
+			long now = System.nanoTime();
+			int d = pos - cursor_;
+			long dt = now - cursorTime_;
+			if (cursor_ < 0 || d == 0 || dt > IDLE_TIME) {
+				step_ = 0;
+				interval_ = 0;
+			} else if (step_ == 0 || (step_ > 0) != (d > 0)) {
+				step_ = d;
+				interval_ = dt;
+			} else {
+				step_ += SMOOTHING * (d - step_);
+				interval_ += SMOOTHING * (dt - interval_);
+			}
+			cursor_ = pos;
+			cursorTime_ = now;
+			if (step_ == 0)
+				return;
+			requested_ = true;
+			if (thread_ == null) {
+				stopped_ = false;
+				thread_ = new Thread(this, "FramePrefetcher"); //$NON-NLS-1$
+				thread_.setDaemon(true);
+				thread_.setPriority(Thread.MIN_PRIORITY);
+				thread_.start();
+			}
+			notifyAll();
+		}
+
+		public synchronized void stop() {
+			stopped_ = true;
+			thread_ = null;
+			notifyAll();
+		}
+
+		/**
+		 * 先読みするフレーム数
+		 */
+		private int _getDepth() {
+			double lead = Math.max(LEAD_TIME, LEAD_FRAMES * decodeTime_);
+			int depth = (int)Math.ceil(lead / Math.max(interval_, 1));
+			if (frameSize_ > 0)
+				depth = (int)Math.min(depth, frameCache_.getCapacity() / frameSize_ / 2);
+			return Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
+		}
+
+		public void run() {
+			while (true) {
+				int pos, depth;
+				double step;
+				synchronized (this) {
+					while (!requested_ && !stopped_) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (stopped_)
+						return;
+					requested_ = false;
+					pos = cursor_;
+					step = step_;
+					depth = _getDepth();
+				}
+				try {
+					int size = getLogSize();
+					logger_.prefetch(_record(pos), (int)Math.round(step * depth));
+					for (int k = 1; k <= depth; k++) {
+						int p = pos + (int)Math.round(step * k);
+						if (p < 0 || p >= size)
+							break;
+						synchronized (this) {
+							if (requested_ || stopped_)
+								break;  // 位置が変わったので予測し直す
+						}
+						synchronized (frameCache_) {
+							long record = _record(p);
+							if (frameCache_.contains(record))
+								continue;
+							long t = System.nanoTime();
+							WorldStateEx frame = _readFrame(record);
+							if (frame == null)
+								break;
+							t = System.nanoTime() - t;
+							frameSize_ = _getFrameSize(frame);
+							frameCache_.put(record, frame, frameSize_);
+							decodeTime_ = decodeTime_ == 0 ? t : decodeTime_ + SMOOTHING * (t - decodeTime_);
+						}
+					}
+				} catch (Exception e) {
+					GrxDebugUtil.printErr("FramePrefetcher: ", e); //$NON-NLS-1$
+				}
+			}
+		}
+	}
+
 	public void delete(){
-		if(useDisk_)
-			logger_.closeReads();
+		prefetcher_.stop();
+		logger_.closeReads();
 		super.delete();        
 	}
 
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * HeadlessSimulationUI.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.item;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.generalrobotix.ui.view.Grx3DView;
+
+/**
+ * 画面を使わないSimulationUI。
+ * メッセージは標準エラー出力に書き、問い合わせには既定の答えを返す。
+ * syncExec()等は呼び出したスレッドでそのまま実行する。
+ */
+public class HeadlessSimulationUI implements SimulationUI {
+    private Timer timer_ = null;
+
+    public void openInformation(String title, String message) {
+        System.err.println("[" + title + "] " + message); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void openError(String title, String message) {
+        System.err.println("[" + title + "] " + message); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public boolean openConfirm(String title, String message) {
+        return true;
+    }
+
+    public int openQuestion(String title, String message, String[] buttons, int defaultIndex) {
+        return defaultIndex;
+    }
+
+    public double askExtendTime() {
+        return 0;
+    }
+
+    public void fixParam() {
+    }
+
+    public Grx3DView prepareViews(boolean isSimulatingView) {
+        return null;
+    }
+
+    public void syncExec(Runnable r) {
+        r.run();
+    }
+
+    public void asyncExec(Runnable r) {
+        r.run();
+    }
+
+    public synchronized void timerExec(int milliseconds, final Runnable r) {
+        if (timer_ == null)
+            timer_ = new Timer("HeadlessSimulationUI", true); //$NON-NLS-1$
+        timer_.schedule(new TimerTask() {
+            public void run() {
+                r.run();
+            }
+        }, milliseconds);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * SimulationUI.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.item;
+
+import com.generalrobotix.ui.view.Grx3DView;
+
+/**
+ * GrxSimulationItemが使う画面操作。
+ * ワークベンチ上ではダイアログやビューを使い、画面のない環境ではHeadlessSimulationUIに置き換える。
+ *
+ * @see GrxSimulationItem#setUI(SimulationUI)
+ */
+public interface SimulationUI {
+    public void openInformation(String title, String message);
+
+    public void openError(String title, String message);
+
+    /**
+     * @return 続行する場合true
+     */
+    public boolean openConfirm(String title, String message);
+
+    /**
+     * @param buttons      ボタンのラベル
+     * @param defaultIndex 既定のボタンの番号
+     * @return 選択されたボタンの番号
+     */
+    public int openQuestion(String title, String message, String[] buttons, int defaultIndex);
+
+    /**
+     * シミュレーション時間を使い切った時に延長する時間を問い合わせる
+     *
+     * @return 延長する時間[s]。延長しない場合は0以下
+     */
+    public double askExtendTime();
+
+    /**
+     * 編集中のシミュレーション条件をプロパティに反映する
+     */
+    public void fixParam();
+
+    /**
+     * シミュレーション開始前に必要なビューを開く
+     *
+     * @return ビューシミュレーションに使う3Dビュー。無ければnull
+     */
+    public Grx3DView prepareViews(boolean isSimulatingView);
+
+    public void syncExec(Runnable r);
+
+    public void asyncExec(Runnable r);
+
+    /**
+     * rをmilliseconds[ms]後にsyncExec()と同じスレッドで実行する
+     */
+    public void timerExec(int milliseconds, Runnable r);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * WorkbenchSimulationUI.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.item;
+
+import org.eclipse.jface.dialogs.InputDialog;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
+
+import com.generalrobotix.ui.GrxPluginManager;
+import com.generalrobotix.ui.grxui.GrxUIPerspectiveFactory;
+import com.generalrobotix.ui.util.MessageBundle;
+import com.generalrobotix.ui.view.Grx3DView;
+import com.generalrobotix.ui.view.GrxLoggerView;
+import com.generalrobotix.ui.view.GrxOpenHRPView;
+
+/**
+ * ワークベンチのダイアログとビューを使うSimulationUI
+ */
+class WorkbenchSimulationUI implements SimulationUI {
+    private GrxPluginManager manager_;
+
+    WorkbenchSimulationUI(GrxPluginManager manager) {
+        manager_ = manager;
+    }
+
+    public void openInformation(String title, String message) {
+        MessageDialog.openInformation(GrxUIPerspectiveFactory.getCurrentShell(), title, message);
+    }
+
+    public void openError(String title, String message) {
+        MessageDialog.openError(GrxUIPerspectiveFactory.getCurrentShell(), title, message);
+    }
+
+    public boolean openConfirm(String title, String message) {
+        return MessageDialog.openConfirm(GrxUIPerspectiveFactory.getCurrentShell(), title, message);
+    }
+
+    public int openQuestion(String title, String message, String[] buttons, int defaultIndex) {
+        MessageDialog dialog = new MessageDialog(GrxUIPerspectiveFactory.getCurrentShell(), title, null, message,
+            MessageDialog.QUESTION, buttons, defaultIndex);
+        return dialog.open();
+    }
+
+    public double askExtendTime() {
+        boolean state = MessageDialog.openQuestion(GrxUIPerspectiveFactory.getCurrentShell(), MessageBundle.get("GrxOpenHRPView.dialog.title.timeUp"), MessageBundle.get("GrxOpenHRPView.dialog.message.TimeUp")); //$NON-NLS-1$ //$NON-NLS-2$
+        if (state == true)
+            return 0;
+
+        while (true) {
+            InputDialog dialog = new InputDialog(GrxUIPerspectiveFactory.getCurrentShell(),MessageBundle.get("GrxOpenHRPView.dialog.title.ExtendTime"),MessageBundle.get("GrxOpenHRPView.dialog.message.extendTime"),"5.0",null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            int result = dialog.open();
+            if (result == InputDialog.CANCEL)
+                return 0;
+            try {
+                double d = Double.parseDouble(dialog.getValue());
+                if (d > 0)
+                    return d;
+            } catch (NumberFormatException e) {}
+        }
+    }
+
+    public void fixParam() {
+        GrxOpenHRPView openHRPView = (GrxOpenHRPView)manager_.getView( GrxOpenHRPView.class, true );
+        if(openHRPView != null)
+            openHRPView.fixParam();
+    }
+
+    public Grx3DView prepareViews(boolean isSimulatingView) {
+        Grx3DView view3D = null;
+        if(isSimulatingView){
+            view3D =  (Grx3DView)manager_.getView( Grx3DView.class, false );
+            if(view3D==null){
+                _showView("com.generalrobotix.ui.view.Grx3DViewPart"); //$NON-NLS-1$
+                view3D =  (Grx3DView)manager_.getView( Grx3DView.class, true );
+            }
+        }else{
+            GrxLoggerView view =  (GrxLoggerView)manager_.getView( GrxLoggerView.class, false );
+            if( view == null)
+                _showView("com.generalrobotix.ui.view.GrxLoggerViewPart"); //$NON-NLS-1$
+        }
+        return view3D;
+    }
+
+    private void _showView(String id) {
+        IWorkbench workbench = PlatformUI.getWorkbench();
+        IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
+        IWorkbenchPage page = window.getActivePage();
+        try {
+            page.showView(id, null, IWorkbenchPage.VIEW_CREATE);
+        } catch (PartInitException e1) {
+            e1.printStackTrace();
+        }
+    }
+
+    public void syncExec(Runnable r) {
+        Display display = Display.getDefault();
+        if ( display!=null && !display.isDisposed())
+            display.syncExec(r);
+    }
+
+    public void asyncExec(Runnable r) {
+        Display display = Display.getDefault();
+        if ( display!=null && !display.isDisposed())
+            display.asyncExec(r);
+    }
+
+    public void timerExec(int milliseconds, Runnable r) {
+        Display display = Display.getCurrent();
+        if ( display!=null && !display.isDisposed())
+            display.timerExec(milliseconds, r);
+    }
+}
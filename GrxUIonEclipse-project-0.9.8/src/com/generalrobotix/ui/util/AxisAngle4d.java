@@ -18,6 +18,11 @@ import javax.vecmath.Vector3d;
 public class AxisAngle4d extends javax.vecmath.AxisAngle4d {
 	
 	private static double EPS = 1.0e-6;
+	private static final int[][] SIGN = {{1,1,1},{1,1,-1},{1,-1,1},{1,-1,-1},{-1,1,1},{-1,1,-1},{-1,-1,1},{-1,-1,-1}};
+	
+	// setMatrix()で回転角がπの場合に使う作業領域
+	private transient Matrix3d work_;
+	private transient javax.vecmath.AxisAngle4d workAxis_;
 	
 	public AxisAngle4d(AxisAngle4d a1){
 		super(a1);
@@ -81,12 +86,17 @@ public class AxisAngle4d extends javax.vecmath.AxisAngle4d {
 			    z = Math.sqrt(z0*0.5);
 			    angle = Math.PI;
 			    
-			    int[][] sign = {{1,1,1},{1,1,-1},{1,-1,1},{1,-1,-1},{-1,1,1},{-1,1,-1},{-1,-1,1},{-1,-1,-1}};
-			    Matrix3d m2 = new Matrix3d();
+			    int[][] sign = SIGN;
+			    if (work_ == null) {
+			    	work_ = new Matrix3d();
+			    	workAxis_ = new javax.vecmath.AxisAngle4d();
+			    }
+			    Matrix3d m2 = work_;
 			    int j=0;
 			    double min=0.0;
 			    for(int i=0; i<8; i++){
-			    	m2.set(new AxisAngle4d(sign[i][0]*x, sign[i][1]*y, sign[i][2]*z, angle));
+			    	workAxis_.set(sign[i][0]*x, sign[i][1]*y, sign[i][2]*z, angle);
+			    	m2.set(workAxis_);
 			    	double err = (m1.m00-m2.m00)*(m1.m00-m2.m00) + (m1.m01-m2.m01)*(m1.m01-m2.m01) + (m1.m02-m2.m02)*(m1.m02-m2.m02) +
 			    	(m1.m10-m2.m10)*(m1.m10-m2.m10) + (m1.m11-m2.m11)*(m1.m11-m2.m11) + (m1.m12-m2.m12)*(m1.m12-m2.m12) +
 			    	(m1.m20-m2.m20)*(m1.m20-m2.m20) + (m1.m21-m2.m21)*(m1.m21-m2.m21) + (m1.m22-m2.m22)*(m1.m22-m2.m22) ;
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * GrxStepProfiler.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * シミュレーションの1ステップをフェーズ毎に計測し、所要時間[ns]の分布を保持する。
+ * 各フェーズのヒストグラムは1つのスレッドからのみ記録すること。
+ * 記録中の読み出しは同期しないので、シミュレーション中に表示する値は概略値になる。
+ */
+public class GrxStepProfiler {
+    private final String[] phases_;
+    private final Histogram[] histograms_;
+    private volatile double simTime_ = 0;
+    private volatile double wallTime_ = 0;
+
+    public GrxStepProfiler(String... phases) {
+        phases_ = phases.clone();
+        histograms_ = new Histogram[phases.length];
+        for (int i = 0; i < phases.length; i++)
+            histograms_[i] = new Histogram();
+    }
+
+    public void reset() {
+        for (int i = 0; i < histograms_.length; i++)
+            histograms_[i].reset();
+        simTime_ = 0;
+        wallTime_ = 0;
+    }
+
+    /**
+     * @param phase フェーズ番号
+     * @param nanos 所要時間[ns]
+     */
+    public void record(int phase, long nanos) {
+        histograms_[phase].record(nanos);
+    }
+
+    /**
+     * 進捗を設定する
+     *
+     * @param simTime  シミュレーション時刻[s]
+     * @param wallTime 実際の経過時間[s](中断中の時間を除く)
+     */
+    public void setProgress(double simTime, double wallTime) {
+        simTime_ = simTime;
+        wallTime_ = wallTime;
+    }
+
+    public double getSimulationTime() {
+        return simTime_;
+    }
+
+    public double getWallTime() {
+        return wallTime_;
+    }
+
+    /**
+     * 実時間比(シミュレーション時刻/経過時間)
+     */
+    public double getRealTimeFactor() {
+        double wall = wallTime_;
+        return wall > 0 ? simTime_ / wall : 0;
+    }
+
+    public int getPhaseCount() {
+        return phases_.length;
+    }
+
+    public String getPhaseName(int phase) {
+        return phases_[phase];
+    }
+
+    public Histogram getHistogram(int phase) {
+        return histograms_[phase];
+    }
+
+    /**
+     * 拡張子が.jsonならJSON、それ以外はCSVで書き出す
+     */
+    public void write(File file) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(file));
+        try {
+            if (file.getName().toLowerCase().endsWith(".json")) //$NON-NLS-1$
+                writeJSON(out);
+            else
+                writeCSV(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * フェーズ毎に1行。時間の単位は[us]
+     */
+    public void writeCSV(Writer w) throws IOException {
+        PrintWriter out = new PrintWriter(w);
+        out.println("phase,count,mean_us,p50_us,p99_us,max_us,total_s"); //$NON-NLS-1$
+        for (int i = 0; i < phases_.length; i++) {
+            Histogram h = histograms_[i];
+            out.println(phases_[i] + "," + h.getCount() + "," + _us(h.getMean()) + "," //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + _us(h.getPercentile(50)) + "," + _us(h.getPercentile(99)) + "," //$NON-NLS-1$ //$NON-NLS-2$
+                + _us(h.getMax()) + "," + h.getTotal() / 1e9); //$NON-NLS-1$
+        }
+        out.println("# simulationTime_s," + simTime_); //$NON-NLS-1$
+        out.println("# wallTime_s," + wallTime_); //$NON-NLS-1$
+        out.println("# realTimeFactor," + getRealTimeFactor()); //$NON-NLS-1$
+        out.flush();
+        if (out.checkError())
+            throw new IOException();
+    }
+
+    public void writeJSON(Writer w) throws IOException {
+        PrintWriter out = new PrintWriter(w);
+        out.println("{"); //$NON-NLS-1$
+        out.println("  \"simulationTime_s\": " + simTime_ + ","); //$NON-NLS-1$ //$NON-NLS-2$
+        out.println("  \"wallTime_s\": " + wallTime_ + ","); //$NON-NLS-1$ //$NON-NLS-2$
+        out.println("  \"realTimeFactor\": " + getRealTimeFactor() + ","); //$NON-NLS-1$ //$NON-NLS-2$
+        out.println("  \"phases\": ["); //$NON-NLS-1$
+        for (int i = 0; i < phases_.length; i++) {
+            Histogram h = histograms_[i];
+            out.print("    {\"name\": \"" + phases_[i] + "\", \"count\": " + h.getCount() //$NON-NLS-1$ //$NON-NLS-2$
+                + ", \"mean_us\": " + _us(h.getMean()) //$NON-NLS-1$
+                + ", \"p50_us\": " + _us(h.getPercentile(50)) //$NON-NLS-1$
+                + ", \"p99_us\": " + _us(h.getPercentile(99)) //$NON-NLS-1$
+                + ", \"max_us\": " + _us(h.getMax()) //$NON-NLS-1$
+                + ", \"total_s\": " + h.getTotal() / 1e9 + "}"); //$NON-NLS-1$ //$NON-NLS-2$
+            out.println(i < phases_.length - 1 ? "," : ""); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        out.println("  ]"); //$NON-NLS-1$
+        out.println("}"); //$NON-NLS-1$
+        out.flush();
+        if (out.checkError())
+            throw new IOException();
+    }
+
+    public String toString() {
+        StringWriter w = new StringWriter();
+        PrintWriter out = new PrintWriter(w);
+        out.println(String.format("%-12s %10s %10s %10s %10s %10s", "phase", "count", "mean[us]", "p50[us]", "p99[us]", "max[us]")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+        for (int i = 0; i < phases_.length; i++) {
+            Histogram h = histograms_[i];
+            out.println(String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f", phases_[i], h.getCount(), //$NON-NLS-1$
+                _us(h.getMean()), _us(h.getPercentile(50)), _us(h.getPercentile(99)), _us(h.getMax())));
+        }
+        out.print(String.format("real-time factor %.3f (%.3f[s] / %.3f[s])", getRealTimeFactor(), simTime_, wallTime_)); //$NON-NLS-1$
+        out.flush();
+        return w.toString();
+    }
+
+    /**
+     * 1つのスレッドが確保したヒープの量[byte]を数える。
+     * HotSpot系のVM(com.sun.management.ThreadMXBean)でのみ使える。
+     * 作成したスレッドからのみ呼び出すこと。
+     */
+    public static class AllocationCounter {
+        private Object bean_ = null;
+        private Method method_ = null;
+        private final Object[] args_;
+        private long overhead_ = 0;
+        private Object last_ = null;    // get()の戻り値のLongを必ず確保させる(JITで省かれるとoverhead_がずれる)
+
+        public AllocationCounter() {
+            args_ = new Object[] { Long.valueOf(Thread.currentThread().getId()) };
+            try {
+                Object bean = ManagementFactory.getThreadMXBean();
+                Class<?> c = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+                if (c.isInstance(bean)) {
+                    method_ = c.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+                    // 呼び出し毎のアクセス検査を省く(検査がパッケージ名の文字列を生成することがある)
+                    method_.setAccessible(true);
+                    bean_ = bean;
+                }
+            } catch (Exception e) {
+                method_ = null;
+            }
+            if (get() < 0) {
+                method_ = null;
+                return;
+            }
+            // get()自身が確保する量(戻り値のLong)を測っておき、since()で差し引く
+            overhead_ = Long.MAX_VALUE;
+            for (int i = 0; i < 32; i++) {
+                long start = get();
+                overhead_ = Math.min(overhead_, get() - start);
+            }
+        }
+
+        public boolean isSupported() {
+            return method_ != null;
+        }
+
+        /**
+         * @return これまでに確保した量。使えない場合は-1
+         */
+        public long get() {
+            if (method_ == null)
+                return -1;
+            try {
+                last_ = method_.invoke(bean_, args_);
+                return ((Long) last_).longValue();
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+
+        /**
+         * @param start 区間の始めのget()の値
+         * @return startからこれまでに確保した量
+         */
+        public long since(long start) {
+            return get() - start - overhead_;
+        }
+    }
+
+    private static double _us(double nanos) {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * 対数のバケットに区切ったヒストグラム。
+     * 2のべき乗毎の区間をSUB_BUCKETS個に等分するので、相対誤差は1/SUB_BUCKETS以下になる。
+     */
+    public static class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final long[] counts_ = new long[NUM_BUCKETS];
+        private long count_ = 0;
+        private long total_ = 0;
+        private long max_ = 0;
+
+        public void reset() {
+            java.util.Arrays.fill(counts_, 0);
+            count_ = 0;
+            total_ = 0;
+            max_ = 0;
+        }
+
+        public void record(long value) {
+            if (value < 0)
+                value = 0;
+            counts_[_bucket(value)]++;
+            count_++;
+            total_ += value;
+            if (value > max_)
+                max_ = value;
+        }
+
+        public long getCount() {
+            return count_;
+        }
+
+        public long getTotal() {
+            return total_;
+        }
+
+        public long getMax() {
+            return max_;
+        }
+
+        public double getMean() {
+            long n = count_;
+            return n > 0 ? (double) total_ / n : 0;
+        }
+
+        /**
+         * @param percent 0-100
+         * @return 値の上限(バケットの上端。最大値を超えない)
+         */
+        public long getPercentile(double percent) {
+            long n = count_;
+            if (n == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(n * percent / 100.0));
+            long sum = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                sum += counts_[i];
+                if (sum >= target)
+                    return Math.min(_upperBound(i), max_);
+            }
+            return max_;
+        }
+
+        private static int _bucket(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int e = 63 - Long.numberOfLeadingZeros(value);
+            int shift = e - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long _upperBound(int bucket) {
+            int group = bucket / SUB_BUCKETS;
+            int sub = bucket % SUB_BUCKETS;
+            if (group == 0)
+                return sub;
+            return ((long) (SUB_BUCKETS + sub + 1) << (group - 1)) - 1;
+        }
+    }
+}
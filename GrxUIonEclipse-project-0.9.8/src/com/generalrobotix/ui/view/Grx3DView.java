@@ -86,6 +86,7 @@ import com.generalrobotix.ui.item.GrxWorldStateItem;
 import com.generalrobotix.ui.item.GrxWorldStateItem.CharacterStateEx;
 import com.generalrobotix.ui.item.GrxWorldStateItem.WorldStateEx;
 import com.generalrobotix.ui.view.tdview.*;
+import com.generalrobotix.ui.view.graph.CollisionPointBuffer;
 import com.generalrobotix.ui.view.vsensor.Camera_impl;
 
 @SuppressWarnings("serial") //$NON-NLS-1$
@@ -156,6 +157,9 @@ public class Grx3DView
     private JLabel lblValue_  = new JLabel(""); //$NON-NLS-1$
     
     private Shape3D collision_;
+    private LineArray collisionLines_ = null;     // 干渉点表示用(足りない場合のみ作り直す)
+    private float[] collisionCoords_ = null;
+    private CollisionPointBuffer collisionPoints_ = new CollisionPointBuffer();
     private Shape3D distance_;
     private Vector<GrxLinkItem> intersectingLinks_;
     
@@ -615,7 +619,7 @@ public class Grx3DView
                     	}
                     });
                     if (viewMode_ == SIMULATION || ( viewMode_ == VIEW && currentState_ != null))
-                    	_showCollision(currentState_.collisions);
+                    	_showCollision(currentState_);
                     else
                     	_showCollision(behaviorManager_.getCollision());
                 }else{
@@ -625,7 +629,7 @@ public class Grx3DView
                     		setProperty("showCollision", "false"); //$NON-NLS-1$ //$NON-NLS-2$
                     	}
                     });
-                    _showCollision(null);
+                    _showCollision((Collision[])null);
                 }
             }
         });
@@ -1020,7 +1024,7 @@ public class Grx3DView
             int pos = arg_pos.intValue();
             currentState_ = currentWorld_.getValue(pos);
             if(currentState_!=null){
-                _showCollision(currentState_.collisions);
+                _showCollision(currentState_);
                 updateModels(currentState_);
                 updateViewSimulator(currentState_.time);
             }
@@ -1291,56 +1295,87 @@ public class Grx3DView
 		recordingMgr_.pushImage( offscreen_.getOffScreenBuffer().getImage() );
     }
     
+    public void _showCollision(WorldStateEx state) {
+        if (state != null && state.collisionPoints != null)
+            _showCollision(state.collisionPoints);
+        else
+            _showCollision(state == null ? null : state.collisions);
+    }
+
     public void _showCollision(Collision[] collisions) {
-        collision_.removeAllGeometries();
-        if (collisions == null || collisions.length <= 0 || !btnCollision_.isSelected()) 
+        if (collisions == null || collisions.length <= 0 || !btnCollision_.isSelected()) {
+            collision_.removeAllGeometries();
             return;
-            
-        int length = 0;
+        }
+        collisionPoints_.clear();
         for (int i = 0; i < collisions.length; i++) {
-            if (collisions[i].points != null)
-                length += collisions[i].points.length;
+            if (collisions[i].points == null)
+                continue;
+            for (int j = 0; j < collisions[i].points.length; j++)
+                collisionPoints_.add(collisions[i].points[j]);
         }
-        if (length > 0) {
-            CollisionPoint[] cd = new CollisionPoint[length];
-            for (int i=0, n=0; i<collisions.length; i++) {
-                for (int j=0; j<collisions[i].points.length; j++)
-                    cd[n++] = collisions[i].points[j];
-            }
-            
-            Point3d[] p3d = new Point3d[cd.length * 2];
-            for (int j=0; j<cd.length; j++) {
-                p3d[j*2] = new Point3d(cd[j].position);
-                
-                Vector3d pole = new Vector3d(cd[j].normal);
-                pole.normalize();
-                float depth = (float) cd[j].idepth*colprop+coldiff;
-                p3d[j*2+1] = new Point3d(
-                    cd[j].position[0] + pole.x*depth,
-                    cd[j].position[1] + pole.y*depth,
-                    cd[j].position[2] + pole.z*depth
-                );
-            }
+        _showCollision(collisionPoints_);
+    }
 
-            LineArray la = new LineArray(p3d.length, LineArray.COLOR_3
+    /**
+     * 干渉点を表示する。
+     * LineArrayと座標配列は使い回し、点数が容量を超えた場合のみ作り直す。
+     */
+    public void _showCollision(CollisionPointBuffer points) {
+        collision_.removeAllGeometries();
+        if (points == null || !btnCollision_.isSelected()) 
+            return;
+        if (points.size <= 0) {
+            collision_.addGeometry(null);
+            return;
+        }
+
+        int vertexCount = points.size * 2;
+        if (collisionLines_ == null || collisionLines_.getVertexCount() < vertexCount) {
+            int capacity = Math.max(vertexCount, collisionLines_ == null ? 32 : collisionLines_.getVertexCount() * 2);
+            collisionLines_ = new LineArray(capacity, LineArray.COLOR_3
                     | LineArray.COORDINATES | LineArray.NORMALS);
-            la.setCoordinates(0, p3d);
-            
-            Vector3f[] v3f = new Vector3f[p3d.length];
-            Color3f[]  c3f =  new Color3f[p3d.length];
-            for (int i=0; i<v3f.length; i++) {
-                v3f[i] = new Vector3f(0.0f, 0.0f, 1.0f);
-                if ((i % 2) == 0) 
-                    c3f[i] = new Color3f(0.0f, 0.8f, 0.8f);
-                else
-                    c3f[i] = new Color3f(0.8f, 0.0f, 0.8f);
+            collisionLines_.setCapability(GeometryArray.ALLOW_COORDINATE_WRITE);
+            collisionLines_.setCapability(GeometryArray.ALLOW_COUNT_WRITE);
+            float[] normals = new float[capacity * 3];
+            float[] colors = new float[capacity * 3];
+            for (int i=0; i<capacity; i++) {
+                normals[i*3+2] = 1.0f;
+                if ((i % 2) == 0) {
+                    colors[i*3+1] = 0.8f;
+                    colors[i*3+2] = 0.8f;
+                } else {
+                    colors[i*3] = 0.8f;
+                    colors[i*3+2] = 0.8f;
+                }
             }
-            la.setNormals(0, v3f);
-            la.setColors(0, c3f);
-            collision_.addGeometry(la);
-        } else {
-            collision_.addGeometry(null);
+            collisionLines_.setNormals(0, normals);
+            collisionLines_.setColors(0, colors);
+            collisionCoords_ = new float[capacity * 3];
+        }
+
+        float[] coords = collisionCoords_;
+        double[] pos = points.position;
+        double[] nrm = points.normal;
+        for (int j=0, k=0; j<points.size; j++, k+=3) {
+            double nx = nrm[k], ny = nrm[k+1], nz = nrm[k+2];
+            double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (len > 0) {
+                nx /= len;
+                ny /= len;
+                nz /= len;
+            }
+            float depth = (float) points.idepth[j]*colprop+coldiff;
+            coords[j*6]   = (float)pos[k];
+            coords[j*6+1] = (float)pos[k+1];
+            coords[j*6+2] = (float)pos[k+2];
+            coords[j*6+3] = (float)(pos[k]   + nx*depth);
+            coords[j*6+4] = (float)(pos[k+1] + ny*depth);
+            coords[j*6+5] = (float)(pos[k+2] + nz*depth);
         }
+        collisionLines_.setCoordinates(0, coords, 0, vertexCount);
+        collisionLines_.setValidVertexCount(vertexCount);
+        collision_.addGeometry(collisionLines_);
     }
 
     private void _showDistance(Distance[] distances) {
@@ -2203,7 +2238,7 @@ public class Grx3DView
         	syncExec(new Runnable(){
             	public void run(){
             		updateModels(currentState_);
-            		_showCollision(currentState_.collisions);
+            		_showCollision(currentState_);
             	}
             });
 			updateViewSimulator(currentState_.time);
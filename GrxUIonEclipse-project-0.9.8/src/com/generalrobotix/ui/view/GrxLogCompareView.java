@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * GrxLogCompareView.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jface.layout.TableColumnLayout;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ColumnWeightData;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.TableColumn;
+
+import com.generalrobotix.ui.GrxBaseItem;
+import com.generalrobotix.ui.GrxBasePlugin;
+import com.generalrobotix.ui.GrxBaseView;
+import com.generalrobotix.ui.GrxBaseViewPart;
+import com.generalrobotix.ui.GrxPluginManager;
+import com.generalrobotix.ui.grxui.Activator;
+import com.generalrobotix.ui.item.GrxWorldStateItem;
+import com.generalrobotix.ui.util.MessageBundle;
+import com.generalrobotix.ui.view.graph.LogComparator;
+
+/**
+ * 選択中のWorldStateのログと他のログとの比較結果(GrxWorldStateItem.compareLog())を表示する。
+ * 乖離したチャンネルを乖離した時刻の順に先に表示する。
+ */
+@SuppressWarnings("serial") //$NON-NLS-1$
+public class GrxLogCompareView extends GrxBaseView {
+    public static final String TITLE = "Log Compare"; //$NON-NLS-1$
+
+    private static final DecimalFormat VALUE_FORMAT = new DecimalFormat("0.000E0"); //$NON-NLS-1$
+    private static final DecimalFormat TIME_FORMAT = new DecimalFormat("0.000"); //$NON-NLS-1$
+    private static final int[] COLUMN_WEIGHT = { 15, 25, 12, 10, 12, 12, 8, 8 };
+
+    private GrxWorldStateItem currentWorld_ = null;
+    private Label label_;
+    private TableViewer viewer_;
+
+    public GrxLogCompareView(String name, GrxPluginManager manager, GrxBaseViewPart vp, Composite parent) {
+        super(name, manager, vp, parent);
+
+        Composite mainPanel = new Composite(composite_, SWT.NONE);
+        GridLayout gridLayout = new GridLayout(1, false);
+        gridLayout.marginHeight = 0;
+        gridLayout.verticalSpacing = 0;
+        mainPanel.setLayout(gridLayout);
+
+        label_ = new Label(mainPanel, SWT.NONE);
+        label_.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+        Composite tablePanel = new Composite(mainPanel, SWT.NONE);
+        tablePanel.setLayoutData(new GridData(GridData.FILL_BOTH));
+        viewer_ = new TableViewer(tablePanel, SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
+        viewer_.setContentProvider(new ArrayContentProvider());
+        viewer_.setLabelProvider(new ResultLabelProvider());
+
+        String[] header = {
+            MessageBundle.get("GrxLogCompareView.column.object"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.channel"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.maxDeviation"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.maxDeviationTime"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.rms"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.divergence"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.samples"), //$NON-NLS-1$
+            MessageBundle.get("GrxLogCompareView.column.skipped"), //$NON-NLS-1$
+        };
+        TableColumnLayout layout = new TableColumnLayout();
+        for (int i = 0; i < header.length; i++) {
+            TableColumn column = new TableColumn(viewer_.getTable(), SWT.NULL);
+            column.setText(header[i]);
+            column.setAlignment(i < 2 ? SWT.LEFT : SWT.RIGHT);
+            layout.setColumnData(column, new ColumnWeightData(COLUMN_WEIGHT[i], true));
+        }
+        tablePanel.setLayout(layout);
+        viewer_.getTable().setHeaderVisible(true);
+        viewer_.getTable().setLinesVisible(true);
+        viewer_.getTable().setFont(Activator.getDefault().getFont("preference_table")); //$NON-NLS-1$
+
+        setUp();
+        manager_.registerItemChangeListener(this, GrxWorldStateItem.class);
+    }
+
+    public void setUp() {
+        if (currentWorld_ != null)
+            currentWorld_.deleteObserver(this);
+        currentWorld_ = manager_.<GrxWorldStateItem>getSelectedItem(GrxWorldStateItem.class, null);
+        if (currentWorld_ != null)
+            currentWorld_.addObserver(this);
+        _updateResults();
+    }
+
+    public void registerItemChange(GrxBaseItem item, int event) {
+        if (!(item instanceof GrxWorldStateItem))
+            return;
+        GrxWorldStateItem worldStateItem = (GrxWorldStateItem) item;
+        switch (event) {
+        case GrxPluginManager.SELECTED_ITEM:
+            if (currentWorld_ != worldStateItem) {
+                if (currentWorld_ != null)
+                    currentWorld_.deleteObserver(this);
+                currentWorld_ = worldStateItem;
+                currentWorld_.addObserver(this);
+                _updateResults();
+            }
+            break;
+        case GrxPluginManager.REMOVE_ITEM:
+        case GrxPluginManager.NOTSELECTED_ITEM:
+            if (currentWorld_ == worldStateItem) {
+                currentWorld_.deleteObserver(this);
+                currentWorld_ = null;
+                _updateResults();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    public void update(GrxBasePlugin plugin, Object... arg) {
+        if (currentWorld_ == plugin) {
+            if ((String) arg[0] == "CompareLog" || (String) arg[0] == "ClearLog") //$NON-NLS-1$ //$NON-NLS-2$
+                _updateResults();
+        }
+    }
+
+    private void _updateResults() {
+        if (viewer_.getTable().isDisposed())
+            return;
+        if (currentWorld_ == null || currentWorld_.getCompareFile() == null) {
+            label_.setText(""); //$NON-NLS-1$
+            viewer_.setInput(new LogComparator.Result[0]);
+            return;
+        }
+        List<LogComparator.Result> results = new ArrayList<LogComparator.Result>(currentWorld_.getCompareResults());
+        // 乖離したチャンネルを乖離した時刻の順に先に並べる
+        Collections.sort(results, new Comparator<LogComparator.Result>() {
+            public int compare(LogComparator.Result a, LogComparator.Result b) {
+                if (a.isDiverged() != b.isDiverged())
+                    return a.isDiverged() ? -1 : 1;
+                if (a.isDiverged())
+                    return Double.compare(a.getFirstDivergenceTime(), b.getFirstDivergenceTime());
+                return Double.compare(b.getMaxDeviation(), a.getMaxDeviation());
+            }
+        });
+        int diverged = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).isDiverged())
+                diverged++;
+        }
+        List<String> mismatches = currentWorld_.getCompareMismatches();
+        String text = currentWorld_.getCompareFile() + " : " + diverged + " / " + results.size() //$NON-NLS-1$ //$NON-NLS-2$
+            + " " + MessageBundle.get("GrxLogCompareView.label.diverged"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (!mismatches.isEmpty())
+            text += ", " + MessageBundle.get("GrxLogCompareView.label.mismatched") + " " + mismatches; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        label_.setText(text);
+        viewer_.setInput(results.toArray(new LogComparator.Result[results.size()]));
+    }
+
+    private static String _formatTime(double t) {
+        return Double.isNaN(t) ? "-" : TIME_FORMAT.format(t); //$NON-NLS-1$
+    }
+
+    private static class ResultLabelProvider extends LabelProvider implements ITableLabelProvider {
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        public String getColumnText(Object element, int columnIndex) {
+            LogComparator.Result r = (LogComparator.Result) element;
+            switch (columnIndex) {
+            case 0:
+                return r.getObjectName();
+            case 1:
+                return r.getColumn();
+            case 2:
+                return VALUE_FORMAT.format(r.getMaxDeviation());
+            case 3:
+                return _formatTime(r.getMaxDeviationTime());
+            case 4:
+                return VALUE_FORMAT.format(r.getRMS());
+            case 5:
+                return _formatTime(r.getFirstDivergenceTime());
+            case 6:
+                return String.valueOf(r.getNumCompared());
+            case 7:
+                return String.valueOf(r.getNumSkipped());
+            default:
+                return ""; //$NON-NLS-1$
+            }
+        }
+    }
+
+    public void shutdown() {
+        manager_.removeItemChangeListener(this, GrxWorldStateItem.class);
+        if (currentWorld_ != null)
+            currentWorld_.deleteObserver(this);
+    }
+
+    public void updateTableFont() {
+        viewer_.getTable().setFont(Activator.getDefault().getFont("preference_table")); //$NON-NLS-1$
+        viewer_.refresh();
+    }
+}
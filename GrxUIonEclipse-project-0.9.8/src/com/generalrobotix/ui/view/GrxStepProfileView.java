@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * GrxStepProfileView.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+
+import org.eclipse.jface.layout.TableColumnLayout;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ColumnWeightData;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.TableColumn;
+
+import com.generalrobotix.ui.GrxBaseItem;
+import com.generalrobotix.ui.GrxBasePlugin;
+import com.generalrobotix.ui.GrxBaseView;
+import com.generalrobotix.ui.GrxBaseViewPart;
+import com.generalrobotix.ui.GrxPluginManager;
+import com.generalrobotix.ui.grxui.Activator;
+import com.generalrobotix.ui.item.GrxSimulationItem;
+import com.generalrobotix.ui.util.GrxStepProfiler;
+import com.generalrobotix.ui.util.MessageBundle;
+
+/**
+ * 選択中のシミュレーションの1ステップ内の所要時間をフェーズ毎に表示する。
+ * シミュレーション中は一定間隔で更新し、直近の実時間比も表示する。
+ */
+@SuppressWarnings("serial") //$NON-NLS-1$
+public class GrxStepProfileView extends GrxBaseView {
+    public static final String TITLE = "Step Profile"; //$NON-NLS-1$
+
+    private static final int REFRESH_INTERVAL = 500; //[ms]
+    private static final DecimalFormat US_FORMAT = new DecimalFormat("0.0"); //$NON-NLS-1$
+    private static final DecimalFormat RATE_FORMAT = new DecimalFormat("0.000"); //$NON-NLS-1$
+    private static final int[] COLUMN_WEIGHT = { 20, 16, 16, 16, 16, 16 };
+
+    private GrxSimulationItem simItem_ = null;
+    private Label label_;
+    private TableViewer viewer_;
+    private boolean inSimulation_ = false;
+    private double lastSimTime_ = 0;
+    private double lastWallTime_ = 0;
+
+    private Runnable refresh_ = new Runnable() {
+        public void run() {
+            if (!inSimulation_ || viewer_.getTable().isDisposed())
+                return;
+            _updateProfile();
+            Display display = Display.getCurrent();
+            if (display != null && !display.isDisposed())
+                display.timerExec(REFRESH_INTERVAL, this);
+        }
+    };
+
+    public GrxStepProfileView(String name, GrxPluginManager manager, GrxBaseViewPart vp, Composite parent) {
+        super(name, manager, vp, parent);
+
+        Composite mainPanel = new Composite(composite_, SWT.NONE);
+        GridLayout gridLayout = new GridLayout(2, false);
+        gridLayout.marginHeight = 0;
+        gridLayout.verticalSpacing = 0;
+        mainPanel.setLayout(gridLayout);
+
+        label_ = new Label(mainPanel, SWT.NONE);
+        label_.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+        Button export = new Button(mainPanel, SWT.PUSH);
+        export.setText(MessageBundle.get("GrxStepProfileView.button.export")); //$NON-NLS-1$
+        export.addSelectionListener(new SelectionAdapter() {
+            public void widgetSelected(SelectionEvent e) {
+                _export();
+            }
+        });
+
+        Composite tablePanel = new Composite(mainPanel, SWT.NONE);
+        GridData gridData = new GridData(GridData.FILL_BOTH);
+        gridData.horizontalSpan = 2;
+        tablePanel.setLayoutData(gridData);
+        viewer_ = new TableViewer(tablePanel, SWT.BORDER | SWT.FULL_SELECTION);
+        viewer_.setContentProvider(new ArrayContentProvider());
+        viewer_.setLabelProvider(new PhaseLabelProvider());
+
+        String[] header = {
+            MessageBundle.get("GrxStepProfileView.column.phase"), //$NON-NLS-1$
+            MessageBundle.get("GrxStepProfileView.column.count"), //$NON-NLS-1$
+            MessageBundle.get("GrxStepProfileView.column.mean"), //$NON-NLS-1$
+            MessageBundle.get("GrxStepProfileView.column.p50"), //$NON-NLS-1$
+            MessageBundle.get("GrxStepProfileView.column.p99"), //$NON-NLS-1$
+            MessageBundle.get("GrxStepProfileView.column.max"), //$NON-NLS-1$
+        };
+        TableColumnLayout layout = new TableColumnLayout();
+        for (int i = 0; i < header.length; i++) {
+            TableColumn column = new TableColumn(viewer_.getTable(), SWT.NULL);
+            column.setText(header[i]);
+            column.setAlignment(i < 1 ? SWT.LEFT : SWT.RIGHT);
+            layout.setColumnData(column, new ColumnWeightData(COLUMN_WEIGHT[i], true));
+        }
+        tablePanel.setLayout(layout);
+        viewer_.getTable().setHeaderVisible(true);
+        viewer_.getTable().setLinesVisible(true);
+        viewer_.getTable().setFont(Activator.getDefault().getFont("preference_table")); //$NON-NLS-1$
+
+        setUp();
+        manager_.registerItemChangeListener(this, GrxSimulationItem.class);
+    }
+
+    public void setUp() {
+        if (simItem_ != null)
+            simItem_.deleteObserver(this);
+        simItem_ = manager_.<GrxSimulationItem>getSelectedItem(GrxSimulationItem.class, null);
+        if (simItem_ != null)
+            simItem_.addObserver(this);
+        _updateProfile();
+    }
+
+    public void registerItemChange(GrxBaseItem item, int event) {
+        if (!(item instanceof GrxSimulationItem))
+            return;
+        GrxSimulationItem simItem = (GrxSimulationItem) item;
+        switch (event) {
+        case GrxPluginManager.SELECTED_ITEM:
+            if (simItem_ != simItem) {
+                if (simItem_ != null)
+                    simItem_.deleteObserver(this);
+                simItem_ = simItem;
+                simItem_.addObserver(this);
+                _updateProfile();
+            }
+            break;
+        case GrxPluginManager.REMOVE_ITEM:
+        case GrxPluginManager.NOTSELECTED_ITEM:
+            if (simItem_ == simItem) {
+                simItem_.deleteObserver(this);
+                simItem_ = null;
+                inSimulation_ = false;
+                _updateProfile();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    public void update(GrxBasePlugin plugin, Object... arg) {
+        if (simItem_ != plugin)
+            return;
+        if ((String) arg[0] == "StartSimulation") { //$NON-NLS-1$
+            inSimulation_ = true;
+            lastSimTime_ = 0;
+            lastWallTime_ = 0;
+            Display display = Display.getCurrent();
+            if (display != null && !display.isDisposed())
+                display.timerExec(REFRESH_INTERVAL, refresh_);
+        } else if ((String) arg[0] == "StopSimulation") { //$NON-NLS-1$
+            inSimulation_ = false;
+            _updateProfile();
+        }
+    }
+
+    private void _updateProfile() {
+        if (viewer_.getTable().isDisposed())
+            return;
+        if (simItem_ == null) {
+            label_.setText(""); //$NON-NLS-1$
+            viewer_.setInput(new Integer[0]);
+            return;
+        }
+        GrxStepProfiler profiler = simItem_.getStepProfiler();
+        double simTime = profiler.getSimulationTime();
+        double wallTime = profiler.getWallTime();
+        String text = MessageBundle.get("GrxStepProfileView.label.realTimeFactor") + " " //$NON-NLS-1$ //$NON-NLS-2$
+            + RATE_FORMAT.format(profiler.getRealTimeFactor());
+        if (inSimulation_ && wallTime > lastWallTime_) {
+            // 前回の更新からの実時間比
+            text += " (" + MessageBundle.get("GrxStepProfileView.label.current") + " " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + RATE_FORMAT.format((simTime - lastSimTime_) / (wallTime - lastWallTime_)) + ")"; //$NON-NLS-1$
+            lastSimTime_ = simTime;
+            lastWallTime_ = wallTime;
+        }
+        text += "  " + RATE_FORMAT.format(simTime) + "[s] / " + RATE_FORMAT.format(wallTime) + "[s]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        label_.setText(text);
+
+        Integer[] phases = new Integer[profiler.getPhaseCount()];
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = i;
+        viewer_.setInput(phases);
+    }
+
+    private void _export() {
+        if (simItem_ == null)
+            return;
+        FileDialog fdlg = new FileDialog(composite_.getShell(), SWT.SAVE);
+        String[] fe = { "*.csv", "*.json" }; //$NON-NLS-1$ //$NON-NLS-2$
+        fdlg.setFilterExtensions(fe);
+        String fPath = fdlg.open();
+        if (fPath == null)
+            return;
+        if (fPath.indexOf('.', fPath.lastIndexOf(File.separatorChar) + 1) < 0)
+            fPath += fe[Math.max(0, fdlg.getFilterIndex())].substring(1);
+        try {
+            simItem_.getStepProfiler().write(new File(fPath));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private class PhaseLabelProvider extends LabelProvider implements ITableLabelProvider {
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        public String getColumnText(Object element, int columnIndex) {
+            if (simItem_ == null)
+                return ""; //$NON-NLS-1$
+            GrxStepProfiler profiler = simItem_.getStepProfiler();
+            int phase = ((Integer) element).intValue();
+            GrxStepProfiler.Histogram h = profiler.getHistogram(phase);
+            switch (columnIndex) {
+            case 0:
+                return profiler.getPhaseName(phase);
+            case 1:
+                return String.valueOf(h.getCount());
+            case 2:
+                return US_FORMAT.format(h.getMean() / 1000.0);
+            case 3:
+                return US_FORMAT.format(h.getPercentile(50) / 1000.0);
+            case 4:
+                return US_FORMAT.format(h.getPercentile(99) / 1000.0);
+            case 5:
+                return US_FORMAT.format(h.getMax() / 1000.0);
+            default:
+                return ""; //$NON-NLS-1$
+            }
+        }
+    }
+
+    public void shutdown() {
+        inSimulation_ = false;
+        manager_.removeItemChangeListener(this, GrxSimulationItem.class);
+        if (simItem_ != null)
+            simItem_.deleteObserver(this);
+    }
+
+    public void updateTableFont() {
+        viewer_.getTable().setFont(Activator.getDefault().getFont("preference_table")); //$NON-NLS-1$
+        viewer_.refresh();
+    }
+}
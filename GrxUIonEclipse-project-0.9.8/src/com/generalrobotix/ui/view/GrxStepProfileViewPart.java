@@ -0,0 +1,12 @@
+package com.generalrobotix.ui.view;
+
+import org.eclipse.swt.widgets.Composite;
+
+import com.generalrobotix.ui.GrxBaseViewPart;
+
+public class GrxStepProfileViewPart extends GrxBaseViewPart {
+    public void createPartControl(Composite parent) {
+        createView( GrxStepProfileView.class, "Step Profile", this, parent );
+    }
+
+}
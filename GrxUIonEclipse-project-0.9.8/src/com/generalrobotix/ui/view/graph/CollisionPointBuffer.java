@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * CollisionPointBuffer.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.nio.ByteBuffer;
+
+import jp.go.aist.hrp.simulator.CollisionPoint;
+
+/**
+ * 1フレーム分の干渉点を格納するバッファ
+ *
+ * CollisionPointの配列の代わりにプリミティブ配列で保持する。
+ * 再生中はフレーム毎に同じインスタンスへ上書きして使い回す。
+ * i番目の点の位置はposition[i*3]～position[i*3+2]、法線はnormal[i*3]～normal[i*3+2]。
+ */
+public class CollisionPointBuffer {
+    public int      size = 0;   // 格納している点の数
+    public double[] position;
+    public double[] normal;
+    public double[] idepth;
+
+    ByteBuffer data_;           // LogManagerの読み出し用
+
+    public CollisionPointBuffer() {
+        this(16);
+    }
+
+    public CollisionPointBuffer(int capacity) {
+        position = new double[capacity * 3];
+        normal = new double[capacity * 3];
+        idepth = new double[capacity];
+    }
+
+    public int capacity() {
+        return idepth.length;
+    }
+
+    /**
+     * 少なくともcapacity点を格納できるようにする。格納済みの点は保持する。
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= idepth.length)
+            return;
+        int newCapacity = Math.max(capacity, idepth.length * 2);
+        double[] p = new double[newCapacity * 3];
+        double[] n = new double[newCapacity * 3];
+        double[] d = new double[newCapacity];
+        System.arraycopy(position, 0, p, 0, size * 3);
+        System.arraycopy(normal, 0, n, 0, size * 3);
+        System.arraycopy(idepth, 0, d, 0, size);
+        position = p;
+        normal = n;
+        idepth = d;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 点を1つ追加する
+     */
+    public void add(CollisionPoint p) {
+        ensureCapacity(size + 1);
+        int k = size * 3;
+        for (int i = 0; i < 3; i++) {
+            position[k + i] = p.position[i];
+            normal[k + i] = p.normal[i];
+        }
+        idepth[size++] = p.idepth;
+    }
+
+    /**
+     * 点を全てpointsからコピーする(pointsはnull可)
+     */
+    public void set(CollisionPoint[] points) {
+        clear();
+        if (points == null)
+            return;
+        ensureCapacity(points.length);
+        for (int i = 0; i < points.length; i++)
+            add(points[i]);
+    }
+
+    public CollisionPointBuffer copy() {
+        CollisionPointBuffer ret = new CollisionPointBuffer(Math.max(size, 1));
+        System.arraycopy(position, 0, ret.position, 0, size * 3);
+        System.arraycopy(normal, 0, ret.normal, 0, size * 3);
+        System.arraycopy(idepth, 0, ret.idepth, 0, size);
+        ret.size = size;
+        return ret;
+    }
+
+    /**
+     * CollisionPointの配列に変換する
+     */
+    public CollisionPoint[] toArray() {
+        CollisionPoint[] ret = new CollisionPoint[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = new CollisionPoint();
+            ret[i].position = new double[] {position[i * 3], position[i * 3 + 1], position[i * 3 + 2]};
+            ret[i].normal = new double[] {normal[i * 3], normal[i * 3 + 1], normal[i * 3 + 2]};
+            ret[i].idepth = idepth[i];
+        }
+        return ret;
+    }
+}
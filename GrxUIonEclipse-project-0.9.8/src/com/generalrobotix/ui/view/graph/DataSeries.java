@@ -24,6 +24,8 @@ public class DataSeries {
     private int headPos_;               // データ先頭添字
     private double xOffset_;            // X座標値オフセット
     private double xStep_;              // X座標値刻み幅
+    private double[/*size_*/] min_;     // 各点の区間内の最小値(nullは範囲を持たないことを示す)
+    private double[/*size_*/] max_;     // 各点の区間内の最大値(同上)
 
     // -----------------------------------------------------------------
     // コンストラクタ
@@ -65,6 +67,33 @@ public class DataSeries {
         for (int i = 0; i < size; i++) {
             data_[i] = Double.NaN;
         }
+        if (min_ != null) {
+            min_ = null;
+            max_ = null;
+            setRangeEnabled(true);
+        }
+    }
+
+    /**
+     * 最小値・最大値配列の有無設定
+     *     各点が複数のデータの区間を表す場合に、区間内の最小値・最大値を保持する
+     *
+     * @param   enabled boolean 最小値・最大値配列を持つか
+     */
+    public void setRangeEnabled(
+        boolean enabled
+    ) {
+        if (!enabled) {
+            min_ = null;
+            max_ = null;
+        } else if (min_ == null) {
+            min_ = new double[size_];
+            max_ = new double[size_];
+            for (int i = 0; i < size_; i++) {
+                min_[i] = Double.NaN;
+                max_[i] = Double.NaN;
+            }
+        }
     }
 
     /**
@@ -125,6 +154,24 @@ public class DataSeries {
         return data_;
     }
 
+    /**
+     * 最小値配列取得
+     *
+     * @return  double[]    最小値配列(setRangeEnabled(true)でない場合はnull)
+     */
+    public double[] getMin() {
+        return min_;
+    }
+
+    /**
+     * 最大値配列取得
+     *
+     * @return  double[]    最大値配列(setRangeEnabled(true)でない場合はnull)
+     */
+    public double[] getMax() {
+        return max_;
+    }
+
     /**
      * データ先頭添字
      *
@@ -239,7 +286,7 @@ public class DataSeries {
         xOffset_ += xStep_ * count; // X座標値オフセット更新
         if (count >= size_ || count <= -size_) {    // 配列長を超える移動?
             for (int i = 0; i < size_; i++) {   // NaNクリア
-                data_[i] = Double.NaN;
+                _clear(i);
             }
             return;
         }
@@ -249,7 +296,7 @@ public class DataSeries {
         int newHead = prevHead + count;     // 新しい先頭位置
         if (count > 0) {    // 正の移動?
             for (int i = prevHead; i < newHead; i++) {  // 新たにできた場所をループ
-                data_[i % size_] = Double.NaN;  // NaNクリア
+                _clear(i % size_);  // NaNクリア
             }
             headPos_ = newHead % size_; // 先頭位置更新
         } else {            // 負の移動?
@@ -259,7 +306,7 @@ public class DataSeries {
                 if (ind < 0) {
                     ind += size_;
                 }
-                data_[ind] = Double.NaN;  // NaNクリア
+                _clear(ind);  // NaNクリア
             }
             // 先頭位置更新
             headPos_ = newHead % size_;
@@ -281,6 +328,10 @@ public class DataSeries {
     ) {
         xOffset_ += xStep_; // X座標値オフセット更新
         data_[headPos_] = value;    // データ書込み
+        if (min_ != null) {
+            min_[headPos_] = value;
+            max_[headPos_] = value;
+        }
         headPos_ = (headPos_ + 1) % size_;  // 先頭位置移動
     }
 
@@ -297,5 +348,19 @@ public class DataSeries {
     ) {
         int setPos = (headPos_ + pos) % size_;
         data_[setPos] = value;
+        if (min_ != null) {
+            min_[setPos] = value;
+            max_[setPos] = value;
+        }
+    }
+
+    private void _clear(
+        int pos
+    ) {
+        data_[pos] = Double.NaN;
+        if (min_ != null) {
+            min_[pos] = Double.NaN;
+            max_[pos] = Double.NaN;
+        }
     }
 }
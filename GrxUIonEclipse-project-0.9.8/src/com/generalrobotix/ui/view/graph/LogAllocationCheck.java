@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogAllocationCheck.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+
+import jp.go.aist.hrp.simulator.CollisionPoint;
+
+import com.generalrobotix.ui.util.GrxStepProfiler;
+
+/**
+ * ログの記録(GrxWorldStateItemが1ステップ毎に呼ぶsetTime()・putCollisionPointData()・put())が
+ * ヒープにオブジェクトを確保しないことを確かめる。
+ * 書き込み先のバッファが揃い、JITのコンパイルが落ち着くまで記録してから、
+ * 1ステップ毎に記録したスレッドが確保した量を測り、0でないステップがあれば0以外の終了コードで終了する。
+ * 書き込みキューが一杯でI/Oスレッドを待ったステップ(バックプレッシャ)は記録の速さではなく
+ * ディスクの速さで決まるので、確保があっても失敗とせず件数だけを表示する。
+ * スレッド毎の確保量を測れないJVMでは確かめずに終了する。
+ * <pre>
+ *   java com.generalrobotix.ui.view.graph.LogAllocationCheck [ステップ数 [作業ディレクトリ]]
+ * </pre>
+ */
+class LogAllocationCheck {
+    // LogWriterのバッファ数(4096)を十分に超え、段階的コンパイルでコンパイル済みコードが差し替わり終わるまで
+    // (短いと差し替えの際に確保が起きることがある)
+    private static final int WARMUP_STEPS = 100000;
+    private static final double TIME_STEP = 0.001;
+    private static final int NUM_JOINTS = 30;
+    private static final int NUM_COLLISION_POINTS = 8;
+    private static final String[] OBJECTS = { "robot0", "robot1" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    private static int failures_ = 0;
+
+    public static void main(String[] args) throws Exception {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        File work = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"), //$NON-NLS-1$
+            "LogAllocationCheck" + System.currentTimeMillis()); //$NON-NLS-1$
+        GrxStepProfiler.AllocationCounter counter = new GrxStepProfiler.AllocationCounter();
+        if (!counter.isSupported()) {
+            System.out.println("LogAllocationCheck: skipped (per-thread allocation is not measurable on this JVM)"); //$NON-NLS-1$
+            return;
+        }
+        try {
+            // useDisk=true
+            _check("disk", new File(work, "disk"), 0, null, steps, counter); //$NON-NLS-1$ //$NON-NLS-2$
+            // useDisk=false: メモリ上に保持してから書き出す
+            _check("memory", new File(work, "memory"), 4L * 1024 * 1024, null, steps, counter); //$NON-NLS-1$ //$NON-NLS-2$
+            // logChannelsでチャンネル毎に間引く
+            _check("decimated", new File(work, "decimated"), 0, new int[] { 1, 1, 10, 1, 4, 1 }, steps, counter); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            _delete(work);
+        }
+        if (failures_ > 0) {
+            System.err.println(failures_ + " check(s) failed"); //$NON-NLS-1$
+            System.exit(1);
+        }
+        System.out.println("LogAllocationCheck: OK"); //$NON-NLS-1$
+    }
+
+    private static void _check(String name, File dir, long memoryBudget, int[] decimation, int steps,
+            GrxStepProfiler.AllocationCounter counter) throws Exception {
+        LogManager log = new LogManager();
+        log.init();
+        log.setTempDir(dir.getPath());
+        log.setSummaryLog(true);
+        log.setMemoryBudget(memoryBudget);
+        String[] format = {
+            "time", "float", //$NON-NLS-1$ //$NON-NLS-2$
+            "WAIST.translation", "float[3]", //$NON-NLS-1$ //$NON-NLS-2$
+            "WAIST.rotation", "float[4]", //$NON-NLS-1$ //$NON-NLS-2$
+            "q", "float[" + NUM_JOINTS + "]", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "servoState", "float[" + NUM_JOINTS + "]", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "powerState", "float[2]", //$NON-NLS-1$ //$NON-NLS-2$
+        };
+        for (int i = 0; i < OBJECTS.length; i++)
+            log.addLogObject(OBJECTS[i], format, decimation);
+
+        SimulationTime stime = new SimulationTime();
+        stime.setStartTime(0);
+        stime.setCurrentTime(0);
+        stime.setTimeStep(TIME_STEP);
+        stime.setTotalTime((WARMUP_STEPS + steps) * TIME_STEP);
+        log.initCollisionLog(stime);
+        log.openAsWrite(stime, "RUNGE_KUTTA"); //$NON-NLS-1$
+        log.openAsRead();
+        log.openCollisionLogAsWrite();
+        log.openCollisionLogAsRead();
+
+        // GrxWorldStateItemと同じく、記録に使うオブジェクトは使い回す
+        Time time = new Time();
+        float[] data = new float[log.getDataLength(OBJECTS[0])];
+        CollisionPoint[] points = new CollisionPoint[NUM_COLLISION_POINTS];
+        for (int i = 0; i < points.length; i++)
+            points[i] = new CollisionPoint();
+
+        int failedSteps = 0;
+        int blockedSteps = 0;
+        long maxBytes = 0;
+        try {
+            for (int step = 0; step < WARMUP_STEPS + steps; step++) {
+                long blocked = log.getWriteBackpressureCount();
+                long start = counter.get();
+                _record(log, step, time, data, points);
+                long bytes = counter.since(start);
+                if (step >= WARMUP_STEPS && bytes != 0) {
+                    if (log.getWriteBackpressureCount() != blocked) {
+                        blockedSteps++;
+                        continue;
+                    }
+                    if (failedSteps++ == 0)
+                        System.err.println(name + ": step " + (step - WARMUP_STEPS) + " allocated " + bytes + "[byte]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    maxBytes = Math.max(maxBytes, bytes);
+                }
+            }
+        } finally {
+            log.closeWrites();
+            log.closeReads();
+        }
+        if (blockedSteps > 0)
+            System.out.println(name + ": " + blockedSteps + " step(s) allocated while waiting for the writer (not counted)"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (failedSteps > 0) {
+            System.err.println("FAILED: " + name + ": " + failedSteps + " of " + steps + " steps allocated (max " + maxBytes + "[byte])"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            failures_++;
+        } else {
+            System.out.println(name + ": " + steps + " steps without allocation"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * 1ステップ分を記録する(GrxWorldStateItem._toLogFile()と同じ呼び出し)
+     */
+    private static void _record(LogManager log, int step, Time time, float[] data, CollisionPoint[] points) throws Exception {
+        float t = (float)(step * TIME_STEP);
+        time.set(t);
+        log.setTime(time);
+        int n = step % (points.length + 1);
+        for (int i = 0; i < n; i++)
+            points[i].idepth = t;
+        log.putCollisionPointData(points, n);
+        for (int i = 0; i < OBJECTS.length; i++) {
+            data[0] = t;
+            for (int k = 1; k < data.length; k++)
+                data[k] = t * k;
+            log.put(OBJECTS[i], data);
+        }
+    }
+
+    private static void _delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++)
+                _delete(files[i]);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogArchiveReader.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * ログのzipアーカイブ読み出しクラス
+ *
+ * セントラルディレクトリ(ZIP64を含む)を解析し、各エントリのデータ位置を求める。
+ * STOREDのエントリはアーカイブ内の位置をそのまま位置指定読み出しに使える。
+ * 圧縮されたエントリはワーカースレッドで一時ファイルへ展開し、
+ * 展開済みの範囲はすぐに読み出せるようにする。
+ */
+class LogArchiveReader {
+    //--------------------------------------------------------------------
+    // 定数
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * アーカイブ内のエントリ
+     */
+    static class Entry {
+        String name_;
+        int method_;
+        long size_;
+        long compressedSize_;
+        long localOffset_;
+        long dataOffset_;   // データ先頭のアーカイブ内の位置
+
+        public String getName() {
+            return name_;
+        }
+
+        public boolean isStored() {
+            return method_ == ZipEntry.STORED;
+        }
+
+        public long getSize() {
+            return size_;
+        }
+
+        public long getDataOffset() {
+            return dataOffset_;
+        }
+    }
+
+    /**
+     * エントリの展開
+     *
+     * ワーカースレッドが一時ファイルへ順に書き込み、展開済みのbyte数を公開する。
+     */
+    static class Extraction {
+        private final Entry entry_;
+        private final File file_;
+        private volatile long extracted_ = 0;
+        private volatile boolean done_ = false;
+        private volatile IOException error_ = null;
+
+        private Extraction(Entry entry, File file) {
+            entry_ = entry;
+            file_ = file;
+        }
+
+        public File getFile() {
+            return file_;
+        }
+
+        public boolean isDone() {
+            return done_;
+        }
+
+        /**
+         * 先頭からsize byteが展開されるまで待つ
+         */
+        public void await(long size) throws IOException {
+            if (extracted_ >= size)
+                return;
+            synchronized (this) {
+                while (extracted_ < size && !done_) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            if (error_ != null)
+                throw error_;
+        }
+
+        /**
+         * 全体が展開されるまで待つ
+         */
+        public void awaitAll() throws IOException {
+            await(entry_.size_);
+        }
+
+        private void _run(LogArchiveReader archive) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                InputStream in = archive.getInputStream(entry_);
+                FileOutputStream out = new FileOutputStream(file_);
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        if (Thread.currentThread().isInterrupted())
+                            throw new InterruptedIOException();
+                        out.write(buffer, 0, n);
+                        synchronized (this) {
+                            extracted_ += n;
+                            notifyAll();
+                        }
+                    }
+                } finally {
+                    out.close();
+                    in.close();
+                }
+                if (extracted_ != entry_.size_)
+                    throw new EOFException(entry_.name_);
+            } catch (IOException ex) {
+                error_ = ex;
+            } finally {
+                synchronized (this) {
+                    done_ = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 開始されずに中止された場合に待っているスレッドを起こす
+         */
+        private synchronized void _abort() {
+            if (!done_) {
+                error_ = new InterruptedIOException(entry_.name_);
+                done_ = true;
+                notifyAll();
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final File file_;
+    private final RandomAccessFile raf_;
+    private final FileChannel channel_;
+    private final List<Entry> entries_ = new ArrayList<Entry>();
+    private ExecutorService pool_ = null;
+    private final List<Extraction> extractions_ = new ArrayList<Extraction>();
+
+    /**
+     * アーカイブを開き、セントラルディレクトリを読み込む
+     */
+    LogArchiveReader(File file) throws IOException {
+        file_ = file;
+        raf_ = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        channel_ = raf_.getChannel();
+        try {
+            _readCentralDirectory();
+        } catch (IOException ex) {
+            raf_.close();
+            throw ex;
+        }
+    }
+
+    public File getFile() {
+        return file_;
+    }
+
+    public List<Entry> getEntries() {
+        return entries_;
+    }
+
+    /**
+     * エントリのデータを読み出すストリームを返す。圧縮されている場合は展開する。
+     */
+    public InputStream getInputStream(Entry e) throws IOException {
+        InputStream in = new RegionInputStream(e.dataOffset_, e.compressedSize_, !e.isStored());
+        if (e.isStored())
+            return in;
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * エントリをfileへ展開する。STOREDのエントリはFileChannel.transferTo()でコピーする。
+     */
+    public void extractTo(Entry e, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            if (e.isStored()) {
+                long position = 0;
+                while (position < e.size_) {
+                    long n = channel_.transferTo(e.dataOffset_ + position, e.size_ - position, out.getChannel());
+                    if (n <= 0)
+                        throw new EOFException(e.name_);
+                    position += n;
+                }
+            } else {
+                InputStream in = getInputStream(e);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = in.read(buffer)) > 0)
+                        out.write(buffer, 0, n);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * エントリをfileへ展開する処理をワーカースレッドで開始する
+     */
+    public synchronized Extraction extract(Entry e, File file) {
+        if (pool_ == null) {
+            int n = Math.max(1, Runtime.getRuntime().availableProcessors());
+            pool_ = Executors.newFixedThreadPool(n, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "LogArchiveReader"); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        final Extraction x = new Extraction(e, file);
+        extractions_.add(x);
+        pool_.submit(new Runnable() {
+            public void run() {
+                x._run(LogArchiveReader.this);
+            }
+        });
+        return x;
+    }
+
+    /**
+     * 展開を中止してアーカイブを閉じる
+     */
+    public synchronized void close() throws IOException {
+        if (pool_ != null) {
+            pool_.shutdownNow();
+            try {
+                pool_.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pool_ = null;
+        }
+        for (int i = 0; i < extractions_.size(); i++)
+            extractions_.get(i)._abort();
+        raf_.close();
+    }
+
+    private void _readCentralDirectory() throws IOException {
+        long fileSize = channel_.size();
+        int tail = (int)Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer buf = _read(fileSize - tail, tail);
+        int end = -1;
+        for (int i = tail - END_SIZE; i >= 0; i--) {
+            if (buf.getInt(i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0)
+            throw new ZipException("END header not found"); //$NON-NLS-1$
+        long endPos = fileSize - tail + end;
+        long count = buf.getShort(end + 10) & 0xFFFF;
+        long cdSize = buf.getInt(end + 12) & ZIP64_MAGIC;
+        long cdOffset = buf.getInt(end + 16) & ZIP64_MAGIC;
+
+        if (endPos >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer loc = _read(endPos - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (loc.getInt(0) == ZIP64_LOCATOR_SIG) {
+                ByteBuffer z = _read(loc.getLong(8), 56);
+                if (z.getInt(0) != ZIP64_END_SIG)
+                    throw new ZipException("invalid ZIP64 END header"); //$NON-NLS-1$
+                count = z.getLong(32);
+                cdSize = z.getLong(40);
+                cdOffset = z.getLong(48);
+            }
+        }
+
+        ByteBuffer cd = _read(cdOffset, (int)cdSize);
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (cd.getInt(p) != CENTRAL_HEADER_SIG)
+                throw new ZipException("invalid CEN header"); //$NON-NLS-1$
+            Entry e = new Entry();
+            e.method_ = cd.getShort(p + 10) & 0xFFFF;
+            e.compressedSize_ = cd.getInt(p + 20) & ZIP64_MAGIC;
+            e.size_ = cd.getInt(p + 24) & ZIP64_MAGIC;
+            int nameLen = cd.getShort(p + 28) & 0xFFFF;
+            int extraLen = cd.getShort(p + 30) & 0xFFFF;
+            int commentLen = cd.getShort(p + 32) & 0xFFFF;
+            e.localOffset_ = cd.getInt(p + 42) & ZIP64_MAGIC;
+            byte[] name = new byte[nameLen];
+            cd.position(p + 46);
+            cd.get(name);
+            e.name_ = new String(name, "UTF-8"); //$NON-NLS-1$
+
+            // ZIP64拡張フィールド
+            int q = p + 46 + nameLen;
+            int extraEnd = q + extraLen;
+            while (q + 4 <= extraEnd) {
+                int id = cd.getShort(q) & 0xFFFF;
+                int len = cd.getShort(q + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA_ID) {
+                    int r = q + 4;
+                    if (e.size_ == ZIP64_MAGIC) {
+                        e.size_ = cd.getLong(r);
+                        r += 8;
+                    }
+                    if (e.compressedSize_ == ZIP64_MAGIC) {
+                        e.compressedSize_ = cd.getLong(r);
+                        r += 8;
+                    }
+                    if (e.localOffset_ == ZIP64_MAGIC)
+                        e.localOffset_ = cd.getLong(r);
+                }
+                q += 4 + len;
+            }
+            p += 46 + nameLen + extraLen + commentLen;
+
+            if (e.method_ != ZipEntry.STORED && e.method_ != ZipEntry.DEFLATED)
+                throw new ZipException("unsupported compression method: " + e.name_); //$NON-NLS-1$
+            ByteBuffer local = _read(e.localOffset_, 30);
+            if (local.getInt(0) != LOCAL_HEADER_SIG)
+                throw new ZipException("invalid LOC header"); //$NON-NLS-1$
+            e.dataOffset_ = e.localOffset_ + 30 + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+            entries_.add(e);
+        }
+    }
+
+    private ByteBuffer _read(long position, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel_.read(buf, position + buf.position()) < 0)
+                throw new EOFException();
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * アーカイブ内の範囲を位置指定読み出しで読むストリーム
+     */
+    private class RegionInputStream extends InputStream {
+        private long position_;
+        private final long end_;
+        private boolean dummy_;     // raw deflateの終端に付け加える1byte
+
+        RegionInputStream(long offset, long length, boolean dummy) {
+            position_ = offset;
+            end_ = offset + length;
+            dummy_ = dummy;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (position_ >= end_) {
+                if (dummy_) {
+                    dummy_ = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            int n = (int)Math.min(len, end_ - position_);
+            n = channel_.read(ByteBuffer.wrap(b, off, n), position_);
+            if (n < 0)
+                throw new EOFException();
+            position_ += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogArchiveWriter.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * ログのzipアーカイブ書き込みクラス
+ *
+ * エントリ毎の圧縮(またはCRCの計算)をワーカースレッドで並列に行い、
+ * 終わったエントリから順にFileChannel.transferTo()でアーカイブへ連結する。
+ * STOREDの場合、ファイルをそのままのエントリはJVMのヒープを経由せずにコピーされる。
+ * 4GBを超えるエントリ・アーカイブはZIP64形式で書き込む。
+ */
+class LogArchiveWriter {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final int STORED = ZipEntry.STORED;
+    public static final int DEFLATED = ZipEntry.DEFLATED;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_COUNT_MAGIC = 0xFFFF;
+    private static final long ZIP64_LIMIT = ZIP64_MAGIC;            // これ以上のサイズ・位置はZIP64で記録する
+    private static final int ZIP64_COUNT_LIMIT = ZIP64_COUNT_MAGIC;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long TRANSFER_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * エントリの内容を書き出すクラス
+     */
+    interface Content {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 追加するエントリ
+     */
+    private static class Source {
+        final String name;
+        final File file;
+        final long offset;  // file内のデータの位置
+        final long length;  // file内のデータの長さ
+        final Content content;
+        final int method;
+        Source(String n, File f, long o, long l, Content c, int m) {
+            name = n;
+            file = f;
+            offset = o;
+            length = l;
+            content = c;
+            method = m;
+        }
+    }
+
+    /**
+     * 圧縮済みのエントリ
+     */
+    private static class Prepared {
+        String name;
+        File data;          // アーカイブへ連結するデータ
+        long dataOffset;    // data内の位置
+        boolean temporary;  // dataが一時ファイルかどうか
+        int method;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;        // ローカルヘッダの位置
+        boolean zip64;
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final File file_;
+    private final File workDir_;
+    private final int method_;
+    private final List<Source> sources_ = new ArrayList<Source>();
+
+    /**
+     * コンストラクタ
+     *
+     * @param file    作成するzipファイル
+     * @param workDir 圧縮データの一時ファイルを置くディレクトリ
+     * @param method  STOREDまたはDEFLATED
+     */
+    LogArchiveWriter(File file, File workDir, int method) {
+        file_ = file;
+        workDir_ = workDir;
+        method_ = method;
+    }
+
+    /**
+     * ファイルをそのまま追加する。ファイルが無い場合は何もしない。
+     */
+    public void addFile(String name, File file) {
+        if (file.exists())
+            sources_.add(new Source(name, file, 0, file.length(), null, method_));
+    }
+
+    /**
+     * ファイルを圧縮せずに追加する(読み込み時にアーカイブ内を直接読めるように)。ファイルが無い場合は何もしない。
+     */
+    public void addStoredFile(String name, File file) {
+        if (file.exists())
+            sources_.add(new Source(name, file, 0, file.length(), null, STORED));
+    }
+
+    /**
+     * ファイルのoffset byte目からlength byteを追加する
+     */
+    public void addFileRegion(String name, File file, long offset, long length) {
+        sources_.add(new Source(name, file, offset, length, null, method_));
+    }
+
+    /**
+     * contentが書き出す内容を追加する
+     */
+    public void addContent(String name, Content content) {
+        sources_.add(new Source(name, null, 0, 0, content, method_));
+    }
+
+    public int size() {
+        return sources_.size();
+    }
+
+    /**
+     * アーカイブを書き込む。
+     * monitorには圧縮の完了時と連結の完了時にエントリ毎に1ずつ進捗を報告する。
+     *
+     * @param monitor 進捗の報告先(null可)
+     */
+    public void write(IProgressMonitor monitor) throws IOException {
+        int nThreads = Math.max(1, Math.min(sources_.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        CompletionService<Prepared> service = new ExecutorCompletionService<Prepared>(pool);
+        List<Future<Prepared>> futures = new ArrayList<Future<Prepared>>();
+        List<Prepared> written = new ArrayList<Prepared>();
+        FileOutputStream stream = null;
+        boolean success = false;
+        try {
+            for (int i = 0; i < sources_.size(); i++) {
+                final Source src = sources_.get(i);
+                futures.add(service.submit(new Callable<Prepared>() {
+                    public Prepared call() throws IOException {
+                        return _prepare(src);
+                    }
+                }));
+            }
+
+            stream = new FileOutputStream(file_);
+            FileChannel out = stream.getChannel();
+            for (int i = 0; i < futures.size(); i++) {
+                Prepared p = _take(service, monitor);
+                if (monitor != null) {
+                    monitor.subTask(p.name);
+                    monitor.worked(1);
+                }
+                written.add(p);
+                try {
+                    _writeEntry(out, p);
+                } finally {
+                    if (p.temporary)
+                        p.data.delete();
+                }
+                if (monitor != null)
+                    monitor.worked(1);
+            }
+            _writeCentralDirectory(out, written);
+            success = true;
+        } finally {
+            pool.shutdownNow();
+            if (!success) {
+                // 未連結の一時ファイルを削除する
+                for (int i = 0; i < futures.size(); i++) {
+                    Future<Prepared> f = futures.get(i);
+                    f.cancel(true);
+                    try {
+                        Prepared p = f.get();
+                        if (p.temporary)
+                            p.data.delete();
+                    } catch (Exception ex) {
+                    }
+                }
+            }
+            if (stream != null)
+                stream.close();
+            if (!success)
+                file_.delete();
+        }
+    }
+
+    private Prepared _take(CompletionService<Prepared> service, IProgressMonitor monitor) throws IOException {
+        while (true) {
+            if (monitor != null && monitor.isCanceled())
+                throw new InterruptedIOException();
+            Future<Prepared> f;
+            try {
+                f = service.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (f == null)
+                continue;
+            try {
+                return f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                IOException ioe = new IOException(cause.toString());
+                ioe.initCause(cause);
+                throw ioe;
+            }
+        }
+    }
+
+    /**
+     * ワーカースレッドでエントリを圧縮する。
+     * STOREDでファイルをそのまま追加する場合はCRCの計算だけを行う。
+     */
+    private Prepared _prepare(Source src) throws IOException {
+        Prepared p = new Prepared();
+        p.name = src.name;
+        p.method = src.method;
+        if (src.file != null && src.method == STORED) {
+            CheckedOutputStream crc = new CheckedOutputStream(new OutputStream() {
+                public void write(int b) {}
+                public void write(byte[] b, int off, int len) {}
+            }, new CRC32());
+            _copyRegion(src, crc);
+            p.data = src.file;
+            p.dataOffset = src.offset;
+            p.temporary = false;
+            p.crc = crc.getChecksum().getValue();
+            p.size = src.length;
+            p.compressedSize = src.length;
+            return p;
+        }
+
+        File tmp = File.createTempFile("log", ".zpart", workDir_); //$NON-NLS-1$ //$NON-NLS-2$
+        boolean success = false;
+        try {
+            CountingOutputStream fileOut = new CountingOutputStream(new FileOutputStream(tmp));
+            Deflater deflater = null;
+            OutputStream out = fileOut;
+            if (src.method == DEFLATED) {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                out = new DeflaterOutputStream(fileOut, deflater, BUFFER_SIZE);
+            } else {
+                out = new BufferedOutputStream(fileOut, BUFFER_SIZE);
+            }
+            CountingOutputStream raw = new CountingOutputStream(out);
+            CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+            try {
+                if (src.file != null) {
+                    _copyRegion(src, checked);
+                } else {
+                    src.content.write(checked);
+                }
+            } finally {
+                checked.close();
+                if (deflater != null)
+                    deflater.end();
+            }
+            p.data = tmp;
+            p.temporary = true;
+            p.crc = checked.getChecksum().getValue();
+            p.size = raw.getCount();
+            p.compressedSize = fileOut.getCount();
+            success = true;
+        } finally {
+            if (!success)
+                tmp.delete();
+        }
+        return p;
+    }
+
+    /**
+     * srcのファイルの範囲をoutへ書き出す
+     */
+    private static void _copyRegion(Source src, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        FileInputStream in = new FileInputStream(src.file);
+        try {
+            FileChannel channel = in.getChannel();
+            long position = src.offset;
+            long end = src.offset + src.length;
+            while (position < end) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException();
+                int n = channel.read(ByteBuffer.wrap(buffer, 0, (int)Math.min(buffer.length, end - position)), position);
+                if (n < 0)
+                    throw new EOFException();
+                out.write(buffer, 0, n);
+                position += n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * ローカルヘッダを書き込み、データを連結する
+     */
+    private void _writeEntry(FileChannel out, Prepared p) throws IOException {
+        byte[] name = p.name.getBytes("UTF-8"); //$NON-NLS-1$
+        p.offset = out.position();
+        p.zip64 = p.size >= ZIP64_LIMIT || p.compressedSize >= ZIP64_LIMIT;
+
+        ByteBuffer buf = _allocate(30 + name.length + 20);
+        buf.putInt(LOCAL_HEADER_SIG);
+        buf.putShort((short) (p.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        buf.putShort((short) FLAG_UTF8);
+        buf.putShort((short) p.method);
+        buf.putInt(_dosTime(System.currentTimeMillis()));
+        buf.putInt((int) p.crc);
+        buf.putInt((int) (p.zip64 ? ZIP64_MAGIC : p.compressedSize));
+        buf.putInt((int) (p.zip64 ? ZIP64_MAGIC : p.size));
+        buf.putShort((short) name.length);
+        buf.putShort((short) (p.zip64 ? 20 : 0));
+        buf.put(name);
+        if (p.zip64) {
+            buf.putShort((short) ZIP64_EXTRA_ID);
+            buf.putShort((short) 16);
+            buf.putLong(p.size);
+            buf.putLong(p.compressedSize);
+        }
+        _write(out, buf);
+
+        FileInputStream in = new FileInputStream(p.data);
+        try {
+            FileChannel src = in.getChannel();
+            long position = 0;
+            while (position < p.compressedSize) {
+                long n = src.transferTo(p.dataOffset + position, Math.min(TRANSFER_SIZE, p.compressedSize - position), out);
+                if (n <= 0)
+                    throw new EOFException();
+                position += n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * セントラルディレクトリと終端レコードを書き込む
+     */
+    private void _writeCentralDirectory(FileChannel out, List<Prepared> entries) throws IOException {
+        long start = out.position();
+        int time = _dosTime(System.currentTimeMillis());
+        for (int i = 0; i < entries.size(); i++) {
+            Prepared p = entries.get(i);
+            byte[] name = p.name.getBytes("UTF-8"); //$NON-NLS-1$
+            boolean zip64 = p.zip64 || p.offset >= ZIP64_LIMIT;
+            ByteBuffer buf = _allocate(46 + name.length + 28);
+            buf.putInt(CENTRAL_HEADER_SIG);
+            buf.putShort((short) VERSION_ZIP64);
+            buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+            buf.putShort((short) FLAG_UTF8);
+            buf.putShort((short) p.method);
+            buf.putInt(time);
+            buf.putInt((int) p.crc);
+            buf.putInt((int) (zip64 ? ZIP64_MAGIC : p.compressedSize));
+            buf.putInt((int) (zip64 ? ZIP64_MAGIC : p.size));
+            buf.putShort((short) name.length);
+            buf.putShort((short) (zip64 ? 28 : 0));
+            buf.putShort((short) 0);    // コメント長
+            buf.putShort((short) 0);    // ディスク番号
+            buf.putShort((short) 0);    // 内部属性
+            buf.putInt(0);              // 外部属性
+            buf.putInt((int) (zip64 ? ZIP64_MAGIC : p.offset));
+            buf.put(name);
+            if (zip64) {
+                buf.putShort((short) ZIP64_EXTRA_ID);
+                buf.putShort((short) 24);
+                buf.putLong(p.size);
+                buf.putLong(p.compressedSize);
+                buf.putLong(p.offset);
+            }
+            _write(out, buf);
+        }
+        long end = out.position();
+        long size = end - start;
+
+        boolean zip64 = entries.size() >= ZIP64_COUNT_LIMIT || start >= ZIP64_LIMIT || size >= ZIP64_LIMIT;
+        if (zip64) {
+            ByteBuffer buf = _allocate(56 + 20);
+            buf.putInt(ZIP64_END_SIG);
+            buf.putLong(44);
+            buf.putShort((short) VERSION_ZIP64);
+            buf.putShort((short) VERSION_ZIP64);
+            buf.putInt(0);
+            buf.putInt(0);
+            buf.putLong(entries.size());
+            buf.putLong(entries.size());
+            buf.putLong(size);
+            buf.putLong(start);
+            buf.putInt(ZIP64_LOCATOR_SIG);
+            buf.putInt(0);
+            buf.putLong(end);
+            buf.putInt(1);
+            _write(out, buf);
+        }
+        ByteBuffer buf = _allocate(22);
+        buf.putInt(END_SIG);
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putShort((short) (zip64 ? ZIP64_COUNT_MAGIC : entries.size()));
+        buf.putShort((short) (zip64 ? ZIP64_COUNT_MAGIC : entries.size()));
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : start));
+        buf.putShort((short) 0);
+        _write(out, buf);
+    }
+
+    private static ByteBuffer _allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void _write(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    private static int _dosTime(long millis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return ((year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+            | (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+            | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * 書き込んだbyte数を数えるストリーム
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count_ = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count_++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count_ += len;
+        }
+
+        public long getCount() {
+            return count_;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogBlockFile.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ブロック圧縮ログファイル
+ *
+ * ログヘッダの後ろに、BLOCK_RECORDSレコード毎に圧縮したブロックを並べ、
+ * 最後にブロックの位置テーブルを置く。
+ * ブロック内は列毎に、前の値とのXORをGorilla方式でビット詰めする
+ * (値が変わらなければ1bit、変化したbitの範囲が前回と同じ範囲に収まれば
+ * その範囲だけを書く)。ENCODING_XOR_DEFLATEの場合はさらにブロック毎にdeflateする。
+ *
+ * <pre>
+ *  ログヘッダ (LogHeader, encoding_ != ENCODING_RAW)
+ *  ブロック: int 展開後のbyte数, 圧縮データ
+ *  ...
+ *  位置テーブル: int 1ブロック当りのレコード数, int 総レコード数, int ブロック数,
+ *              long[ブロック数+1] ファイル先頭からのブロック位置
+ *  long 位置テーブルの位置
+ * </pre>
+ */
+class LogBlockFile {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final int ENCODING_RAW = 0;
+    public static final int ENCODING_XOR = 1;
+    public static final int ENCODING_XOR_DEFLATE = 2;
+    public static final String[] ENCODING_NAMES = { "RAW", "XOR", "XOR_DEFLATE" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    private static final int BLOCK_RECORDS = 1024;
+    private static final int CACHE_BLOCKS = 16;   // 展開済みブロックのキャッシュ数
+
+    /**
+     * inから読み出したレコードを圧縮してoutへ書き込む。ヘッダはoutに書き込み済みであること。
+     *
+     * @param in         読み出し元
+     * @param numColumns 1レコード当りのアイテム数
+     * @param numRecords レコード数
+     * @param encoding   ENCODING_XOR または ENCODING_XOR_DEFLATE
+     * @param out        書き込み先
+     * @param offset     outに書き込み済みのbyte数(ヘッダサイズ)
+     */
+    public static void write(LogRecordReader in, int numColumns, int numRecords, int encoding, OutputStream out, long offset) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        int numBlocks = (numRecords + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        long[] index = new long[numBlocks + 1];
+        float[] rows = new float[BLOCK_RECORDS * numColumns];
+        BitWriter bits = new BitWriter();
+        Deflater deflater = encoding == ENCODING_XOR_DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+        byte[] deflated = new byte[1024];
+        long pos = offset;
+        try {
+            for (int k = 0; k < numBlocks; k++) {
+                int first = k * BLOCK_RECORDS;
+                int n = Math.min(BLOCK_RECORDS, numRecords - first);
+                in.readRecords(first, n, rows, 0);
+                bits.reset();
+                _encode(rows, n, numColumns, bits);
+                int length = bits.size();
+                byte[] data = bits.buffer();
+                int dataLength = length;
+                if (deflater != null) {
+                    deflater.reset();
+                    deflater.setInput(data, 0, length);
+                    deflater.finish();
+                    dataLength = 0;
+                    while (!deflater.finished()) {
+                        if (dataLength == deflated.length)
+                            deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                        dataLength += deflater.deflate(deflated, dataLength, deflated.length - dataLength);
+                    }
+                    data = deflated;
+                }
+                index[k] = pos;
+                dout.writeInt(length);
+                dout.write(data, 0, dataLength);
+                pos += 4 + dataLength;
+            }
+        } finally {
+            if (deflater != null)
+                deflater.end();
+        }
+        index[numBlocks] = pos;
+        dout.writeInt(BLOCK_RECORDS);
+        dout.writeInt(numRecords);
+        dout.writeInt(numBlocks);
+        for (int k = 0; k <= numBlocks; k++)
+            dout.writeLong(index[k]);
+        dout.writeLong(pos);
+        dout.flush();
+    }
+
+    /**
+     * 列毎に前の値とのXORをビット詰めする
+     */
+    private static void _encode(float[] rows, int n, int numColumns, BitWriter out) {
+        for (int c = 0; c < numColumns; c++) {
+            int prev = Float.floatToRawIntBits(rows[c]);
+            out.write(prev, 32);
+            int prevLead = -1, prevTrail = 0;
+            for (int r = 1; r < n; r++) {
+                int v = Float.floatToRawIntBits(rows[r * numColumns + c]);
+                int x = v ^ prev;
+                prev = v;
+                if (x == 0) {
+                    out.write(0, 1);
+                    continue;
+                }
+                int lead = Integer.numberOfLeadingZeros(x);
+                int trail = Integer.numberOfTrailingZeros(x);
+                if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+                    // 前回と同じ範囲に収まる
+                    out.write(2, 2);
+                    out.write(x >>> prevTrail, 32 - prevLead - prevTrail);
+                } else {
+                    int len = 32 - lead - trail;
+                    out.write(3, 2);
+                    out.write(lead, 5);
+                    out.write(len - 1, 5);
+                    out.write(x >>> trail, len);
+                    prevLead = lead;
+                    prevTrail = trail;
+                }
+            }
+        }
+    }
+
+    private static void _decode(BitReader in, int n, int numColumns, float[] rows) {
+        for (int c = 0; c < numColumns; c++) {
+            int prev = in.read(32);
+            rows[c] = Float.intBitsToFloat(prev);
+            int prevLead = 0, prevTrail = 0;
+            for (int r = 1; r < n; r++) {
+                if (in.read(1) != 0) {
+                    if (in.read(1) != 0) {
+                        prevLead = in.read(5);
+                        prevTrail = 32 - prevLead - (in.read(5) + 1);
+                    }
+                    prev ^= in.read(32 - prevLead - prevTrail) << prevTrail;
+                }
+                rows[r * numColumns + c] = Float.intBitsToFloat(prev);
+            }
+        }
+    }
+
+    /**
+     * 読み出しクラス
+     *
+     * 展開したブロックをCACHE_BLOCKS個までキャッシュする
+     */
+    static class Reader implements LogRecordReader {
+        private final RandomAccessFile file_;
+        private final FileChannel channel_;
+        private final int numColumns_;
+        private final int encoding_;
+        private final int blockRecords_;
+        private final int numRecords_;
+        private final long[] index_;
+        private final long base_;           // ファイル内のログの先頭位置
+        private final Map<Integer, float[]> cache_ = new LinkedHashMap<Integer, float[]>(CACHE_BLOCKS, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, float[]> eldest) {
+                return size() > CACHE_BLOCKS;
+            }
+        };
+
+        Reader(File file, int numColumns, int encoding) throws IOException {
+            this(file, 0, file.length(), numColumns, encoding);
+        }
+
+        /**
+         * ファイルのbase byte目からlength byteに格納されたログを読み出す
+         * (zipアーカイブ内に無圧縮で格納されている場合)
+         */
+        Reader(File file, long base, long length, int numColumns, int encoding) throws IOException {
+            file_ = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+            channel_ = file_.getChannel();
+            base_ = base;
+            numColumns_ = numColumns;
+            encoding_ = encoding;
+            try {
+                ByteBuffer buf = ByteBuffer.allocate(8);
+                _read(length - 8, buf);
+                long indexOffset = buf.getLong(0);
+                buf = ByteBuffer.allocate(12);
+                _read(indexOffset, buf);
+                blockRecords_ = buf.getInt(0);
+                numRecords_ = buf.getInt(4);
+                int numBlocks = buf.getInt(8);
+                buf = ByteBuffer.allocate((numBlocks + 1) * 8);
+                _read(indexOffset + 12, buf);
+                buf.flip();
+                index_ = new long[numBlocks + 1];
+                buf.asLongBuffer().get(index_);
+            } catch (IOException ex) {
+                file_.close();
+                throw ex;
+            }
+        }
+
+        public void readRecord(long record, float[] dst, int off) throws IOException {
+            readRecords(record, 1, dst, off);
+        }
+
+        public void readRecords(long record, int count, float[] dst, int off) throws IOException {
+            while (count > 0) {
+                int k = (int)(record / blockRecords_);
+                int inBlock = (int)(record % blockRecords_);
+                float[] block = _block(k);
+                int n = Math.min(count, block.length / numColumns_ - inBlock);
+                if (n <= 0)
+                    throw new EOFException();
+                System.arraycopy(block, inBlock * numColumns_, dst, off, n * numColumns_);
+                record += n;
+                count -= n;
+                off += n * numColumns_;
+            }
+        }
+
+        public void readItems(long record, int count, int[] items, float[][] dst) throws IOException {
+            int done = 0;
+            while (done < count) {
+                int k = (int)(record / blockRecords_);
+                int inBlock = (int)(record % blockRecords_);
+                float[] block = _block(k);
+                int n = Math.min(count - done, block.length / numColumns_ - inBlock);
+                if (n <= 0)
+                    throw new EOFException();
+                for (int i = 0; i < items.length; i++) {
+                    float[] d = dst[i];
+                    int p = inBlock * numColumns_ + items[i];
+                    for (int j = 0; j < n; j++, p += numColumns_)
+                        d[done + j] = block[p];
+                }
+                record += n;
+                done += n;
+            }
+        }
+
+        public void close() throws IOException {
+            synchronized (cache_) {
+                cache_.clear();
+            }
+            file_.close();
+        }
+
+        /**
+         * k番目のブロックを展開して返す(行順)
+         */
+        private float[] _block(int k) throws IOException {
+            if (k < 0 || k + 1 >= index_.length)
+                throw new EOFException();
+            Integer key = Integer.valueOf(k);
+            float[] rows;
+            synchronized (cache_) {
+                rows = cache_.get(key);
+            }
+            if (rows != null)
+                return rows;
+
+            // 展開はロックの外で行う
+            ByteBuffer buf = ByteBuffer.allocate((int)(index_[k + 1] - index_[k]));
+            _read(index_[k], buf);
+            int length = buf.getInt(0);
+            byte[] data;
+            if (encoding_ == ENCODING_XOR_DEFLATE) {
+                data = new byte[length];
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(buf.array(), 4, buf.capacity() - 4);
+                    int n = 0;
+                    while (n < length && !inflater.finished())
+                        n += inflater.inflate(data, n, length - n);
+                } catch (DataFormatException ex) {
+                    throw new IOException(ex.getMessage());
+                } finally {
+                    inflater.end();
+                }
+            } else {
+                data = Arrays.copyOfRange(buf.array(), 4, buf.capacity());
+            }
+            int n = Math.min(blockRecords_, numRecords_ - k * blockRecords_);
+            rows = new float[n * numColumns_];
+            _decode(new BitReader(data), n, numColumns_, rows);
+            synchronized (cache_) {
+                cache_.put(key, rows);
+            }
+            return rows;
+        }
+
+        private void _read(long position, ByteBuffer dst) throws IOException {
+            while (dst.hasRemaining()) {
+                if (channel_.read(dst, base_ + position + dst.position()) < 0)
+                    throw new EOFException();
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // ビット入出力
+
+    private static class BitWriter {
+        private byte[] buf_ = new byte[4096];
+        private int size_ = 0;
+        private long acc_ = 0;
+        private int bits_ = 0;
+
+        void reset() {
+            size_ = 0;
+            acc_ = 0;
+            bits_ = 0;
+        }
+
+        /**
+         * valueの下位nbits(<=32)を書き込む
+         */
+        void write(int value, int nbits) {
+            if (nbits == 0)
+                return;
+            acc_ = (acc_ << nbits) | (value & (0xffffffffL >>> (32 - nbits)));
+            bits_ += nbits;
+            while (bits_ >= 8) {
+                bits_ -= 8;
+                if (size_ == buf_.length)
+                    buf_ = Arrays.copyOf(buf_, buf_.length * 2);
+                buf_[size_++] = (byte)(acc_ >>> bits_);
+            }
+        }
+
+        /**
+         * 端数を0で埋めたbyte数
+         */
+        int size() {
+            if (bits_ > 0) {
+                write(0, 8 - bits_);
+            }
+            return size_;
+        }
+
+        byte[] buffer() {
+            return buf_;
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] buf_;
+        private int pos_ = 0;
+        private long acc_ = 0;
+        private int bits_ = 0;
+
+        BitReader(byte[] buf) {
+            buf_ = buf;
+        }
+
+        int read(int nbits) {
+            if (nbits == 0)
+                return 0;
+            while (bits_ < nbits) {
+                acc_ = (acc_ << 8) | (pos_ < buf_.length ? buf_[pos_] & 0xff : 0);
+                pos_++;
+                bits_ += 8;
+            }
+            bits_ -= nbits;
+            return (int)((acc_ >>> bits_) & (0xffffffffL >>> (32 - nbits)));
+        }
+    }
+}
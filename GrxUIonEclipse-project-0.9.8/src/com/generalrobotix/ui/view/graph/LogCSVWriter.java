@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogCSVWriter.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+
+/**
+ * CSV書き出しクラス
+ *
+ * 大きなバイト配列に直接書き込み、一杯になったらまとめてファイルへ書き出す。
+ * floatは元の値に戻る最短の桁数で、Stringを生成せずにバイト配列へ変換する。
+ * 固定小数点/指数表記の切り替えはFloat.toString()と同じだが、桁の選び方が異なるので
+ * 最後の桁がFloat.toString()と異なる場合がある(読み込めば同じfloatに戻る)。
+ */
+class LogCSVWriter {
+    //--------------------------------------------------------------------
+    // 定数
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_FLOAT_CHARS = 16;      // "-1.2345678E-45"
+    private static final int MAX_DIGITS = 9;            // floatを表すのに十分な有効桁数
+    private static final double[] POW10 = new double[64];
+    private static final long[] LPOW10 = new long[MAX_DIGITS + 2];
+    private static final double LOG10_2 = Math.log10(2);
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator", "\n").getBytes(); //$NON-NLS-1$ //$NON-NLS-2$
+    static {
+        for (int i = 0; i < POW10.length; i++)
+            POW10[i] = Double.parseDouble("1e" + i); //$NON-NLS-1$
+        LPOW10[0] = 1;
+        for (int i = 1; i < LPOW10.length; i++)
+            LPOW10[i] = LPOW10[i - 1] * 10;
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final OutputStream out_;
+    private final byte[] buf_ = new byte[BUFFER_SIZE];
+    private int pos_ = 0;
+    private final byte[] digits_ = new byte[MAX_DIGITS + 1];
+    private long m_;            // _round()の結果(仮数)
+    private int exp_;           // _round()の結果(指数)
+
+    LogCSVWriter(File file) throws IOException {
+        out_ = new FileOutputStream(file);
+    }
+
+    /**
+     * 文字列を書き出す(ヘッダ行用)
+     */
+    public void print(String s) throws IOException {
+        byte[] b = s.getBytes();
+        if (pos_ + b.length > buf_.length) {
+            flush();
+            if (b.length > buf_.length) {
+                out_.write(b);
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buf_, pos_, b.length);
+        pos_ += b.length;
+    }
+
+    public void print(char c) throws IOException {
+        if (pos_ == buf_.length)
+            flush();
+        buf_[pos_++] = (byte)c;
+    }
+
+    public void println() throws IOException {
+        for (int i = 0; i < LINE_SEPARATOR.length; i++)
+            print((char)LINE_SEPARATOR[i]);
+    }
+
+    public void print(float v) throws IOException {
+        if (pos_ + MAX_FLOAT_CHARS > buf_.length)
+            flush();
+        pos_ = _format(v, buf_, pos_);
+    }
+
+    public void flush() throws IOException {
+        if (pos_ > 0) {
+            out_.write(buf_, 0, pos_);
+            pos_ = 0;
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out_.close();
+        }
+    }
+
+    /**
+     * vを元の値に戻る最短の桁数でdst[pos]以降に書き込む。
+     * 表記はFloat.toString()に合わせているが、桁は一致するとは限らない。
+     *
+     * @return 書き込んだ後の位置
+     */
+    private int _format(float v, byte[] dst, int pos) {
+        if (v != v)
+            return _ascii("NaN", dst, pos); //$NON-NLS-1$
+        if (v < 0 || (v == 0 && 1 / v < 0)) {
+            dst[pos++] = '-';
+            v = -v;
+        }
+        if (v == Float.POSITIVE_INFINITY)
+            return _ascii("Infinity", dst, pos); //$NON-NLS-1$
+        if (v == 0)
+            return _ascii("0.0", dst, pos); //$NON-NLS-1$
+
+        // 元の値に戻る最短の有効桁数を二分探索で探す。d1.d2d3... x 10^exp
+        double d = v;
+        int e10 = (int)Math.floor(Math.getExponent(d) * LOG10_2);
+        if (_scale(d, -e10) >= 10)
+            e10++;
+        else if (_scale(d, -e10) < 1)
+            e10--;
+        int lo = 1, hi = MAX_DIGITS;
+        while (lo < hi) {
+            int mid = (lo + hi) >> 1;
+            if (_round(d, e10, mid) == v)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        int ndigits = lo;
+        _round(d, e10, ndigits);
+        long m = m_;
+        int exp = exp_;
+        while (ndigits > 1 && m % 10 == 0) {
+            m /= 10;
+            ndigits--;
+        }
+        for (int i = ndigits - 1; i >= 0; i--) {
+            digits_[i] = (byte)('0' + m % 10);
+            m /= 10;
+        }
+
+        if (exp >= -3 && exp < 7) {
+            // 固定小数点表記
+            if (exp >= 0) {
+                for (int i = 0; i <= exp; i++)
+                    dst[pos++] = i < ndigits ? digits_[i] : (byte)'0';
+                dst[pos++] = '.';
+                if (exp + 1 < ndigits) {
+                    for (int i = exp + 1; i < ndigits; i++)
+                        dst[pos++] = digits_[i];
+                } else {
+                    dst[pos++] = '0';
+                }
+            } else {
+                dst[pos++] = '0';
+                dst[pos++] = '.';
+                for (int i = -1; i > exp; i--)
+                    dst[pos++] = '0';
+                for (int i = 0; i < ndigits; i++)
+                    dst[pos++] = digits_[i];
+            }
+        } else {
+            // 指数表記
+            dst[pos++] = digits_[0];
+            dst[pos++] = '.';
+            if (ndigits > 1) {
+                for (int i = 1; i < ndigits; i++)
+                    dst[pos++] = digits_[i];
+            } else {
+                dst[pos++] = '0';
+            }
+            dst[pos++] = 'E';
+            if (exp < 0) {
+                dst[pos++] = '-';
+                exp = -exp;
+            }
+            if (exp >= 10)
+                dst[pos++] = (byte)('0' + exp / 10);
+            dst[pos++] = (byte)('0' + exp % 10);
+        }
+        return pos;
+    }
+
+    /**
+     * dを有効桁数ndigitsに丸めてm_, exp_に格納し、floatに戻した値を返す
+     */
+    private float _round(double d, int e10, int ndigits) {
+        long m = Math.round(_scale(d, ndigits - 1 - e10));
+        int exp = e10;
+        if (m >= LPOW10[ndigits]) {
+            m /= 10;
+            exp++;
+        }
+        m_ = m;
+        exp_ = exp;
+        return (float)_scale(m, exp - ndigits + 1);
+    }
+
+    /**
+     * d x 10^k
+     */
+    private static double _scale(double d, int k) {
+        return k >= 0 ? d * POW10[k] : d / POW10[-k];
+    }
+
+    private static int _ascii(String s, byte[] dst, int pos) {
+        for (int i = 0; i < s.length(); i++)
+            dst[pos++] = (byte)s.charAt(i);
+        return pos;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogChannelProfile.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * ログに記録するチャンネルと間引き率の設定
+ *
+ * 空白またはセミコロンで区切った規則の並びで指定する。後の規則ほど優先する。
+ * <pre>
+ *   [キャラクタ名のパターン:]チャンネル名のパターン=間引き率
+ * </pre>
+ * パターンは*(任意の文字列)と?(任意の1文字)を使えるglob形式。キャラクタ名を省略すると全てのキャラクタに適用する。
+ * チャンネル名はログのフォーマット名("WAIST.translation", "LASER.range", "command"など)。
+ * 間引き率は何ステップ毎に記録するかを整数で指定するか、"10Hz"のように周波数で指定する。
+ * 0は記録しないことを示す。どの規則にも一致しないチャンネルは毎ステップ記録する。
+ * <pre>
+ *   例: "*.range=10Hz robot*:*.jointTorque=0"
+ * </pre>
+ */
+public class LogChannelProfile {
+    private final List<Pattern> characters_ = new ArrayList<Pattern>();
+    private final List<Pattern> channels_ = new ArrayList<Pattern>();
+    private final List<String> rates_ = new ArrayList<String>();
+
+    /**
+     * @param spec 規則の並び(null可)
+     * @throws IllegalArgumentException 書式が正しくない場合
+     */
+    public LogChannelProfile(String spec) {
+        if (spec == null)
+            return;
+        String[] rules = spec.trim().split("[\\s;]+"); //$NON-NLS-1$
+        for (int i = 0; i < rules.length; i++) {
+            String rule = rules[i];
+            if (rule.length() == 0)
+                continue;
+            int eq = rule.lastIndexOf('=');
+            if (eq <= 0 || eq == rule.length() - 1)
+                throw new IllegalArgumentException("invalid log channel rule: " + rule); //$NON-NLS-1$
+            String target = rule.substring(0, eq);
+            String rate = rule.substring(eq + 1);
+            _parseRate(rate, 0);    // 書式の確認
+            int colon = target.indexOf(':');
+            characters_.add(_toPattern(colon >= 0 ? target.substring(0, colon) : "*")); //$NON-NLS-1$
+            channels_.add(_toPattern(target.substring(colon + 1)));
+            rates_.add(rate);
+        }
+    }
+
+    /**
+     * 規則が1つも無いか
+     */
+    public boolean isEmpty() {
+        return rates_.isEmpty();
+    }
+
+    /**
+     * チャンネルの間引き率を返す
+     *
+     * @param character キャラクタ名
+     * @param channel   チャンネル名
+     * @param timeStep  ログの時間刻み(秒)。周波数で指定した規則の換算に使う
+     * @return 何ステップ毎に記録するか。0は記録しない
+     */
+    public int getDecimation(String character, String channel, double timeStep) {
+        for (int i = rates_.size() - 1; i >= 0; i--) {
+            if (characters_.get(i).matcher(character).matches() && channels_.get(i).matcher(channel).matches())
+                return _parseRate(rates_.get(i), timeStep);
+        }
+        return 1;
+    }
+
+    private static int _parseRate(String rate, double timeStep) {
+        try {
+            if (rate.endsWith("Hz") || rate.endsWith("hz")) { //$NON-NLS-1$ //$NON-NLS-2$
+                double hz = Double.parseDouble(rate.substring(0, rate.length() - 2));
+                if (hz < 0)
+                    throw new IllegalArgumentException("invalid log channel rate: " + rate); //$NON-NLS-1$
+                if (hz == 0)
+                    return 0;
+                if (timeStep <= 0)
+                    return 1;
+                return (int)Math.max(1, Math.round(1 / (hz * timeStep)));
+            }
+            int d = Integer.parseInt(rate);
+            if (d < 0)
+                throw new IllegalArgumentException("invalid log channel rate: " + rate); //$NON-NLS-1$
+            return d;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid log channel rate: " + rate); //$NON-NLS-1$
+        }
+    }
+
+    private static Pattern _toPattern(String glob) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*')
+                sb.append(".*"); //$NON-NLS-1$
+            else if (c == '?')
+                sb.append('.');
+            else
+                sb.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(sb.toString());
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogChannelReader.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ログファイル読み出しクラス
+ *
+ * FileChannelの位置指定読み出しとメモリマップを用いて、ファイルポインタを
+ * 持たずに読み出す。そのため複数のスレッドからロックなしで同時に読み出せる。
+ * マップはレコード境界に揃えたチャンク単位で行い、書き込み中に伸びていく
+ * ファイルに対しては、ある程度伸びるまで位置指定読み出しで対応する。
+ */
+class LogChannelReader implements LogRecordReader {
+    //--------------------------------------------------------------------
+    // 定数
+    private static final int  FLOAT_DATA_SIZE = 4;
+    private static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024;    // 1チャンクの最大サイズ
+    private static final long REMAP_THRESHOLD = 4L * 1024 * 1024;    // 再マップするまでの伸び
+    private static final int  READ_BATCH_SIZE = 256 * 1024;          // 位置指定読み出しのバッファサイズ
+    private static final boolean USE_MAP = !System.getProperty("os.name", "").startsWith("Windows"); //$NON-NLS-1$ //$NON-NLS-2$
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final RandomAccessFile file_;
+    private final FileChannel channel_;
+    private final long dataOffset_;     // データ先頭位置(ヘッダサイズ)
+    private final int recordSize_;      // 1レコード当りのbyte数
+    private final long chunkRecords_;   // 1チャンク当りのレコード数
+    private volatile MappedByteBuffer[] chunks_ = new MappedByteBuffer[0];
+
+    private final ThreadLocal<ByteBuffer> scratch_ = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(READ_BATCH_SIZE);
+        }
+    };
+
+    /**
+     * コンストラクタ
+     *
+     * @param file       ログファイル
+     * @param dataOffset データ先頭位置
+     * @param recordSize 1レコード当りのbyte数
+     */
+    LogChannelReader(File file, long dataOffset, int recordSize) throws IOException {
+        file_ = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        channel_ = file_.getChannel();
+        dataOffset_ = dataOffset;
+        recordSize_ = recordSize > 0 ? recordSize : 1;
+        chunkRecords_ = Math.max(1, MAP_CHUNK_SIZE / recordSize_);
+    }
+
+    public void close() throws IOException {
+        chunks_ = new MappedByteBuffer[0];
+        file_.close();
+    }
+
+    public int getRecordSize() {
+        return recordSize_;
+    }
+
+    /**
+     * 1レコード分を読み出す
+     */
+    public void readRecord(long record, float[] dst, int off) throws IOException {
+        readRecords(record, 1, dst, off);
+    }
+
+    /**
+     * 連続するcountレコードをdstへまとめて読み出す
+     */
+    public void readRecords(long record, int count, float[] dst, int off) throws IOException {
+        int floatsPerRec = recordSize_ / FLOAT_DATA_SIZE;
+        while (count > 0) {
+            MappedByteBuffer chunk = _chunk(record, count);
+            long chunkFirst = (record / chunkRecords_) * chunkRecords_;
+            if (chunk != null) {
+                int n = (int)Math.min(count, chunk.capacity() / recordSize_ - (record - chunkFirst));
+                ByteBuffer buf = chunk.duplicate();
+                buf.position((int)((record - chunkFirst) * recordSize_));
+                buf.asFloatBuffer().get(dst, off, n * floatsPerRec);
+                record += n;
+                count -= n;
+                off += n * floatsPerRec;
+            } else {
+                ByteBuffer buf = scratch_.get();
+                int n = Math.max(1, Math.min(count, buf.capacity() / recordSize_));
+                if (n * recordSize_ > buf.capacity()) {
+                    buf = ByteBuffer.allocate(recordSize_);
+                }
+                buf.clear();
+                buf.limit(n * recordSize_);
+                read(_position(record), buf);
+                buf.flip();
+                buf.asFloatBuffer().get(dst, off, n * floatsPerRec);
+                record += n;
+                count -= n;
+                off += n * floatsPerRec;
+            }
+        }
+    }
+
+    /**
+     * 連続するcountレコードから指定した要素だけを取り出す
+     *
+     * @param record 読み出し開始レコード
+     * @param count  レコード数
+     * @param items  レコード内の要素番号
+     * @param dst    dst[i][j]にitems[i]のj番目のレコードの値を格納する
+     */
+    public void readItems(long record, int count, int[] items, float[][] dst) throws IOException {
+        int done = 0;
+        while (done < count) {
+            MappedByteBuffer chunk = _chunk(record, count - done);
+            long chunkFirst = (record / chunkRecords_) * chunkRecords_;
+            if (chunk != null) {
+                // マップ領域からは絶対位置指定で直接取り出す(システムコールなし)
+                int n = (int)Math.min(count - done, chunk.capacity() / recordSize_ - (record - chunkFirst));
+                int base = (int)((record - chunkFirst) * recordSize_);
+                for (int j = 0; j < n; j++, base += recordSize_) {
+                    for (int i = 0; i < items.length; i++) {
+                        dst[i][done + j] = chunk.getFloat(base + items[i] * FLOAT_DATA_SIZE);
+                    }
+                }
+                record += n;
+                done += n;
+            } else {
+                // レコードをまとめて読み出してから取り出す
+                ByteBuffer buf = scratch_.get();
+                int n = Math.min(count - done, buf.capacity() / recordSize_);
+                if (n <= 0) {
+                    n = 1;
+                    buf = ByteBuffer.allocate(recordSize_);
+                }
+                buf.clear();
+                buf.limit(n * recordSize_);
+                read(_position(record), buf);
+                for (int j = 0; j < n; j++) {
+                    int base = j * recordSize_;
+                    for (int i = 0; i < items.length; i++) {
+                        dst[i][done + j] = buf.getFloat(base + items[i] * FLOAT_DATA_SIZE);
+                    }
+                }
+                record += n;
+                done += n;
+            }
+        }
+    }
+
+    /**
+     * レコードrecordの先頭からbyteOffset byte目以降の連続するcount個のfloatを読み出す
+     * (レコードをまたいではならない)
+     */
+    public void readFloats(long record, int byteOffset, float[] dst, int off, int count) throws IOException {
+        MappedByteBuffer chunk = _chunk(record, 1);
+        if (chunk != null) {
+            long chunkFirst = (record / chunkRecords_) * chunkRecords_;
+            ByteBuffer buf = chunk.duplicate();
+            buf.position((int)((record - chunkFirst) * recordSize_) + byteOffset);
+            buf.asFloatBuffer().get(dst, off, count);
+            return;
+        }
+        long position = _position(record) + byteOffset;
+        ByteBuffer buf = scratch_.get();
+        while (count > 0) {
+            int n = Math.min(count, buf.capacity() / FLOAT_DATA_SIZE);
+            buf.clear();
+            buf.limit(n * FLOAT_DATA_SIZE);
+            read(position, buf);
+            buf.flip();
+            buf.asFloatBuffer().get(dst, off, n);
+            position += n * FLOAT_DATA_SIZE;
+            off += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * データ先頭からoffset byte目以降、dstの残り分を読み出す
+     */
+    public void readData(long offset, ByteBuffer dst) throws IOException {
+        read(dataOffset_ + offset, dst);
+    }
+
+    /**
+     * ファイルの絶対位置positionからdstの残り分を読み出す
+     */
+    public void read(long position, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel_.read(dst, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    private long _position(long record) {
+        return dataOffset_ + record * recordSize_;
+    }
+
+    /**
+     * recordを含むマップ済みチャンクを返す。マップできない場合はnull。
+     * チャンクがrecordまで届いていない場合、ファイルが十分に伸びていれば再マップする。
+     */
+    private MappedByteBuffer _chunk(long record, int count) throws IOException {
+        if (!USE_MAP) {
+            return null;
+        }
+        int index = (int)(record / chunkRecords_);
+        long chunkStart = _position((long)index * chunkRecords_);
+        long needEnd = _position(record + 1);
+
+        MappedByteBuffer[] chunks = chunks_;
+        MappedByteBuffer chunk = index < chunks.length ? chunks[index] : null;
+        if (chunk != null && chunkStart + chunk.capacity() >= needEnd) {
+            return chunk;
+        }
+
+        long fileSize = channel_.size();
+        if (fileSize < needEnd) {
+            return null;
+        }
+        long mapEnd = Math.min(fileSize, chunkStart + chunkRecords_ * recordSize_);
+        long mapped = chunk == null ? 0 : chunk.capacity();
+        if (mapEnd - chunkStart - mapped < REMAP_THRESHOLD && mapEnd < chunkStart + chunkRecords_ * recordSize_) {
+            // 伸びが小さい間は位置指定読み出しで済ませる
+            return null;
+        }
+
+        synchronized (this) {
+            chunks = chunks_;
+            chunk = index < chunks.length ? chunks[index] : null;
+            if (chunk == null || chunkStart + chunk.capacity() < needEnd) {
+                chunk = channel_.map(FileChannel.MapMode.READ_ONLY, chunkStart, mapEnd - chunkStart);
+                if (index >= chunks.length) {
+                    MappedByteBuffer[] newChunks = new MappedByteBuffer[index + 1];
+                    System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                    chunks = newChunks;
+                } else {
+                    chunks = chunks.clone();
+                }
+                chunks[index] = chunk;
+                chunks_ = chunks;
+            }
+        }
+        return chunk;
+    }
+}
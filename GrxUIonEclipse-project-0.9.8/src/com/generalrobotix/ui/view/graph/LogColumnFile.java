@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogColumnFile.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * 列指向ログファイル
+ *
+ * 行形式の.tmpファイルと同じレコードを、BLOCK_RECORDSレコード毎のブロック単位で
+ * 列ごとに連続して格納する。グラフで一部のデータ項目だけを読み出す場合に、
+ * 項目毎にまとまった領域を読み出せばよい。
+ *
+ * <pre>
+ *  ヘッダ (HEADER_SIZE byte)
+ *    int バージョン
+ *    int 1ブロック当りのレコード数
+ *    int 列数(=1レコード当りのアイテム数)
+ *    int 総レコード数
+ *  ブロック0: 列0のBLOCK_RECORDS個のfloat, 列1の..., ...
+ *  ブロック1: ...
+ * </pre>
+ * 最後のブロックの残りはNaNで埋める。
+ */
+class LogColumnFile {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final String POSTFIX = ".cols"; //$NON-NLS-1$
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NUM_RECORDS_SEEK_POINT = 12;
+    private static final int FLOAT_DATA_SIZE = 4;
+    private static final int BLOCK_RECORDS = 512;
+
+    private static int _blockSize(int numColumns, int blockRecords) {
+        return numColumns * blockRecords * FLOAT_DATA_SIZE;
+    }
+
+    private static void _writeHeader(DataOutputStream out, int blockRecords, int numColumns, int numRecords) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt(blockRecords);
+        out.writeInt(numColumns);
+        out.writeInt(numRecords);
+    }
+
+    /**
+     * 書き込みクラス
+     *
+     * 書き込み側のスレッドでブロックを組み立て、埋まったブロックをLogWriterに渡す
+     */
+    static class Writer {
+        private final File file_;
+        private final LogWriter writer_;
+        private final LogWriter.Target target_;
+        private final int numColumns_;
+        private ByteBuffer block_;
+        private int count_ = 0;                     // 組み立て中のブロックのレコード数
+        private volatile int flushedRecords_ = 0;   // LogWriterに渡したレコード数
+
+        Writer(LogWriter writer, File file, int numColumns) throws IOException {
+            file_ = file;
+            writer_ = writer;
+            numColumns_ = numColumns;
+            FileOutputStream stream = new FileOutputStream(file);
+            DataOutputStream out = new DataOutputStream(stream);
+            _writeHeader(out, BLOCK_RECORDS, numColumns, 0);
+            out.flush();
+            target_ = writer.open(file.getName(), stream, HEADER_SIZE);
+            block_ = ByteBuffer.allocate(_blockSize(numColumns, BLOCK_RECORDS));
+        }
+
+        /**
+         * 1レコードを追加する
+         */
+        public void put(float[] data) throws IOException {
+            int pos = count_ * FLOAT_DATA_SIZE;
+            int stride = BLOCK_RECORDS * FLOAT_DATA_SIZE;
+            for (int i = 0; i < numColumns_; i++, pos += stride)
+                block_.putFloat(pos, data[i]);
+            if (++count_ == BLOCK_RECORDS)
+                _submit();
+        }
+
+        /**
+         * LogWriterに渡したレコード数を返す。これより前のレコードは列ファイルから読み出せる。
+         */
+        public int getFlushedRecords() {
+            return flushedRecords_;
+        }
+
+        /**
+         * 先頭からnumRecordsレコード分を含むブロックがファイルに書き込まれるまで待つ
+         */
+        public void awaitWritten(int numRecords) {
+            long blocks = (numRecords + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+            writer_.awaitWritten(target_, HEADER_SIZE + blocks * _blockSize(numColumns_, BLOCK_RECORDS));
+        }
+
+        /**
+         * 組み立て中のブロックを書き込んでファイルを閉じる
+         *
+         * @return 書き込んだレコード数
+         */
+        public int close() throws IOException {
+            int numRecords = flushedRecords_ + count_;
+            try {
+                if (count_ > 0) {
+                    int stride = BLOCK_RECORDS * FLOAT_DATA_SIZE;
+                    for (int i = 0; i < numColumns_; i++) {
+                        for (int j = count_; j < BLOCK_RECORDS; j++)
+                            block_.putFloat(i * stride + j * FLOAT_DATA_SIZE, Float.NaN);
+                    }
+                    _submit();
+                }
+            } finally {
+                writer_.close(target_);
+            }
+            RandomAccessFile file = new RandomAccessFile(file_, "rw"); //$NON-NLS-1$
+            try {
+                file.seek(NUM_RECORDS_SEEK_POINT);
+                file.writeInt(numRecords);
+            } finally {
+                file.close();
+            }
+            return numRecords;
+        }
+
+        private void _submit() throws IOException {
+            int n = count_;
+            writer_.submitBlock(target_, block_);
+            block_ = ByteBuffer.allocate(block_.capacity());
+            count_ = 0;
+            flushedRecords_ += n;
+        }
+    }
+
+    /**
+     * 読み出しクラス
+     */
+    static class Reader {
+        private final LogChannelReader file_;
+        private final int blockRecords_;
+        private volatile int numRecords_;
+
+        private Reader(LogChannelReader file, int blockRecords, int numRecords) {
+            file_ = file;
+            blockRecords_ = blockRecords;
+            numRecords_ = numRecords;
+        }
+
+        /**
+         * 列ファイルを開く。ファイルが無いか、列数が一致しない場合はnullを返す。
+         */
+        public static Reader open(File file, int numColumns) throws IOException {
+            if (!file.isFile())
+                return null;
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            int version, blockRecords, columns, numRecords;
+            try {
+                version = in.readInt();
+                blockRecords = in.readInt();
+                columns = in.readInt();
+                numRecords = in.readInt();
+            } catch (EOFException ex) {
+                return null;
+            } finally {
+                in.close();
+            }
+            if (version != VERSION || columns != numColumns || blockRecords <= 0)
+                return null;
+            return new Reader(new LogChannelReader(file, HEADER_SIZE, _blockSize(columns, blockRecords)), blockRecords, numRecords);
+        }
+
+        public int getNumRecords() {
+            return numRecords_;
+        }
+
+        public void setNumRecords(int numRecords) {
+            numRecords_ = numRecords;
+        }
+
+        /**
+         * columnの列のrecordからcount個の値をdst[off]以降へ読み出す
+         */
+        public void readColumn(int column, long record, int count, float[] dst, int off) throws IOException {
+            while (count > 0) {
+                long block = record / blockRecords_;
+                int inBlock = (int)(record % blockRecords_);
+                int n = Math.min(count, blockRecords_ - inBlock);
+                file_.readFloats(block, (column * blockRecords_ + inBlock) * FLOAT_DATA_SIZE, dst, off, n);
+                record += n;
+                off += n;
+                count -= n;
+            }
+        }
+
+        public void close() throws IOException {
+            file_.close();
+        }
+    }
+
+    /**
+     * ログファイルから列ファイルを作成する
+     *
+     * @param in         ログファイルの読み出し元
+     * @param numColumns 1レコード当りのアイテム数
+     * @param numRecords レコード数
+     * @param file       作成する列ファイル
+     */
+    public static void build(LogRecordReader in, int numColumns, int numRecords, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+        try {
+            _writeHeader(out, BLOCK_RECORDS, numColumns, numRecords);
+            float[] rows = new float[numColumns * BLOCK_RECORDS];
+            for (int first = 0; first < numRecords; first += BLOCK_RECORDS) {
+                int n = Math.min(BLOCK_RECORDS, numRecords - first);
+                in.readRecords(first, n, rows, 0);
+                for (int i = 0; i < numColumns; i++) {
+                    for (int j = 0; j < BLOCK_RECORDS; j++)
+                        out.writeFloat(j < n ? rows[j * numColumns + i] : Float.NaN);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogColumnIterator.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * レコードの範囲を一定のレコード数毎に区切って、指定したチャンネルを列毎に読み出す。
+ * 範囲全体がメモリに入らない場合に使う。next()は[列][レコード]の配列を返す。
+ *
+ * @see LogManager#getColumns(String, String[], long, int)
+ */
+public class LogColumnIterator implements Iterator<double[][]> {
+    private final LogManager logger_;
+    private final String objectName_;
+    private final String[] channels_;
+    private final long end_;
+    private final int chunkSize_;
+    private long next_;
+    private long chunkFirst_ = -1;
+
+    /**
+     * @param first     先頭のレコード番号
+     * @param last      最後のレコード番号+1
+     * @param chunkSize 1回に読み出すレコード数
+     */
+    public LogColumnIterator(LogManager logger, String objectName, String[] channels, long first, long last, int chunkSize) {
+        logger_ = logger;
+        objectName_ = objectName;
+        channels_ = logger.getColumnNames(objectName, channels);
+        next_ = first;
+        end_ = last;
+        chunkSize_ = Math.max(1, chunkSize);
+    }
+
+    /**
+     * next()が返す列の名前
+     */
+    public String[] getColumnNames() {
+        return channels_;
+    }
+
+    /**
+     * 最後にnext()が返した区間の先頭のレコード番号
+     */
+    public long getFirstRecord() {
+        return chunkFirst_;
+    }
+
+    public boolean hasNext() {
+        return channels_ != null && next_ < end_;
+    }
+
+    public double[][] next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        int count = (int)Math.min(chunkSize_, end_ - next_);
+        double[][] columns;
+        try {
+            columns = logger_.getColumns(objectName_, channels_, next_, count);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (columns == null)
+            throw new NoSuchElementException();
+        chunkFirst_ = next_;
+        next_ += count;
+        return columns;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogComparator.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 2つのログを比較する
+ *
+ * 両方のログにあるオブジェクトについて、同じ名前の列同士を時刻で対応付けて比較し、
+ * 列毎の最大偏差・二乗平均平方根(RMS)偏差と、偏差が許容値を初めて超えた時刻を求める。
+ * ログは一定の大きさのブロック毎に読み出しながら比較するので、使うメモリはログの長さによらない。
+ * オブジェクト(間引いて記録したチャンネルのオブジェクトを含む)毎に並列に処理する。
+ */
+public class LogComparator {
+    //--------------------------------------------------------------------
+    // 定数
+    private static final int BLOCK_SIZE = 1024 * 1024;  // 1回に読み出すbyte数(ログ毎)
+    private static final int FLOAT_DATA_SIZE = 4;
+
+    /**
+     * 1列分の比較結果
+     */
+    public static class Result {
+        private final String objectName_;
+        private final String column_;
+        private int numSamples_ = 0;        // 時刻を対応させたレコード数
+        private int numCompared_ = 0;       // 両方が数値で偏差を求めたレコード数(RMSの分母)
+        private int numUnmatched_ = 0;      // 時刻が対応するレコードが無かったレコード数(両方のログの合計)
+        private double maxDeviation_ = 0.0;
+        private double maxDeviationTime_ = Double.NaN;
+        private double sumSquares_ = 0.0;
+        private double firstDivergenceTime_ = Double.NaN;
+
+        Result(String objectName, String column) {
+            objectName_ = objectName;
+            column_ = column;
+        }
+
+        /**
+         * 時刻timeのレコードの値aとbを比較に加える。片方だけがNaNの場合は偏差には含めず、乖離として扱う。
+         * どちらかがNaNのレコードはRMSの分母にも含めない(getNumSkipped())。
+         */
+        void add(double time, float a, float b, double tolerance) {
+            numSamples_++;
+            boolean nanA = Float.isNaN(a), nanB = Float.isNaN(b);
+            if (nanA || nanB) {
+                if (nanA != nanB && Double.isNaN(firstDivergenceTime_))
+                    firstDivergenceTime_ = time;
+                return;
+            }
+            double d = Math.abs((double)a - (double)b);
+            numCompared_++;
+            sumSquares_ += d * d;
+            if (d > maxDeviation_) {
+                maxDeviation_ = d;
+                maxDeviationTime_ = time;
+            }
+            if (d > tolerance && Double.isNaN(firstDivergenceTime_))
+                firstDivergenceTime_ = time;
+        }
+
+        public String getObjectName() {
+            return objectName_;
+        }
+
+        public String getColumn() {
+            return column_;
+        }
+
+        /**
+         * 時刻を対応させたレコード数(NaNを含む)
+         */
+        public int getNumSamples() {
+            return numSamples_;
+        }
+
+        /**
+         * 両方の値が数値で、偏差を求めたレコード数
+         */
+        public int getNumCompared() {
+            return numCompared_;
+        }
+
+        /**
+         * どちらかの値がNaNで、偏差を求めなかったレコード数
+         */
+        public int getNumSkipped() {
+            return numSamples_ - numCompared_;
+        }
+
+        public int getNumUnmatched() {
+            return numUnmatched_;
+        }
+
+        public double getMaxDeviation() {
+            return maxDeviation_;
+        }
+
+        /**
+         * 最大偏差となった時刻[s]。偏差が無い場合はNaN
+         */
+        public double getMaxDeviationTime() {
+            return maxDeviationTime_;
+        }
+
+        public double getRMS() {
+            return numCompared_ > 0 ? Math.sqrt(sumSquares_ / numCompared_) : 0.0;
+        }
+
+        /**
+         * 偏差が許容値を初めて超えた時刻[s]。超えていない場合はNaN
+         */
+        public double getFirstDivergenceTime() {
+            return firstDivergenceTime_;
+        }
+
+        public boolean isDiverged() {
+            return !Double.isNaN(firstDivergenceTime_);
+        }
+
+        public String toString() {
+            return objectName_ + "." + column_ + ": max=" + maxDeviation_ + " rms=" + getRMS() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + " diverged=" + (isDiverged() ? String.valueOf(firstDivergenceTime_) : "-") //$NON-NLS-1$ //$NON-NLS-2$
+                + " compared=" + numCompared_ + " skipped=" + getNumSkipped() + " unmatched=" + numUnmatched_; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+    }
+
+    /**
+     * レコードをブロック単位で読み出しながら順に進める
+     */
+    private static class Cursor {
+        final LogRecordReader in_;
+        final int numRecords_;
+        final int numColumns_;
+        final float[] rows_;
+        int first_ = 0;     // rows_に読み出したレコードの範囲
+        int count_ = 0;
+        int pos_ = 0;       // 現在のレコード
+
+        Cursor(LogRecordReader in, int numRecords, int numColumns) {
+            in_ = in;
+            numRecords_ = numRecords;
+            numColumns_ = numColumns;
+            rows_ = new float[Math.max(1, BLOCK_SIZE / (numColumns * FLOAT_DATA_SIZE)) * numColumns];
+        }
+
+        boolean hasNext() {
+            return pos_ < numRecords_;
+        }
+
+        /**
+         * 現在のレコードを読み出し、rows_内の先頭位置を返す
+         */
+        int row() throws IOException {
+            if (pos_ >= first_ + count_) {
+                first_ = pos_;
+                count_ = Math.min(rows_.length / numColumns_, numRecords_ - pos_);
+                in_.readRecords(first_, count_, rows_, 0);
+            }
+            return (pos_ - first_) * numColumns_;
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final LogManager reference_;
+    private final LogManager target_;
+    private double tolerance_ = 0.0;
+    private final List<String> mismatches_ = new ArrayList<String>();
+
+    /**
+     * @param reference 基準のログ
+     * @param target    比較するログ
+     */
+    public LogComparator(LogManager reference, LogManager target) {
+        reference_ = reference;
+        target_ = target;
+    }
+
+    /**
+     * 乖離とみなす偏差(これを超えた時刻をResult.getFirstDivergenceTime()で返す)
+     */
+    public void setTolerance(double tolerance) {
+        tolerance_ = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance_;
+    }
+
+    /**
+     * 片方のログにしか無かったオブジェクト・列の名前(compare()の後に有効)
+     */
+    public List<String> getMismatches() {
+        return mismatches_;
+    }
+
+    /**
+     * 比較する
+     *
+     * @return 列毎の比較結果(オブジェクト名の順)
+     */
+    public List<Result> compare() throws IOException {
+        mismatches_.clear();
+        String[] names = reference_.getLogObjectNames();
+        Arrays.sort(names);
+        List<String> common = new ArrayList<String>();
+        for (int i = 0; i < names.length; i++) {
+            if (target_.getStoredColumnNames(names[i]) != null)
+                common.add(names[i]);
+            else
+                mismatches_.add(names[i]);
+        }
+        String[] others = target_.getLogObjectNames();
+        Arrays.sort(others);
+        for (int i = 0; i < others.length; i++) {
+            if (reference_.getStoredColumnNames(others[i]) == null)
+                mismatches_.add(others[i]);
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        if (common.isEmpty())
+            return results;
+        int nThreads = Math.max(1, Math.min(common.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        List<Future<List<Result>>> futures = new ArrayList<Future<List<Result>>>();
+        try {
+            for (int i = 0; i < common.size(); i++) {
+                final String name = common.get(i);
+                futures.add(pool.submit(new Callable<List<Result>>() {
+                    public List<Result> call() throws IOException {
+                        return _compare(name);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.addAll(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    throw new IOException(String.valueOf(cause));
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * 1オブジェクト分を比較する。時刻の差が記録間隔の半分以内のレコード同士を対応付ける。
+     */
+    private List<Result> _compare(String name) throws IOException {
+        String[] refColumns = reference_.getStoredColumnNames(name);
+        String[] tgtColumns = target_.getStoredColumnNames(name);
+        List<Result> results = new ArrayList<Result>();
+        List<Integer> refItems = new ArrayList<Integer>();
+        List<Integer> tgtItems = new ArrayList<Integer>();
+        List<String> tgtList = Arrays.asList(tgtColumns);
+        for (int i = 1; i < refColumns.length; i++) {
+            int j = tgtList.indexOf(refColumns[i]);
+            if (j > 0) {
+                results.add(new Result(name, refColumns[i]));
+                refItems.add(i);
+                tgtItems.add(j);
+            } else {
+                _addMismatch(name + "." + refColumns[i]); //$NON-NLS-1$
+            }
+        }
+        List<String> refList = Arrays.asList(refColumns);
+        for (int j = 1; j < tgtColumns.length; j++) {
+            if (refList.indexOf(tgtColumns[j]) <= 0)
+                _addMismatch(name + "." + tgtColumns[j]); //$NON-NLS-1$
+        }
+        if (results.isEmpty())
+            return results;
+
+        int n = results.size();
+        Result[] res = results.toArray(new Result[n]);
+        int[] ia = new int[n], ib = new int[n];
+        for (int c = 0; c < n; c++) {
+            ia[c] = refItems.get(c);
+            ib[c] = tgtItems.get(c);
+        }
+        double eps = Math.min(reference_.getRecordInterval(name), target_.getRecordInterval(name)) / 2;
+        int unmatched = 0;
+        Cursor a = null, b = null;
+        try {
+            a = new Cursor(reference_.openRecordReader(name), reference_.getNumRecords(name), refColumns.length);
+            b = new Cursor(target_.openRecordReader(name), target_.getNumRecords(name), tgtColumns.length);
+            while (a.hasNext() && b.hasNext()) {
+                int ra = a.row();
+                int rb = b.row();
+                double ta = a.rows_[ra], tb = b.rows_[rb];
+                if (Math.abs(ta - tb) <= eps) {
+                    for (int c = 0; c < n; c++)
+                        res[c].add(ta, a.rows_[ra + ia[c]], b.rows_[rb + ib[c]], tolerance_);
+                    a.pos_++;
+                    b.pos_++;
+                } else if (ta < tb) {
+                    a.pos_++;
+                    unmatched++;
+                } else {
+                    b.pos_++;
+                    unmatched++;
+                }
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
+            }
+            unmatched += (a.numRecords_ - a.pos_) + (b.numRecords_ - b.pos_);
+        } finally {
+            if (a != null)
+                a.in_.close();
+            if (b != null)
+                b.in_.close();
+        }
+        for (int c = 0; c < n; c++)
+            res[c].numUnmatched_ = unmatched;
+        return results;
+    }
+
+    private void _addMismatch(String name) {
+        synchronized (mismatches_) {
+            mismatches_.add(name);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogContainer.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * 追記型のログコンテナ
+ *
+ * ディレクトリにエントリ(ログファイル)毎の先頭部分(ヘッダ)と、それ以降のデータを追記した単位(セグメント)を
+ * ファイルとして置き、manifestにエントリの構成を記録する。
+ * 同じ記録の続きを保存する場合は、前回の保存からの増分だけをセグメントとして追加してmanifestを書き換える。
+ * manifestは新しいものを別名で書いてfsyncしてから置き換えるので、保存中に中断しても前回か今回の
+ * どちらかのmanifestが残る。開く時は正しく書き終えたmanifestのうち世代の新しい方を使う。
+ * <pre>
+ *   GRXLOG 1
+ *   generation 世代
+ *   session    記録の識別子
+ *   entry      名前 先頭部分のファイル(無ければ-) 先頭部分のbyte数
+ *   segment    ファイル byte数
+ *   ...
+ *   end        ここまでのCRC32
+ * </pre>
+ */
+class LogContainer {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final String EXTENSION = "grxlog"; //$NON-NLS-1$
+    public static final String MANIFEST = "manifest"; //$NON-NLS-1$
+    private static final String MANIFEST_NEW = "manifest.new"; //$NON-NLS-1$
+    private static final String MAGIC = "GRXLOG 1"; //$NON-NLS-1$
+    private static final String NO_FILE = "-"; //$NON-NLS-1$
+    private static final long TRANSFER_SIZE = 64L * 1024 * 1024;
+    private static final Pattern FILE_NAME = Pattern.compile("[0-9]+-(c[0-9]+-)?[0-9]+\\.(head|seg)"); //$NON-NLS-1$  // _fileName()で作成するファイルの名前
+
+    /**
+     * 保存するエントリの内容
+     */
+    static class Source {
+        final String name;
+        final File file;
+        final byte[] head;  // 先頭部分(保存毎に書き直す)
+        final long length;  // ファイルの長さ。head以降を追記されるデータとして扱う
+
+        Source(String name, File file, byte[] head, long length) {
+            this.name = name;
+            this.file = file;
+            this.head = head;
+            this.length = length;
+        }
+    }
+
+    /**
+     * manifestに記録したエントリ
+     */
+    static class Entry {
+        private final String name_;
+        private String head_ = NO_FILE;
+        private long headLength_ = 0;
+        private final List<String> segments_ = new ArrayList<String>();
+        private final List<Long> segmentLengths_ = new ArrayList<Long>();
+        private long bodyLength_ = 0;
+
+        Entry(String name) {
+            name_ = name;
+        }
+
+        public String getName() {
+            return name_;
+        }
+
+        /**
+         * エントリ全体のbyte数
+         */
+        public long getSize() {
+            return headLength_ + bodyLength_;
+        }
+
+        private void addSegment(String file, long length) {
+            segments_.add(file);
+            segmentLengths_.add(length);
+            bodyLength_ += length;
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final File dir_;
+    private long generation_ = 0;
+    private long session_ = 0;
+    private LinkedHashMap<String, Entry> entries_ = new LinkedHashMap<String, Entry>();
+
+    private LogContainer(File dir) {
+        dir_ = dir;
+    }
+
+    /**
+     * dirがコンテナか
+     */
+    public static boolean isContainer(File dir) {
+        return dir.isDirectory() && (new File(dir, MANIFEST).isFile() || new File(dir, MANIFEST_NEW).isFile());
+    }
+
+    /**
+     * コンテナを開く。ディレクトリが無ければ作成する。
+     * コンテナではない空でないディレクトリは、中のファイルを消さないように開かない。
+     */
+    public static LogContainer open(File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            if (!dir.mkdirs())
+                throw new IOException("cannot create " + dir); //$NON-NLS-1$
+        } else if (!isContainer(dir)) {
+            String[] files = dir.list();
+            if (files == null || files.length > 0)
+                throw new IOException("not an empty directory nor a log container: " + dir); //$NON-NLS-1$
+        }
+        LogContainer c = new LogContainer(dir);
+        LogContainer cur = _readManifest(dir, MANIFEST);
+        LogContainer next = _readManifest(dir, MANIFEST_NEW);
+        // 置き換えの途中で中断した場合は新しい方を使う
+        if (next != null && (cur == null || next.generation_ > cur.generation_))
+            cur = next;
+        if (cur != null) {
+            c.generation_ = cur.generation_;
+            c.session_ = cur.session_;
+            c.entries_ = cur.entries_;
+            if (cur == next)
+                c._replaceManifest();
+            else
+                new File(dir, MANIFEST_NEW).delete();  // 書き終えていない(または古い)manifest.new
+            c._deleteUnused();
+        }
+        return c;
+    }
+
+    public File getDirectory() {
+        return dir_;
+    }
+
+    public long getSession() {
+        return session_;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries_.values());
+    }
+
+    /**
+     * エントリの内容をfileへ書き出す
+     */
+    public void extractTo(Entry e, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel dst = out.getChannel();
+            if (e.headLength_ > 0)
+                _transfer(new File(dir_, e.head_), 0, e.headLength_, dst);
+            for (int i = 0; i < e.segments_.size(); i++)
+                _transfer(new File(dir_, e.segments_.get(i)), 0, e.segmentLengths_.get(i), dst);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * sourcesを保存する。
+     * sessionが前回の保存と同じエントリは、前回保存したデータ以降を追記する。
+     *
+     * @param sources 保存するエントリ
+     * @param session 記録の識別子
+     * @param base    このコンテナが空または別の記録の場合に、同じ記録のセグメントをコピーして使うコンテナ(null可)
+     * @param monitor 進捗の報告先(null可)。中断した場合はInterruptedIOExceptionを投げ、前回の保存内容が残る
+     */
+    public synchronized void save(List<Source> sources, long session, LogContainer base, IProgressMonitor monitor) throws IOException {
+        long generation = generation_ + 1;
+        List<File> created = new ArrayList<File>();
+        Map<String, Entry> prev = session == session_ ? entries_ : null;
+        if (monitor != null)
+            monitor.beginTask("Saving log:" + dir_.getName(), sources.size()); //$NON-NLS-1$
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        boolean success = false;
+        try {
+            if (prev == null && base != null && base != this && base.getSession() == session) {
+                // 別のコンテナへの保存: 同じ記録の保存済みのセグメントをコピーする
+                prev = new HashMap<String, Entry>();
+                for (Entry b : base.getEntries()) {
+                    Entry e = new Entry(b.name_);
+                    e.headLength_ = b.headLength_;
+                    for (int i = 0; i < b.segments_.size(); i++) {
+                        File file = new File(dir_, _fileName(generation, "c" + prev.size() + "-" + i, "seg")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        created.add(file);
+                        _copy(new File(base.dir_, b.segments_.get(i)), b.segmentLengths_.get(i), file);
+                        e.addSegment(file.getName(), b.segmentLengths_.get(i));
+                    }
+                    prev.put(e.name_, e);
+                }
+            }
+            for (int n = 0; n < sources.size(); n++) {
+                if (monitor != null && monitor.isCanceled())
+                    throw new InterruptedIOException();
+                Source s = sources.get(n);
+                Entry e = new Entry(s.name);
+                if (s.head.length > 0) {
+                    e.head_ = _fileName(generation, String.valueOf(n), "head"); //$NON-NLS-1$
+                    e.headLength_ = s.head.length;
+                    created.add(new File(dir_, e.head_));
+                    _write(s.head, new File(dir_, e.head_));
+                }
+                long from = s.head.length;
+                Entry p = prev != null ? prev.get(s.name) : null;
+                if (p != null && p.headLength_ == s.head.length && s.head.length + p.bodyLength_ <= s.length) {
+                    // 保存済みの部分はそのまま使う
+                    for (int i = 0; i < p.segments_.size(); i++)
+                        e.addSegment(p.segments_.get(i), p.segmentLengths_.get(i));
+                    from += p.bodyLength_;
+                }
+                if (s.length > from) {
+                    String file = _fileName(generation, String.valueOf(n), "seg"); //$NON-NLS-1$
+                    created.add(new File(dir_, file));
+                    FileOutputStream out = new FileOutputStream(new File(dir_, file));
+                    try {
+                        _transfer(s.file, from, s.length - from, out.getChannel());
+                        out.getChannel().force(true);
+                    } finally {
+                        out.close();
+                    }
+                    e.addSegment(file, s.length - from);
+                }
+                entries.put(e.name_, e);
+                if (monitor != null)
+                    monitor.worked(1);
+            }
+            _writeManifest(generation, session, entries);
+            generation_ = generation;
+            session_ = session;
+            entries_ = entries;
+            _replaceManifest();
+            success = true;
+        } finally {
+            if (monitor != null)
+                monitor.done();
+        }
+        if (success) {
+            _deleteUnused();
+        } else if (generation_ != generation) {
+            // manifestを書く前に中断した場合は今回作成したファイルを削除する
+            for (int i = 0; i < created.size(); i++)
+                created.get(i).delete();
+        }
+    }
+
+    /**
+     * manifestから参照されていないファイル(置き換えたセグメント・中断した保存の残り)を削除する。
+     * 削除するのはコンテナが作成する名前(_fileName())のファイルだけで、それ以外のファイルには触れない。
+     */
+    private void _deleteUnused() {
+        Set<String> used = new HashSet<String>();
+        for (Entry e : entries_.values()) {
+            used.add(e.head_);
+            used.addAll(e.segments_);
+        }
+        File[] files = dir_.listFiles();
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            if (!used.contains(name) && FILE_NAME.matcher(name).matches() && files[i].isFile())
+                files[i].delete();
+        }
+    }
+
+    private void _writeManifest(long generation, long session, Map<String, Entry> entries) throws IOException {
+        StringBuffer sb = new StringBuffer();
+        sb.append(MAGIC).append('\n');
+        sb.append("generation\t").append(generation).append('\n'); //$NON-NLS-1$
+        sb.append("session\t").append(session).append('\n'); //$NON-NLS-1$
+        for (Entry e : entries.values()) {
+            sb.append("entry\t").append(e.name_).append('\t').append(e.head_).append('\t').append(e.headLength_).append('\n'); //$NON-NLS-1$
+            for (int i = 0; i < e.segments_.size(); i++)
+                sb.append("segment\t").append(e.segments_.get(i)).append('\t').append(e.segmentLengths_.get(i)).append('\n'); //$NON-NLS-1$
+        }
+        byte[] body = sb.toString().getBytes("UTF-8"); //$NON-NLS-1$
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        byte[] end = ("end\t" + Long.toHexString(crc.getValue()) + "\n").getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        FileOutputStream out = new FileOutputStream(new File(dir_, MANIFEST_NEW));
+        try {
+            out.write(body);
+            out.write(end);
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 書き終えたmanifest.newでmanifestを置き換える
+     */
+    private void _replaceManifest() throws IOException {
+        File next = new File(dir_, MANIFEST_NEW);
+        File cur = new File(dir_, MANIFEST);
+        if (cur.exists() && !cur.delete())
+            throw new IOException("cannot replace " + cur); //$NON-NLS-1$
+        if (!next.renameTo(cur))
+            throw new IOException("cannot rename " + next); //$NON-NLS-1$
+    }
+
+    /**
+     * manifestを読み込む。無い場合・書き終えていない場合はnull
+     */
+    private static LogContainer _readManifest(File dir, String name) throws IOException {
+        File file = new File(dir, name);
+        if (!file.isFile())
+            return null;
+        byte[] data = new byte[(int)file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        String text = new String(data, "UTF-8"); //$NON-NLS-1$
+        int endPos = text.lastIndexOf("end\t"); //$NON-NLS-1$
+        if (!text.startsWith(MAGIC) || endPos < 0 || (endPos > 0 && text.charAt(endPos - 1) != '\n'))
+            return null;
+        CRC32 crc = new CRC32();
+        crc.update(text.substring(0, endPos).getBytes("UTF-8")); //$NON-NLS-1$
+        if (!text.substring(endPos + 4).trim().equals(Long.toHexString(crc.getValue())))
+            return null;
+
+        LogContainer c = new LogContainer(dir);
+        Entry e = null;
+        String[] lines = text.substring(0, endPos).split("\n"); //$NON-NLS-1$
+        try {
+            for (int i = 1; i < lines.length; i++) {
+                String[] f = lines[i].split("\t"); //$NON-NLS-1$
+                if (f[0].equals("generation")) { //$NON-NLS-1$
+                    c.generation_ = Long.parseLong(f[1]);
+                } else if (f[0].equals("session")) { //$NON-NLS-1$
+                    c.session_ = Long.parseLong(f[1]);
+                } else if (f[0].equals("entry")) { //$NON-NLS-1$
+                    e = new Entry(f[1]);
+                    e.head_ = f[2];
+                    e.headLength_ = Long.parseLong(f[3]);
+                    c.entries_.put(e.name_, e);
+                } else if (f[0].equals("segment") && e != null) { //$NON-NLS-1$
+                    e.addSegment(f[1], Long.parseLong(f[2]));
+                }
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("invalid manifest: " + file); //$NON-NLS-1$
+        }
+        return c;
+    }
+
+    private static String _fileName(long generation, String id, String suffix) {
+        return generation + "-" + id + "." + suffix; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static void _write(byte[] data, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.getChannel().write(ByteBuffer.wrap(data));
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void _copy(File src, long length, File dst) throws IOException {
+        FileOutputStream out = new FileOutputStream(dst);
+        try {
+            _transfer(src, 0, length, out.getChannel());
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * srcのpositionからlength byteをdstの末尾へコピーする
+     */
+    private static void _transfer(File src, long position, long length, FileChannel dst) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileChannel ch = in.getChannel();
+            long done = 0;
+            while (done < length) {
+                long n = ch.transferTo(position + done, Math.min(TRANSFER_SIZE, length - done), dst);
+                if (n <= 0)
+                    throw new EOFException(src.getPath());
+                done += n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
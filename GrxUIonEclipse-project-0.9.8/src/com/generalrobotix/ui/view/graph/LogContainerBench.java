@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogContainerBench.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ログの保存(LogManager.saveContainer()が使うLogContainer.save())にかかる時間を測る。
+ * <pre>
+ *   java com.generalrobotix.ui.view.graph.LogContainerBench [ログのサイズ[MB] [作業ディレクトリ]]
+ * </pre>
+ * 指定したサイズの一時ログについて、以下の時間を表示する。
+ * <ul>
+ *   <li>heap copy:   1MBのヒープ上のバッファを経由したファイルのコピー(以前のログの結合・分離の方法)
+ *   <li>full save:   空のコンテナへの保存(FileChannel.transferTo())
+ *   <li>append save: 1%追記した後の同じコンテナへの保存(増分だけのセグメントを追加する)
+ *   <li>copy save:   別のコンテナへの保存(保存済みのセグメントをコピーしてから増分を追加する)
+ * </ul>
+ */
+class LogContainerBench {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 4096) * 1024 * 1024;
+        File work = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"), //$NON-NLS-1$
+            "LogContainerBench" + System.currentTimeMillis()); //$NON-NLS-1$
+        if (!work.mkdirs())
+            throw new IOException("cannot create " + work); //$NON-NLS-1$
+        try {
+            File src = new File(work, "src.tmp"); //$NON-NLS-1$
+            _fill(src, size);
+
+            long t = System.nanoTime();
+            _heapCopy(src, new File(work, "copy.tmp")); //$NON-NLS-1$
+            _report("heap copy", size, System.nanoTime() - t); //$NON-NLS-1$
+            new File(work, "copy.tmp").delete(); //$NON-NLS-1$
+
+            LogContainer c = LogContainer.open(new File(work, "a")); //$NON-NLS-1$
+            t = System.nanoTime();
+            c.save(_sources(src), 1, null, null);
+            _report("full save", size, System.nanoTime() - t); //$NON-NLS-1$
+
+            long added = size / 100;
+            _append(src, added);
+            t = System.nanoTime();
+            c.save(_sources(src), 1, null, null);
+            _report("append save", added, System.nanoTime() - t); //$NON-NLS-1$
+
+            LogContainer other = LogContainer.open(new File(work, "b")); //$NON-NLS-1$
+            t = System.nanoTime();
+            other.save(_sources(src), 1, c, null);
+            _report("copy save", src.length(), System.nanoTime() - t); //$NON-NLS-1$
+        } finally {
+            _delete(work);
+        }
+    }
+
+    private static void _report(String name, long bytes, long nanos) {
+        double sec = nanos / 1.0e9;
+        System.out.println(String.format("%-12s %10.1f[MB] %8.3f[s] %8.1f[MB/s]", //$NON-NLS-1$
+            name, bytes / 1048576.0, sec, sec > 0 ? bytes / 1048576.0 / sec : 0.0));
+    }
+
+    private static List<LogContainer.Source> _sources(File src) {
+        List<LogContainer.Source> sources = new ArrayList<LogContainer.Source>();
+        sources.add(new LogContainer.Source("src", src, new byte[0], src.length())); //$NON-NLS-1$
+        return sources;
+    }
+
+    private static void _fill(File file, long size) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            _write(out, size);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void _append(File file, long size) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            _write(out, size);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void _write(FileOutputStream out, long size) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        new Random(0).nextBytes(buffer);
+        for (long done = 0; done < size; ) {
+            int n = (int)Math.min(buffer.length, size - done);
+            out.write(buffer, 0, n);
+            done += n;
+        }
+    }
+
+    private static void _heapCopy(File src, File dst) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileOutputStream stream = new FileOutputStream(dst);
+            DataOutputStream out = new DataOutputStream(stream);
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0)
+                    out.write(buffer, 0, n);
+                out.flush();
+                stream.getChannel().force(true);   // LogContainerと同じくディスクへ書き出すまでを測る
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void _delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++)
+                _delete(files[i]);
+        }
+        file.delete();
+    }
+}
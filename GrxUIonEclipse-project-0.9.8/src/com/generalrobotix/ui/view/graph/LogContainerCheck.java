@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogContainerCheck.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * LogContainerの保存が保存先の他のファイルを消さないことを確かめる。
+ * 失敗した場合は0以外の終了コードで終了する。
+ * <pre>
+ *   java com.generalrobotix.ui.view.graph.LogContainerCheck [作業ディレクトリ]
+ * </pre>
+ */
+class LogContainerCheck {
+    private static int failures_ = 0;
+
+    public static void main(String[] args) throws IOException {
+        File work = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), //$NON-NLS-1$
+            "LogContainerCheck" + System.currentTimeMillis()); //$NON-NLS-1$
+        if (!work.mkdirs())
+            throw new IOException("cannot create " + work); //$NON-NLS-1$
+        try {
+            _checkUnrelatedFileSurvivesSave(new File(work, "container")); //$NON-NLS-1$
+            _checkNonEmptyDirectoryIsRefused(new File(work, "documents")); //$NON-NLS-1$
+        } finally {
+            _delete(work);
+        }
+        if (failures_ > 0) {
+            System.err.println(failures_ + " check(s) failed"); //$NON-NLS-1$
+            System.exit(1);
+        }
+        System.out.println("LogContainerCheck: OK"); //$NON-NLS-1$
+    }
+
+    /**
+     * コンテナに置いた無関係なファイルは、セグメントを置き換える保存の後も残る
+     */
+    private static void _checkUnrelatedFileSurvivesSave(File dir) throws IOException {
+        File src = new File(dir.getParentFile(), "src.log"); //$NON-NLS-1$
+        _append(src, 100);
+        LogContainer c = LogContainer.open(dir);
+        c.save(_sources(src), 1, null, null);
+
+        File unrelated = new File(dir, "thesis.tex"); //$NON-NLS-1$
+        _append(unrelated, 10);
+        File lookalike = new File(dir, "1-0.seg.bak"); //$NON-NLS-1$
+        _append(lookalike, 10);
+
+        // 別の記録として保存すると前回のセグメントは参照されなくなり削除される
+        _append(src, 50);
+        c.save(_sources(src), 2, null, null);
+        c = LogContainer.open(dir);
+
+        _check(unrelated.isFile(), "unrelated file was deleted by save"); //$NON-NLS-1$
+        _check(lookalike.isFile(), "file not created by the container was deleted by save"); //$NON-NLS-1$
+        _check(!new File(dir, "1-0.seg").exists(), "unused segment was not deleted"); //$NON-NLS-1$ //$NON-NLS-2$
+        List<LogContainer.Entry> entries = c.getEntries();
+        _check(entries.size() == 1 && entries.get(0).getSize() == 150, "saved entry has a wrong size"); //$NON-NLS-1$
+    }
+
+    /**
+     * コンテナではない空でないディレクトリへは保存しない
+     */
+    private static void _checkNonEmptyDirectoryIsRefused(File dir) throws IOException {
+        dir.mkdirs();
+        File doc = new File(dir, "thesis.tex"); //$NON-NLS-1$
+        _append(doc, 10);
+        boolean refused = false;
+        try {
+            LogContainer.open(dir);
+        } catch (IOException ex) {
+            refused = true;
+        }
+        _check(refused, "opened a non-empty directory without a manifest"); //$NON-NLS-1$
+        _check(doc.isFile() && doc.length() == 10, "file in a refused directory was changed"); //$NON-NLS-1$
+    }
+
+    private static List<LogContainer.Source> _sources(File src) {
+        List<LogContainer.Source> sources = new ArrayList<LogContainer.Source>();
+        sources.add(new LogContainer.Source("src", src, new byte[0], src.length())); //$NON-NLS-1$
+        return sources;
+    }
+
+    private static void _append(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void _check(boolean ok, String message) {
+        if (!ok) {
+            System.err.println("FAILED: " + message); //$NON-NLS-1$
+            failures_++;
+        }
+    }
+
+    private static void _delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++)
+                _delete(files[i]);
+        }
+        file.delete();
+    }
+}
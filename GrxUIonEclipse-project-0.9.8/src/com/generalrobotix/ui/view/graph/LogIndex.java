@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogIndex.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ログの索引ファイル
+ *
+ * 保存したアーカイブ・コンテナにログと一緒に格納し、開く際にデータを読まずに
+ * オブジェクト毎の記録数・列毎の統計値と、干渉情報のフレーム位置を得るために使う。
+ * フレーム位置テーブルは読み出し時に必要な部分だけを読む。
+ *
+ * <pre>
+ *  ヘッダ部
+ *    8 byte "GRXINDEX"
+ *    int バージョン
+ *    int オブジェクト数
+ *    オブジェクト毎:
+ *      UTF オブジェクト名
+ *      int 総レコード数
+ *      int 列数(=1レコード当りのアイテム数)
+ *      列毎: float 最小値, float 最大値, double 合計, long 有効データ数
+ *    int 干渉情報のフレーム位置の数
+ *  干渉情報のフレーム位置テーブル: long × フレーム位置の数
+ * </pre>
+ * ヘッダ部の大きさはオブジェクトと列の構成だけで決まるので、同じ記録を更新する場合は
+ * ヘッダ部を書き直してフレーム位置を追記すればよい。
+ */
+class LogIndex {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final String FILE_NAME = "LogIndex.idx"; //$NON-NLS-1$
+    private static final String MAGIC = "GRXINDEX"; //$NON-NLS-1$
+    private static final int VERSION = 1;
+    private static final int LONG_DATA_SIZE = 8;
+    private static final int READ_BLOCK = 512;      // フレーム位置をまとめて読み出す数
+
+    /**
+     * 1オブジェクト分の列毎の統計値。NaNは除いて集計する。
+     */
+    static class Statistics {
+        final String objectName_;
+        final int numColumns_;
+        int numRecords_ = 0;    // 集計済みのレコード数
+        final float[] min_;
+        final float[] max_;
+        final double[] sum_;
+        final long[] count_;
+
+        Statistics(String objectName, int numColumns) {
+            objectName_ = objectName;
+            numColumns_ = numColumns;
+            min_ = new float[numColumns];
+            max_ = new float[numColumns];
+            sum_ = new double[numColumns];
+            count_ = new long[numColumns];
+            Arrays.fill(min_, Float.POSITIVE_INFINITY);
+            Arrays.fill(max_, Float.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * 連続するnumRecordsレコード分(rowsの先頭から行形式)を集計に加える
+         */
+        void add(float[] rows, int numRecords) {
+            for (int r = 0, k = 0; r < numRecords; r++) {
+                for (int c = 0; c < numColumns_; c++, k++) {
+                    float v = rows[k];
+                    if (Float.isNaN(v))
+                        continue;
+                    if (v < min_[c]) min_[c] = v;
+                    if (v > max_[c]) max_[c] = v;
+                    sum_[c] += v;
+                    count_[c]++;
+                }
+            }
+            numRecords_ += numRecords;
+        }
+
+        /**
+         * @return {最小値, 最大値, 平均値}。有効なデータが無い場合は全てNaN
+         */
+        double[] get(int column) {
+            if (count_[column] == 0)
+                return new double[] { Double.NaN, Double.NaN, Double.NaN };
+            return new double[] { min_[column], max_[column], sum_[column] / count_[column] };
+        }
+    }
+
+    /**
+     * 索引ファイル内のフレーム位置テーブル。必要な部分だけをブロック単位で読み出す。
+     */
+    static class PositionTable {
+        private final LogChannelReader in_;
+        private final int size_;
+        private final long[] block_ = new long[READ_BLOCK];
+        private final ByteBuffer buf_ = ByteBuffer.allocate(READ_BLOCK * LONG_DATA_SIZE);
+        private int blockFirst_ = -1;
+
+        /**
+         * @param in   フレーム位置テーブルの先頭をデータ先頭位置として開いたファイル
+         * @param size フレーム位置の数
+         */
+        PositionTable(LogChannelReader in, int size) {
+            in_ = in;
+            size_ = size;
+        }
+
+        public int size() {
+            return size_;
+        }
+
+        public synchronized long get(int i) throws IOException {
+            if (i < blockFirst_ || i >= blockFirst_ + READ_BLOCK || blockFirst_ < 0) {
+                int first = (i / READ_BLOCK) * READ_BLOCK;
+                int n = Math.min(READ_BLOCK, size_ - first);
+                buf_.clear();
+                buf_.limit(n * LONG_DATA_SIZE);
+                in_.readData((long)first * LONG_DATA_SIZE, buf_);
+                buf_.flip();
+                buf_.asLongBuffer().get(block_, 0, n);
+                blockFirst_ = first;
+            }
+            return block_[i - blockFirst_];
+        }
+
+        public void close() throws IOException {
+            in_.close();
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final List<Statistics> statistics_ = new ArrayList<Statistics>();
+    private final Map<String, Statistics> statisticsMap_ = new HashMap<String, Statistics>();
+    private int numPositions_ = 0;
+
+    public Statistics getStatistics(String objectName) {
+        return statisticsMap_.get(objectName);
+    }
+
+    /**
+     * オブジェクトの統計値を追加する(同じ名前のものは置き換える)
+     */
+    public void putStatistics(Statistics s) {
+        Statistics old = statisticsMap_.put(s.objectName_, s);
+        if (old != null)
+            statistics_.set(statistics_.indexOf(old), s);
+        else
+            statistics_.add(s);
+    }
+
+    public void removeStatistics(String objectName) {
+        Statistics old = statisticsMap_.remove(objectName);
+        if (old != null)
+            statistics_.remove(old);
+    }
+
+    public List<Statistics> getStatistics() {
+        return statistics_;
+    }
+
+    /**
+     * 干渉情報のフレーム位置の数
+     */
+    public int getNumPositions() {
+        return numPositions_;
+    }
+
+    /**
+     * ヘッダ部の大きさ(フレーム位置テーブルの先頭位置)
+     */
+    public long getHeadSize() {
+        long size = MAGIC.length() + 4 + 4 + 4;
+        for (int i = 0; i < statistics_.size(); i++) {
+            Statistics s = statistics_.get(i);
+            size += _utfLength(s.objectName_) + 4 + 4 + (long)s.numColumns_ * (4 + 4 + 8 + 8);
+        }
+        return size;
+    }
+
+    private static long _utfLength(String s) {
+        long n = 2;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF ? 3 : 2);
+        }
+        return n;
+    }
+
+    /**
+     * ヘッダ部を読み込む
+     */
+    public static LogIndex read(InputStream stream) throws IOException, LogFileFormatException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        byte[] magic = new byte[MAGIC.length()];
+        in.readFully(magic);
+        if (!new String(magic, "US-ASCII").equals(MAGIC) || in.readInt() != VERSION) //$NON-NLS-1$
+            throw new LogFileFormatException("unknown log index format"); //$NON-NLS-1$
+        LogIndex index = new LogIndex();
+        int numObjects = in.readInt();
+        for (int i = 0; i < numObjects; i++) {
+            String name = in.readUTF();
+            int numRecords = in.readInt();
+            int numColumns = in.readInt();
+            if (numRecords < 0 || numColumns < 0)
+                throw new LogFileFormatException("invalid log index"); //$NON-NLS-1$
+            Statistics s = new Statistics(name, numColumns);
+            s.numRecords_ = numRecords;
+            for (int c = 0; c < numColumns; c++) {
+                s.min_[c] = in.readFloat();
+                s.max_[c] = in.readFloat();
+                s.sum_[c] = in.readDouble();
+                s.count_[c] = in.readLong();
+            }
+            index.putStatistics(s);
+        }
+        index.numPositions_ = in.readInt();
+        return index;
+    }
+
+    /**
+     * ヘッダ部とフレーム位置positions[0]～positions[count-1]を書き込む。
+     * fromが0でなければ、前回同じ構成で書き込んだファイルのヘッダ部を書き直し、
+     * from番目以降のフレーム位置を追記する。
+     *
+     * @param file      索引ファイル
+     * @param positions from番目以降のフレーム位置
+     * @param from      ファイルに書き込み済みのフレーム位置の数
+     * @param count     フレーム位置の総数
+     */
+    public void write(File file, long[] positions, int from, int count) throws IOException {
+        numPositions_ = count;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(statistics_.size());
+        for (int i = 0; i < statistics_.size(); i++) {
+            Statistics s = statistics_.get(i);
+            out.writeUTF(s.objectName_);
+            out.writeInt(s.numRecords_);
+            out.writeInt(s.numColumns_);
+            for (int c = 0; c < s.numColumns_; c++) {
+                out.writeFloat(s.min_[c]);
+                out.writeFloat(s.max_[c]);
+                out.writeDouble(s.sum_[c]);
+                out.writeLong(s.count_[c]);
+            }
+        }
+        out.writeInt(count);
+        out.close();
+
+        RandomAccessFile f = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            if (from == 0)
+                f.setLength(0);
+            f.seek(0);
+            f.write(bytes.toByteArray());
+            ByteBuffer buf = ByteBuffer.allocate((count - from) * LONG_DATA_SIZE);
+            buf.asLongBuffer().put(positions, 0, count - from);
+            f.seek(bytes.size() + (long)from * LONG_DATA_SIZE);
+            f.write(buf.array());
+            f.setLength(bytes.size() + (long)count * LONG_DATA_SIZE);
+        } finally {
+            f.close();
+        }
+    }
+}
@@ -18,9 +18,13 @@
 package com.generalrobotix.ui.view.graph;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.zip.*;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+
 import jp.go.aist.hrp.simulator.CollisionPoint;
 
 /**
@@ -34,28 +38,79 @@ import jp.go.aist.hrp.simulator.CollisionPoint;
  * @history 3.1 ( 2009/05/11 )
  *    プロパティuseDiskがfalseの時はなるべくメモリー上にデータを保持するように変更。
  *    version 3.1 より前のログファイルには対応しない。
+ * @history 3.2
+ *    読み出しをLogChannelReaderによる位置指定読み出し・メモリマップに変更。
+ *    読み出し時のオブジェクト単位のロックを廃止した。
+ *    書き込みをLogWriterのI/Oスレッドでまとめて行うように変更。
+ *    列指向のログファイル(LogColumnFile)を併せて作成できるようにした。
+ *    ブロック圧縮したログファイル(LogBlockFile, version 3.2)で保存・読み込みできるようにした。
+ *    save()のzip作成をLogArchiveWriterによるエントリ毎の並列圧縮に変更。
+ *    load()でzipを全て展開せず、無圧縮のエントリはアーカイブ内を直接読み出し、
+ *    圧縮されたエントリはバックグラウンドで並列に展開するように変更。
+ *    干渉情報ログのオフセット値テーブルをlongに変更(version 3.2)。
+ *    干渉点をCollisionPointBufferへ読み出すgetCollisionPointData()を追加。
+ *    saveCSV()をLogCSVWriterによるバッファ書き出しに変更し、複数オブジェクトの並列出力と
+ *    列・時刻範囲の指定に対応した。
+ *    区間毎の最小・最大・平均値の要約ファイル(LogSummaryFile)を併せて作成し、
+ *    長い時間範囲のグラフを間引いて読み出すgetData(origin, offset, count, stride)を追加。
+ * @history 3.3
+ *    チャンネル毎に間引き率を指定してログできるようにした(addLogObject(String, String[], int[]))。
+ *    間引いたチャンネルは"オブジェクト名@間引き率"のオブジェクトに記録する。
+ *    書き込み中のレコードを予算の範囲でヒープ外のメモリ(LogMemoryBuffer)に保持し、
+ *    予算を超えた分をバックグラウンドでファイルへ書き出せるようにした(setMemoryBudget())。
+ *    追記型のコンテナ(LogContainer)への保存・読み込みを追加した(saveContainer())。
+ *    同じ記録を続けて保存する場合は前回からの増分だけを書き込む。zipへの保存(save())はそのまま使える。
+ *    保存時に索引(LogIndex)を添付し、読み込み時に干渉情報のフレーム位置を索引から必要な分だけ読むようにした。
+ *    列毎の統計値(getStatistics())も索引に保持する。
  */
 public class LogManager {
     //--------------------------------------------------------------------
     // 定数
     public static final String COLLISION_LOG_NAME = "CollisionData.col";
     public static final String COLLISION_LOG_DAT_NAME = "CollisionData.dat";
+    public static final String CONTAINER_EXTENSION = LogContainer.EXTENSION;
+    public static final String CONTAINER_MANIFEST = LogContainer.MANIFEST;
+    public static final String GROUP_SEPARATOR = "@";  // 間引いて記録するオブジェクト名(オブジェクト名@間引き率)の区切り
     private static final String POSTFIX = ".tmp";
     private static final int COLLISION_DATA_SIZE = 6 * 4 + 1 * 8;
+    private static final int CSV_BATCH_SIZE = 1024 * 1024;  // CSV出力時にまとめて読み出すbyte数
     private static final String NONAME_OBJECT = "_noname";
+    private static final int READ_BLOCK_RECORDS = 4096; // getData()で一度に読み出す最大レコード数
 
     //--------------------------------------------------------------------
     // インスタンス変数
     private Hashtable<String, LogHeader> header_;
-    private Hashtable<String, DataOutputStream> writeFile_;
-    private Hashtable<String, RandomAccessFile> readFile_;
+    private Hashtable<String, LogWriter.Target> writeFile_;
+    private Hashtable<String, LogRecordReader> readFile_;
     private Map<String, Map<String, Integer> > indexMapMap_;
     private CollisionLogHeader collisionLog_;
     private Time time_;
     private DataOutputStream collisionOut_ = null;
-    private RandomAccessFile collisionIn_ = null;
-    private DataOutputStream collisionDatOut_ = null;
-    private RandomAccessFile collisionDatIn_ = null;
+    private LogWriter.Target collisionDatOut_ = null;
+    private LogWriter writer_ = new LogWriter();
+    private boolean columnLog_ = false;
+    private Hashtable<String, LogColumnFile.Writer> columnWrite_ = null;
+    private Hashtable<String, LogColumnFile.Reader> columnRead_ = null;
+    private boolean summaryLog_ = false;
+    private Hashtable<String, LogSummaryFile.Writer> summaryWrite_ = null;
+    private Hashtable<String, LogSummaryFile.Reader> summaryRead_ = null;
+    private long memoryBudget_ = 0;
+    private LogMemoryBuffer memory_ = null;
+    private Hashtable<String, LogMemoryBuffer.Store> memoryStore_ = null;
+    private long session_ = _newSession();      // 記録毎の識別子(コンテナに増分を追記できるかの判定に使う)
+    private LogContainer container_ = null;     // 最後に保存・読み込みしたコンテナ
+    private final Object writeLock_ = new Object();
+    private LogIndex index_ = null;             // 索引(列毎の統計値と干渉情報のフレーム位置)
+    private long indexSession_ = 0;             // index_が対象とする記録
+    private int indexPositions_ = 0;            // 一時ディレクトリの索引ファイルに書き込んだフレーム位置の数
+    private boolean collisionFromIndex_ = false;    // 干渉情報のフレーム位置を索引ファイルから読むか
+    private LogIndex.PositionTable collisionPositions_ = null;
+    private int saveEncoding_ = LogBlockFile.ENCODING_RAW;
+    private int archiveMethod_ = LogArchiveWriter.DEFLATED;
+    private LogArchiveReader archive_ = null;   // load()で開いたアーカイブ
+    private Hashtable<String, LogArchiveReader.Entry> inPlace_ = new Hashtable<String, LogArchiveReader.Entry>();         // 一時ファイルのパス→アーカイブ内で直接読むエントリ
+    private Hashtable<String, LogArchiveReader.Extraction> extracting_ = new Hashtable<String, LogArchiveReader.Extraction>(); // 一時ファイルのパス→展開
+    private LogChannelReader collisionDatIn_ = null;
     private String collisionLogPath_ = new String(COLLISION_LOG_NAME);
     private String collisionLogDatPath_ = new String(COLLISION_LOG_DAT_NAME);
 
@@ -79,15 +134,6 @@ public class LogManager {
     	
     }
     
-    public LogManager(LogManager logger) {
-        String tmpdir = System.getProperty("TEMP");
-        if (logger != null) {
-            if(tmpdir != null)
-                setTempDir(tmpdir);
-            _initTempInstance(logger);
-        }
-    }
-
     /**
      * 初期化
      */
@@ -96,6 +142,10 @@ public class LogManager {
         indexMapMap_ = new HashMap<String, Map<String, Integer>>();
         time_ = new Time();
         closeReads();
+        _closeArchive();
+        container_ = null;
+        index_ = null;
+        collisionFromIndex_ = false;
     }
 
     /**
@@ -127,6 +177,131 @@ public class LogManager {
     }
 
 
+    private String getColumnFilePath(String objectName) {
+        if (tmpdir != null) {
+            return tmpdir + File.separator + objectName + LogColumnFile.POSTFIX;
+        } else {
+            return objectName + LogColumnFile.POSTFIX;
+        }
+    }
+
+    /**
+     * 行形式のログファイルに加えて列指向のログファイルを作成するかどうかを設定する
+     * 
+     * @param   b   trueの時、openAsWrite()で列指向のログファイルも作成する。
+     *              また、読み出し時に列指向のログファイルが無ければ作成する。
+     */
+    public void setColumnLog(boolean b) {
+        columnLog_ = b;
+    }
+
+    public boolean isColumnLog() {
+        return columnLog_;
+    }
+
+    private String getSummaryFilePath(String objectName) {
+        if (tmpdir != null) {
+            return tmpdir + File.separator + objectName;
+        } else {
+            return objectName;
+        }
+    }
+
+    /**
+     * 区間毎の最小・最大・平均値の要約ファイルを作成するかどうかを設定する
+     * 
+     * @param   b   trueの時、openAsWrite()で要約ファイルも作成する。
+     *              また、読み出し時に要約ファイルが無ければ作成する。
+     */
+    public void setSummaryLog(boolean b) {
+        summaryLog_ = b;
+    }
+
+    public boolean isSummaryLog() {
+        return summaryLog_;
+    }
+
+    /**
+     * 書き込み中のレコードをメモリ上に保持する量の上限を設定する。
+     * 次のopenAsWrite()から有効。0の場合はメモリ上に保持せずにファイルへ書き込む。
+     *
+     * @param bytes 上限(byte)
+     */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget_ = Math.max(0, bytes);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget_;
+    }
+
+    /**
+     * メモリ上に確保しているレコードの量(byte)を返す
+     */
+    public long getMemoryUsage() {
+        LogMemoryBuffer memory = memory_;
+        return memory != null ? memory.getAllocatedSize() : 0;
+    }
+
+    /**
+     * 1サンプル当りのレコード数がmaxRecordsPerSample以下で最大の間引き率を返す。
+     * 要約ファイルを使わない場合は1を返す。
+     */
+    public int getSummaryStride(double maxRecordsPerSample) {
+        if (!summaryLog_)
+            return 1;
+        int stride = 1;
+        for (int level = 1; level <= LogSummaryFile.NUM_LEVELS; level++) {
+            long f = LogSummaryFile.factor(level);
+            if (f > maxRecordsPerSample)
+                break;
+            stride = (int)f;
+        }
+        return stride;
+    }
+
+    /**
+     * save()で保存するログファイルの形式を設定する
+     * 
+     * @param   encoding    LogBlockFile.ENCODING_NAMESのいずれか
+     *                      (RAW:非圧縮, XOR:ブロック圧縮, XOR_DEFLATE:ブロック圧縮+deflate)
+     */
+    public void setLogEncoding(String encoding) {
+        saveEncoding_ = LogBlockFile.ENCODING_RAW;
+        for (int i = 0; i < LogBlockFile.ENCODING_NAMES.length; i++) {
+            if (LogBlockFile.ENCODING_NAMES[i].equals(encoding))
+                saveEncoding_ = i;
+        }
+    }
+
+    public String getLogEncodingStr() {
+        return LogBlockFile.ENCODING_NAMES[saveEncoding_];
+    }
+
+    /**
+     * save()で作成するzipファイルの格納方法を設定する
+     * 
+     * @param   method  DEFLATED:圧縮する, STORED:圧縮せずにそのまま格納する
+     */
+    public void setArchiveMethod(String method) {
+        if ("STORED".equals(method)) //$NON-NLS-1$
+            archiveMethod_ = LogArchiveWriter.STORED;
+        else
+            archiveMethod_ = LogArchiveWriter.DEFLATED;
+    }
+
+    public String getArchiveMethodStr() {
+        return archiveMethod_ == LogArchiveWriter.STORED ? "STORED" : "DEFLATED"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private String _getIndexPath() {
+        if (tmpdir != null) {
+            return tmpdir + File.separator + LogIndex.FILE_NAME;
+        } else {
+            return LogIndex.FILE_NAME;
+        }
+    }
+
     private String getTempFilePath(String objectName) {
         // String tmpdir = System.getProperty("TEMP");
         if (tmpdir != null) {
@@ -164,9 +339,138 @@ public class LogManager {
      * 
      */
     public void addLogObject(String objectName, String[] format) throws LogFileFormatException {
+        addLogObject(objectName, format, null);
+    }
+
+    /**
+     * チャンネル毎の間引き率を指定してログするオブジェクトを追加する
+     * 
+     * 間引き率がnのチャンネルはオブジェクト"objectName@n"にnステップ毎に記録し、
+     * 0のチャンネルは記録しない。objectNameのフォーマットには全てのチャンネルを残し、
+     * 型に"@n"を付けて記録先を示す。put()・get()は全てのチャンネルを含むデータでやり取りし、
+     * 間引いたチャンネルは直前に記録した値を返す。
+     * 
+     * @param decimation フォーマットのチャンネル毎の間引き率(nullは全て1)。先頭(時刻)は常に1とする
+     */
+    public void addLogObject(String objectName, String[] format, int[] decimation) throws LogFileFormatException {
+        if (decimation != null) {
+            String[] base = format.clone();
+            TreeMap<Integer, List<String>> groups = new TreeMap<Integer, List<String>>();
+            for (int i = 1; i < format.length / 2; i++) {
+                int d = decimation[i];
+                if (d == 1)
+                    continue;
+                base[i * 2 + 1] = format[i * 2 + 1] + GROUP_SEPARATOR + d;
+                if (d == 0)
+                    continue;
+                List<String> f = groups.get(d);
+                if (f == null) {
+                    f = new ArrayList<String>();
+                    f.add(format[0]);
+                    f.add(format[1]);
+                    groups.put(d, f);
+                }
+                f.add(format[i * 2]);
+                f.add(format[i * 2 + 1]);
+            }
+            format = base;
+            for (Map.Entry<Integer, List<String>> e : groups.entrySet()) {
+                LogHeader header = new LogHeader(objectName + GROUP_SEPARATOR + e.getKey(), e.getValue().toArray(new String[0]));
+                header.decimation_ = e.getKey();
+                header_.put(header.objectName_, header);
+                _makeIndexMapMap(header);
+            }
+        }
         LogHeader header = new LogHeader(objectName, format);
         header_.put(objectName, header);
         _makeIndexMapMap(header);
+        _linkRateGroups();
+    }
+
+    /**
+     * objectNameが間引いて記録するチャンネルのオブジェクトか
+     */
+    public boolean isRateGroup(String objectName) {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        return header != null && header.decimation_ > 1;
+    }
+
+    /**
+     * 記録しているオブジェクト名の一覧
+     */
+    public String[] getLogObjectNames() {
+        List<String> names = new ArrayList<String>();
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();)
+            names.add(((LogHeader) elements.nextElement()).objectName_);
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * fileがsaveContainer()で保存したコンテナのディレクトリか
+     */
+    public static boolean isContainer(File file) {
+        return LogContainer.isContainer(file);
+    }
+
+    /**
+     * 間引いて記録するチャンネルのオブジェクトを所有者のオブジェクトに関連付ける
+     */
+    private void _linkRateGroups() {
+        Map<LogHeader, List<LogHeader>> groups = new HashMap<LogHeader, List<LogHeader>>();
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            header.groups_ = null;
+            header.columnObject_ = null;
+            header.columnIndex_ = null;
+            header.record_ = header.isMultiRate() ? new float[header.recordSize_ / LogHeader.FLOAT_DATA_SIZE] : null;
+        }
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            if (header.decimation_ <= 1)
+                continue;
+            int sep = header.objectName_.lastIndexOf(GROUP_SEPARATOR);
+            LogHeader owner = sep > 0 ? (LogHeader) header_.get(header.objectName_.substring(0, sep)) : null;
+            if (owner == null || owner.decimation_ > 1)
+                continue;
+            // 所有者の全チャンネル中の添字(先頭の時刻は所有者の時刻を使う)
+            int[] columns = new int[header.recordSize_ / LogHeader.FLOAT_DATA_SIZE];
+            int k = 0;
+            for (int i = 0; i < header.dataFormat_.length / 2; i++) {
+                int width = header.getUnitSize(i) == 0 ? 1 : header.getUnitSize(i);
+                int index = i == 0 ? -1 : owner.getFullIndex(header.dataFormat_[i * 2]);
+                for (int j = 0; j < width; j++, k++)
+                    columns[k] = index < 0 ? -1 : index + j;
+            }
+            header.storedColumns_ = columns;
+            List<LogHeader> list = groups.get(owner);
+            if (list == null) {
+                list = new ArrayList<LogHeader>();
+                groups.put(owner, list);
+            }
+            list.add(header);
+        }
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            if (header.storedColumns_ == null || header.decimation_ > 1)
+                continue;
+            List<LogHeader> list = groups.get(header);
+            header.groups_ = list != null ? list.toArray(new LogHeader[list.size()]) : new LogHeader[0];
+            header.columnObject_ = new LogHeader[header.fullSize_];
+            header.columnIndex_ = new int[header.fullSize_];
+            for (int i = 0; i < header.storedColumns_.length; i++) {
+                header.columnObject_[header.storedColumns_[i]] = header;
+                header.columnIndex_[header.storedColumns_[i]] = i;
+            }
+            for (int g = 0; g < header.groups_.length; g++) {
+                int[] columns = header.groups_[g].storedColumns_;
+                for (int i = 0; i < columns.length; i++) {
+                    if (columns[i] >= 0) {
+                        header.columnObject_[columns[i]] = header.groups_[g];
+                        header.columnIndex_[columns[i]] = i;
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -186,7 +490,14 @@ public class LogManager {
      * ログファイルは複数あるので、ストリームをハッシュテーブル(file_)に 保存
      */
     public void openAsWrite(SimulationTime time, String method) throws IOException {
-        writeFile_ = new Hashtable<String, DataOutputStream>();
+        session_ = _newSession();
+        writeFile_ = new Hashtable<String, LogWriter.Target>();
+        columnWrite_ = columnLog_ ? new Hashtable<String, LogColumnFile.Writer>() : null;
+        summaryWrite_ = summaryLog_ ? new Hashtable<String, LogSummaryFile.Writer>() : null;
+        if (memoryBudget_ > 0) {
+            memory_ = new LogMemoryBuffer(writer_, memoryBudget_);
+            memoryStore_ = new Hashtable<String, LogMemoryBuffer.Store>();
+        }
         for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
             try {
                 LogHeader header = (LogHeader) elements.nextElement();
@@ -196,19 +507,67 @@ public class LogManager {
                 header.endTime_ = 0;
                 header.method_ = str2IntIntegrationMethod(method);
                 header.numRecords_ = 0;
+                header.encoding_ = LogBlockFile.ENCODING_RAW;
                 // ヘッダの書込み
-                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getTempFilePath(header.objectName_))));
-
+                FileOutputStream stream = new FileOutputStream(getTempFilePath(header.objectName_));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
                 header.output(out);
-                writeFile_.put(header.objectName_, out);
+                out.flush();
+                LogWriter.Target target = writer_.open(header.objectName_, stream, out.size());
+                writeFile_.put(header.objectName_, target);
+                if (memory_ != null)
+                    memoryStore_.put(header.objectName_, memory_.open(target, header.recordSize_));
+
+                // 列指向ログ
+                File colFile = new File(getColumnFilePath(header.objectName_));
+                if (columnWrite_ != null) {
+                    columnWrite_.put(header.objectName_, new LogColumnFile.Writer(writer_, colFile, header.recordSize_ / LogHeader.FLOAT_DATA_SIZE));
+                } else if (colFile.exists()) {
+                    colFile.delete();
+                }
+
+                // 要約ファイル
+                if (summaryWrite_ != null) {
+                    summaryWrite_.put(header.objectName_, new LogSummaryFile.Writer(writer_, getSummaryFilePath(header.objectName_), header.recordSize_ / LogHeader.FLOAT_DATA_SIZE));
+                } else {
+                    LogSummaryFile.delete(getSummaryFilePath(header.objectName_));
+                }
             } catch (IOException ex) {
                 for (Enumeration elms = writeFile_.elements(); elms.hasMoreElements();) {
-                    DataOutputStream out = (DataOutputStream) elms.nextElement();
-                    out.close();
+                    LogWriter.Target out = (LogWriter.Target) elms.nextElement();
+                    writer_.close(out);
+                }
+                if (columnWrite_ != null) {
+                    for (Enumeration elms = columnWrite_.elements(); elms.hasMoreElements();) {
+                        ((LogColumnFile.Writer) elms.nextElement()).close();
+                    }
+                    columnWrite_ = null;
+                }
+                if (summaryWrite_ != null) {
+                    for (Enumeration elms = summaryWrite_.elements(); elms.hasMoreElements();) {
+                        ((LogSummaryFile.Writer) elms.nextElement()).close();
+                    }
+                    summaryWrite_ = null;
                 }
+                _closeMemory();
                 throw ex;
             }
         }
+        _reserveWriteBuffers();
+    }
+
+    /**
+     * 記録中にLogWriterがバッファを確保しないように、1回に書き込む最大のbyte数でプールを埋めておく
+     */
+    private void _reserveWriteBuffers() {
+        int size = 0;
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            size = Math.max(size, header.recordSize_);
+            if (summaryWrite_ != null && summaryWrite_.get(header.objectName_) != null)
+                size = Math.max(size, summaryWrite_.get(header.objectName_).getBufferSize());
+        }
+        writer_.reserve(size);
     }
 
     /**
@@ -217,58 +576,192 @@ public class LogManager {
     public double closeAsWrite() throws IOException {
         if(writeFile_ == null)
             return 0;
+        _spillMemory();
         for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
             LogHeader header = (LogHeader) elements.nextElement();
-            DataOutputStream out = (DataOutputStream) writeFile_.get(header.objectName_);
-            out.close();
+            LogWriter.Target out = (LogWriter.Target) writeFile_.get(header.objectName_);
+            writer_.close(out);
+            if (columnWrite_ != null) {
+                int numRecords = columnWrite_.get(header.objectName_).close();
+                LogColumnFile.Reader colIn = columnRead_ != null ? columnRead_.get(header.objectName_) : null;
+                if (colIn != null)
+                    colIn.setNumRecords(numRecords);
+            }
+            if (summaryWrite_ != null) {
+                int numRecords = summaryWrite_.get(header.objectName_).close();
+                LogSummaryFile.Reader sumIn = summaryRead_ != null ? summaryRead_.get(header.objectName_) : null;
+                if (sumIn != null)
+                    sumIn.setNumRecords(numRecords);
+            }
 
             // ヘッダに終了時間を書き込む
-            header.endTime_ = time_.getUtime();
-            RandomAccessFile file = new RandomAccessFile(getTempFilePath(header.objectName_), "rw");
-            header.outEndTime(file); // 終了時間までシーク
-            file.close();
+            _writeEndTime(header);
         }
+        columnWrite_ = null;
+        summaryWrite_ = null;
         writeFile_ = null;
+        _closeMemory();
         return time_.getDouble();
     }
 
+    private void _writeEndTime(LogHeader header) throws IOException {
+        header.endTime_ = time_.getUtime();
+        RandomAccessFile file = new RandomAccessFile(getTempFilePath(header.objectName_), "rw");
+        header.outEndTime(file); // 終了時間までシーク
+        file.close();
+    }
+
     public void openAsRead() throws IOException, FileOpenFailException {
-        readFile_ = new Hashtable<String, RandomAccessFile>();
+        readFile_ = new Hashtable<String, LogRecordReader>();
         for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
             LogHeader header = (LogHeader) elements.nextElement();
-            RandomAccessFile file = null;
+            LogRecordReader file = null;
             try{
-                file = new RandomAccessFile(getTempFilePath(header.objectName_), "r");
+                file = _openRecordReader(header);
             }catch (IOException ex){
                 throw new FileOpenFailException(ex.getMessage());
             }
             readFile_.put(header.objectName_, file);
         }
+        _openColumnLogAsRead();
+        _openSummaryAsRead();
+    }
+
+    /**
+     * ログファイルの形式に合わせて読み出しクラスを生成する
+     */
+    private LogRecordReader _openRecordReader(LogHeader header) throws IOException {
+        String path = getTempFilePath(header.objectName_);
+        LogArchiveReader.Entry e = inPlace_.get(path);
+        if (e != null) {
+            // アーカイブ内を直接読み出す
+            if (header.encoding_ == LogBlockFile.ENCODING_RAW) {
+                return new LogChannelReader(archive_.getFile(), e.getDataOffset() + header.headerSize_, header.recordSize_);
+            } else {
+                return new LogBlockFile.Reader(archive_.getFile(), e.getDataOffset(), e.getSize(), header.recordSize_ / LogHeader.FLOAT_DATA_SIZE, header.encoding_);
+            }
+        }
+        LogArchiveReader.Extraction x = extracting_.get(path);
+        if (x != null && header.encoding_ != LogBlockFile.ENCODING_RAW) {
+            // ブロック圧縮の場合は末尾のインデックスが必要
+            x.awaitAll();
+        } else if (x != null) {
+            // 展開が始まっていなければ一時ファイルがまだ無い
+            x.await(header.headerSize_);
+        }
+        File file = new File(path);
+        if (header.encoding_ == LogBlockFile.ENCODING_RAW) {
+            LogChannelReader in = new LogChannelReader(file, header.headerSize_, header.recordSize_);
+            // 書き込み中でメモリ上にあるレコードはメモリから読む
+            LogMemoryBuffer.Store store = memoryStore_ != null ? memoryStore_.get(header.objectName_) : null;
+            return store != null ? new LogMemoryBuffer.Reader(in, store) : in;
+        } else {
+            return new LogBlockFile.Reader(file, header.recordSize_ / LogHeader.FLOAT_DATA_SIZE, header.encoding_);
+        }
+    }
+
+    /**
+     * 列指向のログファイルを開く。
+     * columnLog_がtrueで書き込み中でなければ、列指向のログファイルが無い場合に作成する。
+     */
+    private void _openColumnLogAsRead() {
+        columnRead_ = new Hashtable<String, LogColumnFile.Reader>();
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            int numColumns = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+            File colFile = new File(getColumnFilePath(header.objectName_));
+            try {
+                LogColumnFile.Reader colIn = LogColumnFile.Reader.open(colFile, numColumns);
+                LogArchiveReader.Extraction x = extracting_.get(getTempFilePath(header.objectName_));
+                if (columnLog_ && writeFile_ == null && (x == null || x.isDone()) && (colIn == null || colIn.getNumRecords() != header.numRecords_)) {
+                    if (colIn != null)
+                        colIn.close();
+                    LogColumnFile.build(readFile_.get(header.objectName_), numColumns, header.numRecords_, colFile);
+                    colIn = LogColumnFile.Reader.open(colFile, numColumns);
+                }
+                if (colIn != null)
+                    columnRead_.put(header.objectName_, colIn);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 要約ファイルを開く。
+     * summaryLog_がtrueで書き込み中でなければ、要約ファイルが無い場合に作成する。
+     */
+    private void _openSummaryAsRead() {
+        summaryRead_ = new Hashtable<String, LogSummaryFile.Reader>();
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            int numColumns = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+            String path = getSummaryFilePath(header.objectName_);
+            try {
+                LogSummaryFile.Reader sumIn = LogSummaryFile.Reader.open(path, numColumns);
+                LogArchiveReader.Extraction x = extracting_.get(getTempFilePath(header.objectName_));
+                if (summaryLog_ && writeFile_ == null && (x == null || x.isDone()) && (sumIn == null || sumIn.getNumRecords() != header.numRecords_)) {
+                    if (sumIn != null)
+                        sumIn.close();
+                    LogSummaryFile.build(readFile_.get(header.objectName_), numColumns, header.numRecords_, path);
+                    sumIn = LogSummaryFile.Reader.open(path, numColumns);
+                }
+                if (sumIn != null)
+                    summaryRead_.put(header.objectName_, sumIn);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
     }
 
     public void closeAsRead() throws IOException {
         if (readFile_ == null)
             return;
         for (Enumeration elements = readFile_.elements(); elements.hasMoreElements();) {
-            RandomAccessFile file = (RandomAccessFile) elements.nextElement();
+            LogRecordReader file = (LogRecordReader) elements.nextElement();
             file.close();
         }
         readFile_ = null;
+        if (columnRead_ != null) {
+            for (Enumeration elements = columnRead_.elements(); elements.hasMoreElements();) {
+                ((LogColumnFile.Reader) elements.nextElement()).close();
+            }
+            columnRead_ = null;
+        }
+        if (summaryRead_ != null) {
+            for (Enumeration elements = summaryRead_.elements(); elements.hasMoreElements();) {
+                ((LogSummaryFile.Reader) elements.nextElement()).close();
+            }
+            summaryRead_ = null;
+        }
     }
 
     public void openCollisionLogAsWrite() throws IOException {
         collisionOut_ = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(collisionLogPath_)));
-        collisionDatOut_ = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(collisionLogDatPath_)));
+        collisionDatOut_ = writer_.open(COLLISION_LOG_DAT_NAME, new FileOutputStream(collisionLogDatPath_), 0);
         collisionLog_.currentPos_ = 0;
-        collisionLog_.position_.clear();
-        collisionLog_.position_.add(0);
+        collisionFromIndex_ = false;
+        collisionLog_.clearPositions();
+        collisionLog_.addPosition(0);
         collisionLog_.numRecords_ = 0;
         collisionLog_.createLogHeader(collisionOut_);
     }
 
     public void openCollisionLogAsRead() throws IOException, FileNotFoundException {
-        collisionIn_ = new RandomAccessFile(collisionLogPath_, "r");
-        collisionDatIn_ = new RandomAccessFile(collisionLogDatPath_, "r");
+        if (collisionFromIndex_ && collisionPositions_ == null) {
+            collisionPositions_ = new LogIndex.PositionTable(_openIndexReader(index_.getHeadSize()), indexPositions_);
+            collisionLog_.setPositionSource(collisionPositions_);
+        }
+        LogArchiveReader.Entry e = inPlace_.get(collisionLogDatPath_);
+        if (e != null) {
+            collisionDatIn_ = new LogChannelReader(archive_.getFile(), e.getDataOffset(), COLLISION_DATA_SIZE);
+        } else {
+            // 展開が始まっていなければ一時ファイルがまだ無い
+            LogArchiveReader.Extraction x = extracting_.get(collisionLogDatPath_);
+            if (x != null)
+                x.await(1);
+            collisionDatIn_ = new LogChannelReader(new File(collisionLogDatPath_), 0, COLLISION_DATA_SIZE);
+        }
     }
 
     public void closeCollisionLogAsRead() throws IOException {
@@ -276,21 +769,38 @@ public class LogManager {
             collisionDatIn_.close();
             collisionDatIn_ = null;
         }
-        if ( collisionIn_ != null ){
-            collisionIn_.close();
-            collisionIn_ = null;
+        if ( collisionPositions_ != null ){
+            if (collisionLog_.hasPositionSource())
+                collisionLog_.setPositionSource(null);
+            collisionPositions_.close();
+            collisionPositions_ = null;
         }
     }
 
+    /**
+     * 索引ファイルのoffset byte目をデータ先頭として開く。アーカイブ内にある場合は直接読む。
+     */
+    private LogChannelReader _openIndexReader(long offset) throws IOException {
+        String path = _getIndexPath();
+        LogArchiveReader.Entry e = inPlace_.get(path);
+        if (e != null)
+            return new LogChannelReader(archive_.getFile(), e.getDataOffset() + offset, 8);
+        return new LogChannelReader(new File(path), offset, 8);
+    }
+
     public void closeCollisionLogAsWrite() throws IOException {
         if(collisionOut_ == null || collisionDatOut_ == null )
             return;
-        collisionDatOut_.close();
+        writer_.close(collisionDatOut_);
         collisionOut_.close();
         collisionDatOut_ = null;
         collisionOut_ = null;
 
         // recordSize_を書き込む
+        _writeCollisionLogHeader();
+    }
+
+    private void _writeCollisionLogHeader() throws IOException {
         collisionLog_.endTime_ = time_.getUtime();
         try {
             RandomAccessFile file = new RandomAccessFile(collisionLogPath_, "rw");
@@ -322,13 +832,51 @@ public class LogManager {
     public void put(String objectName, float[] data) throws LogFileOutputException, IOException {
         LogHeader header = (LogHeader) header_.get(objectName);
 
+        if (header.groups_ != null) {
+            // 全チャンネルのデータを記録先毎に振り分ける
+            if (data.length != header.fullSize_)
+                throw new LogFileOutputException("data length error.");
+            int frame = header.numRecords_;
+            for (int g = 0; g < header.groups_.length; g++) {
+                LogHeader group = header.groups_[g];
+                if (frame % group.decimation_ != 0)
+                    continue;
+                int[] columns = group.storedColumns_;
+                float[] rec = group.record_;
+                for (int i = 0; i < columns.length; i++)
+                    rec[i] = columns[i] < 0 ? data[0] : data[columns[i]];
+                _put(group, rec);
+            }
+            int[] columns = header.storedColumns_;
+            float[] rec = header.record_;
+            for (int i = 0; i < columns.length; i++)
+                rec[i] = data[columns[i]];
+            _put(header, rec);
+        } else {
+            _put(header, data);
+        }
+    }
+
+    private void _put(LogHeader header, float[] data) throws LogFileOutputException, IOException {
+        String objectName = header.objectName_;
         if (data.length == (header.recordSize_ / LogHeader.FLOAT_DATA_SIZE)) {
             try {
-                DataOutputStream out = (DataOutputStream) writeFile_.get(objectName);
-                for (int i = 0; i < data.length; i++) {
-                    out.writeFloat(data[i]);
+                LogMemoryBuffer.Store store = memoryStore_ != null ? memoryStore_.get(objectName) : null;
+                if (store != null) {
+                    store.put(data);
+                } else {
+                    LogWriter.Target out = (LogWriter.Target) writeFile_.get(objectName);
+                    ByteBuffer buf = writer_.obtain(header.recordSize_);
+                    for (int i = 0; i < data.length; i++) {
+                        buf.putFloat(data[i]);
+                    }
+                    buf.flip();
+                    writer_.submit(out, buf);
                 }
-                out.flush();
+                if (columnWrite_ != null)
+                    columnWrite_.get(objectName).put(data);
+                if (summaryWrite_ != null)
+                    summaryWrite_.get(objectName).put(data);
             } catch (IOException ex) {
                 closeAsWrite();
                 throw ex;
@@ -340,190 +888,428 @@ public class LogManager {
     }
     
     public void putCollisionPointData(CollisionPoint[] data) throws IOException {
+        putCollisionPointData(data, data.length);
+    }
+
+    /**
+     * dataの先頭からlength個の干渉点を1フレーム分として記録する
+     * (呼び出し側で配列を使い回せるように)
+     */
+    public void putCollisionPointData(CollisionPoint[] data, int length) throws IOException {
         // int frameNum = (int)(time_.getUtime() / collisionLog_.timeStep_);
         // System.out.println("putCollisionPointData(): frameNum=" +
         // frameNum+":"+time_.getUtime()+":"+collisionLog_.timeStep_);
 
-        for (int i = 0; i < data.length; i++) {
-            collisionDatOut_.writeFloat((float) data[i].normal[0]);
-            collisionDatOut_.writeFloat((float) data[i].normal[1]);
-            collisionDatOut_.writeFloat((float) data[i].normal[2]);
-            collisionDatOut_.writeFloat((float) data[i].position[0]);
-            collisionDatOut_.writeFloat((float) data[i].position[1]);
-            collisionDatOut_.writeFloat((float) data[i].position[2]);
-            collisionDatOut_.writeDouble(data[i].idepth);
-        }
-        collisionDatOut_.flush();
-        collisionLog_.currentPos_ += data.length * COLLISION_DATA_SIZE;
-        collisionLog_.position_.add(collisionLog_.currentPos_);
+        if (length > 0) {
+            ByteBuffer buf = writer_.obtain(length * COLLISION_DATA_SIZE);
+            for (int i = 0; i < length; i++) {
+                buf.putFloat((float) data[i].normal[0]);
+                buf.putFloat((float) data[i].normal[1]);
+                buf.putFloat((float) data[i].normal[2]);
+                buf.putFloat((float) data[i].position[0]);
+                buf.putFloat((float) data[i].position[1]);
+                buf.putFloat((float) data[i].position[2]);
+                buf.putDouble(data[i].idepth);
+            }
+            buf.flip();
+            writer_.submit(collisionDatOut_, buf);
+        }
+        collisionLog_.currentPos_ += length * COLLISION_DATA_SIZE;
+        collisionLog_.addPosition(collisionLog_.currentPos_);
         collisionLog_.numRecords_++;
     }
 
-    public void jointLogs() throws IOException {
-        String srcDir = tmpdir;
-        
-        long leftSize = 0;
-        byte[] buffer = new byte[1024 * 1024];
-        
-        // 各モデルログファイルの結合処理
-        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
-            LogHeader header = (LogHeader) elements.nextElement();
-            String srcFilePath = new String( srcDir + File.separator + header.objectName_ + POSTFIX);
-            File srcFile = new File(srcFilePath);
-            FileInputStream srcInStream = new FileInputStream(srcFile);
-            srcInStream.skip(header.headerSize_);
-            leftSize = srcFile.length() - header.headerSize_;
-            header.numRecords_ += leftSize / header.recordSize_; 
-            DataOutputStream destOutStream = writeFile_.get(header.objectName_);
-            while (leftSize > 0) {
-                int readSize = srcInStream.read(buffer);
-                destOutStream.write(buffer, 0, readSize);
-                leftSize -= readSize;
-            }
-            srcInStream.close();
-        }
-        
-        // collisionLogの結合
-        File col = new File(srcDir + File.separator + COLLISION_LOG_NAME);
-        DataInputStream inCol = new DataInputStream(new FileInputStream(col));
-        CollisionLogHeader localColLog = new CollisionLogHeader();
-        
-        try{
-            localColLog.input(inCol);
-        } catch ( LogFileFormatException ex){
-            ex.printStackTrace();
-        } catch ( IOException ex){
-            throw ex;
-        } finally {
-            inCol.close();
-        }
-        
-        collisionLog_.joinCollisionLogHeader(localColLog);
-
-        // collisionLogDatの結合
-        File colData = new File(srcDir + File.separator + COLLISION_LOG_DAT_NAME);
-        FileInputStream fileInStream = new FileInputStream(colData);
-        leftSize = colData.length();
-        while (leftSize > 0) {
-            int readSize = fileInStream.read(buffer);
-            collisionDatOut_.write(buffer, 0, readSize);
-            leftSize -= readSize;
-        }
-        fileInStream.close();
+    /**
+     * ＳＡＶＥ処理
+     * 
+     * @param String
+     *            fileName ＳＡＶＥファイル名
+     */
+    public void save(String fileName, String prjFileName) throws IOException {
+        save(fileName, prjFileName, null);
     }
 
-    
-    public void separateLogs(final int changePos) throws IOException {
-        String srcDir = tmpdir;
-                
-        long leftSize = 0;
-        byte[] buffer = new byte[1024 * 1024];
-        
-        // 各モデルログファイルの分離処理
+    /**
+     * ＳＡＶＥ処理
+     *
+     * 各エントリの圧縮をワーカースレッドで並列に行い、終わったものから連結する。
+     * 
+     * @param fileName    ＳＡＶＥファイル名
+     * @param prjFileName プロジェクトファイル名
+     * @param monitor     エントリ毎の進捗の報告先(null可)
+     */
+    public void save(String fileName, String prjFileName, IProgressMonitor monitor) throws IOException {
+        _awaitExtraction();
+        _spillMemory();
+        if (archive_ != null && new File(fileName).getCanonicalFile().equals(archive_.getFile().getCanonicalFile()))
+            _detachArchive();
+        _updateIndex();
+        LogArchiveWriter zip = new LogArchiveWriter(new File(fileName), tmpdir != null ? new File(tmpdir) : null, archiveMethod_);
+
+        // 各ログファイルを追加
         for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
             LogHeader header = (LogHeader) elements.nextElement();
-            String srcFilePath = new String( srcDir + File.separator + header.objectName_ + POSTFIX);
-            File srcFile = new File(srcFilePath);
-            FileInputStream srcInStream = new FileInputStream(srcFile);
-            srcInStream.skip(header.headerSize_ + header.recordSize_ * changePos);
-            leftSize = srcFile.length() - header.headerSize_ - header.recordSize_ * changePos;
-            DataOutputStream destOutStream = writeFile_.get(header.objectName_);
-            while (leftSize > 0) {
-                int readSize = srcInStream.read(buffer);
-                destOutStream.write(buffer, 0, readSize);
-                leftSize -= readSize;
-            }
-            srcInStream.close();
+            _addLogToZipEntry(zip, header);
         }
-        
-        // this_.collisionLogの分離
-        File col = new File(srcDir + File.separator + COLLISION_LOG_NAME);
-        DataInputStream inCol = new DataInputStream(new FileInputStream(col));
-        CollisionLogHeader localColLog = new CollisionLogHeader();
-        
-        try{
-            localColLog.input(inCol);
-        } catch ( LogFileFormatException ex){
-            ex.printStackTrace();
-        } catch ( IOException ex){
-            throw ex;
-        } finally {
-            inCol.close();
+
+        // プロジェクトファイルの追加
+        zip.addFile(_getRelativePath(prjFileName), new File(prjFileName));
+
+        // 干渉情報ログを追加
+        _addFileToZipEntry(zip, collisionLogPath_);
+        _addFileToZipEntry(zip, collisionLogDatPath_);
+
+        // 索引はアーカイブ内を直接読めるように無圧縮で追加する
+        String indexPath = _getIndexPath();
+        LogArchiveReader.Entry ie = inPlace_.get(indexPath);
+        if (ie != null) {
+            archive_.extractTo(ie, new File(indexPath));
+            inPlace_.remove(indexPath);
         }
-        
-        collisionLog_.separateCollisionLogHeader(localColLog,changePos);
+        zip.addStoredFile(_getRelativePath(indexPath), new File(indexPath));
 
-        // this_.collisionLogDatの分離
-        final int offset = collisionLog_.position_.get(changePos);
-        File colData = new File(srcDir + File.separator + COLLISION_LOG_DAT_NAME);
-        FileInputStream fileInStream = new FileInputStream(colData);
-        fileInStream.skip( offset );
-        leftSize = colData.length() - offset;
-        while (leftSize > 0) {
-            int readSize = fileInStream.read(buffer);
-            collisionDatOut_.write(buffer, 0, readSize);
-            leftSize -= readSize;
+        if (monitor != null)
+            monitor.beginTask("Saving log as a file:" + new File(fileName).getName(), zip.size() * 2); //$NON-NLS-1$
+        try {
+            zip.write(monitor);
+        } finally {
+            if (monitor != null)
+                monitor.done();
         }
-        fileInStream.close();
     }
 
     /**
-     * ＳＡＶＥ処理
-     * 
-     * @param String
-     *            fileName ＳＡＶＥファイル名
+     * 追記型のコンテナ(LogContainer)へ保存する。
+     * 前回保存・読み込みしたコンテナへ同じ記録を保存する場合は、前回からの増分だけを書き込む。
+     * 別のコンテナへ保存する場合は、前回のコンテナのデータをコピーしてから増分を書き込む。
+     * 書き込み中でもここまでに記録したフレームを保存し、そのまま記録を続けられる。
+     *
+     * @param dirName     コンテナのディレクトリ
+     * @param prjFileName プロジェクトファイル名
+     * @param monitor     進捗の報告先(null可)
+     * @see #getWriteLock()
      */
-    public void save(String fileName, String prjFileName) throws IOException {
-        try {
-            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(fileName)));
-
-            // 各ログファイルを追加
+    public void saveContainer(String dirName, String prjFileName, IProgressMonitor monitor) throws IOException {
+        _awaitExtraction();
+        if (archive_ != null)
+            _detachArchive();
+        File dir = new File(dirName);
+        LogContainer base = container_;
+        LogContainer container = base != null && base.getDirectory().getCanonicalFile().equals(dir.getCanonicalFile()) ?
+            base : LogContainer.open(dir);
+
+        List<LogContainer.Source> sources = new ArrayList<LogContainer.Source>();
+        synchronized (writeLock_) {
+            _checkpoint();
+            // ヘッダは保存毎に書き直し、それ以降のレコードは追記されたものとして扱う
             for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
                 LogHeader header = (LogHeader) elements.nextElement();
-                _addFileToZipEntry(zip, new File( getTempFilePath(header.objectName_) ) );
-                zip.closeEntry();
-                // logFile.delete();
+                File file = new File(getTempFilePath(header.objectName_));
+                if (file.exists())
+                    sources.add(_containerSource(file, header.headerSize_));
             }
-
-            // プロジェクトファイルの追加
-            _addFileToZipEntry(zip, new File(prjFileName) );
-
-            // 干渉情報ログを追加
-            _addFileToZipEntry(zip, new File(collisionLogPath_) );
-            _addFileToZipEntry(zip, new File(collisionLogDatPath_) );
-
-            zip.flush();
-            zip.closeEntry();
-            zip.close();
-        } catch (IOException ex) {
-            throw ex;
+            File prj = new File(prjFileName);
+            if (prj.isFile())
+                sources.add(_containerSource(prj, (int)prj.length()));
+            sources.add(_containerSource(new File(collisionLogPath_), CollisionLogHeader.FIXED_PART_SIZE));
+            sources.add(_containerSource(new File(collisionLogDatPath_), 0));
+            // 索引のフレーム位置テーブルは追記される
+            _updateIndex();
+            sources.add(_containerSource(new File(_getIndexPath()), (int)index_.getHeadSize()));
         }
+        container.save(sources, session_, base, monitor);
+        container_ = container;
     }
 
-    private void _addFileToZipEntry(ZipOutputStream zip, File file)
-        throws IOException{
-        if (file.exists()) {
-            FileInputStream fileInStream = new FileInputStream(file);
-
-            byte[] buffer = new byte[1024 * 1024];
-
-            String zipPath = _getRelativePath(file.getPath());
-            ZipEntry zipEntry = new ZipEntry(zipPath);
-            zip.putNextEntry(zipEntry);
+    /**
+     * 1フレーム分の書き込み(setTime()・put()・putCollisionPointData())をこのロック内で行うと、
+     * 書き込み中のsaveContainer()がフレームの途中までを保存することはない
+     */
+    public Object getWriteLock() {
+        return writeLock_;
+    }
 
-            long leftSize = file.length();
-            while (leftSize > 0) {
-                int readSize = fileInStream.read(buffer);
-                zip.write(buffer, 0, readSize);
-                leftSize -= readSize;
-            }
-            fileInStream.close();
+    private LogContainer.Source _containerSource(File file, int headSize) throws IOException {
+        long length = file.length();
+        byte[] head = new byte[(int)Math.min(headSize, length)];
+        RandomAccessFile in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            in.readFully(head);
+        } finally {
+            in.close();
         }
+        return new LogContainer.Source(_getRelativePath(file.getPath()), file, head, length);
     }
 
-    private String _getRelativePath(String path)
-    {
-        if (tmpdir != null) {
+    /**
+     * 書き込み中のログファイルを、ここまでに記録したレコードで読み込める状態にする。書き込みは続けられる。
+     */
+    private void _checkpoint() throws IOException {
+        if (writeFile_ != null) {
+            _spillMemory();
+            writer_.flush();
+            for (Enumeration elements = header_.elements(); elements.hasMoreElements();)
+                _writeEndTime((LogHeader) elements.nextElement());
+        }
+        if (collisionOut_ != null && collisionDatOut_ != null) {
+            collisionOut_.flush();
+            writer_.flush();
+            _writeCollisionLogHeader();
+        }
+    }
+
+    /**
+     * 列の統計値(最小値・最大値・平均値)を返す。NaNは除いて集計する。
+     * 書き込み中でなければ、前回の集計以降に記録したレコードを集計してから返す。
+     *
+     * @param objectName オブジェクト名
+     * @param index      get()が返す配列での列の位置
+     * @return {最小値, 最大値, 平均値}。オブジェクト・列が無い場合や、書き込み中でまだ集計していない場合はnull
+     */
+    public double[] getStatistics(String objectName, int index) {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        if (header == null || index < 0 || index >= header.fullSize_)
+            return null;
+        if (writeFile_ == null) {
+            try {
+                _updateStatistics();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        LogIndex idx = index_;
+        if (idx == null)
+            return null;
+        if (header.groups_ == null)
+            return _getStatistics(idx, header, index);
+        // 記録先のオブジェクトの列を探す
+        LogHeader[] owners = new LogHeader[header.groups_.length + 1];
+        owners[0] = header;
+        System.arraycopy(header.groups_, 0, owners, 1, header.groups_.length);
+        for (int i = 0; i < owners.length; i++) {
+            int[] columns = owners[i].storedColumns_;
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c] == index)
+                    return _getStatistics(idx, owners[i], c);
+            }
+        }
+        return null;
+    }
+
+    private double[] _getStatistics(LogIndex index, LogHeader header, int column) {
+        LogIndex.Statistics s = index.getStatistics(header.objectName_);
+        if (s == null || column >= s.numColumns_)
+            return null;
+        return s.get(column);
+    }
+
+    /**
+     * 索引の統計値を前回の集計以降に記録したレコードで更新する
+     *
+     * @return オブジェクトの構成が変わった場合はtrue
+     */
+    private boolean _updateStatistics() throws IOException {
+        boolean changed = false;
+        if (index_ == null || indexSession_ != session_) {
+            index_ = new LogIndex();
+            indexSession_ = session_;
+            indexPositions_ = 0;
+            changed = true;
+        }
+        if (collisionFromIndex_)
+            return false;   // 読み込んだ索引はそのまま使う
+        List<LogIndex.Statistics> stats = new ArrayList<LogIndex.Statistics>(index_.getStatistics());
+        for (int i = 0; i < stats.size(); i++) {
+            if (!header_.containsKey(stats.get(i).objectName_)) {
+                index_.removeStatistics(stats.get(i).objectName_);
+                changed = true;
+            }
+        }
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            int numColumns = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+            LogIndex.Statistics s = index_.getStatistics(header.objectName_);
+            if (s == null || s.numColumns_ != numColumns || s.numRecords_ > header.numRecords_) {
+                s = new LogIndex.Statistics(header.objectName_, numColumns);
+                index_.putStatistics(s);
+                changed = true;
+            }
+            if (s.numRecords_ < header.numRecords_)
+                _scanStatistics(header, s);
+        }
+        return changed;
+    }
+
+    /**
+     * 集計していないレコードを読み出して統計値に加える
+     */
+    private void _scanStatistics(LogHeader header, LogIndex.Statistics s) throws IOException {
+        LogRecordReader in = readFile_ != null ? readFile_.get(header.objectName_) : null;
+        boolean opened = false;
+        if (in == null) {
+            in = _openRecordReader(header);
+            opened = true;
+        }
+        try {
+            int n = Math.max(1, (1024 * 1024) / Math.max(1, header.recordSize_));
+            float[] rows = new float[n * s.numColumns_];
+            while (s.numRecords_ < header.numRecords_) {
+                int count = Math.min(n, header.numRecords_ - s.numRecords_);
+                in.readRecords(s.numRecords_, count, rows, 0);
+                s.add(rows, count);
+            }
+        } finally {
+            if (opened)
+                in.close();
+        }
+    }
+
+    /**
+     * 一時ディレクトリの索引ファイルを現在のログに合わせて更新する。
+     * 構成が変わらなければヘッダ部を書き直し、増えたフレーム位置だけを追記する。
+     */
+    private void _updateIndex() throws IOException {
+        String path = _getIndexPath();
+        File file = new File(path);
+        boolean rewrite = _updateStatistics() || indexPositions_ == 0 || (!file.exists() && !inPlace_.containsKey(path));
+        if (collisionFromIndex_)
+            return;
+        int count = collisionLog_ != null ? collisionLog_.positionSize() : 0;
+        if (count < indexPositions_)
+            rewrite = true;
+        int from = rewrite ? 0 : indexPositions_;
+        long[] positions = new long[count - from];
+        for (int i = from; i < count; i++)
+            positions[i - from] = collisionLog_.getPosition(i);
+        LogArchiveReader.Entry e = inPlace_.remove(path);
+        if (e != null && !rewrite)
+            archive_.extractTo(e, file);
+        index_.write(file, positions, from, count);
+        indexPositions_ = count;
+    }
+
+    /**
+     * 読み込んだ索引が各ログと一致すれば使う。一致しない場合は統計値を集計し直し、
+     * 索引から読むことにしていたフレーム位置はここで全て読み込む。
+     */
+    private void _acceptIndex(LogIndex index) throws IOException {
+        boolean ok = index.getStatistics().size() == header_.size();
+        for (Enumeration elements = header_.elements(); ok && elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            LogIndex.Statistics s = index.getStatistics(header.objectName_);
+            ok = s != null && s.numColumns_ == header.recordSize_ / LogHeader.FLOAT_DATA_SIZE && s.numRecords_ == header.numRecords_;
+        }
+        if (ok) {
+            index_ = index;
+            indexSession_ = session_;
+            indexPositions_ = index.getNumPositions();
+            return;
+        }
+        if (collisionFromIndex_) {
+            LogIndex.PositionTable table = new LogIndex.PositionTable(_openIndexReader(index.getHeadSize()), index.getNumPositions());
+            try {
+                collisionLog_.setPositionSource(table);
+                collisionLog_._loadPositions();
+            } finally {
+                table.close();
+            }
+            collisionFromIndex_ = false;
+        }
+        index_ = null;
+    }
+
+    /**
+     * 索引のヘッダ部を読み込む。形式が正しくない場合はnull
+     */
+    private LogIndex _readIndex(InputStream in) throws IOException {
+        try {
+            return LogIndex.read(in);
+        } catch (LogFileFormatException ex) {
+            ex.printStackTrace();
+            return null;
+        } catch (EOFException ex) {
+            ex.printStackTrace();
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long _newSession() {
+        return new Random().nextLong();
+    }
+
+    /**
+     * ログファイルをsaveEncoding_の形式でzipに追加する
+     */
+    private void _addLogToZipEntry(LogArchiveWriter zip, final LogHeader header) {
+        File file = new File(getTempFilePath(header.objectName_));
+        if (!file.exists() && !inPlace_.containsKey(file.getPath()))
+            return;
+        if (header.encoding_ == saveEncoding_) {
+            _addFileToZipEntry(zip, file.getPath());
+        } else {
+            // 形式を変換して追加
+            zip.addContent(_getRelativePath(file.getPath()), new LogArchiveWriter.Content() {
+                public void write(OutputStream out) throws IOException {
+                    _writeLog(out, header, saveEncoding_);
+                }
+            });
+        }
+    }
+
+    /**
+     * 一時ファイルをzipに追加する。アーカイブ内を直接読んでいる場合はその範囲を追加する。
+     */
+    private void _addFileToZipEntry(LogArchiveWriter zip, String path) {
+        LogArchiveReader.Entry e = inPlace_.get(path);
+        if (e != null)
+            zip.addFileRegion(_getRelativePath(path), archive_.getFile(), e.getDataOffset(), e.getSize());
+        else
+            zip.addFile(_getRelativePath(path), new File(path));
+    }
+
+    /**
+     * ログファイルの内容をencodingの形式でoutに書き出す
+     */
+    private void _writeLog(OutputStream stream, LogHeader header, int encoding)
+        throws IOException{
+        LogRecordReader in = readFile_ != null ? readFile_.get(header.objectName_) : null;
+        boolean opened = false;
+        if (in == null) {
+            in = _openRecordReader(header);
+            opened = true;
+        }
+        LogHeader outHeader = header.copy();
+        try {
+            outHeader.encoding_ = encoding;
+            DataOutputStream out = new DataOutputStream(stream);
+            outHeader.output(out);
+            out.flush();
+            int numColumns = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+            if (encoding == LogBlockFile.ENCODING_RAW) {
+                int n = Math.max(1, (1024 * 1024) / header.recordSize_);
+                float[] rows = new float[n * numColumns];
+                ByteBuffer buf = ByteBuffer.allocate(n * header.recordSize_);
+                for (int first = 0; first < header.numRecords_; first += n) {
+                    int count = Math.min(n, header.numRecords_ - first);
+                    in.readRecords(first, count, rows, 0);
+                    buf.clear();
+                    buf.asFloatBuffer().put(rows, 0, count * numColumns);
+                    stream.write(buf.array(), 0, count * header.recordSize_);
+                }
+            } else {
+                LogBlockFile.write(in, numColumns, header.numRecords_, encoding, stream, header.headerSize_);
+            }
+        } finally {
+            if (opened)
+                in.close();
+        }
+    }
+
+    private String _getRelativePath(String path)
+    {
+        if (tmpdir != null) {
             String abs_path = (new File(path)).getAbsolutePath();
             String tmp_abs_path = (new File(tmpdir)).getAbsolutePath();
             if(abs_path.startsWith(tmp_abs_path)){
@@ -539,145 +1325,561 @@ public class LogManager {
     
     public void load(String fileName, String prjFile) throws FileOpenFailException, LogFileFormatException {
         init();
+        session_ = _newSession();
+        if (LogContainer.isContainer(new File(fileName))) {
+            _loadContainer(new File(fileName), prjFile);
+            return;
+        }
 
-        // zipファイルのエントリ数を取得、プロジェクトファイルがあるかどうか
-        // チェックする。
+        // zipのセントラルディレクトリを読み込み、各エントリのヘッダだけを解析する。
+        // ログと干渉情報のデータは、無圧縮ならアーカイブ内を直接読み出し、
+        // 圧縮されていればバックグラウンドで並列に一時ファイルへ展開する。
         try {
-            ZipFile zipFile = new ZipFile(fileName);
-            int entrySize = zipFile.size();
-            // TODO temporary comment for GRXUI
-            /*
-             * if (zipFile.getEntry(prjFile) == null) { throw new
-             * LogFileFormatException(); } zipFile.close();
-             */
-            // zipを展開する
-            ZipInputStream zip = new ZipInputStream(new FileInputStream(fileName));
-            byte[] buffer = new byte[1024];
-            for (int i = 0; i < entrySize; i++) {
-                String entry = zip.getNextEntry().getName();
+            LogArchiveReader archive = new LogArchiveReader(new File(fileName));
+            archive_ = archive;
+            List<LogArchiveReader.Entry> entries = archive.getEntries();
+            // 索引があれば干渉情報のフレーム位置はそこから読む
+            LogIndex index = null;
+            LogArchiveReader.Entry indexEntry = null;
+            for (int i = 0; i < entries.size(); i++) {
+                if (new File(entries.get(i).getName()).getName().equals(LogIndex.FILE_NAME))
+                    indexEntry = entries.get(i);
+            }
+            if (indexEntry != null)
+                index = _readIndex(archive.getInputStream(indexEntry));
+            for (int i = 0; i < entries.size(); i++) {
+                LogArchiveReader.Entry e = entries.get(i);
+                String entry = e.getName();
                 if(!(new File(entry)).isAbsolute()){
                     entry = tmpdir + File.separator + entry;
                 }
 
-                FileOutputStream out = new FileOutputStream(entry);
-                while (zip.available() == 1) {
-                    int readSize = zip.read(buffer, 0, 1024);
-                    if (readSize < 0)
-                        break;
-                    out.write(buffer, 0, readSize);
+                boolean isPrj = entry.equals(prjFile);
+                boolean isCollisionDat = entry.contains(new File(collisionLogDatPath_).getName());
+                boolean isCollision = !isCollisionDat && entry.contains(new File(collisionLogPath_).getName());
+                boolean isIndex = e == indexEntry;
+                if (isPrj || (isCollision && index == null) || (isIndex && !e.isStored())) {
+                    // 小さいのでその場で展開する
+                    archive.extractTo(e, new File(entry));
+                } else if (e.isStored()) {
+                    new File(entry).delete();
+                    inPlace_.put(entry, e);
+                } else {
+                    extracting_.put(entry, archive.extract(e, new File(entry)));
                 }
-                out.close();
 
-                if (entry.equals(prjFile) ||
-                    entry.contains(new File(collisionLogDatPath_).getName()) ) {
+                if (isPrj || isCollisionDat || isIndex) {
                     continue;
                 }
 
-                DataInputStream in;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(archive.getInputStream(e)));
+                try {
+                    _readEntryHeader(in, isCollision, e.getSize(), index);
+                } catch (LogFileFormatException ex) {
+                    _closeArchive();
+                    throw ex;
+                } finally {
+                    in.close();
+                }
+            }
+            _linkRateGroups();
+            if (index != null)
+                _acceptIndex(index);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            _closeArchive();
+            throw new FileOpenFailException();
+        }
+    }
 
-                if (entry.contains(new File(collisionLogPath_).getName())) {
-                    try {
-                        in = new DataInputStream(new FileInputStream(entry));
-                        collisionLog_ = new CollisionLogHeader();
-                        collisionLog_.input(in);
-                        in.close();
-                    } catch (LogFileFormatException ex) {
-                        zip.close();
-                        throw ex;
-                    }
-                } else {
-                    try {
-                        in = new DataInputStream(new FileInputStream(entry));
-                        LogHeader header = new LogHeader();
-                        header.input(in);
-                        header_.put(header.objectName_, header);
-                        in.close();
-                        if (header.getVersion() <= 100) {
-                            File file = new File(entry);
-                            header.setFileSize(file.length());
-                        }
-                        header.calcUnitSize();
-                        _makeIndexMapMap(header);
-                    } catch (LogFileFormatException ex) {
-                        zip.close();
-                        throw ex;
-                    }
+    /**
+     * コンテナ(LogContainer)から読み込む。各エントリは一時ファイルへ書き出してから開く。
+     */
+    private void _loadContainer(File dir, String prjFile) throws FileOpenFailException, LogFileFormatException {
+        try {
+            LogContainer container = LogContainer.open(dir);
+            // 同じコンテナへの保存は増分だけになる
+            session_ = container.getSession();
+            List<LogContainer.Entry> entries = container.getEntries();
+            LogIndex index = null;
+            for (int i = 0; i < entries.size(); i++) {
+                LogContainer.Entry e = entries.get(i);
+                if (e.getName().equals(LogIndex.FILE_NAME)) {
+                    File file = new File(_getIndexPath());
+                    container.extractTo(e, file);
+                    index = _readIndex(new FileInputStream(file));
+                }
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                LogContainer.Entry e = entries.get(i);
+                String entry = e.getName();
+                if(!(new File(entry)).isAbsolute()){
+                    entry = tmpdir + File.separator + entry;
+                }
+                boolean isPrj = entry.equals(prjFile);
+                boolean isCollisionDat = entry.contains(new File(collisionLogDatPath_).getName());
+                boolean isCollision = !isCollisionDat && entry.contains(new File(collisionLogPath_).getName());
+                if (e.getName().equals(LogIndex.FILE_NAME))
+                    continue;
+                container.extractTo(e, new File(entry));
+                if (isPrj || isCollisionDat) {
+                    continue;
+                }
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+                try {
+                    _readEntryHeader(in, isCollision, e.getSize(), index);
+                } finally {
+                    in.close();
                 }
             }
-            zip.close();
+            _linkRateGroups();
+            if (index != null)
+                _acceptIndex(index);
+            container_ = container;
         } catch (IOException ex) {
             ex.printStackTrace();
             throw new FileOpenFailException();
         }
     }
 
+    /**
+     * 読み込んだエントリの先頭からログのヘッダを解析する
+     */
+    private void _readEntryHeader(DataInputStream in, boolean isCollision, long size, LogIndex index) throws LogFileFormatException, IOException {
+        if (isCollision) {
+            collisionLog_ = new CollisionLogHeader();
+            collisionLog_.inputFixedPart(in);
+            // 索引にフレーム位置があれば、読み出し時に必要な分だけ読む
+            collisionFromIndex_ = index != null && index.getNumPositions() == collisionLog_.numRecords_ + 1;
+            if (!collisionFromIndex_)
+                collisionLog_.inputPositions(in);
+        } else {
+            LogHeader header = new LogHeader();
+            header.input(in);
+            header_.put(header.objectName_, header);
+            // 以前のログの列指向ファイル・要約ファイルは使わない
+            new File(getColumnFilePath(header.objectName_)).delete();
+            LogSummaryFile.delete(getSummaryFilePath(header.objectName_));
+            if (header.getVersion() <= 100) {
+                header.setFileSize(size);
+            }
+            header.calcUnitSize();
+            _makeIndexMapMap(header);
+        }
+    }
+
+    /**
+     * バックグラウンドでの展開が全て終わるまで待つ
+     */
+    private void _awaitExtraction() throws IOException {
+        for (Enumeration<LogArchiveReader.Extraction> e = extracting_.elements(); e.hasMoreElements();)
+            e.nextElement().awaitAll();
+    }
+
+    /**
+     * load()で開いたアーカイブを閉じる。展開中のエントリは中止する。
+     */
+    private void _closeArchive() {
+        if (archive_ != null) {
+            try {
+                archive_.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            archive_ = null;
+        }
+        inPlace_.clear();
+        extracting_.clear();
+    }
+
+    /**
+     * アーカイブ内を直接読んでいるエントリを一時ファイルへ展開し、アーカイブを閉じる。
+     * 読み込み中のアーカイブ自体に上書き保存する場合に使う。
+     */
+    private void _detachArchive() throws IOException {
+        _awaitExtraction();
+        boolean reading = readFile_ != null;
+        boolean collisionReading = collisionDatIn_ != null;
+        if (reading)
+            closeAsRead();
+        if (collisionReading)
+            closeCollisionLogAsRead();
+        for (Enumeration<String> e = inPlace_.keys(); e.hasMoreElements();) {
+            String path = e.nextElement();
+            archive_.extractTo(inPlace_.get(path), new File(path));
+        }
+        _closeArchive();
+        try {
+            if (reading)
+                openAsRead();
+            if (collisionReading)
+                openCollisionLogAsRead();
+        } catch (FileOpenFailException ex) {
+            throw new IOException(ex.getMessage());
+        }
+    }
+
     public void saveCSV(String fileName, String ObjectName) throws FileOpenFailException {
+        saveCSV(fileName, ObjectName, null, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * 1オブジェクト分のログをCSVファイルに出力する
+     *
+     * @param fileName   出力ファイル名
+     * @param objectName オブジェクト名
+     * @param columns    出力する列名(ヘッダ行の名前。配列名だけを指定した場合は全要素)。
+     *                   nullの場合は全ての列。時刻の列は常に先頭に出力する
+     * @param startTime  出力する範囲の開始時刻[s]
+     * @param endTime    出力する範囲の終了時刻[s]
+     */
+    public void saveCSV(String fileName, String objectName, String[] columns, double startTime, double endTime) throws FileOpenFailException {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        if (header == null) {
+            throw new FileOpenFailException();
+        }
         try {
-            LogHeader header = (LogHeader) header_.get(ObjectName);
-            if (header == null) {
-                throw new FileOpenFailException();
+            _awaitExtraction();
+            _saveCSV(new File(fileName), header, columns, startTime, endTime);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            throw new FileOpenFailException();
+        }
+    }
+
+    /**
+     * 複数のオブジェクトのログを並列にCSVファイルへ出力する。
+     * 出力ファイルはdirName/オブジェクト名.csv。間引いて記録したチャンネルは
+     * dirName/オブジェクト名@間引き率.csvに出力する。
+     *
+     * @param dirName     出力ディレクトリ
+     * @param objectNames オブジェクト名
+     * @see #saveCSV(String, String, String[], double, double)
+     */
+    public void saveCSV(String dirName, String[] objectNames, final String[] columns, final double startTime, final double endTime) throws FileOpenFailException {
+        try {
+            _awaitExtraction();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            throw new FileOpenFailException();
+        }
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < objectNames.length; i++) {
+            names.add(objectNames[i]);
+            LogHeader header = (LogHeader) header_.get(objectNames[i]);
+            if (header != null && header.groups_ != null) {
+                for (int g = 0; g < header.groups_.length; g++)
+                    names.add(header.groups_[g].objectName_);
+            }
+        }
+        objectNames = names.toArray(new String[names.size()]);
+        int nThreads = Math.max(1, Math.min(objectNames.length, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        boolean failed = false;
+        try {
+            for (int i = 0; i < objectNames.length; i++) {
+                final LogHeader header = (LogHeader) header_.get(objectNames[i]);
+                if (header == null) {
+                    failed = true;
+                    continue;
+                }
+                final File file = new File(dirName, objectNames[i] + ".csv"); //$NON-NLS-1$
+                results.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        _saveCSV(file, header, columns, startTime, endTime);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException ex) {
+                    ex.getCause().printStackTrace();
+                    failed = true;
+                }
             }
-            final long nLine = (new File(getTempFilePath(header.objectName_)).length() - header.headerSize_) / header.recordSize_;
-            DataInputStream in = new DataInputStream(new FileInputStream(getTempFilePath(header.objectName_)));
-            PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        } catch (InterruptedException ex) {
+            ex.printStackTrace();
+            failed = true;
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failed)
+            throw new FileOpenFailException();
+    }
 
-            out.println("Software Version, " + String.valueOf(header.version_[0]) + "." + String.valueOf(header.version_[1]) + "." + String.valueOf(header.version_[2]) + "." + String.valueOf(header.version_[3]));
-            out.println("Header Size[byte], " + header.headerSize_);
-            out.println("Simulation Total Time[s], " + (double) header.totalTime_ / 1000000.0);
-            out.println("Simulation Start Time[s], " + (double) header.startTime_ / 1000000.0);
-            out.println("Simulation End Time[s], " + (nLine > 0 ? get(ObjectName, nLine - 1)[0] : 0 ));
-            out.println("TimeStep[s], " + (double) header.timeStep_ / 1000000.0);
+    private void _saveCSV(File file, LogHeader header, String[] columns, double startTime, double endTime) throws IOException {
+        _spillMemory();
+        final long nLine = header.encoding_ == LogBlockFile.ENCODING_RAW && !inPlace_.containsKey(getTempFilePath(header.objectName_)) ?
+            (new File(getTempFilePath(header.objectName_)).length() - header.headerSize_) / header.recordSize_ : header.numRecords_;
+        int numItems = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+        String[] names = _getColumnNames(header);
+        int[] items = _selectColumns(names, columns);
+        LogRecordReader in = _openRecordReader(header);
+        LogCSVWriter out = null;
+        try {
+            float[] record = new float[numItems];
+            out = new LogCSVWriter(file);
+
+            out.print("Software Version, " + String.valueOf(header.version_[0]) + "." + String.valueOf(header.version_[1]) + "." + String.valueOf(header.version_[2]) + "." + String.valueOf(header.version_[3]));
+            out.println();
+            out.print("Header Size[byte], " + header.headerSize_);
+            out.println();
+            out.print("Simulation Total Time[s], " + (double) header.totalTime_ / 1000000.0);
+            out.println();
+            out.print("Simulation Start Time[s], " + (double) header.startTime_ / 1000000.0);
+            out.println();
+            if (nLine > 0)
+                in.readRecord(nLine - 1, record, 0);
+            out.print("Simulation End Time[s], " + (nLine > 0 ? record[0] : 0 ));
+            out.println();
+            out.print("TimeStep[s], " + (double) header.timeStep_ / 1000000.0);
+            out.println();
 
             String methodStr = int2StrIntegrationMethod(header.method_);
             if(!methodStr.equals("")){
-                out.println("Integration Method, " + methodStr);
+                out.print("Integration Method, " + methodStr);
             } else {
-                out.println("Integration Method, " + header.method_);
+                out.print("Integration Method, " + header.method_);
             }
-            out.println("Record Size[byte], " + header.recordSize_);
+            out.println();
+            out.print("Record Size[byte], " + header.recordSize_);
+            out.println();
 
-            for (int i = 0; i < header.dataFormat_.length / 2; i++) {
-                String fmt = header.dataFormat_[i * 2 + 1];
-                int start = fmt.indexOf('[') + 1;
-                int end = fmt.indexOf(']');
-                int len = 1;
-                if (start > 0)
-                    len = Integer.parseInt(fmt.substring(start, end));
-                if (len == 1) {
-                    out.print(header.dataFormat_[i * 2]);
-                    if (i != header.dataFormat_.length / 2 - 1)
-                        out.print(",");
-                } else {
-                    for (int j = 0; j < len; j++) {
-                        out.print(header.dataFormat_[i * 2] + "[" + j + "]");
-                        if (!(i == header.dataFormat_.length / 2 - 1 && j == len - 1))
-                            out.print(",");
-                    }
-                }
+            for (int i = 0; i < items.length; i++) {
+                if (i > 0)
+                    out.print(',');
+                out.print(names[items[i]]);
             }
             out.println();
-            in.skip(header.headerSize_);
-            for (long i = 0; i < nLine; i++) {
-                for (long j = 0; j < header.recordSize_ / LogHeader.FLOAT_DATA_SIZE - 1; j++) {
-                    out.print(in.readFloat() + ",");
+
+            // 時刻の範囲をレコード番号の範囲に変換する(時刻は単調増加)
+            long first = _searchRecord(in, nLine, startTime, false, record);
+            long last = _searchRecord(in, nLine, endTime, true, record);
+
+            int batch = Math.max(1, CSV_BATCH_SIZE / header.recordSize_);
+            float[] rows = new float[batch * numItems];
+            for (long i = first; i < last; i += batch) {
+                int n = (int)Math.min(batch, last - i);
+                in.readRecords(i, n, rows, 0);
+                for (int j = 0, base = 0; j < n; j++, base += numItems) {
+                    out.print(rows[base + items[0]]);
+                    for (int k = 1; k < items.length; k++) {
+                        out.print(',');
+                        out.print(rows[base + items[k]]);
+                    }
+                    out.println();
                 }
-                // 最後の一個
-                out.println(in.readFloat());
             }
-            out.close();
+        } finally {
+            if (out != null)
+                out.close();
             in.close();
+        }
+    }
 
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            throw new FileOpenFailException();
+    /**
+     * CSVのヘッダ行に出力する列名(配列は要素毎に"名前[添字]")
+     */
+    private String[] _getColumnNames(LogHeader header) {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < header.dataFormat_.length / 2; i++) {
+            String fmt = header.dataFormat_[i * 2 + 1];
+            if (fmt.indexOf(GROUP_SEPARATOR) >= 0)
+                continue;   // 別のオブジェクトに記録するチャンネル
+            int start = fmt.indexOf('[') + 1;
+            int end = fmt.indexOf(']');
+            int len = 1;
+            if (start > 0)
+                len = Integer.parseInt(fmt.substring(start, end));
+            if (len == 1) {
+                names.add(header.dataFormat_[i * 2]);
+            } else {
+                for (int j = 0; j < len; j++)
+                    names.add(header.dataFormat_[i * 2] + "[" + j + "]");
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * 出力する列の番号を返す。先頭は常に時刻の列。
+     */
+    private int[] _selectColumns(String[] names, String[] columns) {
+        if (columns == null) {
+            int[] items = new int[names.length];
+            for (int i = 0; i < items.length; i++)
+                items[i] = i;
+            return items;
+        }
+        List<Integer> items = new ArrayList<Integer>();
+        items.add(0);
+        for (int i = 1; i < names.length; i++) {
+            int bracket = names[i].indexOf('[');
+            String base = bracket > 0 ? names[i].substring(0, bracket) : names[i];
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j].equals(names[i]) || columns[j].equals(base)) {
+                    items.add(i);
+                    break;
+                }
+            }
+        }
+        int[] ret = new int[items.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = items.get(i);
+        return ret;
+    }
+
+    /**
+     * 時刻がtime以上(afterがtrueの場合はtimeより後)の最初のレコード番号を二分探索で求める
+     */
+    private long _searchRecord(LogRecordReader in, long numRecords, double time, boolean after, float[] record) throws IOException {
+        if (time == Double.NEGATIVE_INFINITY)
+            return 0;
+        if (time == Double.POSITIVE_INFINITY)
+            return numRecords;
+        long lo = 0, hi = numRecords;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            in.readRecord(mid, record, 0);
+            if (after ? record[0] <= time : record[0] < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * getColumns()で読み出すチャンネル名の一覧を返す。
+     * 配列のチャンネルは"ノード.属性"だけを指定すると全要素("ノード.属性.添字")に展開する。
+     *
+     * @param objectName オブジェクト名
+     * @param channels   チャンネル名("time", "ノード.属性", "ノード.属性.添字")
+     * @return 展開したチャンネル名。オブジェクトや見つからないチャンネルがある場合はnull
+     */
+    public String[] getColumnNames(String objectName, String[] channels) {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        Map<String, Integer> indexMap = indexMapMap_.get(objectName);
+        if (header == null || indexMap == null)
+            return null;
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < channels.length; i++) {
+            if (indexMap.containsKey(channels[i])) {
+                names.add(channels[i]);
+                continue;
+            }
+            int width = -1;
+            for (int j = 0; j < header.dataFormat_.length / 2; j++) {
+                if (header.dataFormat_[j * 2].equals(channels[i]))
+                    width = header.getUnitSize(j);
+            }
+            if (width <= 0)
+                return null;
+            for (int j = 0; j < width; j++)
+                names.add(channels[i] + "." + j); //$NON-NLS-1$
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * 指定したチャンネルを列毎にまとめて読み出す。レコード毎にget()するよりも速い。
+     * 間引いて記録したチャンネルは各レコードの時点で記録されている値を、記録しないチャンネルと
+     * 範囲外のレコードはNaNを返す。
+     *
+     * @param objectName オブジェクト名
+     * @param channels   チャンネル名(getColumnNames()と同じ指定)
+     * @param first      先頭のレコード番号
+     * @param count      レコード数
+     * @return [列][レコード]。列の並びはgetColumnNames()の順。オブジェクトやチャンネルが無い場合、読み出し中でない場合はnull
+     */
+    public double[][] getColumns(String objectName, String[] channels, long first, int count) throws IOException {
+        String[] names = getColumnNames(objectName, channels);
+        if (names == null || readFile_ == null || readFile_.get(objectName) == null)
+            return null;
+        Map<String, Integer> indexMap = indexMapMap_.get(objectName);
+        double[][] data = new double[names.length][count];
+        // 記録先のオブジェクト毎にまとめて読み出す
+        Map<String, List<Integer>> columns = new LinkedHashMap<String, List<Integer>>();
+        Map<String, List<Integer>> items = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < names.length; i++) {
+            int[] stored = new int[] { indexMap.get(names[i]).intValue() };
+            String obj = _getStorageObject(objectName, stored);
+            if (obj == null) {
+                Arrays.fill(data[i], Double.NaN);
+                continue;
+            }
+            if (!columns.containsKey(obj)) {
+                columns.put(obj, new ArrayList<Integer>());
+                items.put(obj, new ArrayList<Integer>());
+            }
+            columns.get(obj).add(i);
+            items.get(obj).add(stored[0]);
         }
+        for (Map.Entry<String, List<Integer>> e : columns.entrySet()) {
+            List<Integer> cols = e.getValue();
+            List<Integer> its = items.get(e.getKey());
+            int[] itemIndex = new int[cols.size()];
+            double[][] dst = new double[cols.size()][];
+            int[] dataPos = new int[cols.size()];
+            int[] dsSize = new int[cols.size()];
+            for (int k = 0; k < itemIndex.length; k++) {
+                itemIndex[k] = its.get(k);
+                dst[k] = data[cols.get(k)];
+                dsSize[k] = count;
+            }
+            _getData(e.getKey(), first, count, itemIndex, dst, dataPos, dsSize);
+        }
+        return data;
+    }
+
+    /**
+     * 時刻の範囲[startTime, endTime]のレコードについて、指定したチャンネルを列毎にまとめて読み出す
+     *
+     * @see #getColumns(String, String[], long, int)
+     */
+    public double[][] getColumns(String objectName, String[] channels, double startTime, double endTime) throws IOException {
+        long[] range = _searchRecordRange(objectName, startTime, endTime);
+        if (range == null)
+            return null;
+        return getColumns(objectName, channels, range[0], (int)Math.max(0, range[1] - range[0]));
+    }
+
+    /**
+     * 時刻の範囲[startTime, endTime]のレコードをchunkSizeレコード毎に列形式で読み出す。
+     * 範囲全体がメモリに入らない場合に使う。
+     *
+     * @return 読み出し中でない場合はnull
+     * @see #getColumns(String, String[], long, int)
+     */
+    public LogColumnIterator iterateColumns(String objectName, String[] channels, double startTime, double endTime, int chunkSize) throws IOException {
+        long[] range = _searchRecordRange(objectName, startTime, endTime);
+        if (range == null)
+            return null;
+        return new LogColumnIterator(this, objectName, channels, range[0], range[1], chunkSize);
+    }
+
+    /**
+     * 時刻の範囲[startTime, endTime]をレコード番号の範囲{先頭, 最後+1}に変換する
+     */
+    private long[] _searchRecordRange(String objectName, double startTime, double endTime) throws IOException {
+        LogRecordReader in = readFile_ != null ? readFile_.get(objectName) : null;
+        LogHeader header = (LogHeader) header_.get(objectName);
+        if (in == null || header == null)
+            return null;
+        float[] record = new float[header.recordSize_ / LogHeader.FLOAT_DATA_SIZE];
+        long first = _searchRecord(in, header.numRecords_, startTime, false, record);
+        long last = _searchRecord(in, header.numRecords_, endTime, true, record);
+        return new long[] { first, last };
     }
 
     public boolean existRecord(int recordNum) {
         Enumeration elements = header_.elements();
         while (elements.hasMoreElements()) {
             LogHeader header = (LogHeader) elements.nextElement();
-            if (header.numRecords_ <= recordNum) {
+            if (header.decimation_ == 1 && header.numRecords_ <= recordNum) {
                 // System.out.println("object=" + header.objectName_ + "
                 // numRecords=" + header.numRecords_);
                 return false;
@@ -694,13 +1896,63 @@ public class LogManager {
         }
     }
 
+    /**
+     * ログするオブジェクトの数(間引いて記録するチャンネルのオブジェクトは除く)
+     */
     public int getLogObjectNum() {
-        return header_.size();
+        int n = 0;
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            if (((LogHeader) elements.nextElement()).decimation_ == 1)
+                n++;
+        }
+        return n;
     }
 
+    /**
+     * put()・get()でやり取りする1レコード当りのアイテム数
+     */
     public int getDataLength(String objectName) {
         LogHeader header = (LogHeader) header_.get(objectName);
-        return header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+        return header.fullSize_;
+    }
+
+    //--------------------------------------------------------------------
+    // LogComparatorから使うメソッド(間引いて記録したチャンネルのオブジェクトも個別に扱う)
+
+    /**
+     * 記録した列の名前(先頭は時刻)。オブジェクトが無い場合はnull
+     */
+    String[] getStoredColumnNames(String objectName) {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        return header != null ? _getColumnNames(header) : null;
+    }
+
+    /**
+     * 記録したレコード数
+     */
+    int getNumRecords(String objectName) {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        return header != null ? header.numRecords_ : 0;
+    }
+
+    /**
+     * レコードを記録した間隔[s]
+     */
+    double getRecordInterval(String objectName) {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        return header.timeStep_ * header.decimation_ / 1000000.0;
+    }
+
+    /**
+     * 記録したレコードを読み出すためにログファイルを開く。呼び出し側で閉じること。
+     * バックグラウンドで展開中の場合は展開が終わるまで待つ。
+     */
+    LogRecordReader openRecordReader(String objectName) throws IOException {
+        LogHeader header = (LogHeader) header_.get(objectName);
+        LogArchiveReader.Extraction x = extracting_.get(getTempFilePath(header.objectName_));
+        if (x != null)
+            x.awaitAll();
+        return _openRecordReader(header);
     }
 
     /**
@@ -739,6 +1991,14 @@ public class LogManager {
             // System.out.println(i+":"+obj+":"+di.node+":"+di.attribute+" ::
             // "+indexMapMap_);
             Object ind = ((Map) indexMapMap_.get(obj)).get(di.node + "." + di.attribute + (di.index >= 0 ? "." + di.index : ""));
+            // 間引いて記録するチャンネルは記録先のオブジェクトから読み出す
+            int[] stored = new int[] { ((Integer) ind).intValue() };
+            obj = _getStorageObject(obj, stored);
+            if (obj == null) {
+                Arrays.fill(ds.getData(), Double.NaN);
+                continue;
+            }
+            ind = new Integer(stored[0]);
 
             // データ系列リスト取得
             ArrayList<DataSeries> dsList = dsListMap.get(obj);
@@ -770,10 +2030,6 @@ public class LogManager {
         int numObjs = indexListMap.size(); // オブジェクト数取得
         for (int i = 0; i < numObjs; i++) { // 全オブジェクトループ
             String obj = (String) objList.get(i); // オブジェクト名
-            LogHeader header = (LogHeader) header_.get(obj); // ヘッダ
-            int itemsPerRec = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE; // レコードあたりのアイテム数
-            double[] record = new double[itemsPerRec]; // レコードバッファ
-            double[] data; // データバッファ
             long recNo = origin + offset; // レコード番号
             // リスト
             ArrayList dsList = (ArrayList) dsListMap.get(obj); // データ系列リスト
@@ -781,73 +2037,37 @@ public class LogManager {
             ArrayList posList = (ArrayList) posListMap.get(obj);// 配列書込位置リスト
             ArrayList sizeList = (ArrayList) sizeListMap.get(obj); // 配列長リスト
             int itemCount = dsList.size(); // アイテム数
+            double[][] data = new double[itemCount][]; // データバッファ
+            int[] itemIndex = new int[itemCount]; // 添字配列
             int[] posArray = new int[itemCount]; // 配列書込位置配列
-            // 配列書込位置リストを配列にコピー
+            int[] sizeArray = new int[itemCount]; // 配列長配列
             for (int j = 0; j < itemCount; j++) {
+                data[j] = ((DataSeries) dsList.get(j)).getData();
+                itemIndex[j] = ((Integer) indList.get(j)).intValue();
                 posArray[j] = ((Integer) posList.get(j)).intValue();
+                sizeArray[j] = ((Integer) sizeList.get(j)).intValue();
             }
-            // ファイル
-            RandomAccessFile file = (RandomAccessFile) readFile_.get(obj);
-            // System.out.println("obj=" + obj);
-            synchronized (file) {
-                try {
-                    // 開始レコードが先頭レコードより前か後ろか
-                    if (recNo < 0) {
-                        // 先頭レコードまでシーク
-                        file.seek((long) header.headerSize_);
-                    } else if (recNo < header.numRecords_) {
-                        // 当該レコードまでシーク
-                        file.seek((long) header.headerSize_ + header.recordSize_ * recNo);
-                    }
-
-                    // レコード数分ループ
-                    for (int rec = 0; rec < count; rec++) {
-                        // レコード読み出し
-
-                        // レコード範囲外?
-                        if (recNo < 0 || recNo >= header.numRecords_) {
-                            // System.out.println("record = NaN, numRecords=" +
-                            // header.numRecords_);
-                            for (int k = 0; k < itemsPerRec; k++) {
-                                record[k] = Double.NaN;
-                            }
-                        } else {
-                            for (int k = 0; k < itemsPerRec; k++) {
-                                record[k] = file.readFloat();
-                            }
-                        }
-
-                        // アイテム数分ループ
-                        for (int item = 0; item < itemCount; item++) {
-                            // data = ((DataSeries)dsList.get(item)).getData();
-                            DataSeries ds = (DataSeries) dsList.get(item);
-                            data = ds.getData();
-                            data[posArray[item]] = record[((Integer) indList.get(item)).intValue()];
-                            if (posArray[item] < (((Integer) sizeList.get(item)).intValue() - 1)) {
-                                posArray[item]++;
-                            } else {
-                                posArray[item] = 0;
-                            }
-                        }
-                        recNo++;
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
-            }
+            _getData(obj, recNo, count, itemIndex, data, posArray, sizeArray);
         }
     }
     
     private HashMap<String, ArrayList<DataSeries>> dsListMap_ = new HashMap<String, ArrayList<DataSeries>>(); // データ系列リストのマップ
     private HashMap<String, ArrayList<Integer>> indexListMap_ = new HashMap<String, ArrayList<Integer>>();
-    private int[] dataPos_ = null;
-	private double[][] data_ = null;
-	private int[] dsSize_ = null;
+    private HashMap<String, int[]> itemIndexMap_ = new HashMap<String, int[]>();   // オブジェクト毎の添字配列
+    private HashMap<String, double[][]> dataMap_ = new HashMap<String, double[][]>(); // オブジェクト毎のデータ配列
+    private HashMap<String, int[]> dsSizeMap_ = new HashMap<String, int[]>();      // オブジェクト毎の配列長
+    private HashMap<String, double[][]> minMap_ = new HashMap<String, double[][]>();  // オブジェクト毎の最小値配列(要素はnull可)
+    private HashMap<String, double[][]> maxMap_ = new HashMap<String, double[][]>();  // オブジェクト毎の最大値配列(要素はnull可)
     public  void initGetData(DataModel[] dataModelArray){
     	if(indexMapMap_ == null || indexMapMap_.isEmpty())
     		return;
     	dsListMap_.clear();
     	indexListMap_.clear();
+    	itemIndexMap_.clear();
+    	dataMap_.clear();
+    	dsSizeMap_.clear();
+    	minMap_.clear();
+    	maxMap_.clear();
     	for (int i = 0; i < dataModelArray.length; i++) { // アイテム数分ループ
 	        DataItem di = dataModelArray[i].dataItem; // データアイテム
 	        DataSeries ds = dataModelArray[i].dataSeries; // データ系列
@@ -859,6 +2079,14 @@ public class LogManager {
 	        if(attribute.equals("attitude"))
 	        	attribute = "rotation";
 	        Integer ind = ((Map<String, Integer>) indexMapMap_.get(obj)).get(di.node + "." + attribute + (di.index >= 0 ? "." + di.index : ""));
+	        // 間引いて記録するチャンネルは記録先のオブジェクトから読み出す
+	        int[] stored = new int[] { ind.intValue() };
+	        obj = _getStorageObject(obj, stored);
+	        if (obj == null) {
+	            Arrays.fill(ds.getData(), Double.NaN);
+	            continue;
+	        }
+	        ind = new Integer(stored[0]);
 
 	        ArrayList<DataSeries> dsList = dsListMap_.get(obj);
 	        ArrayList<Integer> indexList = indexListMap_.get(obj);
@@ -873,66 +2101,389 @@ public class LogManager {
     	}
     	
     	Iterator<String> it = dsListMap_.keySet().iterator();
-    	while (it.hasNext()) {
+    	while (it.hasNext()) {
+        	String obj = it.next();
+        	ArrayList<DataSeries> dsList = dsListMap_.get(obj);
+        	ArrayList<Integer> indexList = indexListMap_.get(obj);
+        	int dsNum = dsList.size();
+        	int[] itemIndex = new int[dsNum];
+        	double[][] data = new double[dsNum][];
+        	int[] dsSize = new int[dsNum];
+        	double[][] min = new double[dsNum][];
+        	double[][] max = new double[dsNum][];
+        	for(int i=0; i<dsNum; i++){
+        		DataSeries ds = dsList.get(i);
+        		itemIndex[i] = indexList.get(i).intValue();
+        		data[i] = ds.getData();
+        		dsSize[i] = ds.getSize(); // データ系列サイズ取得
+        		min[i] = ds.getMin();
+        		max[i] = ds.getMax();
+        	}
+        	itemIndexMap_.put(obj, itemIndex);
+        	dataMap_.put(obj, data);
+        	dsSizeMap_.put(obj, dsSize);
+        	minMap_.put(obj, min);
+        	maxMap_.put(obj, max);
+    	}
+    }
+    
+    /**
+     * objの全チャンネル中のindex[0]番目のアイテムを記録しているオブジェクト名を返し、
+     * index[0]をそのオブジェクトのレコード中の添字に置き換える。記録しないアイテムはnullを返す。
+     */
+    private String _getStorageObject(String obj, int[] index) {
+        LogHeader header = (LogHeader) header_.get(obj);
+        if (header == null || header.columnObject_ == null)
+            return obj;
+        LogHeader storage = header.columnObject_[index[0]];
+        if (storage == null)
+            return null;
+        index[0] = header.columnIndex_[index[0]];
+        return storage.objectName_;
+    }
+
+    /**
+     * 間引いて記録するオブジェクトの所有者(オブジェクト名@間引き率のオブジェクト名)を返す
+     */
+    private LogHeader _getOwner(LogHeader header) {
+        int sep = header.objectName_.lastIndexOf(GROUP_SEPARATOR);
+        return sep > 0 ? (LogHeader) header_.get(header.objectName_.substring(0, sep)) : null;
+    }
+
+    public void getData(long origin, int offset, int count){
+    	if (readFile_ == null)
+    		return;
+    	Iterator<String> it = dsListMap_.keySet().iterator();
+        while (it.hasNext()) {
         	String obj = it.next();
         	ArrayList<DataSeries> dsList = dsListMap_.get(obj);
+        	int[] dsSize = dsSizeMap_.get(obj);
         	int dsNum = dsList.size();
-        	dataPos_ = new int[dsNum];
-        	data_ = new double[dsNum][];
-        	dsSize_ = new int[dsNum];
+        	int[] dataPos = new int[dsNum];
         	for(int i=0; i<dsNum; i++){
         		DataSeries ds = dsList.get(i);
-        		int size = ds.getSize(); // データ系列サイズ取得
-        		data_[i] = ds.getData();
-        		dsSize_[i] = size;
+        		dataPos[i] = (ds.getHeadPos() + offset) % dsSize[i]; // 初期書込位置決定
         	}
-    	}
+        	_getData(obj, origin+offset, count, itemIndexMap_.get(obj), dataMap_.get(obj), dataPos, dsSize);
+        }
     }
     
-    public void getData(long origin, int offset, int count){
+    /**
+     * strideレコード毎の区間の平均値をデータ系列に、最小値・最大値を
+     * データ系列の最小値・最大値配列(DataSeries.setRangeEnabled())に読み出す。
+     * origin, offset, countは区間単位で指定する。
+     * 
+     * @param stride 1またはgetSummaryStride()が返す値。1の場合はgetData(origin, offset, count)と同じ。
+     */
+    public void getData(long origin, int offset, int count, int stride){
+    	if (stride <= 1) {
+    		getData(origin, offset, count);
+    		return;
+    	}
+    	if (readFile_ == null)
+    		return;
+    	int level = 0;
+    	while (LogSummaryFile.factor(level) < stride)
+    		level++;
     	Iterator<String> it = dsListMap_.keySet().iterator();
         while (it.hasNext()) {
         	String obj = it.next();
         	ArrayList<DataSeries> dsList = dsListMap_.get(obj);
+        	int[] dsSize = dsSizeMap_.get(obj);
         	int dsNum = dsList.size();
+        	int[] dataPos = new int[dsNum];
         	for(int i=0; i<dsNum; i++){
         		DataSeries ds = dsList.get(i);
-        		int pos = (ds.getHeadPos() + offset) % dsSize_[i]; // 初期書込位置決定
-        		dataPos_[i] = pos;
+        		dataPos[i] = (ds.getHeadPos() + offset) % dsSize[i]; // 初期書込位置決定
         	}
-        	_getData(obj, origin+offset, count, indexListMap_.get(obj).toArray(new Integer[0]), data_, dataPos_, dsSize_);
+        	_getSummaryData(obj, level, origin+offset, count, itemIndexMap_.get(obj), dataMap_.get(obj), minMap_.get(obj), maxMap_.get(obj), dataPos, dsSize);
         }
     }
-    
-    private void _getData(String obj, long recNo, int count, Integer[] itemIndex, double[][] data, int[] dataPos, int[] dsSize){
+
+    /**
+     * level段目のbucket番目からcount区間分、itemIndexで指定した要素の平均値をdataの、
+     * 最小値・最大値をmin, maxのリングバッファへ読み出す。範囲外の区間にはNaNを入れる。
+     */
+    private void _getSummaryData(String obj, int level, long bucket, int count, int[] itemIndex, double[][] data, double[][] min, double[][] max, int[] dataPos, int[] dsSize){
+    	LogHeader header = (LogHeader) header_.get(obj); // ヘッダ
+        LogRecordReader file = readFile_.get(obj);
+        if (header == null || file == null)
+            return;
+        long f = LogSummaryFile.factor(level);
+        if (header.decimation_ > 1) {
+            _getDecimatedSummaryData(obj, header, file, f, bucket, count, itemIndex, data, min, max, dataPos, dsSize);
+            return;
+        }
+        long numRecords = header.numRecords_;
+        _awaitWritten(obj, header, Math.min((bucket + count) * f, numRecords));
+
+        // 要約ファイルから読み出せる区間数
+        LogSummaryFile.Reader sumIn = summaryRead_ != null ? summaryRead_.get(obj) : null;
+        int[] available = new int[LogSummaryFile.NUM_LEVELS];
+        if (sumIn != null) {
+            Hashtable<String, LogSummaryFile.Writer> summaryWrite = summaryWrite_;
+            LogSummaryFile.Writer sumOut = summaryWrite != null ? summaryWrite.get(obj) : null;
+            for (int l = 1; l <= available.length; l++) {
+                if (sumOut != null) {
+                    available[l - 1] = sumOut.getFlushedBuckets(l);
+                    sumOut.awaitWritten(l, available[l - 1]);
+                } else {
+                    available[l - 1] = (int)(sumIn.getNumRecords() / LogSummaryFile.factor(l));
+                }
+            }
+        }
+
+        int n = Math.min(count, READ_BLOCK_RECORDS);
+        float[][] bmin = new float[itemIndex.length][n];
+        float[][] bmax = new float[itemIndex.length][n];
+        float[][] bmean = new float[itemIndex.length][n];
+        try {
+            for (int done = 0; done < count; done += n) {
+                n = Math.min(count - done, n);
+                LogSummaryFile.read(sumIn, available, file, numRecords, level, bucket + done, n, itemIndex, bmin, bmax, bmean);
+                for (int item = 0; item < itemIndex.length; item++) {
+                    double[] d = data[item];
+                    double[] lo = min[item];
+                    double[] hi = max[item];
+                    int pos = dataPos[item];
+                    int size = dsSize[item];
+                    for (int k = 0; k < n; k++) {
+                        d[pos] = bmean[item][k];
+                        if (lo != null)
+                            lo[pos] = bmin[item][k];
+                        if (hi != null)
+                            hi[pos] = bmax[item][k];
+                        if (++pos >= size)
+                            pos = 0;
+                    }
+                    dataPos[item] = pos;
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * 間引いて記録したオブジェクトについて、各区間の先頭のレコードの時点で記録されている値を
+     * 平均値・最小値・最大値として読み出す。
+     */
+    private void _getDecimatedSummaryData(String obj, LogHeader header, LogRecordReader file, long f, long bucket, int count, int[] itemIndex, double[][] data, double[][] min, double[][] max, int[] dataPos, int[] dsSize){
+        LogHeader owner = _getOwner(header);
+        long d = header.decimation_;
+        long numRecords = owner != null ? owner.numRecords_ : (long)header.numRecords_ * d;
+        long numStored = header.numRecords_;
+        _awaitWritten(obj, header, numStored);
+        float[][] buf = new float[itemIndex.length][1];
+        try {
+            for (int k = 0; k < count; k++) {
+                long rec = (bucket + k) * f;
+                boolean valid = rec >= 0 && rec < numRecords && numStored > 0;
+                if (valid)
+                    file.readItems(Math.min(rec / d, numStored - 1), 1, itemIndex, buf);
+                for (int item = 0; item < itemIndex.length; item++) {
+                    int pos = dataPos[item];
+                    double v = valid ? buf[item][0] : Double.NaN;
+                    data[item][pos] = v;
+                    if (min[item] != null)
+                        min[item][pos] = v;
+                    if (max[item] != null)
+                        max[item][pos] = v;
+                    if (++pos >= dsSize[item])
+                        pos = 0;
+                    dataPos[item] = pos;
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * recNoからcountレコード分、itemIndexで指定した要素をdataのリングバッファへ読み出す。
+     * 範囲外のレコードにはNaNを入れる。間引いて記録したオブジェクトのrecNo, countは
+     * 所有者のレコード単位で、各レコードには直前に記録した値を入れる。
+     */
+    private void _getData(String obj, long recNo, int count, int[] itemIndex, double[][] data, int[] dataPos, int[] dsSize){
+    	LogHeader header = (LogHeader) header_.get(obj); // ヘッダ
+        if (header != null && header.decimation_ > 1) {
+            _getDecimatedData(obj, header, recNo, count, itemIndex, data, dataPos, dsSize);
+            return;
+        }
+        _readData(obj, recNo, count, itemIndex, data, dataPos, dsSize);
+    }
+
+    private void _getDecimatedData(String obj, LogHeader header, long recNo, int count, int[] itemIndex, double[][] data, int[] dataPos, int[] dsSize){
+        LogHeader owner = _getOwner(header);
+        long d = header.decimation_;
+        long numRecords = owner != null ? owner.numRecords_ : (long)header.numRecords_ * d;
+
+        long first = Math.max(recNo, 0);
+        long last = Math.min(recNo + count, numRecords);
+        int head = (int)Math.min(count, first - recNo);
+        int valid = (int)Math.max(0, last - first);
+        int tail = count - head - valid;
+
+        _fillNaN(head, data, dataPos, dsSize);
+        if (valid > 0) {
+            // 範囲を含む記録済みのレコードをまとめて読み出し、間を前の値で埋める
+            long g0 = first / d;
+            int n = (int)((last - 1) / d - g0 + 1);
+            double[][] buf = new double[itemIndex.length][n];
+            int[] bufPos = new int[itemIndex.length];
+            int[] bufSize = new int[itemIndex.length];
+            Arrays.fill(bufSize, n);
+            _readData(obj, g0, n, itemIndex, buf, bufPos, bufSize);
+            for (int item = 0; item < itemIndex.length; item++) {
+                double[] b = buf[item];
+                double[] dst = data[item];
+                int pos = dataPos[item];
+                int size = dsSize[item];
+                for (long k = first; k < last; k++) {
+                    dst[pos] = b[(int)(k / d - g0)];
+                    if (++pos >= size)
+                        pos = 0;
+                }
+                dataPos[item] = pos;
+            }
+        }
+        _fillNaN(tail, data, dataPos, dsSize);
+    }
+
+    private void _readData(String obj, long recNo, int count, int[] itemIndex, double[][] data, int[] dataPos, int[] dsSize){
     	LogHeader header = (LogHeader) header_.get(obj); // ヘッダ
-        int itemsPerRec = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE; // レコードあたりのアイテム数
-        double[] record = new double[itemsPerRec]; // レコードバッファ
-        RandomAccessFile file = (RandomAccessFile) readFile_.get(obj);
-	    synchronized (file) {
-	        try {
-	            // レコード数分ループ
-	            for (int rec = 0; rec < count; rec++) {
-	                // アイテム数分ループ
-	                for (int item = 0; item < itemIndex.length; item++) {
-	                	if (recNo < 0 || recNo >= header.numRecords_)
-	                		data[item][dataPos[item]] = Double.NaN;
-	                	else{
-	                		file.seek((long) header.headerSize_ + header.recordSize_ * recNo + LogHeader.FLOAT_DATA_SIZE * itemIndex[item]);
-	                		data[item][dataPos[item]] = file.readFloat();
-	                	}
-	                	if (dataPos[item] < dsSize[item]-1) {
-	                		dataPos[item]++;
-                        } else {
-                        	dataPos[item] = 0;
+        LogRecordReader file = readFile_.get(obj);
+        if (header == null || file == null)
+            return;
+        _awaitWritten(obj, header, recNo + count);
+
+        // 範囲外のレコード数
+        long first = Math.max(recNo, 0);
+        long last = Math.min(recNo + count, (long)header.numRecords_);
+        int head = (int)Math.min(count, first - recNo);
+        int valid = (int)Math.max(0, last - first);
+        int tail = count - head - valid;
+
+        _fillNaN(head, data, dataPos, dsSize);
+
+        // 列指向のログファイルにあるレコードは列毎にまとめて読み出す
+        LogColumnFile.Reader colIn = columnRead_ != null ? columnRead_.get(obj) : null;
+        if (colIn != null && valid > 0) {
+            Hashtable<String, LogColumnFile.Writer> columnWrite = columnWrite_;
+            LogColumnFile.Writer colOut = columnWrite != null ? columnWrite.get(obj) : null;
+            int colRecords = colOut != null ? colOut.getFlushedRecords() : colIn.getNumRecords();
+            int colValid = (int)Math.max(0, Math.min(last, (long)colRecords) - first);
+            if (colValid > 0) {
+                if (colOut != null)
+                    colOut.awaitWritten((int)first + colValid);
+                float[] b = new float[Math.min(colValid, READ_BLOCK_RECORDS)];
+                try {
+                    for (int item = 0; item < itemIndex.length; item++) {
+                        double[] d = data[item];
+                        int pos = dataPos[item];
+                        int size = dsSize[item];
+                        for (int done = 0; done < colValid; ) {
+                            int n = Math.min(colValid - done, b.length);
+                            colIn.readColumn(itemIndex[item], first + done, n, b, 0);
+                            for (int k = 0; k < n; k++) {
+                                d[pos] = b[k];
+                                if (++pos >= size)
+                                    pos = 0;
+                            }
+                            done += n;
+                        }
+                        dataPos[item] = pos;
+                    }
+                    first += colValid;
+                    valid -= colValid;
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    return;
+                }
+            }
+        }
+
+        if (valid > 0) {
+            float[][] buf = new float[itemIndex.length][Math.min(valid, READ_BLOCK_RECORDS)];
+            try {
+                for (int done = 0; done < valid; ) {
+                    int n = Math.min(valid - done, buf[0].length);
+                    file.readItems(first + done, n, itemIndex, buf);
+                    for (int item = 0; item < itemIndex.length; item++) {
+                        double[] d = data[item];
+                        float[] b = buf[item];
+                        int pos = dataPos[item];
+                        int size = dsSize[item];
+                        for (int k = 0; k < n; k++) {
+                            d[pos] = b[k];
+                            if (++pos >= size)
+                                pos = 0;
                         }
-	                }
-	                recNo++;
+                        dataPos[item] = pos;
+                    }
+                    done += n;
                 }
-            }catch (IOException ex) {
-            	ex.printStackTrace();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        _fillNaN(tail, data, dataPos, dsSize);
+    }
+
+    /**
+     * 書き込み中のログについて、numRecordsレコード目まで(キューに入っている分だけ)
+     * ファイルに書き込まれるのを待つ
+     */
+    private void _awaitWritten(String obj, LogHeader header, long numRecords) {
+        if (header == null)
+            return;
+        LogArchiveReader.Extraction x = extracting_.get(getTempFilePath(obj));
+        if (x != null) {
+            try {
+                x.await((long)header.headerSize_ + header.recordSize_ * numRecords);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        Hashtable<String, LogWriter.Target> writeFile = writeFile_;
+        if (writeFile == null)
+            return;
+        LogWriter.Target target = writeFile.get(obj);
+        if (target != null)
+            writer_.awaitWritten(target, (long)header.headerSize_ + header.recordSize_ * numRecords);
+    }
+
+    /**
+     * メモリ上に保持しているレコードを全てファイルへ書き出す
+     */
+    private void _spillMemory() throws IOException {
+        LogMemoryBuffer memory = memory_;
+        if (memory != null)
+            memory.spillAll();
+    }
+
+    /**
+     * メモリ上に保持しているレコードを解放する。_spillMemory()の後に呼ぶこと。
+     * 書き込み中に開いた読み出しは以降ファイルから読む。
+     */
+    private void _closeMemory() {
+        if (memory_ != null)
+            memory_.close();
+        memory_ = null;
+        memoryStore_ = null;
+    }
+
+    private void _fillNaN(int count, double[][] data, int[] dataPos, int[] dsSize) {
+        for (int item = 0; item < data.length; item++) {
+            double[] d = data[item];
+            int pos = dataPos[item];
+            for (int k = 0; k < count; k++) {
+                d[pos] = Double.NaN;
+                if (++pos >= dsSize[item])
+                    pos = 0;
             }
-	    }
+            dataPos[item] = pos;
+        }
     }
     
     private void _makeIndexMapMap(LogHeader header) {
@@ -977,6 +2528,8 @@ public class LogManager {
         public int      numRecords_;   // 総レコード数
         public byte[]   reserved_;    // リザーブド
         public byte[]   reserved_v1_0_;    // リザーブド(version 1.0)
+        public int      encoding_ = LogBlockFile.ENCODING_RAW; // データ部の形式(reserved_の先頭1byte, version 3.2以降)
+        public int      decimation_ = 1; // 何ステップ毎に記録するか(reserved_の2～5byte目, version 3.3以降)
 
         // 可変長ヘッダ部
         public String   objectName_;  // オブジェクト名
@@ -984,6 +2537,16 @@ public class LogManager {
 
         public int[]    unitSize_;    //
 
+        // チャンネル毎の記録先(ファイルには保存しない)
+        int             fullSize_;      // フォーマットに含む全チャンネルのアイテム数
+        int[]           storedColumns_; // 記録している列→全チャンネル中の添字(nullは全て自身に記録)。
+                                        // 間引いて記録するオブジェクトでは所有者の全チャンネル中の添字(時刻は-1)
+        LogHeader[]     groups_;        // 間引いて記録するチャンネルのオブジェクト
+        LogHeader[]     columnObject_;  // 全チャンネルの添字→記録しているオブジェクト(nullは記録しない)
+        int[]           columnIndex_;   // 全チャンネルの添字→記録しているオブジェクトでの列
+        float[]         record_;        // 記録している列の作業領域
+        float[]         readRecord_;    // 記録している列の読み出し用の作業領域(headerで同期して使う)
+
         private static final long DEFULT_TOTAL_TIME_MSEC = 20000;
         private static final long DEFULT_STEP_TIME_MSEC = 1;
         private static final int VERSION_DATA_SIZE = 4;
@@ -1029,35 +2592,34 @@ public class LogManager {
                 headerSize_ += dataFormat_[i].length() + 1;
             }
 
-            unitSize_ = new int[dataFormat_.length / 2];
-
             // 1レコード当りのデータ量を計算
-            recordSize_ = 0;
-            for (int i = 0; i < dataFormat_.length / 2; i ++) {
-                if (!dataFormat_[i * 2 + 1].startsWith("float")) {
-                    throw new LogFileFormatException();
-                }
-                if (dataFormat_[i * 2 + 1].equals("float")) {
-                    unitSize_[i] = 0;
-                    recordSize_ ++;
-                } else {
-                    try {
-                        unitSize_[i] = Integer.parseInt(
-                            dataFormat_[i * 2 + 1].substring(
-                                dataFormat_[i * 2 + 1].indexOf('[') + 1,
-                                dataFormat_[i * 2 + 1].indexOf(']')
-                            )
-                        );
+            calcUnitSize();
+            recordSize_ = (storedColumns_ != null ? storedColumns_.length : fullSize_) * FLOAT_DATA_SIZE;
+        }
 
-                        recordSize_ += unitSize_[i];
-                    } catch (NumberFormatException ex) {
-                        throw new LogFileFormatException();
-                    } catch (StringIndexOutOfBoundsException ex) {
-                        throw new LogFileFormatException();
-                    }
-                }
-            }
-            recordSize_ *= FLOAT_DATA_SIZE;
+        /**
+         * 書き出し用の複製を作成する
+         */
+        LogHeader copy() {
+            LogHeader h = new LogHeader();
+            h.version_ = version_;
+            h.headerSize_ = headerSize_;
+            h.totalTime_ = totalTime_;
+            h.startTime_ = startTime_;
+            h.endTime_ = endTime_;
+            h.timeStep_ = timeStep_;
+            h.method_ = method_;
+            h.recordSize_ = recordSize_;
+            h.numRecords_ = numRecords_;
+            h.reserved_ = reserved_.clone();
+            h.encoding_ = encoding_;
+            h.decimation_ = decimation_;
+            h.fullSize_ = fullSize_;
+            h.storedColumns_ = storedColumns_;
+            h.objectName_ = objectName_;
+            h.dataFormat_ = dataFormat_;
+            h.unitSize_ = unitSize_;
+            return h;
         }
 
         public int getVersion() {
@@ -1084,7 +2646,18 @@ public class LogManager {
             System.out.println("numRecords: " + numRecords_);
             */
 
-            version_ = new byte[] {0, 3, 1, 0};  // version 3.1.0
+            if (isMultiRate()) {
+                version_ = new byte[] {0, 3, 3, 0};  // version 3.3.0 (チャンネル毎の間引き)
+            } else if (encoding_ == LogBlockFile.ENCODING_RAW) {
+                version_ = new byte[] {0, 3, 1, 0};  // version 3.1.0
+            } else {
+                version_ = new byte[] {0, 3, 2, 0};  // version 3.2.0 (ブロック圧縮)
+            }
+            reserved_[0] = (byte)encoding_;
+            reserved_[1] = (byte)(decimation_ >>> 24);
+            reserved_[2] = (byte)(decimation_ >>> 16);
+            reserved_[3] = (byte)(decimation_ >>> 8);
+            reserved_[4] = (byte)decimation_;
             out.write(version_, 0, VERSION_DATA_SIZE);
             out.writeInt(headerSize_);
             out.writeLong(totalTime_);
@@ -1135,6 +2708,17 @@ public class LogManager {
             } else {
                  numRecords_ = in.readInt();
                  in.readFully(reserved_);
+                 if (getVersion() >= 320) {
+                     encoding_ = reserved_[0];
+                     if (encoding_ < 0 || encoding_ >= LogBlockFile.ENCODING_NAMES.length)
+                         throw new LogFileFormatException();
+                 }
+                 if (getVersion() >= 330) {
+                     decimation_ = ((reserved_[1] & 0xff) << 24) | ((reserved_[2] & 0xff) << 16)
+                                 | ((reserved_[3] & 0xff) << 8) | (reserved_[4] & 0xff);
+                     if (decimation_ < 1)
+                         throw new LogFileFormatException();
+                 }
             }
          
             // for Debug
@@ -1180,31 +2764,88 @@ public class LogManager {
             }
         }
 
+        /**
+         * フォーマットからアイテム数と記録している列を求める。
+         * 型に"@間引き率"が付いたチャンネル(version 3.3以降)は別のオブジェクトに記録するか、
+         * "@0"の場合は記録しないので、このオブジェクトのレコードには含めない。
+         */
         public void calcUnitSize() throws LogFileFormatException {
             unitSize_ = new int[dataFormat_.length / 2];
+            fullSize_ = 0;
+            List<Integer> stored = new ArrayList<Integer>();
+            boolean identity = true;
 
             // 1レコード当りのデータ量を計算
             for (int i = 0; i < dataFormat_.length / 2; i ++) {
-                if (!dataFormat_[i * 2 + 1].startsWith("float")) {
+                String type = dataFormat_[i * 2 + 1];
+                if (!type.startsWith("float")) {
                     throw new LogFileFormatException();
                 }
-                if (dataFormat_[i * 2 + 1].equals("float")) {
+                int decimation = 1;
+                int at = type.indexOf(GROUP_SEPARATOR);
+                if (at >= 0) {
+                    try {
+                        decimation = Integer.parseInt(type.substring(at + 1));
+                    } catch (NumberFormatException ex) {
+                        throw new LogFileFormatException();
+                    }
+                    type = type.substring(0, at);
+                }
+                int width;
+                if (type.equals("float")) {
                     unitSize_[i] = 0;
+                    width = 1;
                 } else {
                     try {
                         unitSize_[i] = Integer.parseInt(
-                            dataFormat_[i * 2 + 1].substring(
-                                dataFormat_[i * 2 + 1].indexOf('[') + 1,
-                                dataFormat_[i * 2 + 1].indexOf(']')
+                            type.substring(
+                                type.indexOf('[') + 1,
+                                type.indexOf(']')
                             )
                         );
+                        width = unitSize_[i];
                     } catch (NumberFormatException ex) {
                         throw new LogFileFormatException();
                     } catch (StringIndexOutOfBoundsException ex) {
                         throw new LogFileFormatException();
                     }
                 }
+                for (int j = 0; j < width; j++) {
+                    if (decimation == 1)
+                        stored.add(fullSize_ + j);
+                    else
+                        identity = false;
+                }
+                fullSize_ += width;
+            }
+            if (identity) {
+                storedColumns_ = null;
+            } else {
+                storedColumns_ = new int[stored.size()];
+                for (int i = 0; i < storedColumns_.length; i++)
+                    storedColumns_[i] = stored.get(i);
+            }
+        }
+
+        /**
+         * チャンネル毎に間引き率が異なるか(このオブジェクトが間引いたオブジェクトか、
+         * 別のオブジェクトに記録するチャンネルを含む)
+         */
+        boolean isMultiRate() {
+            return decimation_ > 1 || storedColumns_ != null;
+        }
+
+        /**
+         * nameのチャンネルの全チャンネル中の先頭の添字を返す。無い場合は-1。
+         */
+        int getFullIndex(String name) {
+            int index = 0;
+            for (int i = 0; i < dataFormat_.length / 2; i++) {
+                if (dataFormat_[i * 2].equals(name))
+                    return index;
+                index += unitSize_[i] == 0 ? 1 : unitSize_[i];
             }
+            return -1;
         }
 
         int getUnitSize(int index) { return unitSize_[index]; }
@@ -1244,9 +2885,11 @@ public class LogManager {
         public byte[]   reserved_v1_0_;    // リザーブド(version 1.0)
 
         // 可変長ヘッダ部
-        public ArrayList<Integer> position_ = new ArrayList<Integer>();    // シークオフセット値テーブル
+        private long[] position_ = new long[1024];    // シークオフセット値テーブル
+        private volatile int positionSize_ = 0;
+        private LogIndex.PositionTable positionSource_ = null;   // 索引から必要な分だけ読む場合のテーブル
 
-        public int currentPos_;
+        public long currentPos_;
         public int numRecords_;   // 総レコード数
 
         private static final int VERSION_DATA_SIZE = 4;
@@ -1280,13 +2923,73 @@ public class LogManager {
             reserved_ = new byte[RESERVED_DATA_SIZE];
         }
 
+        /**
+         * シークオフセット値テーブルの要素数
+         */
+        public int positionSize() {
+            return positionSize_;
+        }
+
+        /**
+         * フレームframeNumのデータ先頭位置。frameNum+1の位置との差が1フレーム分のデータサイズになる。
+         */
+        public long getPosition(int frameNum) throws IOException {
+            if (frameNum < 0 || frameNum >= positionSize_)
+                throw new IndexOutOfBoundsException("position " + frameNum + " >= " + positionSize_); //$NON-NLS-1$ //$NON-NLS-2$
+            LogIndex.PositionTable source = positionSource_;
+            if (source != null)
+                return source.get(frameNum);
+            return position_[frameNum];
+        }
+
+        /**
+         * シークオフセット値テーブルを索引から読むようにする(nullで解除)
+         */
+        public void setPositionSource(LogIndex.PositionTable source) {
+            positionSource_ = source;
+            positionSize_ = source != null ? source.size() : 0;
+        }
+
+        public boolean hasPositionSource() {
+            return positionSource_ != null;
+        }
+
+        /**
+         * 索引から読んでいるテーブルを全てメモリ上に読み込む(テーブルを変更・出力する前に)
+         */
+        private void _loadPositions() throws IOException {
+            LogIndex.PositionTable source = positionSource_;
+            if (source == null)
+                return;
+            long[] position = new long[Math.max(1024, source.size())];
+            for (int i = 0; i < source.size(); i++)
+                position[i] = source.get(i);
+            position_ = position;
+            positionSource_ = null;
+        }
+
+        public void addPosition(long pos) throws IOException {
+            _loadPositions();
+            if (positionSize_ == position_.length) {
+                long[] newPosition = new long[position_.length * 2];
+                System.arraycopy(position_, 0, newPosition, 0, positionSize_);
+                position_ = newPosition;
+            }
+            position_[positionSize_++] = pos;
+        }
+
+        public void clearPositions() {
+            positionSource_ = null;
+            positionSize_ = 0;
+        }
+
         public CollisionLogHeader(SimulationTime time) {
             reserved_ = new byte[RESERVED_DATA_SIZE];
             totalTime_ = time.totalTime_.getUtime();
             startTime_ = time.startTime_.getUtime();
             endTime_ = 0;
             timeStep_ = time.timeStep_.getUtime();
-            position_.clear();
+            clearPositions();
             headerSize_ = FIXED_PART_SIZE + INT_DATA_SIZE;
         }
         public int getVersion() {
@@ -1300,6 +3003,16 @@ public class LogManager {
 
         public void input(DataInputStream in)
             throws LogFileFormatException, IOException
+        {
+            inputFixedPart(in);
+            inputPositions(in);
+        }
+
+        /**
+         * 固定長ヘッダ部を読み込む。シークオフセット値テーブルは読まない(テーブルは空になる)。
+         */
+        public void inputFixedPart(DataInputStream in)
+            throws LogFileFormatException, IOException
         {
             version_ = new byte[4];
             in.readFully(version_);
@@ -1327,19 +3040,34 @@ public class LogManager {
                  in.readFully(reserved_);
             }
 
-            int frameSize =
+            numRecords_ =
                 (int)((endTime_ - startTime_) / timeStep_) + 
                      (((endTime_ - startTime_) % timeStep_) > timeStep_>>1 ? 1 : 0) + 1;
-            for (int i = 0; i < frameSize + 1; ++i) {
-                position_.add(in.readInt());
+            clearPositions();
+        }
+
+        /**
+         * inputFixedPart()に続けてシークオフセット値テーブルを読み込む
+         */
+        public void inputPositions(DataInputStream in) throws IOException {
+            int frameSize = numRecords_;
+            // version 3.2以降はオフセットをlongで保持する(2GBを超えるデータに対応)
+            clearPositions();
+            if (getVersion() < 320) {
+                for (int i = 0; i < frameSize + 1; ++i) {
+                    addPosition(in.readInt() & 0xffffffffL);
+                }
+            } else {
+                for (int i = 0; i < frameSize + 1; ++i) {
+                    addPosition(in.readLong());
+                }
             }
-            
-             numRecords_ = frameSize;
         }
 
         public void output(DataOutputStream out) throws IOException {
+            _loadPositions();
             //System.out.println("StartTime=" + startTime_ + ", endTime=" + endTime_);
-            version_ = new byte[] {0, 3, 1, 0};  // version 3.1.0
+            version_ = new byte[] {0, 3, 2, 0};  // version 3.2.0
             out.write(version_, 0, VERSION_DATA_SIZE);
             out.writeInt(headerSize_);
             out.writeLong(totalTime_);
@@ -1347,14 +3075,15 @@ public class LogManager {
             out.writeLong(endTime_);
             out.writeLong(timeStep_);
             out.write(reserved_, 0, RESERVED_DATA_SIZE);
-            for (int i = 0; i < position_.size(); i ++) {
-                out.writeInt(position_.get(i));
+            for (int i = 0; i < positionSize_; i ++) {
+                out.writeLong(position_[i]);
             }
         }
 
         public void createLogHeader(DataOutputStream out) throws IOException {
+            _loadPositions();
             //System.out.println("StartTime=" + startTime_ + ", endTime=" + endTime_);
-            version_ = new byte[] {0, 3, 1, 0};  // version 3.1.0
+            version_ = new byte[] {0, 3, 2, 0};  // version 3.2.0
             out.write(version_, 0, VERSION_DATA_SIZE);
             out.writeInt(headerSize_);
             out.writeLong(totalTime_);
@@ -1362,8 +3091,8 @@ public class LogManager {
             out.writeLong(endTime_);
             out.writeLong(timeStep_);
             out.write(reserved_, 0, RESERVED_DATA_SIZE);
-            for (int i = 0; i < position_.size(); i ++) {
-                out.writeInt(position_.get(i));
+            for (int i = 0; i < positionSize_; i ++) {
+                out.writeLong(position_[i]);
             }
             out.flush();
         }
@@ -1376,42 +3105,11 @@ public class LogManager {
         }
 
         public void outPositions(RandomAccessFile file) throws IOException {
+            _loadPositions();
             file.seek(FIXED_PART_SIZE);
-            for (int i = 0; i < position_.size(); i ++) {
-                file.writeInt(position_.get(i));
-            }
-        }
-        
-        public boolean joinCollisionLogHeader(CollisionLogHeader ref){
-            if( ref.equals(this) ){
-                return false;
-            } else if( ref.timeStep_ != timeStep_) {
-                return false;
-            }
-            endTime_ = ref.endTime_;
-            final int size = ref.position_.size();
-            for(int i = 1; i < size; ++i){
-                position_.add(ref.position_.get(i) + currentPos_);
-            }
-            numRecords_ += size - 1;
-            return true;
-        }
-        
-        public boolean separateCollisionLogHeader(CollisionLogHeader ref, final int changePos){
-            if( ref.equals(this) ){
-                return false;
-            } else if( ref.timeStep_ != timeStep_) {
-                return false;
-            }
-            endTime_ = ref.endTime_;
-            time_.setUtime(endTime_);
-            final int size = ref.position_.size();
-            final int offsetNum = ref.position_.get(changePos);
-            for(int i = changePos; i < size; ++i){
-                position_.add(ref.position_.get(i) - offsetNum);
-            }
-            numRecords_ = position_.size() - 1;
-            return true;
+            ByteBuffer buf = ByteBuffer.allocate(positionSize_ * LONG_DATA_SIZE);
+            buf.asLongBuffer().put(position_, 0, positionSize_);
+            file.write(buf.array());
         }
     }
     
@@ -1423,15 +3121,39 @@ public class LogManager {
         LogHeader header = (LogHeader)header_.get(objectName);
         if (header == null) return null;
 
-        RandomAccessFile file = (RandomAccessFile)readFile_.get(objectName);
+        float[] data = new float[header.fullSize_];
+        return get(objectName, record, data);
+    }
+
+    /**
+     * 1レコード分のデータをdataへ読み出す
+     * 
+     * @param   objectName オブジェクト名
+     * @param   record     レコード番号
+     * @param   data       読み出し先(レコードあたりのアイテム数以上の長さ)
+     * @return  data。オブジェクトが無い場合はnull
+     */
+    public float[] get(String objectName, long record, float[] data) throws IOException {
+        if (readFile_ == null) return null;
 
-        float[] data = new float[header.recordSize_ / LogHeader.FLOAT_DATA_SIZE];
+        LogRecordReader file = readFile_.get(objectName);
+        if (file == null) return null;
+        LogHeader header = (LogHeader)header_.get(objectName);
+        _awaitWritten(objectName, header, record + 1);
 
         try {
-            synchronized (file) {
-                file.seek((long)header.headerSize_ + header.recordSize_ * record);
-                for (int i = 0; i < data.length; i ++)
-                    data[i] = file.readFloat();
+            if (header.groups_ != null) {
+                // 記録先毎に読み出して全チャンネルに並べる。記録しないチャンネルはNaN
+                Arrays.fill(data, 0, header.fullSize_, Float.NaN);
+                _readScattered(header, record, data);
+                for (int g = 0; g < header.groups_.length; g++) {
+                    LogHeader group = header.groups_[g];
+                    long r = Math.min(record / group.decimation_, (long)group.numRecords_ - 1);
+                    if (r >= 0)
+                        _readScattered(group, r, data);
+                }
+            } else {
+                file.readRecord(record, data, 0);
             }
         } catch (EOFException ex) {
             ex.printStackTrace();
@@ -1442,50 +3164,139 @@ public class LogManager {
         return data;
     }
 
+    /**
+     * headerのオブジェクトの1レコードを読み出し、所有者の全チャンネル中の位置へ書き込む。
+     * 読み出しにはheaderの作業領域を使うので、フレーム毎の生成は起きない。
+     */
+    private void _readScattered(LogHeader header, long record, float[] data) throws IOException {
+        LogRecordReader file = readFile_.get(header.objectName_);
+        if (file == null)
+            return;
+        _awaitWritten(header.objectName_, header, record + 1);
+        int[] columns = header.storedColumns_;
+        synchronized (header) {
+            float[] rec = header.readRecord_;
+            if (rec == null || rec.length != columns.length)
+                rec = header.readRecord_ = new float[columns.length];
+            file.readRecord(record, rec, 0);
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] >= 0)
+                    data[columns[i]] = rec[i];
+            }
+        }
+    }
+
+    /**
+     * recordからcountレコード分(countが負の場合はrecordから前へ)を全てのオブジェクトについて読み出し、
+     * 以後のその範囲の読み出しがディスクを待たないようにする(先読み)。
+     * 間引いて記録したオブジェクトは対応する範囲を読み出す。
+     */
+    public void prefetch(long record, int count) throws IOException {
+        Hashtable<String, LogRecordReader> readFile = readFile_;
+        if (readFile == null || count == 0)
+            return;
+        long first = count > 0 ? record : record + count + 1;
+        long last = first + Math.abs(count);
+        for (Enumeration elements = header_.elements(); elements.hasMoreElements();) {
+            LogHeader header = (LogHeader) elements.nextElement();
+            LogRecordReader file = readFile.get(header.objectName_);
+            if (file == null)
+                continue;
+            long from = Math.max(0, first / header.decimation_);
+            long to = Math.min((last + header.decimation_ - 1) / header.decimation_, (long)header.numRecords_);
+            if (from >= to)
+                continue;
+            _awaitWritten(header.objectName_, header, to);
+            int numItems = header.recordSize_ / LogHeader.FLOAT_DATA_SIZE;
+            int n = (int)Math.min(to - from, Math.max(1, READ_BLOCK_RECORDS / numItems));
+            float[] buf = new float[n * numItems];
+            for (long r = from; r < to; r += n) {
+                n = (int)Math.min(n, to - r);
+                file.readRecords(r, n, buf, 0);
+            }
+        }
+    }
+
     public CollisionPoint[] getCollisionPointData(int frameNum) throws IOException {
-	    if (collisionLog_.position_.size() < frameNum + 2)  {
-				return null;
-		}
-        int size = collisionLog_.position_.get(frameNum + 1) - collisionLog_.position_.get(frameNum);
-		int data_size=0;
-		Enumeration elements = header_.elements();
-		LogHeader header = (LogHeader)elements.nextElement();
-		int version = header.getVersion();
-		if (version <= 110){
-	  		data_size = 6 * 4;
-		}else{
-	  		data_size = COLLISION_DATA_SIZE;
-		}
-        if ((size % data_size) != 0 || size <= 0) 
-        	return null;
-        size /= data_size;
-	
-        collisionDatIn_.seek(collisionLog_.position_.get(frameNum));
-        CollisionPoint[] data = new CollisionPoint[size];
-        for (int i = 0; i < size; i ++) {
-           	data[i] = new CollisionPoint();
-           	data[i].normal = new double[3];
-           	data[i].normal[0] = collisionDatIn_.readFloat();
-           	data[i].normal[1] = collisionDatIn_.readFloat();
-           	data[i].normal[2] = collisionDatIn_.readFloat();
-           	data[i].position = new double[3];
-           	data[i].position[0] = collisionDatIn_.readFloat();
-           	data[i].position[1] = collisionDatIn_.readFloat();
-           	data[i].position[2] = collisionDatIn_.readFloat();
-	    	if (version <= 110){
-	      		data[i].idepth = 0.01;
-	    	}else{
-	      		data[i].idepth = collisionDatIn_.readDouble();
-	    	}
+        CollisionPointBuffer buf = new CollisionPointBuffer(0);
+        if (getCollisionPointData(frameNum, buf) <= 0)
+            return null;
+        return buf.toArray();
+    }
+
+    /**
+     * 1フレーム分の干渉点をbufへ読み出す。bufの配列と読み出し用バッファは
+     * 足りない場合のみ拡張するので、同じbufを使い回せばフレーム毎の生成は起きない。
+     *
+     * @param   frameNum フレーム番号
+     * @param   buf      読み出し先
+     * @return  読み出した点の数(buf.size)。データが無い場合は0
+     */
+    public int getCollisionPointData(int frameNum, CollisionPointBuffer buf) throws IOException {
+        buf.clear();
+        if (collisionLog_.positionSize() < frameNum + 2 || frameNum < 0)
+            return 0;
+        long start = collisionLog_.getPosition(frameNum);
+        long end = collisionLog_.getPosition(frameNum + 1);
+        long size = end - start;
+        int data_size=0;
+        Enumeration elements = header_.elements();
+        LogHeader header = (LogHeader)elements.nextElement();
+        int version = header.getVersion();
+        if (version <= 110){
+            data_size = 6 * 4;
+        }else{
+            data_size = COLLISION_DATA_SIZE;
         }
-        return data;
+        if ((size % data_size) != 0 || size <= 0 || size > Integer.MAX_VALUE)
+            return 0;
+        int num = (int)(size / data_size);
+
+        LogWriter.Target target = collisionDatOut_;
+        if (target != null)
+            writer_.awaitWritten(target, end);
+        LogArchiveReader.Extraction x = extracting_.get(collisionLogDatPath_);
+        if (x != null)
+            x.await(end);
+
+        // 1フレーム分をまとめて読み出す
+        ByteBuffer data = buf.data_;
+        if (data == null || data.capacity() < size) {
+            data = ByteBuffer.allocate(Math.max((int)size, data == null ? 0 : data.capacity() * 2));
+            buf.data_ = data;
+        }
+        data.clear();
+        data.limit((int)size);
+        collisionDatIn_.readData(start, data);
+        data.flip();
+        buf.ensureCapacity(num);
+        double[] normal = buf.normal;
+        double[] position = buf.position;
+        double[] idepth = buf.idepth;
+        for (int i = 0, k = 0; i < num; i ++, k += 3) {
+            normal[k] = data.getFloat();
+            normal[k + 1] = data.getFloat();
+            normal[k + 2] = data.getFloat();
+            position[k] = data.getFloat();
+            position[k + 1] = data.getFloat();
+            position[k + 2] = data.getFloat();
+            if (version <= 110){
+                idepth[i] = 0.01;
+            }else{
+                idepth[i] = data.getDouble();
+            }
+        }
+        buf.size = num;
+        return num;
     }
 
     public int getCollisionPointDataSize(int frameNum){
         try {
-            return collisionLog_.position_.get(frameNum + 1) - collisionLog_.position_.get(frameNum);
+            return (int)(collisionLog_.getPosition(frameNum + 1) - collisionLog_.getPosition(frameNum));
         } catch (IndexOutOfBoundsException ex) {
             ex.printStackTrace();
+        } catch (IOException ex) {
+            ex.printStackTrace();
         }
         return -1;
     }
@@ -1527,13 +3338,46 @@ public class LogManager {
         return ((Integer) (((Map) indexMapMap_.get(obj)).get(member))).intValue();
     }
     
-    private void _initTempInstance(LogManager logger){
-        if( this != logger ){
-            header_ = logger.header_;
-            indexMapMap_ = logger.indexMapMap_;
-            collisionLog_ = logger.collisionLog_;
-            time_ = new Time();
-        }
+    /**
+     * 書き込みキューに溜まっているレコード数を返す
+     */
+    public int getWriteQueueDepth() {
+        return writer_.getQueueDepth();
+    }
+
+    /**
+     * 書き込みキューに溜まったレコード数の最大値を返す
+     */
+    public int getWriteQueueMaxDepth() {
+        return writer_.getMaxQueueDepth();
+    }
+
+    /**
+     * 書き込みキューが一杯で書き込み側が待たされた回数を返す
+     */
+    public long getWriteBackpressureCount() {
+        return writer_.getBackpressureCount();
+    }
+
+    /**
+     * 書き込みキューが一杯で書き込み側が待たされた時間の合計[sec]を返す
+     */
+    public double getWriteBackpressureTime() {
+        return writer_.getBackpressureNanos() / 1.0e9;
+    }
+
+    /**
+     * ファイルへ書き込んだレコード数を返す
+     */
+    public long getWrittenRecordNum() {
+        return writer_.getRecordCount();
+    }
+
+    /**
+     * I/Oスレッドがまとめて書き込んだ回数を返す
+     */
+    public long getWriteBatchNum() {
+        return writer_.getBatchCount();
     }
 
     private static final String[] INTEGRATION_METHOD_NAMES = { "RUNGE_KUTTA", "EULER" }; //$NON-NLS-1$ //$NON-NLS-2$
@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogMemoryBuffer.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 書き込み中のログのレコードをメモリ上に保持するバッファ
+ *
+ * レコードはヒープ外のダイレクトバッファ(セグメント)に詰めて保持し、確保したセグメントの合計が
+ * 予算を超えそうになると、古いセグメントからLogWriterのI/Oスレッドでログファイルへ書き出す。
+ * ファイルへの書き込みが終わったセグメントは解放して再利用する。
+ * 予算内で使い回している間は、セグメントを切り替える時にもヒープにオブジェクトを生成しない。
+ * 読み出し(Reader)はファイルへ移ったレコードをファイルから、それ以降のレコードをメモリから読むので、
+ * 呼び出し側からはレコードの位置がどこにあるかを区別せずに読める。
+ */
+class LogMemoryBuffer {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final int SEGMENT_SIZE = 1024 * 1024;  // セグメントの大きさ(byte)
+    private static final int FLOAT_DATA_SIZE = 4;
+    private static final int SPILL_START = 3;            // 確保量が予算の3/4を超えたら書き出しを始める
+    private static final int SPILL_KEEP = 2;             // 書き出していないセグメントを予算の1/2まで残す
+    private static final int READ_BLOCK_RECORDS = 4096;  // readItems()で一度に読み出す最大レコード数
+
+    /**
+     * オブジェクト毎のレコードの並び
+     */
+    class Store {
+        private final LogWriter.Target target_;
+        private final int recordSize_;
+        private final int numItems_;
+        private final int segmentSize_;
+        private final ArrayList<Segment> segments_ = new ArrayList<Segment>(); // メモリ上のセグメント(古い順)
+        private Segment current_ = null;    // 追加中のセグメント
+        private long firstRecord_ = 0;      // メモリ上にある最初のレコード(これより前はファイルにある)
+        private long numRecords_ = 0;
+
+        private Store(LogWriter.Target target, int recordSize) {
+            target_ = target;
+            recordSize_ = recordSize;
+            numItems_ = recordSize / FLOAT_DATA_SIZE;
+            segmentSize_ = Math.max(1, SEGMENT_SIZE / recordSize) * recordSize;
+        }
+
+        /**
+         * 1レコード分を追加する
+         */
+        public void put(float[] data) throws IOException {
+            while (true) {
+                synchronized (LogMemoryBuffer.this) {
+                    // spillAll()が他のスレッドから追加中のセグメントを書き出すことがあるので、ロック内で確認する
+                    Segment seg = current_;
+                    if (seg != null && seg.buf_.remaining() >= recordSize_) {
+                        ByteBuffer buf = seg.buf_;
+                        for (int i = 0; i < numItems_; i++)
+                            buf.putFloat(data[i]);
+                        seg.count_++;
+                        numRecords_++;
+                        return;
+                    }
+                }
+                _nextSegment(this);
+            }
+        }
+
+        /**
+         * メモリ上にある最初のレコード番号
+         */
+        public long getFirstRecord() {
+            synchronized (LogMemoryBuffer.this) {
+                return firstRecord_;
+            }
+        }
+
+        public long getNumRecords() {
+            synchronized (LogMemoryBuffer.this) {
+                return numRecords_;
+            }
+        }
+
+        LogMemoryBuffer getBuffer() {
+            return LogMemoryBuffer.this;
+        }
+    }
+
+    /**
+     * レコードを詰めるダイレクトバッファ。書き出しが終わったら別のStoreのセグメントとして再利用する
+     */
+    private static class Segment {
+        final ByteBuffer buf_;
+        final ByteBuffer out_;  // 書き出しに使うbuf_の複製(詰めた範囲をLogWriterへ渡す)
+        Store store_;
+        long firstRecord_;
+        int count_ = 0;         // 詰めたレコード数
+        long end_ = 0;          // 書き出し後のファイル末尾の位置(書き出しを始めていなければ0)
+
+        Segment(ByteBuffer buf) {
+            buf_ = buf;
+            out_ = buf.duplicate();
+        }
+
+        void reset(Store store, int size, long firstRecord) {
+            store_ = store;
+            firstRecord_ = firstRecord;
+            count_ = 0;
+            end_ = 0;
+            buf_.clear();
+            buf_.limit(size);
+        }
+    }
+
+    /**
+     * メモリ上のレコードとファイルを合わせて読み出す
+     */
+    static class Reader implements LogRecordReader {
+        private final LogRecordReader file_;
+        private final Store store_;
+
+        Reader(LogRecordReader file, Store store) {
+            file_ = file;
+            store_ = store;
+        }
+
+        public void readRecord(long record, float[] dst, int off) throws IOException {
+            readRecords(record, 1, dst, off);
+        }
+
+        public void readRecords(long record, int count, float[] dst, int off) throws IOException {
+            LogMemoryBuffer memory = store_.getBuffer();
+            while (count > 0) {
+                long first = store_.getFirstRecord();
+                int n;
+                if (record < first) {
+                    // ファイルへ移ったレコード
+                    n = (int)Math.min(count, first - record);
+                    file_.readRecords(record, n, dst, off);
+                } else {
+                    // 読む前にファイルへ移った場合は0が返るのでやり直す
+                    n = memory.read(store_, record, count, dst, off);
+                }
+                record += n;
+                count -= n;
+                off += n * store_.numItems_;
+            }
+        }
+
+        public void readItems(long record, int count, int[] items, float[][] dst) throws IOException {
+            if (record + count <= store_.getFirstRecord()) {
+                file_.readItems(record, count, items, dst);
+                return;
+            }
+            int numItems = store_.numItems_;
+            float[] buf = new float[Math.min(count, READ_BLOCK_RECORDS) * numItems];
+            for (int j = 0; j < count;) {
+                int n = Math.min(count - j, READ_BLOCK_RECORDS);
+                readRecords(record + j, n, buf, 0);
+                for (int i = 0; i < items.length; i++) {
+                    float[] d = dst[i];
+                    for (int k = 0, p = items[i]; k < n; k++, p += numItems)
+                        d[j + k] = buf[p];
+                }
+                j += n;
+            }
+        }
+
+        public void close() throws IOException {
+            file_.close();
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final LogWriter writer_;
+    private final long budget_;
+    private final List<Store> stores_ = new ArrayList<Store>();
+    private final ArrayList<Segment> full_ = new ArrayList<Segment>();     // 詰め終わって書き出していないセグメント(古い順)
+    private final ArrayList<Segment> spilling_ = new ArrayList<Segment>(); // 書き出し中のセグメント(古い順)
+    private final ArrayList<Segment> free_ = new ArrayList<Segment>();
+    private long allocated_ = 0;    // 確保したセグメントの合計(byte)
+    private long unspilled_ = 0;    // 書き出していないセグメントの合計(byte)
+
+    // 統計
+    private long spillCount_ = 0;
+    private volatile long backpressureCount_ = 0;
+
+    /**
+     * @param writer 書き出しに使うLogWriter
+     * @param budget メモリ上に保持するセグメントの合計の上限(byte)
+     */
+    LogMemoryBuffer(LogWriter writer, long budget) {
+        writer_ = writer;
+        budget_ = budget;
+    }
+
+    /**
+     * 書き込み先を登録する
+     *
+     * @param target     書き出し先(LogWriter.open()で開いたもの)
+     * @param recordSize 1レコードのbyte数
+     */
+    public synchronized Store open(LogWriter.Target target, int recordSize) {
+        Store s = new Store(target, recordSize);
+        stores_.add(s);
+        return s;
+    }
+
+    /**
+     * 全てのレコードをファイルへ書き出し、書き込みが終わるまで待つ。
+     * 以降に追加したレコードは再びメモリ上に保持する。
+     */
+    public void spillAll() throws IOException {
+        synchronized (this) {
+            while (!full_.isEmpty())
+                _spill(full_.remove(0));
+            for (int i = 0; i < stores_.size(); i++) {
+                Store s = stores_.get(i);
+                if (s.current_ != null) {
+                    if (s.current_.count_ > 0)
+                        _spill(s.current_);
+                    else
+                        _release(s.current_);
+                    s.current_ = null;
+                }
+            }
+        }
+        writer_.flush();
+        synchronized (this) {
+            _reclaim();
+        }
+    }
+
+    /**
+     * 保持しているセグメントを全て解放する。spillAll()の後に呼ぶこと。
+     */
+    public synchronized void close() {
+        _reclaim();
+        free_.clear();
+        allocated_ = 0;
+        for (int i = 0; i < stores_.size(); i++)
+            stores_.get(i).segments_.clear();
+        stores_.clear();
+        full_.clear();
+        spilling_.clear();
+        unspilled_ = 0;
+    }
+
+    public long getBudget() {
+        return budget_;
+    }
+
+    /**
+     * 確保しているセグメントの合計(byte)
+     */
+    public synchronized long getAllocatedSize() {
+        return allocated_;
+    }
+
+    /**
+     * ファイルへ書き出したセグメントの数
+     */
+    public synchronized long getSpillCount() {
+        return spillCount_;
+    }
+
+    /**
+     * 予算を超えたためにファイルへの書き込みを待った回数
+     */
+    public long getBackpressureCount() {
+        return backpressureCount_;
+    }
+
+    /**
+     * storeのrecordからcountレコード分をメモリ上から読み出す
+     *
+     * @return 読み出したレコード数。recordがファイルへ移っていた場合は0
+     */
+    synchronized int read(Store s, long record, int count, float[] dst, int off) throws IOException {
+        if (record < s.firstRecord_)
+            return 0;
+        if (record + count > s.numRecords_)
+            throw new EOFException();
+        int idx = _findSegment(s, record);
+        int n = 0;
+        while (n < count) {
+            Segment seg = s.segments_.get(idx++);
+            int i = (int)(record + n - seg.firstRecord_);
+            int m = Math.min(count - n, seg.count_ - i);
+            ByteBuffer buf = seg.buf_;
+            int p = i * s.recordSize_;
+            for (int k = m * s.numItems_; k > 0; k--, p += FLOAT_DATA_SIZE)
+                dst[off++] = buf.getFloat(p);
+            n += m;
+        }
+        return n;
+    }
+
+    /**
+     * recordを含むセグメントの位置を返す
+     */
+    private static int _findSegment(Store s, long record) {
+        int lo = 0, hi = s.segments_.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (s.segments_.get(mid).firstRecord_ <= record)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * sの追加中のセグメントが一杯であれば詰め終わったものとして、新しいセグメントを用意する。
+     * 予算を超える場合は古いセグメントの書き込みが終わるまで待つ。
+     */
+    private void _nextSegment(Store s) throws IOException {
+        synchronized (this) {
+            if (s.current_ != null && s.current_.buf_.remaining() < s.recordSize_) {
+                full_.add(s.current_);
+                s.current_ = null;
+            }
+        }
+        while (true) {
+            LogWriter.Target waitTarget;
+            long waitSize;
+            synchronized (this) {
+                _reclaim();
+                Segment seg = _allocate(s.segmentSize_);
+                if (seg != null) {
+                    seg.reset(s, s.segmentSize_, s.numRecords_);
+                    s.segments_.add(seg);
+                    s.current_ = seg;
+                    unspilled_ += seg.buf_.capacity();
+                    // 予算に近づいたら古いものからバックグラウンドで書き出しておく
+                    if (allocated_ * 4 >= budget_ * SPILL_START) {
+                        while (!full_.isEmpty() && unspilled_ * SPILL_KEEP > budget_)
+                            _spill(full_.remove(0));
+                    }
+                    return;
+                }
+                if (spilling_.isEmpty())
+                    _spill(full_.remove(0));
+                Segment oldest = spilling_.get(0);
+                waitTarget = oldest.store_.target_;
+                waitSize = oldest.end_;
+                backpressureCount_++;
+            }
+            writer_.awaitWritten(waitTarget, waitSize);
+            if (waitTarget.getWrittenSize() < waitSize)
+                writer_.flush();    // 書き込みエラーを通知する
+        }
+    }
+
+    /**
+     * size byte以上のセグメントを解放したものから取り出すか、新しく確保する。予算を超える場合はnull。
+     * ただし書き出せるセグメントが無い場合は予算を超えても確保する。
+     */
+    private Segment _allocate(int size) {
+        while (!free_.isEmpty()) {
+            Segment seg = free_.remove(free_.size() - 1);
+            if (seg.buf_.capacity() >= size)
+                return seg;
+            allocated_ -= seg.buf_.capacity();
+        }
+        int capacity = Math.max(size, SEGMENT_SIZE);
+        if (allocated_ + capacity > budget_ && !(full_.isEmpty() && spilling_.isEmpty()))
+            return null;
+        allocated_ += capacity;
+        return new Segment(ByteBuffer.allocateDirect(capacity));
+    }
+
+    /**
+     * セグメントの内容をLogWriterのキューに入れる。書き込みが終わるまではメモリ上から読める。
+     */
+    private void _spill(Segment seg) throws IOException {
+        ByteBuffer out = seg.out_;
+        out.limit(seg.buf_.position());
+        out.position(0);
+        writer_.submitRange(seg.store_.target_, out);
+        seg.end_ = seg.store_.target_.getQueuedSize();
+        spilling_.add(seg);
+        unspilled_ -= seg.buf_.capacity();
+        spillCount_++;
+    }
+
+    /**
+     * ファイルへの書き込みが終わったセグメントを解放する
+     */
+    private void _reclaim() {
+        for (int i = 0; i < spilling_.size(); ) {
+            Segment seg = spilling_.get(i);
+            if (seg.store_.target_.getWrittenSize() < seg.end_) {
+                i++;
+                continue;
+            }
+            spilling_.remove(i);
+            Store s = seg.store_;
+            // 同じ書き込み先のセグメントは古い順に書き込まれる
+            s.segments_.remove(0);
+            s.firstRecord_ = seg.firstRecord_ + seg.count_;
+            free_.add(seg);
+        }
+    }
+
+    /**
+     * 空のまま使わなかったセグメントを戻す
+     */
+    private void _release(Segment seg) {
+        seg.store_.segments_.remove(seg);
+        unspilled_ -= seg.buf_.capacity();
+        free_.add(seg);
+    }
+}
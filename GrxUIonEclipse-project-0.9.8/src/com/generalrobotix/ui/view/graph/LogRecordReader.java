@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogRecordReader.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.IOException;
+
+/**
+ * ログのレコード読み出しインタフェース
+ *
+ * 複数のスレッドから同時に呼び出してよい。
+ */
+interface LogRecordReader {
+    /**
+     * 1レコード分をdst[off]以降へ読み出す
+     */
+    public void readRecord(long record, float[] dst, int off) throws IOException;
+
+    /**
+     * 連続するcountレコードをdst[off]以降へまとめて読み出す
+     */
+    public void readRecords(long record, int count, float[] dst, int off) throws IOException;
+
+    /**
+     * 連続するcountレコードから指定した要素だけを取り出す
+     *
+     * @param record 読み出し開始レコード
+     * @param count  レコード数
+     * @param items  レコード内の要素番号
+     * @param dst    dst[i][j]にitems[i]のj番目のレコードの値を格納する
+     */
+    public void readItems(long record, int count, int[] items, float[][] dst) throws IOException;
+
+    public void close() throws IOException;
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogSummaryFile.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * ログの要約ファイル(多段の最小・最大・平均値)
+ *
+ * 行形式の.tmpファイルのレコードをfactor(level)=RATIO^levelレコード毎の区間にまとめ、
+ * 区間毎に各列の最小値・最大値・平均値を段(level=1～NUM_LEVELS)毎のファイルに格納する。
+ * グラフで長い時間範囲を表示する場合に、画素の分解能に見合った段を読めばよいので、
+ * ログの長さによらず一定の読み出し量で描画できる。
+ *
+ * <pre>
+ *  ヘッダ (HEADER_SIZE byte)
+ *    int バージョン
+ *    int 1区間当りのレコード数
+ *    int 列数(=1レコード当りのアイテム数)
+ *    int 総レコード数(区間数 = 総レコード数 / 1区間当りのレコード数)
+ *  区間0: 列0の最小値, 最大値, 平均値, 有効データ数, 列1の..., ...
+ *  区間1: ...
+ * </pre>
+ * 値は全てfloat。NaNは最小値・最大値・平均値の計算から除き、区間内が全てNaNの場合はNaNとする。
+ * 有効データ数(NaNでないデータの数)は、端数の区間を下の段から求める際の平均値の重みに使う。
+ * 最後の区間に満たないレコードはファイルに含めず、読み出し時に下の段から求める。
+ */
+class LogSummaryFile {
+    //--------------------------------------------------------------------
+    // 定数
+    public static final String POSTFIX = ".sum"; //$NON-NLS-1$
+    public static final int RATIO = 16;         // 段毎の区間の比
+    public static final int NUM_LEVELS = 5;     // 段数(最上段は1区間RATIO^NUM_LEVELSレコード)
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NUM_RECORDS_SEEK_POINT = 12;
+    private static final int FLOAT_DATA_SIZE = 4;
+    private static final int VALUES = 4;        // 最小値, 最大値, 平均値, 有効データ数
+
+    /**
+     * level段目の1区間当りのレコード数
+     */
+    public static long factor(int level) {
+        long f = 1;
+        for (int i = 0; i < level; i++)
+            f *= RATIO;
+        return f;
+    }
+
+    private static File _levelFile(String basePath, int level) {
+        return new File(basePath + POSTFIX + level);
+    }
+
+    private static int _bucketSize(int numColumns) {
+        return numColumns * VALUES * FLOAT_DATA_SIZE;
+    }
+
+    private static void _writeHeader(DataOutputStream out, int level, int numColumns, int numRecords) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt((int)factor(level));
+        out.writeInt(numColumns);
+        out.writeInt(numRecords);
+    }
+
+    /**
+     * 要約ファイルを削除する
+     */
+    public static void delete(String basePath) {
+        for (int level = 1; level <= NUM_LEVELS; level++)
+            _levelFile(basePath, level).delete();
+    }
+
+    /**
+     * 1区間分の集計
+     */
+    private static class Accumulator {
+        final double[] min_, max_, sum_;
+        final int[] count_;
+        long records_ = 0;
+
+        Accumulator(int numColumns) {
+            min_ = new double[numColumns];
+            max_ = new double[numColumns];
+            sum_ = new double[numColumns];
+            count_ = new int[numColumns];
+            clear();
+        }
+
+        void clear() {
+            for (int i = 0; i < min_.length; i++) {
+                min_[i] = Double.POSITIVE_INFINITY;
+                max_[i] = Double.NEGATIVE_INFINITY;
+                sum_[i] = 0;
+                count_[i] = 0;
+            }
+            records_ = 0;
+        }
+
+        void add(float[] data) {
+            for (int i = 0; i < min_.length; i++) {
+                float v = data[i];
+                if (v != v)
+                    continue;
+                if (v < min_[i])
+                    min_[i] = v;
+                if (v > max_[i])
+                    max_[i] = v;
+                sum_[i] += v;
+                count_[i]++;
+            }
+            records_++;
+        }
+
+        void add(Accumulator a) {
+            for (int i = 0; i < min_.length; i++) {
+                if (a.min_[i] < min_[i])
+                    min_[i] = a.min_[i];
+                if (a.max_[i] > max_[i])
+                    max_[i] = a.max_[i];
+                sum_[i] += a.sum_[i];
+                count_[i] += a.count_[i];
+            }
+            records_ += a.records_;
+        }
+
+        void put(ByteBuffer buf) {
+            for (int i = 0; i < min_.length; i++) {
+                if (count_[i] == 0) {
+                    buf.putFloat(Float.NaN);
+                    buf.putFloat(Float.NaN);
+                    buf.putFloat(Float.NaN);
+                } else {
+                    buf.putFloat((float)min_[i]);
+                    buf.putFloat((float)max_[i]);
+                    buf.putFloat((float)(sum_[i] / count_[i]));
+                }
+                buf.putFloat(count_[i]);
+            }
+        }
+    }
+
+    /**
+     * 書き込みクラス
+     *
+     * 書き込み側のスレッドで区間を集計し、埋まった区間をLogWriterに渡す。
+     * LogWriterを指定しない場合はファイルへ直接書き込む(build()用)。
+     */
+    static class Writer {
+        private final String basePath_;
+        private final LogWriter writer_;
+        private final LogWriter.Target[] targets_ = new LogWriter.Target[NUM_LEVELS];
+        private final DataOutputStream[] outs_ = new DataOutputStream[NUM_LEVELS];
+        private final int numColumns_;
+        private final Accumulator[] acc_ = new Accumulator[NUM_LEVELS];
+        private final int[] flushedBuckets_ = new int[NUM_LEVELS];  // 段毎の書き込んだ区間数
+        private volatile int numRecords_ = 0;
+
+        Writer(LogWriter writer, String basePath, int numColumns) throws IOException {
+            basePath_ = basePath;
+            writer_ = writer;
+            numColumns_ = numColumns;
+            for (int level = 1; level <= NUM_LEVELS; level++) {
+                File file = _levelFile(basePath, level);
+                FileOutputStream stream = new FileOutputStream(file);
+                if (writer != null) {
+                    DataOutputStream out = new DataOutputStream(stream);
+                    _writeHeader(out, level, numColumns, 0);
+                    out.flush();
+                    targets_[level - 1] = writer.open(file.getName(), stream, HEADER_SIZE);
+                } else {
+                    outs_[level - 1] = new DataOutputStream(new BufferedOutputStream(stream, 256 * 1024));
+                    _writeHeader(outs_[level - 1], level, numColumns, 0);
+                }
+                acc_[level - 1] = new Accumulator(numColumns);
+            }
+        }
+
+        /**
+         * 1レコードを追加する
+         */
+        public void put(float[] data) throws IOException {
+            acc_[0].add(data);
+            numRecords_++;
+            if (acc_[0].records_ == RATIO)
+                _emit(0);
+        }
+
+        /**
+         * level段目の、LogWriterに渡した区間数
+         */
+        public int getFlushedBuckets(int level) {
+            synchronized (flushedBuckets_) {
+                return flushedBuckets_[level - 1];
+            }
+        }
+
+        /**
+         * 1区間を書き込む時にLogWriterから取得するバッファのbyte数
+         */
+        public int getBufferSize() {
+            return _bucketSize(numColumns_);
+        }
+
+        /**
+         * level段目のnumBuckets区間がファイルに書き込まれるまで待つ
+         */
+        public void awaitWritten(int level, int numBuckets) {
+            if (writer_ != null)
+                writer_.awaitWritten(targets_[level - 1], HEADER_SIZE + (long)numBuckets * _bucketSize(numColumns_));
+        }
+
+        /**
+         * ファイルを閉じてヘッダに総レコード数を書き込む
+         *
+         * @return 書き込んだレコード数
+         */
+        public int close() throws IOException {
+            int numRecords = numRecords_;
+            for (int level = 1; level <= NUM_LEVELS; level++) {
+                if (writer_ != null) {
+                    writer_.close(targets_[level - 1]);
+                } else {
+                    outs_[level - 1].close();
+                }
+            }
+            // 途中で止めた場合は書き込んだ区間までを有効とする
+            for (int level = 1; level <= NUM_LEVELS; level++) {
+                RandomAccessFile file = new RandomAccessFile(_levelFile(basePath_, level), "rw"); //$NON-NLS-1$
+                try {
+                    file.seek(NUM_RECORDS_SEEK_POINT);
+                    file.writeInt(numRecords);
+                } finally {
+                    file.close();
+                }
+            }
+            return numRecords;
+        }
+
+        /**
+         * index段目(level=index+1)の埋まった区間を書き込み、上の段に加える
+         */
+        private void _emit(int index) throws IOException {
+            Accumulator acc = acc_[index];
+            if (writer_ != null) {
+                ByteBuffer buf = writer_.obtain(_bucketSize(numColumns_));
+                acc.put(buf);
+                buf.flip();
+                writer_.submit(targets_[index], buf);
+            } else {
+                ByteBuffer buf = ByteBuffer.allocate(_bucketSize(numColumns_));
+                acc.put(buf);
+                outs_[index].write(buf.array());
+            }
+            synchronized (flushedBuckets_) {
+                flushedBuckets_[index]++;
+            }
+            if (index + 1 < NUM_LEVELS) {
+                Accumulator upper = acc_[index + 1];
+                upper.add(acc);
+                acc.clear();
+                if (upper.records_ == factor(index + 2))
+                    _emit(index + 1);
+            } else {
+                acc.clear();
+            }
+        }
+    }
+
+    /**
+     * 読み出しクラス
+     */
+    static class Reader {
+        private final LogChannelReader[] files_;
+        private final int numColumns_;
+        private volatile int numRecords_;
+
+        private Reader(LogChannelReader[] files, int numColumns, int numRecords) {
+            files_ = files;
+            numColumns_ = numColumns;
+            numRecords_ = numRecords;
+        }
+
+        /**
+         * 要約ファイルを開く。ファイルが無いか、列数・段数が一致しない場合はnullを返す。
+         */
+        public static Reader open(String basePath, int numColumns) throws IOException {
+            int numRecords = -1;
+            for (int level = 1; level <= NUM_LEVELS; level++) {
+                File file = _levelFile(basePath, level);
+                if (!file.isFile())
+                    return null;
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                int version, factor, columns, records;
+                try {
+                    version = in.readInt();
+                    factor = in.readInt();
+                    columns = in.readInt();
+                    records = in.readInt();
+                } catch (EOFException ex) {
+                    return null;
+                } finally {
+                    in.close();
+                }
+                if (version != VERSION || factor != factor(level) || columns != numColumns || (numRecords >= 0 && records != numRecords))
+                    return null;
+                numRecords = records;
+            }
+            LogChannelReader[] files = new LogChannelReader[NUM_LEVELS];
+            for (int level = 1; level <= NUM_LEVELS; level++)
+                files[level - 1] = new LogChannelReader(_levelFile(basePath, level), HEADER_SIZE, _bucketSize(numColumns));
+            return new Reader(files, numColumns, numRecords);
+        }
+
+        public int getNumRecords() {
+            return numRecords_;
+        }
+
+        public void setNumRecords(int numRecords) {
+            numRecords_ = numRecords;
+        }
+
+        public void close() throws IOException {
+            for (int i = 0; i < files_.length; i++)
+                files_[i].close();
+        }
+    }
+
+    /**
+     * level段目のbucket番目からcount区間について、itemsの列の最小値・最大値・平均値を読み出す。
+     * 要約ファイルに無い区間(末尾の端数など)は下の段または元のレコードから求める。
+     * レコードの範囲外の区間はNaNとする。
+     *
+     * @param sum        要約ファイル(null可)
+     * @param available  段毎の要約ファイルから読み出せる区間数(sumがnullの場合は無視)
+     * @param in         元のログファイル
+     * @param numRecords 元のログファイルのレコード数
+     * @param level      段(0は元のレコード)
+     * @param bucket     先頭の区間番号
+     * @param count      区間数
+     * @param items      列番号
+     * @param min        min[i][k]にitems[i]のbucket+k番目の区間の最小値を格納する
+     * @param max        最大値(同上)
+     * @param mean       平均値(同上)
+     */
+    public static void read(Reader sum, int[] available, LogRecordReader in, long numRecords,
+                            int level, long bucket, int count, int[] items,
+                            float[][] min, float[][] max, float[][] mean) throws IOException {
+        _read(sum, available, in, numRecords, level, bucket, count, items, min, max, mean, new float[items.length][count]);
+    }
+
+    /**
+     * read()と同じ。併せてcnt[i][k]に有効データ数を格納する。
+     */
+    private static void _read(Reader sum, int[] available, LogRecordReader in, long numRecords,
+                              int level, long bucket, int count, int[] items,
+                              float[][] min, float[][] max, float[][] mean, float[][] cnt) throws IOException {
+        long f = factor(level);
+        long numBuckets = (numRecords + f - 1) / f;     // 端数を含む区間数
+        long first = Math.max(bucket, 0);
+        long last = Math.min(bucket + count, numBuckets);
+        int done = 0;
+
+        // 範囲外
+        for (; done < count && bucket + done < first; done++)
+            _setNaN(min, max, mean, cnt, done);
+
+        if (level == 0) {
+            int n = (int)Math.max(0, last - first);
+            if (n > 0) {
+                float[][] buf = new float[items.length][n];
+                in.readItems(first, n, items, buf);
+                for (int i = 0; i < items.length; i++) {
+                    System.arraycopy(buf[i], 0, min[i], done, n);
+                    System.arraycopy(buf[i], 0, max[i], done, n);
+                    System.arraycopy(buf[i], 0, mean[i], done, n);
+                    for (int k = 0; k < n; k++)
+                        cnt[i][done + k] = buf[i][k] != buf[i][k] ? 0 : 1;
+                }
+                done += n;
+            }
+        } else {
+            // 要約ファイルから読み出す
+            long stored = sum != null ? Math.min(available[level - 1], numRecords / f) : 0;
+            int n = (int)Math.max(0, Math.min(last, stored) - first);
+            if (n > 0) {
+                int[] idx = new int[items.length * VALUES];
+                for (int i = 0; i < items.length; i++) {
+                    for (int k = 0; k < VALUES; k++)
+                        idx[i * VALUES + k] = items[i] * VALUES + k;
+                }
+                float[][] buf = new float[idx.length][n];
+                sum.files_[level - 1].readItems(first, n, idx, buf);
+                for (int i = 0; i < items.length; i++) {
+                    System.arraycopy(buf[i * VALUES], 0, min[i], done, n);
+                    System.arraycopy(buf[i * VALUES + 1], 0, max[i], done, n);
+                    System.arraycopy(buf[i * VALUES + 2], 0, mean[i], done, n);
+                    System.arraycopy(buf[i * VALUES + 3], 0, cnt[i], done, n);
+                }
+                done += n;
+                first += n;
+            }
+            // 残りは下の段の区間をまとめて求める
+            float[][] cmin = new float[items.length][RATIO];
+            float[][] cmax = new float[items.length][RATIO];
+            float[][] cmean = new float[items.length][RATIO];
+            float[][] ccnt = new float[items.length][RATIO];
+            for (; first < last; first++, done++) {
+                _read(sum, available, in, numRecords, level - 1, first * RATIO, RATIO, items, cmin, cmax, cmean, ccnt);
+                for (int i = 0; i < items.length; i++) {
+                    double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY, s = 0, w = 0;
+                    for (int k = 0; k < RATIO; k++) {
+                        if (ccnt[i][k] == 0)
+                            continue;
+                        if (cmin[i][k] < lo)
+                            lo = cmin[i][k];
+                        if (cmax[i][k] > hi)
+                            hi = cmax[i][k];
+                        s += (double)cmean[i][k] * ccnt[i][k];
+                        w += ccnt[i][k];
+                    }
+                    if (w > 0) {
+                        min[i][done] = (float)lo;
+                        max[i][done] = (float)hi;
+                        mean[i][done] = (float)(s / w);
+                    } else {
+                        min[i][done] = max[i][done] = mean[i][done] = Float.NaN;
+                    }
+                    cnt[i][done] = (float)w;
+                }
+            }
+        }
+
+        // 範囲外
+        for (; done < count; done++)
+            _setNaN(min, max, mean, cnt, done);
+    }
+
+    private static void _setNaN(float[][] min, float[][] max, float[][] mean, float[][] cnt, int k) {
+        for (int i = 0; i < min.length; i++) {
+            min[i][k] = max[i][k] = mean[i][k] = Float.NaN;
+            cnt[i][k] = 0;
+        }
+    }
+
+    /**
+     * ログファイルから要約ファイルを作成する
+     *
+     * @param in         ログファイルの読み出し元
+     * @param numColumns 1レコード当りのアイテム数
+     * @param numRecords レコード数
+     * @param basePath   作成する要約ファイルのパス(POSTFIXと段番号を除いたもの)
+     */
+    public static void build(LogRecordReader in, int numColumns, int numRecords, String basePath) throws IOException {
+        Writer w = new Writer(null, basePath, numColumns);
+        try {
+            int block = Math.max(1, 1024 * 1024 / (numColumns * FLOAT_DATA_SIZE));
+            float[] rows = new float[numColumns * block];
+            float[] record = new float[numColumns];
+            for (int first = 0; first < numRecords; first += block) {
+                int n = Math.min(block, numRecords - first);
+                in.readRecords(first, n, rows, 0);
+                for (int j = 0; j < n; j++) {
+                    System.arraycopy(rows, j * numColumns, record, 0, numColumns);
+                    w.put(record);
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+}
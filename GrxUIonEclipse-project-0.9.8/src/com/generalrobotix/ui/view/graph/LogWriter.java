@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2008, AIST, the University of Tokyo and General Robotix Inc.
+ * All rights reserved. This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ * Contributors:
+ * General Robotix Inc.
+ * National Institute of Advanced Industrial Science and Technology (AIST)
+ */
+/**
+ * LogWriter.java
+ *
+ * @version 1.0
+ */
+
+package com.generalrobotix.ui.view.graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ログ書き込みクラス
+ *
+ * シミュレーションスレッドはプールからレコードバッファを取得してデータを詰め、
+ * キューに入れるだけで戻る。専用のI/Oスレッドがキューからまとめて取り出し、
+ * ファイル毎にギャザー書き込みを行う。
+ * キューが一杯の時だけ書き込み側が待たされ(バックプレッシャ)、その回数と時間を記録する。
+ */
+class LogWriter {
+    //--------------------------------------------------------------------
+    // 定数
+    private static final int QUEUE_CAPACITY = 4096; // キューに入るレコード数(=プールのバッファ数)
+    private static final int MAX_BATCH_SIZE = 1024; // 1回の書き込みでまとめるレコード数
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    /**
+     * 書き込み先ファイル
+     */
+    static class Target {
+        private final String name_;
+        private final FileOutputStream stream_;
+        private final FileChannel channel_;
+        private volatile long queued_;  // キューに入れたbyte数(書き込み側のスレッドのみが更新)
+        private volatile long written_; // ファイルに書き込み済みのbyte数
+
+        private Target(String name, FileOutputStream stream, long offset) {
+            name_ = name;
+            stream_ = stream;
+            channel_ = stream.getChannel();
+            queued_ = offset;
+            written_ = offset;
+        }
+
+        public String getName() {
+            return name_;
+        }
+
+        public long getQueuedSize() {
+            return queued_;
+        }
+
+        public long getWrittenSize() {
+            return written_;
+        }
+    }
+
+    private static class Entry {
+        Target target;
+        ByteBuffer buffer;
+        boolean pooled;
+        Entry set(Target t, ByteBuffer b, boolean p) {
+            target = t;
+            buffer = b;
+            pooled = p;
+            return this;
+        }
+    }
+    private static final Entry STOP = new Entry();
+
+    /**
+     * 固定長のFIFO。
+     * ArrayBlockingQueueはI/Oスレッドと競合した時にロックの待ち行列のノードを生成するので、
+     * 記録中にオブジェクトを生成しないようにモニタで排他する。
+     */
+    private static class Ring<E> {
+        private final Object[] items_;
+        private int head_ = 0;
+        private int count_ = 0;
+
+        Ring(int capacity) {
+            items_ = new Object[capacity];
+        }
+
+        synchronized boolean offer(E e) {
+            if (count_ == items_.length)
+                return false;
+            items_[(head_ + count_) % items_.length] = e;
+            if (count_++ == 0)
+                notifyAll();
+            return true;
+        }
+
+        synchronized void put(E e) throws InterruptedException {
+            while (count_ == items_.length)
+                wait();
+            offer(e);
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized E poll() {
+            if (count_ == 0)
+                return null;
+            E e = (E)items_[head_];
+            items_[head_] = null;
+            head_ = (head_ + 1) % items_.length;
+            if (count_-- == items_.length)
+                notifyAll();
+            return e;
+        }
+
+        synchronized E take() throws InterruptedException {
+            while (count_ == 0)
+                wait();
+            return poll();
+        }
+
+        synchronized int drainTo(Collection<? super E> c, int max) {
+            int n = 0;
+            for (; n < max && count_ > 0; n++)
+                c.add(poll());
+            return n;
+        }
+
+        synchronized int size() {
+            return count_;
+        }
+    }
+
+    //--------------------------------------------------------------------
+    // インスタンス変数
+    private final Ring<Entry> queue_ = new Ring<Entry>(QUEUE_CAPACITY + 1);
+    private final Ring<ByteBuffer> pool_ = new Ring<ByteBuffer>(QUEUE_CAPACITY);
+    private final Ring<Entry> entries_ = new Ring<Entry>(QUEUE_CAPACITY + MAX_BATCH_SIZE); // 書き込みを終えて使い回すEntry
+    private final List<Target> targets_ = new ArrayList<Target>();
+    private final Object lock_ = new Object();
+    private Thread thread_ = null;
+    private int allocated_ = 0;
+    private long submitted_ = 0;               // キューに入れたレコード数
+    private volatile long completed_ = 0;      // 書き込みが完了したレコード数
+    private volatile IOException error_ = null;
+
+    // 統計
+    private volatile int maxQueueDepth_ = 0;
+    private volatile long backpressureCount_ = 0;
+    private volatile long backpressureNanos_ = 0;
+    private volatile long batchCount_ = 0;
+
+    /**
+     * 書き込み先を登録する
+     *
+     * @param name   名前
+     * @param stream 書き込み先ストリーム(ヘッダ等は書き込み済みであること)
+     * @param offset streamに書き込み済みのbyte数
+     */
+    public synchronized Target open(String name, FileOutputStream stream, long offset) {
+        Target t = new Target(name, stream, offset);
+        targets_.add(t);
+        if (thread_ == null) {
+            thread_ = new Thread(new Runnable() {
+                public void run() {
+                    _run();
+                }
+            }, "LogWriter"); //$NON-NLS-1$
+            thread_.setDaemon(true);
+            thread_.start();
+        }
+        return t;
+    }
+
+    /**
+     * キュー内のデータを書き込んでから書き込み先を閉じる。
+     * 書き込み先が無くなればI/Oスレッドを終了する。
+     */
+    public synchronized void close(Target t) throws IOException {
+        try {
+            flush();
+        } finally {
+            t.stream_.close();
+            targets_.remove(t);
+            if (targets_.isEmpty() && thread_ != null) {
+                _put(STOP);
+                try {
+                    thread_.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                thread_ = null;
+            }
+        }
+    }
+
+    /**
+     * プールのバッファを全てsize byte以上にしておく。
+     * obtain()はバッファが足りない・小さい場合に確保するので、記録中に確保しないように記録を始める前に呼ぶ。
+     * 使い続けるとプールは最大のsizeのバッファで埋まるので、前もって確保しても容量は変わらない。
+     */
+    public synchronized void reserve(int size) {
+        size = Math.max(size, MIN_BUFFER_SIZE);
+        for (int i = pool_.size(); i > 0; i--) {
+            ByteBuffer buf = pool_.poll();
+            if (buf == null)
+                break;
+            pool_.offer(buf.capacity() < size ? ByteBuffer.allocateDirect(size) : buf);
+        }
+        for (; allocated_ < QUEUE_CAPACITY; allocated_++)
+            pool_.offer(ByteBuffer.allocateDirect(size));
+        // キューとI/Oスレッドが取り出した分のEntry
+        while (entries_.offer(new Entry()))
+            ;
+    }
+
+    /**
+     * size byte以上のバッファをプールから取得する。
+     * 全てのバッファが使用中の場合はI/Oスレッドが返却するまで待つ。
+     */
+    public ByteBuffer obtain(int size) throws IOException {
+        _checkError();
+        ByteBuffer buf = pool_.poll();
+        if (buf == null) {
+            synchronized (this) {
+                if (allocated_ < QUEUE_CAPACITY) {
+                    allocated_++;
+                    buf = ByteBuffer.allocateDirect(Math.max(size, MIN_BUFFER_SIZE));
+                }
+            }
+            if (buf == null) {
+                long start = System.nanoTime();
+                try {
+                    buf = pool_.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                backpressureCount_++;
+                backpressureNanos_ += System.nanoTime() - start;
+            }
+        }
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(Math.max(size, buf.capacity() * 2));
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * データを詰めたバッファ(flip済み)をキューに入れる
+     */
+    public void submit(Target t, ByteBuffer buf) throws IOException {
+        _submit(t, buf, true);
+    }
+
+    /**
+     * obtain()で取得していないバッファをキューに入れる。
+     * 書き込み後もプールには返さないので、呼び出し側はbufを再利用しないこと。
+     * bufはposition 0からcapacityまで書き込む。
+     */
+    public void submitBlock(Target t, ByteBuffer buf) throws IOException {
+        buf.clear();
+        _submit(t, buf, false);
+    }
+
+    /**
+     * obtain()で取得していないバッファのpositionからlimitまでをキューに入れる。
+     * 書き込みが終わるまで、呼び出し側はbufの内容・position・limitを変更しないこと。
+     */
+    public void submitRange(Target t, ByteBuffer buf) throws IOException {
+        _submit(t, buf, false);
+    }
+
+    private void _submit(Target t, ByteBuffer buf, boolean pooled) throws IOException {
+        _checkError();
+        t.queued_ += buf.remaining();
+        synchronized (lock_) {
+            submitted_++;
+        }
+        // 記録中にオブジェクトを生成しないように、書き込みを終えたEntryを使い回す
+        Entry e = entries_.poll();
+        if (e == null)
+            e = new Entry();
+        e.set(t, buf, pooled);
+        if (!queue_.offer(e)) {
+            // キューが一杯の場合はI/Oスレッドが取り出すまで待つ。obtain()で待った時間と同じく計上する
+            long start = System.nanoTime();
+            _put(e);
+            backpressureCount_++;
+            backpressureNanos_ += System.nanoTime() - start;
+        }
+        int depth = queue_.size();
+        if (depth > maxQueueDepth_)
+            maxQueueDepth_ = depth;
+    }
+
+    /**
+     * キューに入れた全てのデータが書き込まれるまで待つ
+     */
+    public void flush() throws IOException {
+        synchronized (lock_) {
+            while (completed_ < submitted_ && error_ == null) {
+                try {
+                    lock_.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+        _checkError();
+    }
+
+    /**
+     * 書き込み先のsize byte目までがファイルに書き込まれるまで待つ。
+     * キューに入っていない位置を指定した場合はすぐに戻る。
+     */
+    public void awaitWritten(Target t, long size) {
+        if (t.written_ >= size || t.queued_ < size)
+            return;
+        synchronized (lock_) {
+            while (t.written_ < size && error_ == null && t.channel_.isOpen()) {
+                try {
+                    lock_.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue_.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth_;
+    }
+
+    public long getBackpressureCount() {
+        return backpressureCount_;
+    }
+
+    public long getBackpressureNanos() {
+        return backpressureNanos_;
+    }
+
+    public long getRecordCount() {
+        return completed_;
+    }
+
+    public long getBatchCount() {
+        return batchCount_;
+    }
+
+    private void _put(Entry e) throws IOException {
+        try {
+            queue_.put(e);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void _checkError() throws IOException {
+        IOException ex = error_;
+        if (ex != null)
+            throw ex;
+    }
+
+    /**
+     * I/Oスレッド本体
+     */
+    private void _run() {
+        List<Entry> batch = new ArrayList<Entry>(MAX_BATCH_SIZE);
+        Map<Target, List<ByteBuffer>> byTarget = new LinkedHashMap<Target, List<ByteBuffer>>();
+        List<ByteBuffer> released = new ArrayList<ByteBuffer>(MAX_BATCH_SIZE);
+        boolean stop = false;
+        while (!stop) {
+            batch.clear();
+            try {
+                batch.add(queue_.take());
+            } catch (InterruptedException ex) {
+                break;
+            }
+            queue_.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            // ファイル毎に順序を保ってまとめる
+            byTarget.clear();
+            released.clear();
+            int records = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Entry e = batch.get(i);
+                if (e == STOP) {
+                    stop = true;
+                    continue;
+                }
+                List<ByteBuffer> list = byTarget.get(e.target);
+                if (list == null) {
+                    list = new ArrayList<ByteBuffer>();
+                    byTarget.put(e.target, list);
+                }
+                list.add(e.buffer);
+                if (e.pooled)
+                    released.add(e.buffer);
+                records++;
+            }
+
+            for (Map.Entry<Target, List<ByteBuffer>> e : byTarget.entrySet()) {
+                Target t = e.getKey();
+                ByteBuffer[] bufs = e.getValue().toArray(new ByteBuffer[0]);
+                long size = 0;
+                for (int i = 0; i < bufs.length; i++)
+                    size += bufs[i].remaining();
+                try {
+                    if (error_ == null) {
+                        long n = 0;
+                        while (n < size)
+                            n += t.channel_.write(bufs);
+                    }
+                } catch (IOException ex) {
+                    error_ = ex;
+                }
+                t.written_ += size;
+            }
+            for (int i = 0; i < released.size(); i++)
+                pool_.offer(released.get(i));
+            for (int i = 0; i < batch.size(); i++) {
+                Entry e = batch.get(i);
+                if (e != STOP)
+                    entries_.offer(e.set(null, null, false));
+            }
+
+            batchCount_++;
+            synchronized (lock_) {
+                completed_ += records;
+                lock_.notifyAll();
+            }
+        }
+    }
+}
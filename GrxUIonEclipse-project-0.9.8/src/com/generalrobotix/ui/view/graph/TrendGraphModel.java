@@ -17,8 +17,6 @@ import javax.vecmath.Matrix3d;
 import com.generalrobotix.ui.GrxTimeSeriesItem;
 import com.generalrobotix.ui.grxui.Activator;
 import com.generalrobotix.ui.item.GrxWorldStateItem;
-import com.generalrobotix.ui.item.GrxWorldStateItem.WorldStateEx;
-import com.generalrobotix.ui.item.GrxWorldStateItem.CharacterStateEx;
 import com.generalrobotix.ui.util.GrxDebugUtil;
 import com.generalrobotix.ui.view.graph.LogManager.LogHeader;
 
@@ -35,10 +33,13 @@ public class TrendGraphModel
     public  static final double TIME_SCALE = 1000000;   // タイムカウントの倍率(1μsec)
     private static final double MAX_DIV = 10;   // 時間軸の最大分割数
     private static final double LOG10 = Math.log(10);
+    private static final double MIN_SAMPLES = 2048;    // 間引いて表示する場合の最小サンプル数(グラフの横方向の画素数の目安)
 
     private long stepTimeCount_;    // 時間刻み幅(カウント)
 
     private double stepTime_;       // 時間刻み幅(秒)
+    private int stride_ = 1;        // 1サンプル当りのレコード数
+    private double sampleTime_;     // 1サンプルの時間(秒)
     private double totalTime_;      // 総時間(秒)
     private double currentTime_;    // 現在時刻(秒)
 
@@ -143,16 +144,19 @@ public class TrendGraphModel
     ) {
         stepTimeCount_ = stepTime;
         stepTime_ = stepTimeCount_ / TIME_SCALE;
+        stride_ = _selectStride();
+        sampleTime_ = stepTime_ * stride_;
 
-        sampleCount_ = (int)Math.floor(timeRange_ / stepTime_) + 2;  // サンプル数(前後2サンプルを追加)
-        baseCount_ = Math.round(baseTime_ / stepTime_); //- 1; // データ開始位置
+        sampleCount_ = (int)Math.floor(timeRange_ / sampleTime_) + 2;  // サンプル数(前後2サンプルを追加)
+        baseCount_ = Math.round(baseTime_ / sampleTime_); //- 1; // データ開始位置
         
         // 全データ系列の更新
         Iterator<DataModel> itr = dataModelMap_.values().iterator();
         while (itr.hasNext()) {
             DataModel dm = (DataModel)itr.next();
+            dm.dataSeries.setRangeEnabled(stride_ > 1);
             dm.dataSeries.setSize(sampleCount_);
-            dm.dataSeries.setXStep(stepTime_);
+            dm.dataSeries.setXStep(sampleTime_);
             dm.dataSeries.setXOffset(baseCount_);
         }
         Iterator<AttitudeDataModel> itr0 = attitudeDataModelMap_.values().iterator();
@@ -161,7 +165,7 @@ public class TrendGraphModel
         	for(int i=0; i<3; i++){
         		if(ad.rpySeries[i]!=null){
 	        		ad.rpySeries[i].setSize(sampleCount_);
-	        		ad.rpySeries[i].setXStep(stepTime_);
+	        		ad.rpySeries[i].setXStep(sampleTime_);
 	        		ad.rpySeries[i].setXOffset(baseCount_);
         		}
         	}
@@ -241,12 +245,12 @@ public class TrendGraphModel
         currentTime_ = currentTime / TIME_SCALE;
 
         long oldBaseCount = baseCount_;
-        long totalCount = Math.round(totalTime_ / stepTime_);
+        long totalCount = Math.round(totalTime_ / stepTime_);   // 総レコード数
         markerFixed_ = (timeRange_ * fixedMarkerPos_ < totalTime_);
         if (markerFixed_) { 
             markerPos_ = fixedMarkerPos_;
             baseTime_ = currentTime_ - timeRange_ * markerPos_; // グラフ左端位置
-            baseCount_ = Math.round(baseTime_ / stepTime_); // - 1; // データ開始位置
+            baseCount_ = Math.round(baseTime_ / sampleTime_); // - 1; // データ開始位置
         } else {
             markerPos_ = currentTime_ / timeRange_;
             baseTime_ = 0;
@@ -285,7 +289,8 @@ public class TrendGraphModel
         
         if(prevLogSize_ < totalCount)
         {
-            int yet = (int)(baseCount_ + sampleCount_ - prevLogSize_);
+            // 間引いている場合は途中までだった末尾のサンプルも読み直す
+            int yet = (int)(baseCount_ + sampleCount_ - (prevLogSize_ < 0 ? -1 : prevLogSize_ / stride_));
             if(diff < yet)
                 diff = yet;
         }
@@ -327,12 +332,13 @@ public class TrendGraphModel
             		attitudeDataModel = new AttitudeDataModel();
                     attitudeDataModelMap_.put(dataItem.getAttributePath(),attitudeDataModel);
             	}
-            	ds = new DataSeries(sampleCount_, baseCount_ * stepTime_, stepTime_ );
+            	ds = new DataSeries(sampleCount_, baseCount_ * sampleTime_, sampleTime_ );
             	attitudeDataModel.setRPYSeries(dataItem.index, ds);
             	for(int i=0; i<4; i++){
             		DataItem di = new DataItem(dataItem.object, dataItem.node, dataItem.attribute, i, "");
             		if(dataModelMap_.get(di.toString())==null){
-            			DataSeries dataSeries = new DataSeries(sampleCount_, baseCount_ * stepTime_, stepTime_ );
+            			DataSeries dataSeries = new DataSeries(sampleCount_, baseCount_ * sampleTime_, sampleTime_ );
+            			dataSeries.setRangeEnabled(stride_ > 1);
 	            		dm = new DataModel(di, dataSeries);
 	            		dataModelMap_.put(di.toString(), dm);
 	            		attitudeDataModel.setAxisAngleSeries(i,dataSeries);
@@ -343,9 +349,10 @@ public class TrendGraphModel
 	            dataItemCount_.put(key, new Integer(1));
 	            ds = new DataSeries(
 	                sampleCount_,
-	                baseCount_ * stepTime_, // baseTime_, ★これではダメ
-	                stepTime_
+	                baseCount_ * sampleTime_, // baseTime_, ★これではダメ
+	                sampleTime_
 	            );
+	            ds.setRangeEnabled(stride_ > 1);
 	            dm = new DataModel(dataItem, ds);
 	            dataModelMap_.put(key, dm);
             }
@@ -480,132 +487,26 @@ public class TrendGraphModel
         }
     }
     
+    /**
+     * 時間レンジに対して1サンプル当りのレコード数を決める。
+     * サンプル数がMIN_SAMPLESを下回らない範囲で要約ファイルの区間を使う。
+     */
+    private int _selectStride() {
+        if (world_ == null)
+            return 1;
+        return world_.logger_.getSummaryStride(timeRange_ / stepTime_ / MIN_SAMPLES);
+    }
+
     public void initGetData(){
     	if(dataModelArray_ != null && world_ != null)
-	    	if (world_.isUseDsik()){
-	            world_.logger_.initGetData(dataModelArray_);
-	    	}
+            world_.logger_.initGetData(dataModelArray_);
     }
     
     private void _getData(long origin, int offset, int count){
         if(world_ == null){
             return;
-        } else if (world_.isUseDsik()){
-            world_.logger_.getData(origin, offset, count);
-        }else{
-	        int changePos = world_.getChangePosition();
-	        int counter = changePos - ((int)origin + offset);
-	
-	        // ログの記録方式がメモリ方式からファイル方式へスイッチした場合処理
-	        if( changePos >= 0 ){
-	            if( counter <= 0 ){
-	                world_.logger_.getData(-offset-counter, offset, count, dataModelArray_);
-	                return;
-	            }
-	            //ログの記録方式がファイル方式とメモリ方式で混在する場合の境界処理
-	            if( counter <= count ){
-	                count -= counter;  
-	                world_.logger_.getData(-offset-counter, offset + counter, count, dataModelArray_);
-	                count = counter;  
-	            }
-	        }
-	        
-	        WorldStateEx refWorld = world_.getValue( (int)origin + offset );
-	        if(refWorld == null){
-	            for(int h = 0; h < dataModelArray_.length; ++h){
-	                DataSeries ds = dataModelArray_[h].dataSeries;
-	                double[] dbArray = ds.getData();
-	                int localOffset = (ds.getHeadPos() + offset) % dbArray.length;
-	                for (int i = 0; i < count; ++i, ++localOffset){
-	                    if(localOffset +i >= dbArray.length){
-	                            localOffset = 0;
-	                    }
-	                    dbArray[localOffset] = Double.NaN;
-	                }                
-	            }            
-	        } else {
-	            // メモリーデータから表示したいラインの要素を抽出する処理
-	            for(int h = 0; h < dataModelArray_.length; ++h){
-	                long recNo = origin + offset; // レコード番号
-	                DataItem localDataItem = dataModelArray_[h].dataItem;
-	                CharacterStateEx refCharacter = refWorld.get(localDataItem.object);
-	                CharacterStateEx localCharacter = refCharacter;
-	                DataSeries ds = dataModelArray_[h].dataSeries;
-	                double[] dbArray = ds.getData();
-	                int localOffset = (ds.getHeadPos() + offset) % dbArray.length;
-	                int index = world_.logger_.getIndex(localDataItem.object,
-	                        localDataItem.node + "." + localDataItem.attribute + (localDataItem.index >= 0 ? "." + localDataItem.index : "") );
-	                ArrayList<Integer> arryLength = new ArrayList<Integer>();
-	                arryLength.add(refCharacter.position.length * 7);
-	                arryLength.add(arryLength.get(0) + refCharacter.sensorState.q.length);
-	                arryLength.add(arryLength.get(1) + refCharacter.sensorState.u.length);
-	                if(refCharacter.sensorState.force.length == 0){
-	                    arryLength.add( arryLength.get(2));
-	                } else {
-	                    arryLength.add( arryLength.get(2) +
-	                                    refCharacter.sensorState.force.length * refCharacter.sensorState.force[0].length);
-	                }
-	
-	                if(refCharacter.sensorState.rateGyro.length == 0){
-	                    arryLength.add( arryLength.get(3));
-	                } else {
-	                    arryLength.add( arryLength.get(3) +
-	                                    refCharacter.sensorState.rateGyro.length * refCharacter.sensorState.rateGyro[0].length);
-	                }
-	                
-	                if(refCharacter.sensorState.accel.length == 0){
-	                    arryLength.add( arryLength.get(4));
-	                } else {
-	                    arryLength.add( arryLength.get(4) +
-	                                    refCharacter.sensorState.accel.length * refCharacter.sensorState.accel[0].length);
-	                }
-	                if(refCharacter.sensorState.range.length == 0){
-	                    arryLength.add( arryLength.get(5));
-	                } else {
-	                    arryLength.add( arryLength.get(5) +
-	                                    refCharacter.sensorState.range.length * refCharacter.sensorState.range[0].length);
-	                }
-	
-	                for (int i = 0; i < count; ++i, ++recNo, ++localOffset){
-	                    if(localOffset >= dbArray.length){
-	                            localOffset = 0;
-	                    }
-	                    if(recNo < 0 || recNo >= world_.getLogSize() || localCharacter == null){
-	                        dbArray[localOffset] = Double.NaN;
-	                        continue;
-	                    }
-	                    if (index <= arryLength.get(0)){
-	                        
-	                        
-	                    } else if  (index <= arryLength.get(2)){
-	                        if( (index - 1) % 2 == 0 ){
-	                            dbArray[localOffset] = localCharacter.sensorState.q[(index - arryLength.get(0) - 1)/2];
-	                        } else {
-	                            dbArray[localOffset] = localCharacter.sensorState.u[(index - arryLength.get(0) - 2)/2];
-	                        }
-	                    } else if  (index <= arryLength.get(3) && localCharacter.sensorState.force.length > 0){
-	                        int dim1 = (index - arryLength.get(2) - 1) / localCharacter.sensorState.force[0].length ;
-	                        int dim2 = (index - arryLength.get(2) - 1) % localCharacter.sensorState.force[0].length ;
-	                        dbArray[localOffset] = localCharacter.sensorState.force[dim1][dim2];  
-	            
-	                    } else if  (index <= arryLength.get(4) && localCharacter.sensorState.rateGyro.length > 0){
-	                        int dim1 = (index - arryLength.get(3) - 1) / localCharacter.sensorState.rateGyro[0].length ;
-	                        int dim2 = (index - arryLength.get(3) - 1) % localCharacter.sensorState.rateGyro[0].length ;
-	                        dbArray[localOffset] = localCharacter.sensorState.rateGyro[dim1][dim2];     
-	                    } else if  (index <= arryLength.get(5) && localCharacter.sensorState.accel.length > 0){
-	                        int dim1 = (index - arryLength.get(4) - 1) / localCharacter.sensorState.accel[0].length ;
-	                        int dim2 = (index - arryLength.get(4) - 1) % localCharacter.sensorState.accel[0].length ;
-	                        dbArray[localOffset] = localCharacter.sensorState.accel[dim1][dim2];     
-	                    } else if(localCharacter.sensorState.range.length > 0) {
-	                        int dim1 = (index - arryLength.get(5) - 1) / localCharacter.sensorState.range[0].length ;
-	                        int dim2 = (index - arryLength.get(5) - 1) % localCharacter.sensorState.range[0].length ;
-	                        dbArray[localOffset] = localCharacter.sensorState.range[dim1][dim2];     
-	                    }
-	                    localCharacter = world_.getValue( (int)recNo ).get(localDataItem.object);
-	                }
-	            }                    
-	        }
         }
+        world_.logger_.getData(origin, offset, count, stride_);
         
         //姿勢データをロール、ピッチ、ヨーに変換  //
         Iterator<AttitudeDataModel> it = attitudeDataModelMap_.values().iterator();
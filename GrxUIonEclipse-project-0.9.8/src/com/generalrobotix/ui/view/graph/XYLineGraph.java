@@ -369,6 +369,24 @@ public class XYLineGraph extends Canvas implements PaintListener {
             int nx = 0, ny = 0;
             boolean connect = false;
             e.gc.setForeground(dsi.color);
+
+            // 間引いた区間内の最小値から最大値までを縦線で描く
+            double[] min = ds.getMin();
+            double[] max = ds.getMax();
+            if (min != null && max != null) {
+                for (int i = 0; i < length; i++) {
+                    if (Double.isNaN(min[i]) || Double.isNaN(max[i])) {
+                        continue;
+                    }
+                    int k = (i >= headPos ? i - headPos : i + length - headPos);
+                    int x = xl + (int)(((xStep * k + xOffset) - xbase) * xscale);
+                    e.gc.drawLine(
+                        x, yb - (int)((min[i] * factor - ybase) * yscale),
+                        x, yb - (int)((max[i] * factor - ybase) * yscale)
+                    );
+                }
+            }
+
             int iofs = - headPos;
             //System.out.println("headPos=" + headPos);
             //System.out.println("headPos=" + headPos + " length=" + length);
@@ -47,6 +47,7 @@ public class SimulationParameterPanel extends Composite{
   Button chkIntegrate_;
   Button chkViewSimulate_;
   Button chkRealTime_;
+  Button chkParallelControllers_;
   Combo cmbMethod_;
   
   public SimulationParameterPanel(Composite parent,int style) {
@@ -167,6 +168,21 @@ public class SimulationParameterPanel extends Composite{
     
     label = new Label(this,SWT.SHADOW_NONE);//dummy
     
+    chkParallelControllers_ = new Button(this,SWT.CHECK);
+    chkParallelControllers_.setText(MessageBundle.get("panel.simulation.start.parallelControllers")); //$NON-NLS-1$
+    chkParallelControllers_.addSelectionListener(new SelectionListener() {
+
+        public void widgetDefaultSelected(SelectionEvent e) {
+        }
+
+        public void widgetSelected(SelectionEvent e) {
+            if (currentItem_ != null)
+                currentItem_.setProperty("parallelControllers", String.valueOf(chkParallelControllers_.getSelection())); //$NON-NLS-1$
+        }
+    });
+    
+    label = new Label(this,SWT.SHADOW_NONE);//dummy
+    
     chkViewSimulate_ = new Button(this,SWT.CHECK);
     chkViewSimulate_.setText(MessageBundle.get("panel.simulation.start.viewsimulate")); //$NON-NLS-1$
     chkViewSimulate_.addSelectionListener(new SelectionListener() {
@@ -224,6 +240,10 @@ public class SimulationParameterPanel extends Composite{
 	    chkRealTime_.setSelection(f);
 	  }
   
+  public void setParallelControllers(boolean f) {
+    chkParallelControllers_.setSelection(f);
+  }
+  
   public void setViewSimulate(boolean f) {
     chkViewSimulate_.setSelection(f);
   }
@@ -275,6 +295,7 @@ public class SimulationParameterPanel extends Composite{
 		  setMethod(item.getProperty("method",METHOD_NAMES[0])); //$NON-NLS-1$
 		  setIntegrate(item.isTrue("integrate", true)); //$NON-NLS-1$
 		  setRealTime(item.isTrue("realTime", false)); //$NON-NLS-1$
+		  setParallelControllers(item.isTrue("parallelControllers", false)); //$NON-NLS-1$
 		  setViewSimulate(item.isTrue("viewsimulate", false)); //$NON-NLS-1$
 		  setEnabled(true);
 	  }
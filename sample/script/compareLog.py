@@ -0,0 +1,10 @@
+import com.generalrobotix.ui.item.GrxWorldStateItem as GrxWorldStateItem
+
+# compare the current log with a reference log saved before a controller change
+# usage: execfile("compareLog.py") after setting reference = "/path/to/reference.log"
+item = uimanager.getSelectedItem(GrxWorldStateItem, None)
+results = item.compareLog(reference, 1.0e-6)
+for r in results:
+	if r.isDiverged():
+		print r
+print "mismatched:", item.getCompareMismatches()
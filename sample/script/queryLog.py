@@ -0,0 +1,15 @@
+import com.generalrobotix.ui.item.GrxWorldStateItem as GrxWorldStateItem
+
+# read joint angles of a character as columns instead of calling getValue() per frame
+item = uimanager.getSelectedItem(GrxWorldStateItem, None)
+channels = ["time", "WAIST.translation", "LARM_JOINT0.angle"]
+print item.getColumnNames("SampleRobot", channels)
+cols = item.getColumns("SampleRobot", channels, 0.0, 10.0)
+print "frames:", len(cols[0]), "max angle:", max(cols[-1])
+
+# long logs can be read in chunks
+it = item.iterateColumns("SampleRobot", ["LARM_JOINT0.angle"], 0.0, 1.0e9, 100000)
+peak = 0.0
+while it.hasNext():
+	peak = max(peak, max(it.next()[0]))
+print "peak:", peak